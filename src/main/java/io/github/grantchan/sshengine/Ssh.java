@@ -2,17 +2,18 @@ package io.github.grantchan.sshengine;
 
 import io.github.grantchan.sshengine.client.ClientSession;
 import io.github.grantchan.sshengine.client.transport.handler.ClientReqHandler;
+import io.github.grantchan.sshengine.common.NetTransport;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.CompletableFuture;
 
@@ -21,17 +22,22 @@ public class Ssh {
   public static final AttributeKey<CompletableFuture<ClientSession>> SSH_CONNECT_FUTURE =
       AttributeKey.valueOf(Ssh.class.getName());
 
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final NetTransport transport = NetTransport.select();
+
   private EventLoopGroup worker;
   private Bootstrap bs;
 
   private CompletableFuture<ClientSession> connFuture;
 
   public void start() {
-    worker = new NioEventLoopGroup();
+    worker = transport.newEventLoopGroup(0);
+    logger.info("Starting client - {}", transport.describe(worker));
 
     bs = new Bootstrap();
     bs.group(worker)
-        .channel(NioSocketChannel.class)
+        .channel(transport.getChannelClass())
         .handler(new ChannelInitializer<SocketChannel>() {
           @Override
           protected void initChannel(SocketChannel ch) throws Exception {
@@ -41,6 +47,10 @@ public class Ssh {
         });
   }
 
+  public NetTransport getTransport() {
+    return transport;
+  }
+
   public CompletableFuture<ClientSession> connect(String host, int port) {
 
     ChannelFuture cf = bs.connect(host, port);
@@ -1,35 +1,146 @@
 package io.github.grantchan.sshengine;
 
+import io.github.grantchan.sshengine.common.NetTransport;
+import io.github.grantchan.sshengine.common.transport.benchmark.AlgorithmBenchmark;
+import io.github.grantchan.sshengine.common.transport.benchmark.BenchmarkResult;
+import io.github.grantchan.sshengine.common.transport.kex.KexNegotiator;
 import io.github.grantchan.sshengine.server.transport.handler.ServerIdEx;
+import io.github.grantchan.sshengine.server.transport.hostkey.HostKeyStore;
+import io.github.grantchan.sshengine.server.transport.kex.ModuliStore;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.List;
 
 public class Sshd implements Closeable {
 
-  private final EventLoopGroup boss = new NioEventLoopGroup(1);
-  private final EventLoopGroup worker = new NioEventLoopGroup();
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final NetTransport transport = NetTransport.select();
+
+  private final EventLoopGroup boss = transport.newEventLoopGroup(1);
+  private final EventLoopGroup worker = transport.newEventLoopGroup(0);
+
+  private HostKeyStore hostKeys = HostKeyStore.getDefault();
+  private ModuliStore moduli = ModuliStore.getDefault();
+  private KexNegotiator negotiator;
+
+  private AlgorithmBenchmark benchmark;
+  private volatile List<BenchmarkResult> benchmarkResults = Collections.emptyList();
+
+  /**
+   * Enables the algorithm benchmark, which is run by {@link #open(int)} before the server starts
+   * listening, to pick the fastest JCA provider of each algorithm and prefer the fastest
+   * algorithms in the key exchange. It's disabled by default.
+   *
+   * @param benchmark  the benchmark to run, {@code null} to disable it
+   */
+  public void setBenchmark(AlgorithmBenchmark benchmark) {
+    this.benchmark = benchmark;
+  }
+
+  /**
+   * @return the results of the algorithm benchmark, empty if it's not been run
+   */
+  public List<BenchmarkResult> getBenchmarkResults() {
+    return benchmarkResults;
+  }
+
+  /**
+   * Sets where the host keys come from, by default they're generated in memory, and change every
+   * time the process starts.
+   *
+   * @param hostKeys  the host key store
+   */
+  public void setHostKeys(HostKeyStore hostKeys) {
+    this.hostKeys = hostKeys;
+  }
+
+  public HostKeyStore getHostKeys() {
+    return hostKeys;
+  }
+
+  /**
+   * Sets where the groups of the Diffie-Hellman group exchange come from, by default they're read
+   * from /etc/ssh/moduli, or the built-in groups are used if it doesn't exist.
+   *
+   * @param moduli  the moduli store
+   */
+  public void setModuli(ModuliStore moduli) {
+    this.moduli = moduli;
+  }
+
+  public ModuliStore getModuli() {
+    return moduli;
+  }
+
+  /**
+   * Sets the algorithms this server proposes in the key exchange, in the order preferred, e.g.
+   * <pre>
+   *   sshd.setNegotiator(KexNegotiator.getServerDefault()
+   *                                   .with(KexProposal.KEX, "curve25519-sha256"));
+   * </pre>
+   * By default, they're the ones of {@link KexNegotiator#getServerDefault()} when the server
+   * starts, which are reordered by the algorithm benchmark if it's enabled.
+   *
+   * @param negotiator  the algorithms proposed, {@code null} to use the default
+   */
+  public void setNegotiator(KexNegotiator negotiator) {
+    this.negotiator = negotiator;
+  }
+
+  public KexNegotiator getNegotiator() {
+    return negotiator;
+  }
+
+  public NetTransport getTransport() {
+    return transport;
+  }
 
   public void open(int port) {
+    logger.info("Starting server - {}", transport.describe(boss, worker));
+
+    if (benchmark != null) {
+      benchmarkResults = Collections.unmodifiableList(benchmark.select());
+      benchmarkResults.forEach(r -> logger.info("Algorithm benchmark: {}", r));
+    }
+
+    try {
+      hostKeys.loadAll();
+    } catch (IOException | GeneralSecurityException e) {
+      throw new IllegalStateException("Failed to load the host keys", e);
+    }
+
+    try {
+      moduli.load();
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to load the moduli file: " + moduli.getFile(), e);
+    }
+
+    KexNegotiator kn = (negotiator != null) ? negotiator : KexNegotiator.getServerDefault();
+
     ServerBootstrap b = new ServerBootstrap();
     LoggingHandler loggingHandler = new LoggingHandler(LogLevel.TRACE);
 
     try {
       b.group(boss, worker)
-       .channel(NioServerSocketChannel.class)
+       .channel(transport.getServerChannelClass())
        .handler(loggingHandler)
        .childHandler(new ChannelInitializer<SocketChannel>() {
          @Override
          protected void initChannel(SocketChannel ch) {
            ch.pipeline()
-             .addLast(loggingHandler, new ServerIdEx());
+             .addLast(loggingHandler, new ServerIdEx(hostKeys, moduli, kn));
          }
        }).bind(port).sync().channel().closeFuture().sync();
     } catch (InterruptedException e) {
@@ -5,17 +5,15 @@ import io.github.grantchan.sshengine.client.connection.ClientChannel;
 import io.github.grantchan.sshengine.client.connection.ExecChannel;
 import io.github.grantchan.sshengine.client.connection.ShellChannel;
 import io.github.grantchan.sshengine.common.AbstractSession;
-import io.github.grantchan.sshengine.common.transport.compression.Compression;
+import io.github.grantchan.sshengine.common.transport.kex.CryptoContext;
+import io.github.grantchan.sshengine.common.transport.kex.KexNegotiator;
 import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
 import io.github.grantchan.sshengine.util.buffer.Bytes;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 
-import javax.crypto.Cipher;
-import javax.crypto.Mac;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.security.PublicKey;
 import java.util.concurrent.CompletableFuture;
 
@@ -26,133 +24,48 @@ public class ClientSession extends AbstractSession {
   }
 
   @Override
-  public Cipher getInCipher() {
-    return getS2cCipher();
+  public CryptoContext getInCrypto() {
+    return getS2cCrypto();
   }
 
   @Override
-  public void setInCipher(Cipher inCipher) {
-    setS2cCipher(inCipher);
+  public void setInCrypto(CryptoContext inCrypto) {
+    setS2cCrypto(inCrypto);
   }
 
   @Override
-  public Cipher getOutCipher() {
-    return getC2sCipher();
+  public CryptoContext getOutCrypto() {
+    return getC2sCrypto();
   }
 
   @Override
-  public void setOutCipher(Cipher outCipher) {
-    setC2sCipher(outCipher);
+  public void setOutCrypto(CryptoContext outCrypto) {
+    setC2sCrypto(outCrypto);
   }
 
   @Override
-  public int getInCipherBlkSize() {
-    return getS2cCipherBlkSize();
+  public boolean isServer() {
+    return false;
   }
 
   @Override
-  public void setInCipherBlkSize(int inCipherBlkSize) {
-    setS2cCipherBlkSize(inCipherBlkSize);
-  }
-
-  @Override
-  public int getOutCipherBlkSize() {
-    return getC2sCipherBlkSize();
-  }
-
-  @Override
-  public void setOutCipherBlkSize(int outCipherBlkSize) {
-    setC2sCipherBlkSize(outCipherBlkSize);
-  }
-
-  @Override
-  public Mac getInMac() {
-    return getS2cMac();
-  }
-
-  @Override
-  public void setInMac(Mac inMac) {
-    setS2cMac(inMac);
-  }
-
-  @Override
-  public Mac getOutMac() {
-    return getC2sMac();
-  }
-
-  @Override
-  public void setOutMac(Mac outMac) {
-    setC2sMac(outMac);
-  }
-
-  @Override
-  public int getInMacSize() {
-    return getS2cMacSize();
-  }
-
-  @Override
-  public void setInMacSize(int inMacSize) {
-    setS2cMacSize(inMacSize);
-  }
-
-  @Override
-  public int getOutMacSize() {
-    return getC2sMacSize();
-  }
-
-  @Override
-  public void setOutMacSize(int outMacSize) {
-    setC2sMacSize(outMacSize);
-  }
-
-  @Override
-  public void setInDefMacSize(int inDefMacSize) {
-    setS2cDefMacSize(inDefMacSize);
-  }
-
-  @Override
-  public int getOutDefMacSize() {
-    return getC2sDefMacSize();
-  }
-
-  @Override
-  public void setOutDefMacSize(int outDefMacSize) {
-    setC2sDefMacSize(outDefMacSize);
-  }
-
-  @Override
-  public Compression getInCompression() {
-    return getS2cCompression();
-  }
-
-  @Override
-  public void setInCompression(Compression inCompression) {
-    setS2cCompression(inCompression);
-  }
-
-  @Override
-  public Compression getOutCompression() {
-    return getC2sCompression();
-  }
-
-  @Override
-  public void setOutCompression(Compression outCompression) {
-    setC2sCompression(outCompression);
+  public KexNegotiator getNegotiator() {
+    return KexNegotiator.getClientDefault();
   }
 
   /**
    * Sends the {@link SshMessage#SSH_MSG_KEXDH_INIT} message to the server
-   * @param e the public key generated by client, e = g ^ x mod p, where x is the client's private
-   *          key.
+   * @param e the encoded public key generated by client, e = g ^ x mod p, where x is the client's
+   *          private key, or Q_C
    */
-  public void requestKexDhInit(BigInteger e) {
+  public void requestKexDhInit(byte[] e) {
     ByteBuf req = createMessage(SshMessage.SSH_MSG_KEXDH_INIT);
 
-    ByteBufIo.writeMpInt(req, e);
+    ByteBufIo.writeBytes(req, e);
 
     logger.debug("{} Requesting SSH_MSG_KEXDH_INIT...", this);
 
-    channel.writeAndFlush(req);
+    write(req);
   }
 
   @Override
@@ -168,7 +81,7 @@ public class ClientSession extends AbstractSession {
 
     logger.debug("{} Requesting SSH_MSG_SERVICE_REQUEST...", this);
 
-    channel.writeAndFlush(req).addListener(f -> {
+    write(req).addListener(f -> {
       Throwable e = f.cause();
       if (e != null) {
         authFuture.completeExceptionally(e);
@@ -190,7 +103,7 @@ public class ClientSession extends AbstractSession {
     logger.debug("{} Requesting SSH_MSG_USERAUTH_REQUEST... username:{}, service:{}, method:{}",
         this, user, service, method);
 
-    channel.writeAndFlush(req);
+    write(req);
   }
 
   public void requestUserAuthRequest(String user, String service, String method, String algo,
@@ -207,7 +120,7 @@ public class ClientSession extends AbstractSession {
     logger.debug("{} Requesting SSH_MSG_USERAUTH_REQUEST... " +
         "username:{}, service:{}, method:{}, algo:{}", this, user, service, method, algo);
 
-    channel.writeAndFlush(req);
+    write(req);
   }
 
   public void requestUserAuthRequest(String user, String service, String method, String algo,
@@ -226,7 +139,7 @@ public class ClientSession extends AbstractSession {
         "username:{}, service:{}, method:{}, algo:{}, sigature: {}", this, user, service,
         method, algo, Bytes.md5(sig));
 
-    channel.writeAndFlush(req);
+    write(req);
   }
 
   /**
@@ -270,7 +183,7 @@ public class ClientSession extends AbstractSession {
     logger.debug("{} Requesting SSH_MSG_CHANNEL_OPEN..." +
         "type:{}, id:{}, window size:{}, package size:{}", this, type, id, wndSize, pkgSize);
 
-    return channel.writeAndFlush(co);
+    return write(co);
   }
 
   public void sendChannelShell(int recipient) {
@@ -285,7 +198,7 @@ public class ClientSession extends AbstractSession {
     logger.debug("{} Sending SSH_MSG_CHANNEL_REQUEST... recipient: {}, type: shell," +
         " want-reply: false", this, recipient);
 
-    channel.writeAndFlush(cs);
+    write(cs);
   }
 
   public void sendChannelExec(int recipient, String command) {
@@ -300,7 +213,7 @@ public class ClientSession extends AbstractSession {
     logger.debug("{} Sending SSH_MSG_CHANNEL_REQUEST... recipient: {}, type: exec," +
         " want-reply: false", this, recipient);
 
-    channel.writeAndFlush(ce);
+    write(ce);
   }
 
   public ClientChannel createChannel(String type, String... args) {
@@ -4,18 +4,17 @@ import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.client.ClientSession;
 import io.github.grantchan.sshengine.common.AbstractLogger;
 import io.github.grantchan.sshengine.common.SshException;
+import io.github.grantchan.sshengine.common.transport.kex.HashBuilder;
 import io.github.grantchan.sshengine.common.transport.kex.Kex;
 import io.github.grantchan.sshengine.common.transport.kex.KexGroup;
 import io.github.grantchan.sshengine.common.transport.kex.KexProposal;
 import io.github.grantchan.sshengine.common.transport.signature.Signature;
 import io.github.grantchan.sshengine.common.transport.signature.SignatureFactories;
 import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
-import io.github.grantchan.sshengine.util.buffer.Bytes;
 import io.github.grantchan.sshengine.util.publickey.decoder.PublicKeyDecoder;
 import io.netty.buffer.ByteBuf;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.PublicKey;
@@ -61,7 +60,7 @@ public class ClientDhGroup extends AbstractLogger implements KexGroup {
     } else if (cmd == SshMessage.SSH_MSG_KEXDH_REPLY && expect == SshMessage.SSH_MSG_KEXDH_REPLY) {
       handleDhReply(msg);
 
-      session.requestKexNewKeys();
+      session.requestKexNewKeys(this);
     } else {
       throw new SshException(SshMessage.SSH_DISCONNECT_KEY_EXCHANGE_FAILED,
           "Invalid key exchange message, expect: SSH_MSG_KEXDH_INIT, actual: " +
@@ -77,10 +76,10 @@ public class ClientDhGroup extends AbstractLogger implements KexGroup {
      *   byte    SSH_MSG_KEXDH_INIT
      *   mpint   e
      */
-    BigInteger e = kex.getPubKey();
-    if (e == null) {
+    if (kex.getPubKey() == null) {
       throw new IllegalStateException("Key exchange is not initialized");
     }
+    byte[] e = kex.getEncodedPubKey();
 
     session.requestKexDhInit(e);
   }
@@ -120,8 +119,8 @@ public class ClientDhGroup extends AbstractLogger implements KexGroup {
         session, md5(k_s), sha256(k_s));
     // Client user needs to verify the hash value of k_s(public key) of the server here
 
-    BigInteger e = ByteBufIo.readMpInt(msg);
-    kex.receivedPubKey(e);
+    byte[] f = ByteBufIo.readBytes(msg);
+    kex.receivedPubKey(f);
 
     byte[] sigH = ByteBufIo.readBytes(msg);
 
@@ -137,15 +136,13 @@ public class ClientDhGroup extends AbstractLogger implements KexGroup {
       e1.printStackTrace();
     }
 
-    byte[] h_s = Bytes.concat(
-        Bytes.joinWithLength(v_c, v_s),
-        Bytes.joinWithLength(i_c, i_s, k_s),
-        Bytes.joinWithLength(kex.getPubKey(), e, kex.getSecretKey())
-    );
-
-    md.update(h_s);
-    byte[] h = md.digest();
-    session.setRawId(h);
+    byte[] h = new HashBuilder(md)
+        .putString(v_c).putString(v_s)
+        .putString(i_c).putString(i_s).putString(k_s)
+        .putString(kex.getEncodedPubKey()).putString(f)
+        .putMpInt(kex.getSecretKey())
+        .digest();
+    session.setExchangeHash(h);
 
     List<String> kexParams = session.getKexInit();
 
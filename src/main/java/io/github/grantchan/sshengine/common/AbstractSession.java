@@ -3,14 +3,21 @@ package io.github.grantchan.sshengine.common;
 import io.github.grantchan.sshengine.arch.SshConstant;
 import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.common.transport.compression.Compression;
+import io.github.grantchan.sshengine.common.transport.kex.CryptoContext;
+import io.github.grantchan.sshengine.common.transport.kex.HashBuilder;
+import io.github.grantchan.sshengine.common.transport.kex.KexGroup;
+import io.github.grantchan.sshengine.common.transport.kex.KexNegotiator;
 import io.github.grantchan.sshengine.common.userauth.service.ServiceFactories;
 import io.github.grantchan.sshengine.util.DaemonThreadFactory;
 import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
+import io.github.grantchan.sshengine.util.buffer.Bytes;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
 
 import javax.crypto.Cipher;
-import javax.crypto.Mac;
 import java.io.Closeable;
 import java.io.IOException;
 import java.math.BigInteger;
@@ -18,8 +25,10 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -29,6 +38,13 @@ public abstract class AbstractSession extends AbstractLogger
 
   private static final int DEFAULT_BUFFER_SIZE = 256;
 
+  /** Keys are exchanged again after 1GB of data by default */
+  public static final long DEFAULT_REKEY_BYTES = 1L << 30;
+  /** or 2^31 packets, long before the sequence number wraps */
+  public static final long DEFAULT_REKEY_PACKETS = 1L << 31;
+  /** or an hour */
+  public static final long DEFAULT_REKEY_TIME = TimeUnit.HOURS.toNanos(1);
+
   private static final Set<AbstractSession> sessions = new CopyOnWriteArraySet<>();
 
   static {
@@ -42,6 +58,20 @@ public abstract class AbstractSession extends AbstractLogger
 
   private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
 
+  /** Whether a flush of the messages written is scheduled, accessed on event loop */
+  private boolean flushScheduled = false;
+
+  /** How long, in nanoseconds, a message written may wait to be flushed */
+  private volatile long flushDelay = 0;
+
+  /** Encrypts the large outgoing packets in parallel, {@code null} to encrypt all on event loop */
+  private volatile CryptoExecutor parallelEncryption = null;
+
+  /** Whether a job of this session is running on the crypto executor, accessed on event loop */
+  private boolean cryptoPending = false;
+  /** Handles the messages held while the crypto job was running, once it's done */
+  private Runnable cryptoResume;
+
   /** the id represents this session */
   private byte[] rawId;
 
@@ -63,44 +93,37 @@ public abstract class AbstractSession extends AbstractLogger
 
   private List<String> kexInit;
 
+  /** the exchange hash of the last key exchange, it's the session id for the first one */
+  private byte[] exchangeHash;
+
   /*
-   * Cipher - algorithm to perform encryption & decryption
+   * The cipher, MAC and compression of each direction, each is replaced as a whole, when new keys
+   * are taken into use, so a packet is never encoded, or decoded, with a mix of old and new ones
    */
-  /** Cipher for packet from client to server */
-  private Cipher c2sCipher;
-  /** Cipher for packet from server to client */
-  private Cipher s2cCipher;
+  /** Crypto context for packet from client to server */
+  private volatile CryptoContext c2sCrypto = CryptoContext.NONE;
+  /** Crypto context for packet from server to client */
+  private volatile CryptoContext s2cCrypto = CryptoContext.NONE;
 
-  /** Cipher initial vector size for packet from client to server */
-  private int c2sCipherBlkSize = 8;
-  /** Cipher initial vector size for packet from server to client */
-  private int s2cCipherBlkSize = 8;
+  /** Contexts derived by the key exchange in progress, taken into use at SSH_MSG_NEWKEYS */
+  private CryptoContext newInCrypto;
+  private CryptoContext newOutCrypto;
 
-  /*
-   * MAC - Message authentication code, a piece of information used to authenticate a message
-   */
-  /** Mac for packet from client to server */
-  private Mac c2sMac;
-  /** Mac for packet from server to client */
-  private Mac s2cMac;
-
-  /** Block size of MAC for packet from client to server */
-  private int c2sMacSize = 0;
-  /** Block size of MAC for packet from server to client */
-  private int s2cMacSize = 0;
-  /** Default block size of MAC for packet from client to server */
-  private int c2sDefMacSize = 0;
-  /** Default block size of MAC for packet from server to client */
-  private int s2cDefMacSize = 0;
+  /** Whether our SSH_MSG_KEXINIT of the key exchange in progress is sent, accessed on event loop */
+  private boolean kexInitSent = false;
+  /** Whether a key re-exchange is about to start, accessed on event loop */
+  private boolean rekeyScheduled = false;
 
   /*
-   * Compression - data compression, to encode the packet using fewer bits than the original
-   * representation
+   * Key re-exchange limits, whichever is reached first, in either direction, starts a key
+   * re-exchange
    */
-  /** Compression algorithm for packet from client to server */
-  private Compression c2sCompression;
-  /** Compression algorithm for packet from server to client */
-  private Compression s2cCompression;
+  private volatile long rekeyBytes = DEFAULT_REKEY_BYTES;
+  private volatile long rekeyPackets = DEFAULT_REKEY_PACKETS;
+  private volatile long rekeyTime = DEFAULT_REKEY_TIME;
+
+  /** Starts a key re-exchange at the time limit, if no packet gets to check it first */
+  private volatile ScheduledFuture<?> rekeyTimer;
 
   private Service service;
   private String username;
@@ -122,6 +145,149 @@ public abstract class AbstractSession extends AbstractLogger
     return channel;
   }
 
+  /**
+   * Sets the maximum time a message written waits to be flushed, the messages written within that
+   * time go in a single write. By default, it's 0, the messages are flushed at the end of the
+   * current event loop turn.
+   *
+   * @param delay  the maximum time to wait, 0 to flush at the end of the event loop turn
+   * @param unit   the unit of {@code delay}
+   */
+  public void setFlushDelay(long delay, TimeUnit unit) {
+    this.flushDelay = unit.toNanos(delay);
+  }
+
+  /**
+   * Writes a message to the peer, without flushing it right away. The flush is scheduled to run at
+   * the end of the current event loop turn, or after the flush delay if it's set, so the messages
+   * written meanwhile are coalesced into a single write. The messages are flushed immediately once
+   * the outbound buffer reaches its high water mark.
+   *
+   * <p>It may be called from any thread, the message is handed to the event loop then, in the
+   * order of the calls.</p>
+   *
+   * @param msg  the message to write
+   * @return the future of the write operation
+   *
+   * @see #setFlushDelay(long, TimeUnit)
+   */
+  protected ChannelFuture write(ByteBuf msg) {
+    ChannelPromise promise = channel.newPromise();
+
+    EventLoop loop = channel.eventLoop();
+    if (loop.inEventLoop()) {
+      write(msg, promise);
+    } else {
+      loop.execute(() -> write(msg, promise));
+    }
+
+    return promise;
+  }
+
+  /*
+   * Runs on event loop only, so is the flag
+   */
+  private void write(ByteBuf msg, ChannelPromise promise) {
+    channel.write(msg, promise);
+
+    if (!channel.isWritable()) {
+      channel.flush();
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+
+      EventLoop loop = channel.eventLoop();
+
+      long delay = flushDelay;
+      if (delay > 0) {
+        loop.schedule(this::flushScheduled, delay, TimeUnit.NANOSECONDS);
+      } else {
+        loop.execute(this::flushScheduled);
+      }
+    }
+  }
+
+  private void flushScheduled() {
+    flushScheduled = false;
+    channel.flush();
+  }
+
+  /**
+   * Encrypts, and computes the MAC of, the large outgoing packets, e.g. the ones of a bulk
+   * transfer, on {@code executor}, several packets at a time, and sends them in order, so the
+   * throughput of a single session isn't capped by one core. The smaller ones are still encrypted
+   * on the event loop. By default, it's off.
+   *
+   * <p>It only applies to the ciphers which can start at any packet, the counter mode and the
+   * authenticated encryption ciphers, not CBC, and it takes effect with the keys taken into use
+   * afterwards. The bulk transfers take up to half the capacity of the executor, the rest is kept
+   * for the key exchanges, still a separate executor from {@link CryptoExecutor#getDefault()} is
+   * recommended, so they don't compete for its threads either.</p>
+   *
+   * @param executor  the executor, {@code null} to encrypt every packet on the event loop
+   */
+  public void setParallelEncryption(CryptoExecutor executor) {
+    this.parallelEncryption = executor;
+  }
+
+  /**
+   * @return the executor the large outgoing packets are encrypted on, {@code null} if it's off
+   */
+  public CryptoExecutor getParallelEncryption() {
+    return parallelEncryption;
+  }
+
+  /**
+   * @return true if a job of this session is running on the crypto executor, the messages received
+   * meanwhile are expected to be held until it's done
+   */
+  public boolean isCryptoPending() {
+    return cryptoPending;
+  }
+
+  /**
+   * @param resume  the action to handle the messages held, it's called on the event loop once the
+   *                crypto job of this session is done
+   */
+  public void setCryptoResume(Runnable resume) {
+    this.cryptoResume = resume;
+  }
+
+  /**
+   * Runs an expensive public key operation on the crypto executor, off the event loop. It must be
+   * called on the event loop, the reading from the peer is suspended until the operation is done,
+   * then {@code onSuccess} is called on the event loop. If the operation fails, the exception is
+   * fired down the pipeline, and the connection is closed.
+   *
+   * @param priority   the priority of the operation
+   * @param task       the operation
+   * @param onSuccess  takes the result of the operation
+   * @throws SshException if the crypto executor is saturated
+   */
+  public <T> void offload(CryptoExecutor.Priority priority, Callable<T> task,
+                          CryptoExecutor.Callback<? super T> onSuccess) throws SshException {
+    CryptoExecutor.getDefault().submit(channel.eventLoop(), priority, task, result -> {
+      cryptoPending = false;
+      channel.config().setAutoRead(true);
+
+      onSuccess.accept(result);
+
+      if (!cryptoPending && cryptoResume != null) {
+        cryptoResume.run();
+      }
+    }, t -> {
+      cryptoPending = false;
+      try {
+        channel.pipeline().fireExceptionCaught(t);
+      } finally {
+        // the reading is still suspended, the connection is closed even if no handler does it
+        channel.close();
+      }
+    });
+
+    cryptoPending = true;
+    channel.config().setAutoRead(false);
+  }
+
   @Override
   public State getState() {
     return state.get();
@@ -136,8 +302,24 @@ public abstract class AbstractSession extends AbstractLogger
     return rawId;
   }
 
-  public void setRawId(byte[] rawId) {
-    this.rawId = rawId;
+  /**
+   * @return the exchange hash H of the last key exchange
+   */
+  public byte[] getExchangeHash() {
+    return exchangeHash;
+  }
+
+  /**
+   * Sets the exchange hash H of a key exchange. The one of the first key exchange is the session
+   * id as well, which isn't changed by a key re-exchange.
+   *
+   * @param h  the exchange hash
+   */
+  public void setExchangeHash(byte[] h) {
+    this.exchangeHash = h;
+    if (rawId == null) {
+      rawId = h;
+    }
   }
 
   @Override
@@ -191,286 +373,156 @@ public abstract class AbstractSession extends AbstractLogger
   }
 
   /*
-   * Cipher
+   * Crypto context
    */
-  // Cipher from client to server
-  /** Returns the cipher object used for packet comes from client to server */
-  protected Cipher getC2sCipher() {
-    return c2sCipher;
+  /** Returns the crypto context used for packet comes from client to server */
+  protected CryptoContext getC2sCrypto() {
+    return c2sCrypto;
   }
 
-  /** Replaces the cipher object used for packet comes from client to server */
-  protected void setC2sCipher(Cipher c2sCipher) {
-    this.c2sCipher = c2sCipher;
+  /** Replaces the crypto context used for packet comes from client to server */
+  protected void setC2sCrypto(CryptoContext c2sCrypto) {
+    this.c2sCrypto = c2sCrypto;
   }
 
-  // Cipher from server to client
-  /** Returns the cipher object used for packet comes from server to client */
-  protected Cipher getS2cCipher() {
-    return s2cCipher;
+  /** Returns the crypto context used for packet comes from server to client */
+  protected CryptoContext getS2cCrypto() {
+    return s2cCrypto;
   }
 
-  /** Replaces the cipher object used for packet comes from server to client */
-  protected void setS2cCipher(Cipher s2cCipher) {
-    this.s2cCipher = s2cCipher;
+  /** Replaces the crypto context used for packet comes from server to client */
+  protected void setS2cCrypto(CryptoContext s2cCrypto) {
+    this.s2cCrypto = s2cCrypto;
   }
 
   /**
-   * <p>For caller to obtain the cipher object, it simplifies the function call by abstracting the
-   * session type, client or server. The server session should return the C2S cipher, while the
-   * client session should return the S2C cipher.</p>
+   * <p>For caller to obtain the crypto context, it simplifies the function call by abstracting the
+   * session type, client or server. The server session should return the C2S context, while the
+   * client session should return the S2C context.</p>
    *
-   * @return the cipher object for incoming packet.
+   * @return the cipher, MAC and compression for incoming packet
    */
-  public abstract Cipher getInCipher();
+  public abstract CryptoContext getInCrypto();
 
-  public abstract void setInCipher(Cipher inCipher);
+  public abstract void setInCrypto(CryptoContext inCrypto);
 
   /**
-   * <p>For caller to obtain the cipher object, it simplifies the function call by abstracting the
-   * session type, client or server. The server session should return the S2C cipher, while the
-   * client session should return the C2S cipher.</p>
+   * <p>For caller to obtain the crypto context, it simplifies the function call by abstracting the
+   * session type, client or server. The server session should return the S2C context, while the
+   * client session should return the C2S context.</p>
    *
-   * @return the cipher object for outgoing packet.
+   * @return the cipher, MAC and compression for outgoing packet
    */
-  public abstract Cipher getOutCipher();
-
-  public abstract void setOutCipher(Cipher outCipher);
+  public abstract CryptoContext getOutCrypto();
 
-  // Size of the cipher initial vector from client to server
-  /** Returns the size of initial vector of the cipher from client to server */
-  protected int getC2sCipherBlkSize() {
-    return c2sCipherBlkSize;
-  }
-
-  /** Replaces the size of initial vector of the cipher from client to server */
-  protected void setC2sCipherBlkSize(int c2sCipherBlkSize) {
-    this.c2sCipherBlkSize = c2sCipherBlkSize;
-  }
-
-  // Size of the cipher initial vector from server to client
-  /** Returns the size of initial vector of the cipher from server to client */
-  protected int getS2cCipherBlkSize() {
-    return s2cCipherBlkSize;
-  }
-
-  /** Replaces the size of initial vector of the cipher from server to client */
-  protected void setS2cCipherBlkSize(int s2cCipherBlkSize) {
-    this.s2cCipherBlkSize = s2cCipherBlkSize;
-  }
+  public abstract void setOutCrypto(CryptoContext outCrypto);
 
   /**
-   * By abstracting the session type - client or server, this method simplifies the function to get
-   * the cipher block size.
-   *
-   * <p>For server session, it should return the C2S cipher block size, since C2S is the incoming
-   * direction, while client session, it should return the S2C cipher block size.</p>
-   *
-   * @return the block size of the incoming cipher
+   * @return the level the outgoing packets are compressed at, from 0 to 9, or -1 if they aren't
+   * compressed
    */
-  public abstract int getInCipherBlkSize();
-
-  public abstract void setInCipherBlkSize(int inCipherBlkSize);
+  public int getCompressionLevel() {
+    Compression comp = getOutCrypto().getCompression();
+    return (comp == null) ? -1 : comp.getLevel();
+  }
 
   /**
-   * By abstracting the session type - client or server, this method simplifies the function to get
-   * the cipher block size.
-   *
-   * <p>For server session, it should return the S2C cipher block size, since S2C is the outgoing
-   * direction, while client session, it should return the C2S cipher block size.</p>
-   *
-   * @return the block size of the outgoing cipher
-   */
-  public abstract int getOutCipherBlkSize();
-
-  public abstract void setOutCipherBlkSize(int outCipherBlkSize);
-
-  /*
-   * MAC
+   * @return the size of the outgoing payloads compressed over their original size, since the
+   * last key exchange, 1 if they aren't compressed
    */
-  // MAC from client to server
-  /** Returns the MAC object, which is used for authenticating packet from client to server */
-  protected Mac getC2sMac() {
-    return c2sMac;
-  }
-
-  /** Replaces the MAC object, which is used for authenticating packet from client to server */
-  protected void setC2sMac(Mac c2sMac) {
-    this.c2sMac = c2sMac;
-  }
-
-  // MAC from server to client
-  /** Returns the MAC object, which is used for authenticating packet from server to client */
-  protected Mac getS2cMac() {
-    return s2cMac;
-  }
-
-  /** Replaces the MAC object, which is used for authenticating packet from server to client */
-  protected void setS2cMac(Mac s2cMac) {
-    this.s2cMac = s2cMac;
+  public double getCompressionRatio() {
+    Compression comp = getOutCrypto().getCompression();
+    return (comp == null) ? 1 : comp.getRatio();
   }
 
   /**
-   * By abstracting the session type - client or server, this method simplifies the function to get
-   * the MAC object.
-   *
-   * <p>For server session, it should return the C2S MAC, since C2S is the incoming direction, while
-   * client session, it should return the S2C MAC.</p>
-   *
-   * @return the MAC object for incoming packet
+   * @return true for the server side of the connection
    */
-  public abstract Mac getInMac();
-
-  public abstract void setInMac(Mac inMac);
+  public abstract boolean isServer();
 
   /**
-   * By abstracting the session type - client or server, this method simplifies the function to get
-   * the MAC object.
-   *
-   * <p>For server session, it should return the S2C MAC, since S2C is the outgoing direction, while
-   * client session, it should return the C2S MAC.</p>
-   *
-   * @return the Mac object for outgoing packet
+   * @return the algorithms proposed by this side, and how they're negotiated
    */
-  public abstract Mac getOutMac();
-
-  public abstract void setOutMac(Mac outMac);
-
-  // Size of the MAC's block from client to server
-  /** Returns the block size of the MAC for packet from client to server */
-  protected int getC2sMacSize() {
-    return c2sMacSize;
-  }
-
-  /** Replaces the block size of the MAC for packet from client to server */
-  protected void setC2sMacSize(int c2sMacSize) {
-    this.c2sMacSize = c2sMacSize;
-  }
-
-  // Size of the MAC's block from server to client
-  /** Returns the block size of the MAC for packet from server to client */
-  protected int getS2cMacSize() {
-    return s2cMacSize;
-  }
-
-  /** Replaces the block size of the MAC for packet from server to client */
-  protected void setS2cMacSize(int s2cMacSize) {
-    this.s2cMacSize = s2cMacSize;
-  }
+  public abstract KexNegotiator getNegotiator();
 
   /**
-   * By abstracting the session type - client or server, this method simplifies the function to get
-   * the MAC size.
+   * Sets the limits, after which the keys are exchanged again. They're checked for the packets
+   * sent and received, since the keys in use were taken into use, the first limit reached in
+   * either direction starts a key re-exchange. By default, it's after 1GB of data, 2^31 packets,
+   * or an hour, as recommended by RFC 4253.
    *
-   * <p>For server session, it should return the C2S MAC size, since C2S is the incoming direction,
-   * while client session, it should return the S2C MAC size.</p>
+   * <p>The time limit is also kept by a timer, so an idle session, with no packet to check it, is
+   * re-keyed all the same. The timer is set when the keys are taken into use, a new time limit
+   * applies to it from the next key exchange on.</p>
    *
-   * @return the MAC size for incoming MAC
+   * @param bytes    the number of bytes
+   * @param packets  the number of packets
+   * @param time     the time
+   * @param unit     the unit of {@code time}
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc4253#section-9">Key Re-Exchange</a>
    */
-  public abstract int getInMacSize();
-
-  public abstract void setInMacSize(int inMacSize);
+  public void setRekeyLimits(long bytes, long packets, long time, TimeUnit unit) {
+    this.rekeyBytes = bytes;
+    this.rekeyPackets = packets;
+    this.rekeyTime = unit.toNanos(time);
+  }
 
   /**
-   * By abstracting the session type - client or server, this method simplifies the function to get
-   * the MAC size.
+   * Starts a key re-exchange if any of the limits is reached by the packets of a direction. It's
+   * called on the event loop for every packet sent or received.
    *
-   * <p>For server session, it should return the S2C MAC size, since S2C is the outgoing direction,
-   * while client session, it should return the C2S MAC size.</p>
-   *
-   * @return the Mac size for outgoing MAC
+   * @param bytes    the number of bytes of the packets since the keys were taken into use
+   * @param packets  the number of the packets since the keys were taken into use
+   * @param since    the time, from {@link System#nanoTime()}, the keys were taken into use
    */
-  public abstract int getOutMacSize();
-
-  public abstract void setOutMacSize(int outMacSize);
-
-  // Default size of the MAC's block from client to server
-  /** Returns the default block size of the MAC for packet from client to server */
-  protected int getC2sDefMacSize() {
-    return c2sDefMacSize;
-  }
-
-  /** Replaces the default block size of the MAC for packet from client to server */
-  protected void setC2sDefMacSize(int c2sDefMacSize) {
-    this.c2sDefMacSize = c2sDefMacSize;
-  }
+  public void checkRekey(long bytes, long packets, long since) {
+    if (kexInitSent || rekeyScheduled || rawId == null) {
+      return;
+    }
 
-  // Default size of the MAC's block from server to client
-  /** Returns the default block size of the MAC for packet from server to client */
-  protected int getS2cDefMacSize() {
-    return s2cDefMacSize;
-  }
+    if (bytes >= rekeyBytes || packets >= rekeyPackets || System.nanoTime() - since >= rekeyTime) {
+      logger.debug("{} Rekey limit reached, bytes: {}, packets: {}, seconds: {}", this, bytes,
+          packets, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - since));
 
-  /** Replaces the default block size of the MAC for packet from server to client */
-  protected void setS2cDefMacSize(int s2cDefMacSize) {
-    this.s2cDefMacSize = s2cDefMacSize;
+      requestRekey();
+    }
   }
 
-  public abstract void setInDefMacSize(int inDefMacSize);
-
   /**
-   * By abstracting the session type - client or server, this method simplifies the function to get
-   * the default MAC size.
-   *
-   * <p>For server session, it should return the S2C default MAC size, since S2C is the outgoing
-   * direction, while client session, it should return the C2S default MAC size.</p>
-   *
-   * @return the default Mac size for outgoing MAC
-   */
-  public abstract int getOutDefMacSize();
-
-  public abstract void setOutDefMacSize(int outDefMacSize);
-
-  /*
-   * Compression
+   * Starts a key re-exchange, unless one is already in progress. The messages other than the ones
+   * of the key exchange, written meanwhile, are held until the new keys are taken into use, the
+   * writers aren't blocked.
    */
-  // Compression from client to server
-  /** Returns the compression object for packet packet from client to server */
-  protected Compression getC2sCompression() {
-    return c2sCompression;
-  }
+  public void requestRekey() {
+    EventLoop loop = channel.eventLoop();
+    if (!loop.inEventLoop()) {
+      loop.execute(this::requestRekey);
+      return;
+    }
 
-  /** Replaces the compression object for packet packet from client to server */
-  protected void setC2sCompression(Compression c2sCompression) {
-    this.c2sCompression = c2sCompression;
-  }
+    if (rekeyScheduled) {
+      return;
+    }
+    rekeyScheduled = true;
 
-  // Compression from server to client
-  /** Returns the compression object for packet packet from server to client */
-  protected Compression getS2cCompression() {
-    return s2cCompression;
-  }
+    // not right away, it may be called while a packet is being encoded or decoded
+    loop.execute(() -> {
+      rekeyScheduled = false;
+      if (!kexInitSent && rawId != null && getState() == State.OPENED) {
+        logger.debug("{} Starting key re-exchange...", this);
 
-  /** Replaces the compression object for packet packet from server to client */
-  protected void setS2cCompression(Compression s2cCompression) {
-    this.s2cCompression = s2cCompression;
+        sendKexInit();
+      }
+    });
   }
 
   /**
-   * By abstracting the session type - client or server, this method simplifies the function to get
-   * the compression object.
-   *
-   * <p>For server session, it should return the C2S compression, since C2S is the incoming
-   * direction, while client session, it should return the S2C compression.</p>
-   *
-   * @return the compression object for incoming packet
-   */
-  public abstract Compression getInCompression();
-
-  public abstract void setInCompression(Compression inCompression);
-
-  /**
-   * By abstracting the session type - client or server, this method simplifies the function to get
-   * the compression object.
-   *
-   * <p>For server session, it should return the S2C compression, since S2C is the outgoing
-   * direction, while client session, it should return the C2S compression.</p>
-   *
-   * @return the compression object for outgoing packet
+   * @return true if our SSH_MSG_KEXINIT is sent, and the key exchange isn't done yet
    */
-  public abstract Compression getOutCompression();
-
-  public abstract void setOutCompression(Compression outCompression);
+  public boolean isKexInitSent() {
+    return kexInitSent;
+  }
 
   public void resetAuthStartTime() {
     this.authStartTime = System.currentTimeMillis();
@@ -504,14 +556,33 @@ public abstract class AbstractSession extends AbstractLogger
     }
   }
 
+  /**
+   * Sends our {@link SshMessage#SSH_MSG_KEXINIT}, with the proposals of {@link #getNegotiator()},
+   * to start a key exchange, or to reply to the one of the peer.
+   */
+  public void sendKexInit() {
+    byte[] ki = getNegotiator().newKexInit();
+
+    byte[] raw = Bytes.concat(new byte[] {SshMessage.SSH_MSG_KEXINIT}, ki);
+    if (isServer()) {
+      setRawS2cKex(raw);
+    } else {
+      setRawC2sKex(raw);
+    }
+
+    sendKexInit(ki);
+  }
+
   public void sendKexInit(byte[] payload) {
     checkActive("sendKexInit");
 
+    kexInitSent = true;
+
     ByteBuf buf = createMessage(SshMessage.SSH_MSG_KEXINIT);
 
     buf.writeBytes(payload);
 
-    channel.writeAndFlush(buf);
+    write(buf);
   }
 
   /**
@@ -536,6 +607,7 @@ public abstract class AbstractSession extends AbstractLogger
     ByteBufIo.writeUtf8(buf, message);
     ByteBufIo.writeUtf8(buf, "");
 
+    // flushed right away, along with everything written before, the connection is about to close
     channel.writeAndFlush(buf);
   }
 
@@ -590,7 +662,7 @@ public abstract class AbstractSession extends AbstractLogger
 
     logger.debug("{} Replying SSH_MSG_KEX_DH_GEX_GROUP...", this);
 
-    channel.writeAndFlush(pg);
+    write(pg);
   }
 
   /**
@@ -608,14 +680,72 @@ public abstract class AbstractSession extends AbstractLogger
    *
    * @see <a href="https://tools.ietf.org/html/rfc4253#section-7.3">Taking Keys Into Use</a>
    */
-  public void requestKexNewKeys() {
+  public void requestKexNewKeys(KexGroup kexGroup) throws SshException {
     checkActive("requestKexNewKeys");
 
+    // both directions are derived now, the outgoing one is taken into use by the packet encoder,
+    // right after this message, the incoming one when the message of the peer is received
+    // K and H are hashed once, every key is derived from a copy of the digest at this point
+    HashBuilder kh = new HashBuilder(kexGroup.getMd())
+        .putMpInt(kexGroup.getKex().getSecretKey())
+        .putRaw(exchangeHash);
+    boolean server = isServer();
+
+    try {
+      newInCrypto = CryptoContext.derive(kexInit, server, Cipher.DECRYPT_MODE, kh, rawId);
+      newOutCrypto = CryptoContext.derive(kexInit, !server, Cipher.ENCRYPT_MODE, kh, rawId);
+    } finally {
+      kh.reset();
+    }
+
     ByteBuf newKeys = createMessage(SshMessage.SSH_MSG_NEWKEYS);
 
     logger.debug("{} Requesting SSH_MSG_NEWKEYS...", this);
 
-    channel.writeAndFlush(newKeys);
+    write(newKeys);
+  }
+
+  /**
+   * Takes the new keys of the outgoing direction into use, it's called by the packet encoder,
+   * right after our {@link SshMessage#SSH_MSG_NEWKEYS} is encoded with the old ones.
+   *
+   * @return the context taken into use
+   */
+  public CryptoContext takeNewOutKeys() {
+    CryptoContext c = newOutCrypto;
+    if (c != null) {
+      newOutCrypto = null;
+      setOutCrypto(c);
+
+      logger.debug("{} New keys taken into use for outgoing packets - {}", this, c);
+    }
+    return getOutCrypto();
+  }
+
+  /**
+   * Takes the new keys of the incoming direction into use, it's called when the
+   * {@link SshMessage#SSH_MSG_NEWKEYS} of the peer is received, which ends the key exchange.
+   *
+   * @throws SshException if there're no new keys, the message is unexpected
+   */
+  public void takeNewInKeys() throws SshException {
+    CryptoContext c = newInCrypto;
+    if (c == null) {
+      throw new SshException(SshMessage.SSH_DISCONNECT_PROTOCOL_ERROR,
+          "Unexpected SSH_MSG_NEWKEYS, no key exchange is done");
+    }
+    newInCrypto = null;
+    setInCrypto(c);
+
+    kexInitSent = false;
+
+    ScheduledFuture<?> timer = rekeyTimer;
+    if (timer != null) {
+      timer.cancel(false);
+    }
+    rekeyTimer = channel.eventLoop().schedule(this::requestRekey, rekeyTime, TimeUnit.NANOSECONDS);
+
+    logger.debug("{} New keys taken into use for incoming packets - {}", this, c);
   }
 
   public void replyChannelSuccess(int channelId) {
@@ -627,7 +757,7 @@ public abstract class AbstractSession extends AbstractLogger
 
     logger.debug("{} Replying SSH_MSG_CHANNEL_SUCCESS... channel rawId:{}", this, channelId);
 
-    channel.writeAndFlush(cs);
+    write(cs);
   }
 
   public void replyChannelFailure(int channelId) {
@@ -639,7 +769,7 @@ public abstract class AbstractSession extends AbstractLogger
 
     logger.debug("{} Replying SSH_MSG_CHANNEL_FAILURE... channel rawId:{}", this, channelId);
 
-    channel.writeAndFlush(cs);
+    write(cs);
   }
 
   /**
@@ -746,7 +876,7 @@ public abstract class AbstractSession extends AbstractLogger
     cd.writeInt(len);
     cd.writeBytes(data, off, len);
 
-    channel.writeAndFlush(cd);
+    write(cd);
   }
 
   /**
@@ -804,7 +934,7 @@ public abstract class AbstractSession extends AbstractLogger
     ced.writeInt(len);
     ced.writeBytes(data, off, len);
 
-    channel.writeAndFlush(ced);
+    write(ced);
   }
 
   /**
@@ -833,7 +963,7 @@ public abstract class AbstractSession extends AbstractLogger
 
     logger.debug("{} Sending SSH_MSG_CHANNEL_EOF... recipient:{}", this, recipient);
 
-    channel.writeAndFlush(eof);
+    write(eof);
   }
 
   /**
@@ -868,7 +998,7 @@ public abstract class AbstractSession extends AbstractLogger
     logger.debug("{} Sending SSH_MSG_CHANNEL_REQUEST... recipient:{}, want-reply: false, " +
         "exit value: {}", this, recipient, exitVal);
 
-    channel.writeAndFlush(exitStatus);
+    write(exitStatus);
   }
 
   /**
@@ -901,13 +1031,18 @@ public abstract class AbstractSession extends AbstractLogger
 
     logger.debug("{} Sending SSH_MSG_CHANNEL_CLOSE... recipient:{}", this, recipient);
 
-    channel.writeAndFlush(close);
+    write(close);
   }
 
   @Override
   public void close() throws IOException {
     sessions.remove(this);
 
+    ScheduledFuture<?> timer = rekeyTimer;
+    if (timer != null) {
+      timer.cancel(false);
+    }
+
     if (!authFuture.isDone()) {
       authFuture.cancel(true);
     }
@@ -939,7 +1074,7 @@ public abstract class AbstractSession extends AbstractLogger
     logger.debug("{} Sending SSH_MSG_CHANNEL_WINDOW_ADJUST... recipient:{}, size:{}", this,
         recipient, size);
 
-    channel.writeAndFlush(wa);
+    write(wa);
   }
 
   @Override
@@ -0,0 +1,298 @@
+package io.github.grantchan.sshengine.common;
+
+import io.github.grantchan.sshengine.arch.SshMessage;
+import io.github.grantchan.sshengine.common.transport.kex.KeyPairPool;
+import io.github.grantchan.sshengine.util.LazySupplier;
+import io.netty.channel.EventLoop;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A bounded pool of threads for the expensive public key operations, the key agreement, the
+ * host key signing and the user authentication signature verification, to keep them off the
+ * event loops.</p>
+ *
+ * <p>The jobs are run in the order of their {@link Priority}, then in the order of submission, so
+ * the rekeying of the established sessions isn't stuck behind a burst of new handshakes. Once
+ * {@code capacity} jobs are pending, new submissions are rejected, and the session is expected to
+ * be disconnected.</p>
+ *
+ * <p>The {@link Priority#BULK} jobs take up to half of the capacity, the other half is kept for
+ * the handshakes, so a busy transfer can't get the new connections rejected. They're submitted
+ * with {@link #trySubmit}, which doesn't count them as rejected if there's no room, the packets
+ * are encrypted on the event loop instead.</p>
+ */
+public class CryptoExecutor {
+
+  public enum Priority {
+    /** Key re-exchange of an authenticated session, which holds up its channels */
+    REKEY,
+    /** Signature verification of a user authentication request */
+    USERAUTH,
+    /** Initial key exchange of a new connection */
+    KEX,
+    /** Pre-generation of an ephemeral key pair, see {@link KeyPairPool} */
+    REFILL,
+    /**
+     * Encryption of the large packets of a session, see
+     * {@link AbstractSession#setParallelEncryption(CryptoExecutor)}
+     */
+    BULK
+  }
+
+  @FunctionalInterface
+  public interface Callback<T> {
+    void accept(T result) throws Exception;
+  }
+
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private static final LazySupplier<CryptoExecutor> DEFAULT = new LazySupplier<CryptoExecutor>() {
+    @Override
+    protected CryptoExecutor initialize() {
+      return new CryptoExecutor(Runtime.getRuntime().availableProcessors(), DEFAULT_CAPACITY);
+    }
+  };
+
+  private final ThreadPoolExecutor pool;
+  private final int capacity;
+  private final int bulkCapacity;
+
+  /** Number of jobs submitted, but not completed yet, and the number of those of BULK priority */
+  private final AtomicInteger pending = new AtomicInteger(0);
+  private final AtomicInteger bulkPending = new AtomicInteger(0);
+  private final AtomicLong seq = new AtomicLong(0);
+
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final AtomicLong maxWaitNanos = new AtomicLong(0);
+
+  /**
+   * @param nThreads  the number of threads
+   * @param capacity  the maximum number of jobs pending, including the ones running
+   */
+  public CryptoExecutor(int nThreads, int capacity) {
+    AtomicInteger threadNum = new AtomicInteger(1);
+    ThreadFactory tf = r -> {
+      Thread t = new Thread(r, "crypto-" + threadNum.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    };
+
+    this.pool = new ThreadPoolExecutor(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+        new PriorityBlockingQueue<>(), tf);
+    this.capacity = capacity;
+    this.bulkCapacity = capacity / 2;
+  }
+
+  /**
+   * @return the executor shared by all the sessions, it has one thread per processor
+   */
+  public static CryptoExecutor getDefault() {
+    return DEFAULT.get();
+  }
+
+  /**
+   * Runs the task on this executor, then hands its outcome to the event loop.
+   *
+   * @param loop       the event loop to run {@code onSuccess} or {@code onFailure} on
+   * @param priority   the priority of the task
+   * @param task       the task to run
+   * @param onSuccess  called with the result of the task
+   * @param onFailure  called if the task, or {@code onSuccess}, throws, or right on this executor
+   *                   with a {@link RejectedExecutionException} if the event loop is shut down,
+   *                   so whatever the task holds is always let go of
+   * @throws SshException if there are already {@code capacity} jobs pending
+   */
+  public <T> void submit(EventLoop loop, Priority priority, Callable<T> task,
+                         Callback<? super T> onSuccess, Callback<Throwable> onFailure)
+      throws SshException {
+    if (!trySubmit(loop, priority, task, onSuccess, onFailure)) {
+      rejected.increment();
+
+      throw new SshException(SshMessage.SSH_DISCONNECT_TOO_MANY_CONNECTIONS,
+          "Too many key exchanges in progress, try again later");
+    }
+  }
+
+  /**
+   * Same as {@link #submit}, except that the task is left to the caller if there's no room for
+   * it, which isn't counted as a rejection.
+   *
+   * @return false if there are already {@code capacity} jobs pending, or half of it of BULK
+   * priority if it's one of them, the task isn't run then
+   */
+  public <T> boolean trySubmit(EventLoop loop, Priority priority, Callable<T> task,
+                               Callback<? super T> onSuccess, Callback<Throwable> onFailure) {
+    boolean bulk = (priority == Priority.BULK);
+    if (!acquire(bulk)) {
+      return false;
+    }
+
+    pool.execute(new Job(priority, seq.getAndIncrement(), () -> {
+      T result;
+      try {
+        result = task.call();
+      } catch (Throwable t) {
+        finished(bulk);
+        handOff(loop, () -> fail(onFailure, t), onFailure);
+        return;
+      }
+
+      finished(bulk);
+      handOff(loop, () -> {
+        try {
+          onSuccess.accept(result);
+        } catch (Throwable t) {
+          fail(onFailure, t);
+        }
+      }, onFailure);
+    }));
+
+    return true;
+  }
+
+  /**
+   * Runs a background task on this executor, which has no outcome to hand back, unless there's no
+   * room for it, which isn't counted as a rejection.
+   *
+   * @param priority  the priority of the task
+   * @param task      the task to run, it's expected to handle its own failures
+   * @return false if there are already {@code capacity} jobs pending, the task isn't run then
+   */
+  public boolean tryExecute(Priority priority, Runnable task) {
+    boolean bulk = (priority == Priority.BULK);
+    if (!acquire(bulk)) {
+      return false;
+    }
+
+    pool.execute(new Job(priority, seq.getAndIncrement(), () -> {
+      try {
+        task.run();
+      } finally {
+        finished(bulk);
+      }
+    }));
+
+    return true;
+  }
+
+  private boolean acquire(boolean bulk) {
+    if (bulk && bulkPending.incrementAndGet() > bulkCapacity) {
+      bulkPending.decrementAndGet();
+      return false;
+    }
+    if (pending.incrementAndGet() > capacity) {
+      pending.decrementAndGet();
+      if (bulk) {
+        bulkPending.decrementAndGet();
+      }
+      return false;
+    }
+    return true;
+  }
+
+  private void finished(boolean bulk) {
+    if (bulk) {
+      bulkPending.decrementAndGet();
+    }
+    pending.decrementAndGet();
+    completed.increment();
+  }
+
+  /*
+   * Runs the outcome of a task on the event loop, or fails it right here if the loop no longer
+   * takes any tasks, in which case neither callback would ever run otherwise.
+   */
+  private static void handOff(EventLoop loop, Runnable outcome, Callback<Throwable> onFailure) {
+    try {
+      loop.execute(outcome);
+    } catch (RejectedExecutionException e) {
+      fail(onFailure, e);
+    }
+  }
+
+  private static void fail(Callback<Throwable> onFailure, Throwable t) {
+    try {
+      onFailure.accept(t);
+    } catch (Exception e) {
+      e.addSuppressed(t);
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return the number of jobs waiting for a thread
+   */
+  public int getQueueDepth() {
+    return pool.getQueue().size();
+  }
+
+  /**
+   * @return the number of jobs submitted, but not completed yet, including the ones running
+   */
+  public int getPending() {
+    return pending.get();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public long getCompletedCount() {
+    return completed.sum();
+  }
+
+  public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  /**
+   * @return the longest time, in milliseconds, a job has waited for a thread
+   */
+  public long getMaxWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+  }
+
+  @Override
+  public String toString() {
+    return "CryptoExecutor[threads=" + pool.getCorePoolSize() + ", queued=" + getQueueDepth()
+        + ", pending=" + getPending() + "/" + capacity + ", completed=" + getCompletedCount()
+        + ", rejected=" + getRejectedCount() + ", maxWait=" + getMaxWaitMillis() + "ms]";
+  }
+
+  private class Job implements Runnable, Comparable<Job> {
+
+    private final Priority priority;
+    private final long seq;
+    private final Runnable task;
+    private final long submitted = System.nanoTime();
+
+    Job(Priority priority, long seq, Runnable task) {
+      this.priority = priority;
+      this.seq = seq;
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      maxWaitNanos.accumulateAndGet(System.nanoTime() - submitted, Math::max);
+
+      task.run();
+    }
+
+    @Override
+    public int compareTo(Job o) {
+      int c = priority.compareTo(o.priority);
+      return (c != 0) ? c : Long.compare(seq, o.seq);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package io.github.grantchan.sshengine.common;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultithreadEventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * <p>The Netty transports the client and the server run on, in the order of preference.</p>
+ *
+ * <p>The native epoll transport is edge-triggered and wakes up less often than NIO, it's only
+ * available on Linux, where the native library bundled with Netty can be loaded. NIO is always
+ * available, and is the fallback.</p>
+ */
+public enum NetTransport {
+
+  EPOLL("epoll") {
+    @Override
+    public Throwable unavailabilityCause() {
+      return Epoll.unavailabilityCause();
+    }
+
+    @Override
+    public EventLoopGroup newEventLoopGroup(int nThreads) {
+      return new EpollEventLoopGroup(nThreads);
+    }
+
+    @Override
+    public Class<? extends ServerChannel> getServerChannelClass() {
+      return EpollServerSocketChannel.class;
+    }
+
+    @Override
+    public Class<? extends SocketChannel> getChannelClass() {
+      return EpollSocketChannel.class;
+    }
+  },
+
+  NIO("nio") {
+    @Override
+    public Throwable unavailabilityCause() {
+      return null;
+    }
+
+    @Override
+    public EventLoopGroup newEventLoopGroup(int nThreads) {
+      return new NioEventLoopGroup(nThreads);
+    }
+
+    @Override
+    public Class<? extends ServerChannel> getServerChannelClass() {
+      return NioServerSocketChannel.class;
+    }
+
+    @Override
+    public Class<? extends SocketChannel> getChannelClass() {
+      return NioSocketChannel.class;
+    }
+  };
+
+  private final String name;
+
+  NetTransport(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the reason why this transport can't be used on this host, {@code null} if it's
+   * available
+   */
+  public abstract Throwable unavailabilityCause();
+
+  public boolean isAvailable() {
+    return unavailabilityCause() == null;
+  }
+
+  /**
+   * @param nThreads  the number of threads, 0 for Netty's default, twice the number of processors
+   * @return a new event loop group of this transport
+   */
+  public abstract EventLoopGroup newEventLoopGroup(int nThreads);
+
+  public abstract Class<? extends ServerChannel> getServerChannelClass();
+
+  public abstract Class<? extends SocketChannel> getChannelClass();
+
+  /**
+   * @return the first transport available on this host, NIO at the very least
+   */
+  public static NetTransport select() {
+    for (NetTransport t : values()) {
+      if (t.isAvailable()) {
+        return t;
+      }
+    }
+    return NIO;
+  }
+
+  /**
+   * @return a description of the transport chosen, the number of threads of the event loop groups
+   * given, and the reason why the preferred transports were skipped, to be logged at startup
+   */
+  public String describe(EventLoopGroup... groups) {
+    StringBuilder sb = new StringBuilder("transport: ").append(name).append(", threads: [");
+    for (int i = 0; i < groups.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(groups[i] instanceof MultithreadEventLoopGroup
+          ? ((MultithreadEventLoopGroup) groups[i]).executorCount() : 1);
+    }
+    sb.append("]");
+
+    for (NetTransport t : values()) {
+      if (t == this) {
+        break;
+      }
+      sb.append(", ").append(t.name).append(" unavailable - ").append(t.unavailabilityCause());
+    }
+
+    return sb.toString();
+  }
+}
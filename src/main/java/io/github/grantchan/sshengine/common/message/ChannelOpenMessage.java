@@ -0,0 +1,71 @@
+package io.github.grantchan.sshengine.common.message;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * <p>A view of SSH_MSG_CHANNEL_OPEN, over the buffer it arrives in.</p>
+ *
+ * <pre>
+ *   byte      SSH_MSG_CHANNEL_OPEN
+ *   string    channel type in US-ASCII only
+ *   uint32    sender channel
+ *   uint32    initial window size
+ *   uint32    maximum packet size
+ *   ....      channel type specific data follows
+ * </pre>
+ *
+ * <p>It's a flyweight, the service which handles the message keeps one, and wraps every request
+ * in it, so it's only valid until the next one.</p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc4254#section-5.1">Opening a Channel</a>
+ */
+public final class ChannelOpenMessage {
+
+  private ByteBuf buf;
+
+  private String type;
+  private int senderChannel;
+  private long initialWindowSize;
+  private long maximumPacketSize;
+
+  /**
+   * Reads the fields common to all the channel types.
+   *
+   * @param buf  the message, its reader index is after the message id, it's moved to the channel
+   *             type specific data
+   * @return this view
+   */
+  public ChannelOpenMessage wrap(ByteBuf buf) {
+    this.buf = buf;
+
+    type = WireTokens.read(buf);
+    senderChannel = buf.readInt();
+    initialWindowSize = buf.readUnsignedInt();
+    maximumPacketSize = buf.readUnsignedInt();
+
+    return this;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public int getSenderChannel() {
+    return senderChannel;
+  }
+
+  public long getInitialWindowSize() {
+    return initialWindowSize;
+  }
+
+  public long getMaximumPacketSize() {
+    return maximumPacketSize;
+  }
+
+  /**
+   * @return the channel type specific data, which is read from the buffer itself
+   */
+  public ByteBuf getData() {
+    return buf;
+  }
+}
@@ -0,0 +1,64 @@
+package io.github.grantchan.sshengine.common.message;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * <p>A view of SSH_MSG_CHANNEL_REQUEST, over the buffer it arrives in.</p>
+ *
+ * <pre>
+ *   byte      SSH_MSG_CHANNEL_REQUEST
+ *   uint32    recipient channel
+ *   string    request type in US-ASCII characters only
+ *   boolean   want reply
+ *   ....      type-specific data follows
+ * </pre>
+ *
+ * <p>It's a flyweight, the service which handles the message keeps one, and wraps every request
+ * in it, so it's only valid until the next one.</p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc4254#section-5.4">Channel-Specific Requests</a>
+ */
+public final class ChannelRequestMessage {
+
+  private ByteBuf buf;
+
+  private int recipientChannel;
+  private String type;
+  private boolean wantReply;
+
+  /**
+   * Reads the fields common to all the request types.
+   *
+   * @param buf  the message, its reader index is after the message id, it's moved to the type
+   *             specific data
+   * @return this view
+   */
+  public ChannelRequestMessage wrap(ByteBuf buf) {
+    this.buf = buf;
+
+    recipientChannel = buf.readInt();
+    type = WireTokens.read(buf);
+    wantReply = buf.readBoolean();
+
+    return this;
+  }
+
+  public int getRecipientChannel() {
+    return recipientChannel;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public boolean isWantReply() {
+    return wantReply;
+  }
+
+  /**
+   * @return the type specific data, which is read from the buffer itself
+   */
+  public ByteBuf getData() {
+    return buf;
+  }
+}
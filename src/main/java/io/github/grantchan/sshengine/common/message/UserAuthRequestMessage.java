@@ -0,0 +1,97 @@
+package io.github.grantchan.sshengine.common.message;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>A view of SSH_MSG_USERAUTH_REQUEST, over the buffer it arrives in.</p>
+ *
+ * <pre>
+ *   byte      SSH_MSG_USERAUTH_REQUEST
+ *   string    user name in ISO-10646 UTF-8 encoding [RFC3629]
+ *   string    service name in US-ASCII
+ *   string    method name in US-ASCII
+ *   ....      method specific fields
+ * </pre>
+ *
+ * <p>It's a flyweight, the service which handles the message keeps one, and wraps every request
+ * in it, so it's only valid until the next one. The user name is left in the buffer, and only
+ * decoded if it's asked for.</p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc4252#section-5">Authentication Requests</a>
+ */
+public final class UserAuthRequestMessage {
+
+  private ByteBuf buf;
+
+  private int userOff;
+  private int userLen;
+
+  private String service;
+  private String method;
+
+  /**
+   * Reads the fields common to all the methods.
+   *
+   * @param buf  the message, its reader index is after the message id, it's moved to the method
+   *             specific fields
+   * @return this view
+   */
+  public UserAuthRequestMessage wrap(ByteBuf buf) {
+    this.buf = buf;
+
+    userLen = buf.readInt();
+    userOff = buf.readerIndex();
+    buf.skipBytes(userLen);
+
+    service = WireTokens.read(buf);
+    method = WireTokens.read(buf);
+
+    return this;
+  }
+
+  /**
+   * @return the user name, decoded for every call
+   */
+  public String getUser() {
+    return buf.toString(userOff, userLen, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return true if the user name is {@code user}, it's compared in the buffer
+   */
+  public boolean isUser(String user) {
+    int len = user.length();
+    if (len > userLen) {
+      return false;
+    }
+
+    // a US-ASCII name is compared char by char, without being encoded
+    for (int i = 0; i < len; i++) {
+      char c = user.charAt(i);
+      if (c >= 0x80) {
+        return WireTokens.matches(buf, userOff, userLen, user.getBytes(StandardCharsets.UTF_8));
+      }
+      if (buf.getByte(userOff + i) != c) {
+        return false;
+      }
+    }
+    return len == userLen;
+  }
+
+  public String getService() {
+    return service;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  /**
+   * @return the method specific fields, which are read from the buffer itself
+   */
+  public ByteBuf getData() {
+    return buf;
+  }
+}
@@ -0,0 +1,135 @@
+package io.github.grantchan.sshengine.common.message;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>The fixed vocabulary of the protocol, the names of the services, the authentication methods,
+ * the channel types and the channel requests, which are US-ASCII strings on the wire.</p>
+ *
+ * <p>A string read is looked up, in place, in the buffer it arrives in, and the interned name is
+ * returned if it's one of them, so parsing the messages that carry them doesn't create a
+ * {@code String}, or a {@code byte[]}. Any other string is decoded as usual.</p>
+ */
+public final class WireTokens {
+
+  private static final String[] NAMES = {
+      // RFC 4250, section 4.9.1, Service Names
+      "ssh-userauth", "ssh-connection",
+
+      // RFC 4250, section 4.9.2, Authentication Method Names
+      "publickey", "password", "hostbased", "none", "keyboard-interactive",
+
+      // RFC 4250, section 4.9.3, Connection Protocol Assigned Names
+      "session", "x11", "forwarded-tcpip", "direct-tcpip",
+      "tcpip-forward", "cancel-tcpip-forward",
+      "pty-req", "x11-req", "env", "shell", "exec", "subsystem", "window-change", "xon-xoff",
+      "signal", "exit-status", "exit-signal",
+
+      // OpenSSH extensions, see PROTOCOL in the source of OpenSSH
+      "keepalive@openssh.com", "auth-agent-req@openssh.com", "eow@openssh.com",
+      "no-more-sessions@openssh.com", "hostkeys-00@openssh.com",
+      "direct-streamlocal@openssh.com", "forwarded-streamlocal@openssh.com",
+
+      // public key algorithm names, in the authentication requests
+      "ssh-rsa", "rsa-sha2-256", "rsa-sha2-512", "ssh-dss", "ssh-ed25519",
+      "ecdsa-sha2-nistp256", "ecdsa-sha2-nistp384", "ecdsa-sha2-nistp521"
+  };
+
+  /** Open addressing, a power of 2, at least twice the number of names */
+  private static final int SIZE = 128;
+
+  private static final String[] names = new String[SIZE];
+  private static final byte[][] bytes = new byte[SIZE][];
+
+  /** The length of the longest name, a longer string isn't looked up */
+  private static final int MAX_LENGTH;
+
+  static {
+    int max = 0;
+    for (String n : NAMES) {
+      byte[] b = n.getBytes(StandardCharsets.US_ASCII);
+      max = Math.max(max, b.length);
+
+      int i = hash(b);
+      while (names[i] != null) {
+        i = (i + 1) & (SIZE - 1);
+      }
+      names[i] = n.intern();
+      bytes[i] = b;
+    }
+    MAX_LENGTH = max;
+  }
+
+  private WireTokens() {}
+
+  /**
+   * Reads a string from {@code buf}.
+   *
+   * @param buf  the buffer, its reader index is at the length of the string, and it's moved past it
+   * @return the interned name if it's one of the vocabulary, otherwise the string decoded as UTF-8
+   */
+  public static String read(ByteBuf buf) {
+    int len = buf.readInt();
+    int off = buf.readerIndex();
+    buf.skipBytes(len);
+
+    String name = find(buf, off, len);
+    return (name != null) ? name : buf.toString(off, len, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Looks up the bytes of {@code buf}, from {@code off}, without moving its indexes.
+   *
+   * @return the interned name, or {@code null} if it isn't one of the vocabulary
+   */
+  public static String find(ByteBuf buf, int off, int len) {
+    if (len > MAX_LENGTH) {
+      return null;
+    }
+
+    for (int i = hash(buf, off, len); names[i] != null; i = (i + 1) & (SIZE - 1)) {
+      if (matches(buf, off, len, bytes[i])) {
+        return names[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return true if the {@code len} bytes of {@code buf} from {@code off} are the US-ASCII bytes
+   * of {@code name}
+   */
+  static boolean matches(ByteBuf buf, int off, int len, byte[] name) {
+    if (len != name.length) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (buf.getByte(off + i) != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hash(byte[] b) {
+    int h = b.length;
+    for (int i = 0; i < b.length; i++) {
+      h = 31 * h + b[i];
+    }
+    return spread(h);
+  }
+
+  private static int hash(ByteBuf buf, int off, int len) {
+    int h = len;
+    for (int i = 0; i < len; i++) {
+      h = 31 * h + buf.getByte(off + i);
+    }
+    return spread(h);
+  }
+
+  private static int spread(int h) {
+    return (h ^ (h >>> 16)) & (SIZE - 1);
+  }
+}
@@ -0,0 +1,282 @@
+package io.github.grantchan.sshengine.common.transport.benchmark;
+
+import io.github.grantchan.sshengine.arch.SshConstant;
+import io.github.grantchan.sshengine.common.transport.cipher.AeadCipher;
+import io.github.grantchan.sshengine.common.transport.cipher.CipherFactories;
+import io.github.grantchan.sshengine.common.transport.kex.KexProposal;
+import io.github.grantchan.sshengine.common.transport.mac.MacFactories;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Micro-benchmarks the ciphers and MACs supported, on every JCA provider installed which
+ * implements them, to be run once at startup.</p>
+ *
+ * <p>{@link #select()} pins the fastest provider to each algorithm, see
+ * {@link CipherFactories#setProvider(Provider)} and {@link MacFactories#setProvider(Provider)},
+ * and reorders the server's encryption and MAC proposals. Speed only ranks the algorithms within
+ * a tier, the authenticated encryption ciphers come before the others, and the encrypt-then-MAC
+ * algorithms before the others. A cipher which needs a MAC is charged the cost of the MAC
+ * proposed first, the one it's most likely used with. An algorithm which failed on every provider
+ * is left out of the proposals.</p>
+ *
+ * <p>The client's preference wins the negotiation, the order only matters when the client has no
+ * preference among the algorithms offered.</p>
+ */
+public class AlgorithmBenchmark {
+
+  /** The amount of data processed in one go, a full size packet */
+  static final int PACKET_SIZE = 32 * 1024;
+
+  /** The name the results of a pure Java implementation are recorded under */
+  static final String BUILTIN = "builtin";
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final long warmupNanos;
+  private final long measureNanos;
+
+  public AlgorithmBenchmark() {
+    this(100, 100, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param warmup   how long an algorithm runs before it's measured, on each provider
+   * @param measure  how long an algorithm is measured, on each provider
+   * @param unit     the unit of {@code warmup} and {@code measure}
+   */
+  public AlgorithmBenchmark(long warmup, long measure, TimeUnit unit) {
+    this.warmupNanos = unit.toNanos(warmup);
+    this.measureNanos = unit.toNanos(measure);
+  }
+
+  /**
+   * Benchmarks all the ciphers and MACs, pins the fastest provider to each of them, and reorders
+   * the server's proposals by the throughput measured.
+   *
+   * @return the results, the ciphers followed by the MACs
+   */
+  public List<BenchmarkResult> select() {
+    List<BenchmarkResult> ciphers = new ArrayList<>();
+    for (CipherFactories cf : CipherFactories.values()) {
+      List<Provider> candidates = cf.isProvided()
+          ? providers(p -> supports(p, cf)) : Collections.singletonList(null);
+
+      ciphers.add(benchmark(cf.getName(), candidates, cf::setProvider, () -> measure(cf)));
+    }
+
+    List<BenchmarkResult> macs = new ArrayList<>();
+    for (MacFactories mf : MacFactories.values()) {
+      List<Provider> candidates = mf.isProvided()
+          ? providers(p -> supports(p, mf)) : Collections.singletonList(null);
+
+      macs.add(benchmark(mf.getName(), candidates, mf::setProvider, () -> measure(mf)));
+    }
+
+    List<BenchmarkResult> rankedMacs = rankMacs(macs);
+    prefer(rankedMacs, KexProposal.MAC_C2S, KexProposal.MAC_S2C);
+    prefer(rankCiphers(ciphers, rankedMacs.isEmpty() ? null : rankedMacs.get(0)),
+        KexProposal.ENCRYPTION_C2S, KexProposal.ENCRYPTION_S2C);
+
+    List<BenchmarkResult> results = new ArrayList<>(ciphers);
+    results.addAll(macs);
+
+    return results;
+  }
+
+  /*
+   * Measures the algorithm on each candidate provider in turn, and leaves the fastest one pinned,
+   * or the default one if all of them failed. The providers which failed aren't recorded.
+   */
+  private BenchmarkResult benchmark(String name, List<Provider> candidates,
+                                    Consumer<Provider> pin, Measurement measurement) {
+    Map<String, Double> throughputs = new LinkedHashMap<>();
+    Provider best = null;
+    double max = 0;
+
+    for (Provider p : candidates) {
+      pin.accept(p);
+
+      double t;
+      try {
+        t = measurement.measure();
+      } catch (Exception e) {
+        logger.debug("Failed to benchmark {} on {} - {}", name,
+            p == null ? BUILTIN : p.getName(), e.getMessage());
+        continue;
+      }
+      throughputs.put(p == null ? BUILTIN : p.getName(), t);
+
+      if (t > max) {
+        max = t;
+        best = p;
+      }
+    }
+    pin.accept(best);
+
+    BenchmarkResult result = new BenchmarkResult(name, throughputs, best, max);
+    logger.debug("{}", result);
+
+    return result;
+  }
+
+  private double measure(CipherFactories cf) throws Exception {
+    byte[] key = new byte[cf.getBlkSize()];
+    byte[] iv = new byte[cf.getIvSize()];
+
+    if (cf.isAead()) {
+      AeadCipher cip = cf.createAead(key, iv, Cipher.ENCRYPT_MODE);
+
+      ByteBuf buf =
+          Unpooled.buffer(SshConstant.SSH_PACKET_LENGTH + PACKET_SIZE + cip.getTagSize());
+      buf.setInt(0, PACKET_SIZE);
+      try {
+        return throughput(seq -> cip.encrypt(buf, 0, PACKET_SIZE, seq));
+      } finally {
+        buf.release();
+      }
+    }
+
+    Cipher cip = cf.create(key, iv, Cipher.ENCRYPT_MODE);
+    byte[] data = new byte[PACKET_SIZE];
+
+    return throughput(seq -> cip.update(data, 0, data.length, data, 0));
+  }
+
+  private double measure(MacFactories mf) throws Exception {
+    Mac mac = mf.create(new byte[mf.getDefBlkSize()]);
+    byte[] data = new byte[PACKET_SIZE];
+    byte[] tag = new byte[mac.getMacLength()];
+
+    return throughput(seq -> {
+      mac.update(data);
+      mac.doFinal(tag, 0);
+    });
+  }
+
+  /*
+   * Runs the operation for the warm-up period, then for the measurement period, returns the
+   * throughput of the latter in MB/s.
+   */
+  private double throughput(Operation op) throws Exception {
+    run(op, warmupNanos);
+
+    long start = System.nanoTime();
+    long n = run(op, measureNanos);
+    long elapsed = System.nanoTime() - start;
+
+    return (double) n * PACKET_SIZE * 1000 / elapsed;
+  }
+
+  private static long run(Operation op, long nanos) throws Exception {
+    long end = System.nanoTime() + nanos;
+
+    int seq = 0;
+    do {
+      op.apply(seq++);
+    } while (System.nanoTime() - end < 0);
+
+    return seq;
+  }
+
+  /*
+   * The encrypt-then-MAC algorithms first, then the others, the fastest first in each tier, the
+   * ones which failed are dropped.
+   */
+  static List<BenchmarkResult> rankMacs(List<BenchmarkResult> macs) {
+    Comparator<BenchmarkResult> etmFirst =
+        Comparator.comparing(r -> !MacFactories.from(r.getName()).isEtm());
+
+    return macs.stream()
+        .filter(r -> r.getThroughput() > 0)
+        .sorted(etmFirst.thenComparing(
+            Comparator.comparingDouble(BenchmarkResult::getThroughput).reversed()))
+        .collect(Collectors.toList());
+  }
+
+  /*
+   * The authenticated encryption ciphers first, the fastest first, then the others, by their
+   * throughput combined with the one of the MAC they need, the time of both passes added up, or
+   * by their own if there's no MAC. The ones which failed are dropped.
+   */
+  static List<BenchmarkResult> rankCiphers(List<BenchmarkResult> ciphers, BenchmarkResult mac) {
+    Comparator<BenchmarkResult> aeadFirst =
+        Comparator.comparing(r -> !CipherFactories.from(r.getName()).isAead());
+    Comparator<BenchmarkResult> fastestFirst = Comparator.comparingDouble((BenchmarkResult r) -> {
+      double t = r.getThroughput();
+      return (mac == null || CipherFactories.from(r.getName()).isAead())
+          ? t : 1 / (1 / t + 1 / mac.getThroughput());
+    }).reversed();
+
+    return ciphers.stream()
+        .filter(r -> r.getThroughput() > 0)
+        .sorted(aeadFirst.thenComparing(fastestFirst))
+        .collect(Collectors.toList());
+  }
+
+  private static void prefer(List<BenchmarkResult> ranked, KexProposal... proposals) {
+    // none of them worked, rather than proposing nothing, the proposals are left as they are
+    if (ranked.isEmpty()) {
+      return;
+    }
+
+    String names = ranked.stream()
+        .map(BenchmarkResult::getName)
+        .collect(Collectors.joining(","));
+
+    for (KexProposal p : proposals) {
+      p.setServerProposals(names);
+    }
+  }
+
+  private static List<Provider> providers(Predicate<Provider> supports) {
+    return Arrays.stream(Security.getProviders()).filter(supports).collect(Collectors.toList());
+  }
+
+  private static boolean supports(Provider p, CipherFactories cf) {
+    try {
+      Cipher.getInstance(cf.getTransformation(), p);
+      return true;
+    } catch (GeneralSecurityException e) {
+      return false;
+    }
+  }
+
+  private static boolean supports(Provider p, MacFactories mf) {
+    try {
+      Mac.getInstance(mf.getTransformation(), p);
+      return true;
+    } catch (GeneralSecurityException e) {
+      return false;
+    }
+  }
+
+  @FunctionalInterface
+  private interface Measurement {
+    double measure() throws Exception;
+  }
+
+  @FunctionalInterface
+  private interface Operation {
+    void apply(int seq) throws Exception;
+  }
+}
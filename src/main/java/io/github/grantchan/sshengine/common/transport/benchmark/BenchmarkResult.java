@@ -0,0 +1,70 @@
+package io.github.grantchan.sshengine.common.transport.benchmark;
+
+import java.security.Provider;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The outcome of benchmarking one algorithm, the throughput measured for every provider which
+ * didn't fail, and the provider chosen among them.
+ */
+public class BenchmarkResult {
+
+  private final String name;
+  private final Map<String, Double> throughputs;
+  private final Provider provider;
+  private final double throughput;
+
+  /**
+   * @param name         the algorithm name
+   * @param throughputs  the throughput, in MB/s, measured for each provider which didn't fail, by
+   *                     the provider name
+   * @param provider     the provider chosen, {@code null} for the default one
+   * @param throughput   the throughput, in MB/s, of the provider chosen, 0 if none succeeded
+   */
+  BenchmarkResult(String name, Map<String, Double> throughputs, Provider provider,
+                  double throughput) {
+    this.name = name;
+    this.throughputs = Collections.unmodifiableMap(new LinkedHashMap<>(throughputs));
+    this.provider = provider;
+    this.throughput = throughput;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the throughput, in MB/s, measured for each provider which didn't fail, by the provider
+   * name
+   */
+  public Map<String, Double> getThroughputs() {
+    return throughputs;
+  }
+
+  /**
+   * @return the provider chosen, {@code null} if the default one is used
+   */
+  public Provider getProvider() {
+    return provider;
+  }
+
+  /**
+   * @return the throughput, in MB/s, of the provider chosen, 0 if none of them succeeded
+   */
+  public double getThroughput() {
+    return throughput;
+  }
+
+  @Override
+  public String toString() {
+    String tried = throughputs.entrySet().stream()
+        .map(e -> e.getKey() + "=" + String.format("%.1f", e.getValue()))
+        .collect(Collectors.joining(", "));
+
+    return String.format("%s - chosen: %s (%.1f MB/s), tried: [%s]", name,
+        provider == null ? "default" : provider.getName(), throughput, tried);
+  }
+}
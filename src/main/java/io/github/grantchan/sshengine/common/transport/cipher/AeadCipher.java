@@ -0,0 +1,70 @@
+package io.github.grantchan.sshengine.common.transport.cipher;
+
+import io.netty.buffer.ByteBuf;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * <p>An authenticated encryption cipher, which encrypts and authenticates a packet in one go,
+ * instead of a cipher working together with a separate MAC.</p>
+ *
+ * <p>The packet to process sits in a buffer as below, the MAC negotiated is ignored, the
+ * authentication tag takes its place:</p>
+ *
+ * <pre>
+ *   | packet length (int) |<- - - -  length bytes  - - - ->| authentication tag |
+ *                         | padding size | DATA | padding |
+ * </pre>
+ *
+ * <p>An implementation keeps its own per packet state, e.g. the nonce, it's not thread-safe.</p>
+ */
+public interface AeadCipher {
+
+  /**
+   * @return the size of the authentication tag, which follows right after the packet
+   */
+  int getTagSize();
+
+  /**
+   * Positions the cipher at a packet, as if the packets before it were processed, for a cipher
+   * whose state steps with every packet. Several instances can then process the packets of one
+   * direction out of order. A cipher whose state for a packet only depends on the sequence number
+   * has nothing to do.
+   *
+   * @param packets  the number of packets processed with the keys before
+   */
+  default void seek(long packets) {
+  }
+
+  /**
+   * Retrieves the packet length, leaving the buffer unchanged.
+   *
+   * @param buf  the buffer holds the packet received
+   * @param off  the absolute index, in {@code buf}, where the packet starts
+   * @param seq  the sequence number of the packet
+   * @return the value of the packet length field
+   */
+  int getPacketLength(ByteBuf buf, int off, int seq) throws GeneralSecurityException;
+
+  /**
+   * Encrypts the packet in place, and writes the authentication tag right after it. The room for
+   * the tag must be already reserved in the buffer, the writer index is left untouched.
+   *
+   * @param buf  the buffer holds the packet to send
+   * @param off  the absolute index, in {@code buf}, where the packet starts
+   * @param len  the value of the packet length field
+   * @param seq  the sequence number of the packet
+   */
+  void encrypt(ByteBuf buf, int off, int len, int seq) throws GeneralSecurityException;
+
+  /**
+   * Verifies the authentication tag of the packet, and decrypts the packet in place if it matches.
+   *
+   * @param buf  the buffer holds the packet received, along with its authentication tag
+   * @param off  the absolute index, in {@code buf}, where the packet starts
+   * @param len  the value of the packet length field
+   * @param seq  the sequence number of the packet
+   * @throws javax.crypto.AEADBadTagException if the authentication tag doesn't match
+   */
+  void decrypt(ByteBuf buf, int off, int len, int seq) throws GeneralSecurityException;
+}
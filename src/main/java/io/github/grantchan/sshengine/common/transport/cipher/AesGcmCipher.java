@@ -0,0 +1,109 @@
+package io.github.grantchan.sshengine.common.transport.cipher;
+
+import io.github.grantchan.sshengine.arch.SshConstant;
+import io.netty.buffer.ByteBuf;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+
+/**
+ * <p>AES Galois/Counter Mode, as used by aes128-gcm@openssh.com and aes256-gcm@openssh.com</p>
+ *
+ * <p>The packet length is sent in clear and is authenticated as the additional data, the 12-byte
+ * nonce consists of a 4-byte fixed field followed by an 8-byte invocation counter, which is
+ * incremented after every packet.</p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc5647">AES Galois Counter Mode for the Secure Shell
+ * Transport Layer Protocol</a>
+ */
+public class AesGcmCipher implements AeadCipher {
+
+  public static final int NONCE_SIZE = 12;
+  public static final int TAG_SIZE = 16;
+
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+  private final Cipher cipher;
+  private final SecretKeySpec key;
+  private final int mode;
+
+  /** The initial nonce */
+  private final byte[] iv;
+  /** The nonce for the next packet, fixed field followed by the invocation counter */
+  private final byte[] nonce;
+
+  public AesGcmCipher(byte[] key, byte[] iv, int mode) throws GeneralSecurityException {
+    this(key, iv, mode, null);
+  }
+
+  /**
+   * @param provider  the JCA provider to create the underlying cipher from, {@code null} for the
+   *                  default one
+   */
+  public AesGcmCipher(byte[] key, byte[] iv, int mode, Provider provider)
+      throws GeneralSecurityException {
+    this.cipher = (provider == null) ? Cipher.getInstance(TRANSFORMATION)
+                                     : Cipher.getInstance(TRANSFORMATION, provider);
+    this.key = new SecretKeySpec(key, "AES");
+    this.mode = mode;
+    this.iv = iv.clone();
+    this.nonce = iv.clone();
+  }
+
+  @Override
+  public int getTagSize() {
+    return TAG_SIZE;
+  }
+
+  /**
+   * The invocation counter of the packet is the initial one plus the number of packets before it.
+   */
+  @Override
+  public void seek(long packets) {
+    long carry = packets;
+    for (int i = NONCE_SIZE - 1; i >= NONCE_SIZE - Long.BYTES; i--) {
+      long sum = (iv[i] & 0xff) + (carry & 0xff);
+      nonce[i] = (byte) sum;
+      carry = (carry >>> 8) + (sum >>> 8);
+    }
+  }
+
+  @Override
+  public int getPacketLength(ByteBuf buf, int off, int seq) {
+    return buf.getInt(off);
+  }
+
+  @Override
+  public void encrypt(ByteBuf buf, int off, int len, int seq) throws GeneralSecurityException {
+    init(buf, off);
+
+    int from = off + SshConstant.SSH_PACKET_LENGTH;
+    cipher.doFinal(buf.nioBuffer(from, len), buf.nioBuffer(from, len + TAG_SIZE));
+  }
+
+  @Override
+  public void decrypt(ByteBuf buf, int off, int len, int seq) throws GeneralSecurityException {
+    init(buf, off);
+
+    int from = off + SshConstant.SSH_PACKET_LENGTH;
+    cipher.doFinal(buf.nioBuffer(from, len + TAG_SIZE), buf.nioBuffer(from, len));
+  }
+
+  /*
+   * Takes the nonce for the current packet, and steps the invocation counter for the next one.
+   * The length field in the first 4 bytes of the packet is the additional authenticated data.
+   */
+  private void init(ByteBuf buf, int off) throws GeneralSecurityException {
+    cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * Byte.SIZE, nonce));
+    cipher.updateAAD(buf.nioBuffer(off, SshConstant.SSH_PACKET_LENGTH));
+
+    for (int i = NONCE_SIZE - 1; i >= NONCE_SIZE - Long.BYTES; i--) {
+      if (++nonce[i] != 0) {
+        break;
+      }
+    }
+  }
+}
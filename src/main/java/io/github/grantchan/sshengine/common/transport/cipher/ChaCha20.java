@@ -0,0 +1,140 @@
+package io.github.grantchan.sshengine.common.transport.cipher;
+
+/**
+ * <p>The ChaCha20 stream cipher, in its original form: a 64-bit block counter followed by a 64-bit
+ * nonce, as used by chacha20-poly1305@openssh.com</p>
+ *
+ * <p>The state is kept in local variables, and the keystream is produced block by block into a
+ * byte array, the caller XORs it with the data in a plain loop, which the JIT can vectorize.</p>
+ *
+ * @see <a href="https://cr.yp.to/chacha/chacha-20080128.pdf">ChaCha, a variant of Salsa20</a>
+ * @see <a href="https://tools.ietf.org/html/rfc8439#section-2.3">The ChaCha20 Block Function</a>
+ */
+final class ChaCha20 {
+
+  static final int KEY_SIZE = 32;
+  static final int BLOCK_SIZE = 64;
+
+  // "expand 32-byte k"
+  private static final int C0 = 0x61707865;
+  private static final int C1 = 0x3320646e;
+  private static final int C2 = 0x79622d32;
+  private static final int C3 = 0x6b206574;
+
+  private int k0, k1, k2, k3, k4, k5, k6, k7;
+
+  ChaCha20(byte[] key, int off) {
+    setKey(key, off);
+  }
+
+  /**
+   * Replaces the key in place, the instance is then the same as a new one with {@code key}.
+   *
+   * @param key  the array holds the key
+   * @param off  the offset, in {@code key}, where the key starts
+   */
+  void setKey(byte[] key, int off) {
+    k0 = getIntLE(key, off);
+    k1 = getIntLE(key, off + 4);
+    k2 = getIntLE(key, off + 8);
+    k3 = getIntLE(key, off + 12);
+    k4 = getIntLE(key, off + 16);
+    k5 = getIntLE(key, off + 20);
+    k6 = getIntLE(key, off + 24);
+    k7 = getIntLE(key, off + 28);
+  }
+
+  /**
+   * Generates the keystream.
+   *
+   * @param counter  the block counter of the first block
+   * @param n0       the first word of the nonce
+   * @param n1       the second word of the nonce
+   * @param out      the array to hold the keystream
+   * @param off      the offset, in {@code out}, where the keystream starts
+   * @param blocks   the number of blocks to generate
+   */
+  void keystream(long counter, int n0, int n1, byte[] out, int off, int blocks) {
+    for (int b = 0; b < blocks; b++, counter++, off += BLOCK_SIZE) {
+      int x0 = C0, x1 = C1, x2 = C2, x3 = C3;
+      int x4 = k0, x5 = k1, x6 = k2, x7 = k3;
+      int x8 = k4, x9 = k5, x10 = k6, x11 = k7;
+      int x12 = (int) counter, x13 = (int) (counter >>> 32), x14 = n0, x15 = n1;
+
+      for (int i = 0; i < 10; i++) {
+        // column round
+        x0 += x4;  x12 = Integer.rotateLeft(x12 ^ x0, 16);
+        x8 += x12; x4  = Integer.rotateLeft(x4 ^ x8, 12);
+        x0 += x4;  x12 = Integer.rotateLeft(x12 ^ x0, 8);
+        x8 += x12; x4  = Integer.rotateLeft(x4 ^ x8, 7);
+
+        x1 += x5;  x13 = Integer.rotateLeft(x13 ^ x1, 16);
+        x9 += x13; x5  = Integer.rotateLeft(x5 ^ x9, 12);
+        x1 += x5;  x13 = Integer.rotateLeft(x13 ^ x1, 8);
+        x9 += x13; x5  = Integer.rotateLeft(x5 ^ x9, 7);
+
+        x2 += x6;   x14 = Integer.rotateLeft(x14 ^ x2, 16);
+        x10 += x14; x6  = Integer.rotateLeft(x6 ^ x10, 12);
+        x2 += x6;   x14 = Integer.rotateLeft(x14 ^ x2, 8);
+        x10 += x14; x6  = Integer.rotateLeft(x6 ^ x10, 7);
+
+        x3 += x7;   x15 = Integer.rotateLeft(x15 ^ x3, 16);
+        x11 += x15; x7  = Integer.rotateLeft(x7 ^ x11, 12);
+        x3 += x7;   x15 = Integer.rotateLeft(x15 ^ x3, 8);
+        x11 += x15; x7  = Integer.rotateLeft(x7 ^ x11, 7);
+
+        // diagonal round
+        x0 += x5;   x15 = Integer.rotateLeft(x15 ^ x0, 16);
+        x10 += x15; x5  = Integer.rotateLeft(x5 ^ x10, 12);
+        x0 += x5;   x15 = Integer.rotateLeft(x15 ^ x0, 8);
+        x10 += x15; x5  = Integer.rotateLeft(x5 ^ x10, 7);
+
+        x1 += x6;   x12 = Integer.rotateLeft(x12 ^ x1, 16);
+        x11 += x12; x6  = Integer.rotateLeft(x6 ^ x11, 12);
+        x1 += x6;   x12 = Integer.rotateLeft(x12 ^ x1, 8);
+        x11 += x12; x6  = Integer.rotateLeft(x6 ^ x11, 7);
+
+        x2 += x7;  x13 = Integer.rotateLeft(x13 ^ x2, 16);
+        x8 += x13; x7  = Integer.rotateLeft(x7 ^ x8, 12);
+        x2 += x7;  x13 = Integer.rotateLeft(x13 ^ x2, 8);
+        x8 += x13; x7  = Integer.rotateLeft(x7 ^ x8, 7);
+
+        x3 += x4;  x14 = Integer.rotateLeft(x14 ^ x3, 16);
+        x9 += x14; x4  = Integer.rotateLeft(x4 ^ x9, 12);
+        x3 += x4;  x14 = Integer.rotateLeft(x14 ^ x3, 8);
+        x9 += x14; x4  = Integer.rotateLeft(x4 ^ x9, 7);
+      }
+
+      putIntLE(out, off,      x0 + C0);
+      putIntLE(out, off + 4,  x1 + C1);
+      putIntLE(out, off + 8,  x2 + C2);
+      putIntLE(out, off + 12, x3 + C3);
+      putIntLE(out, off + 16, x4 + k0);
+      putIntLE(out, off + 20, x5 + k1);
+      putIntLE(out, off + 24, x6 + k2);
+      putIntLE(out, off + 28, x7 + k3);
+      putIntLE(out, off + 32, x8 + k4);
+      putIntLE(out, off + 36, x9 + k5);
+      putIntLE(out, off + 40, x10 + k6);
+      putIntLE(out, off + 44, x11 + k7);
+      putIntLE(out, off + 48, x12 + (int) counter);
+      putIntLE(out, off + 52, x13 + (int) (counter >>> 32));
+      putIntLE(out, off + 56, x14 + n0);
+      putIntLE(out, off + 60, x15 + n1);
+    }
+  }
+
+  static int getIntLE(byte[] buf, int off) {
+    return (buf[off] & 0xff)
+        | (buf[off + 1] & 0xff) << 8
+        | (buf[off + 2] & 0xff) << 16
+        | (buf[off + 3] & 0xff) << 24;
+  }
+
+  static void putIntLE(byte[] buf, int off, int val) {
+    buf[off]     = (byte) val;
+    buf[off + 1] = (byte) (val >>> 8);
+    buf[off + 2] = (byte) (val >>> 16);
+    buf[off + 3] = (byte) (val >>> 24);
+  }
+}
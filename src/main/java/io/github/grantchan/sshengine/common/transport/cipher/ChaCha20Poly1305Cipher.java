@@ -0,0 +1,161 @@
+package io.github.grantchan.sshengine.common.transport.cipher;
+
+import io.github.grantchan.sshengine.arch.SshConstant;
+import io.netty.buffer.ByteBuf;
+
+import javax.crypto.AEADBadTagException;
+
+/**
+ * <p>chacha20-poly1305@openssh.com, pure Java, for the hosts on which AES is not accelerated.</p>
+ *
+ * <p>The 64-byte key is split in two ChaCha20 keys, K_2 (the first 32 bytes) and K_1 (the last 32
+ * bytes), both use the packet sequence number as nonce:</p>
+ * <ul>
+ *   <li>K_1 encrypts the packet length field alone, with block counter 0</li>
+ *   <li>K_2, with block counter 0, generates the Poly1305 one-time key, and then, from block
+ *       counter 1, encrypts the rest of the packet</li>
+ * </ul>
+ * <p>The Poly1305 tag is computed over the whole encrypted packet, length field included.</p>
+ *
+ * @see <a href="https://cvsweb.openbsd.org/src/usr.bin/ssh/PROTOCOL.chacha20poly1305">
+ *   PROTOCOL.chacha20poly1305</a>
+ */
+public class ChaCha20Poly1305Cipher implements AeadCipher {
+
+  public static final int KEY_SIZE = ChaCha20.KEY_SIZE * 2;
+  public static final int TAG_SIZE = Poly1305.TAG_SIZE;
+
+  /** Number of the keystream blocks generated at a time */
+  private static final int BLOCKS = 64;
+
+  private final ChaCha20 main;
+  private final ChaCha20 header;
+  private final Poly1305 poly1305 = new Poly1305();
+
+  /** Scratch buffers, reused across packets */
+  private final byte[] keystream = new byte[BLOCKS * ChaCha20.BLOCK_SIZE];
+  private final byte[] staged = new byte[BLOCKS * ChaCha20.BLOCK_SIZE];
+  private final byte[] tag = new byte[TAG_SIZE];
+
+  public ChaCha20Poly1305Cipher(byte[] key) {
+    this.main = new ChaCha20(key, 0);
+    this.header = new ChaCha20(key, ChaCha20.KEY_SIZE);
+  }
+
+  @Override
+  public int getTagSize() {
+    return TAG_SIZE;
+  }
+
+  @Override
+  public int getPacketLength(ByteBuf buf, int off, int seq) {
+    header.keystream(0, 0, nonce(seq), keystream, 0, 1);
+
+    int len = 0;
+    for (int i = 0; i < SshConstant.SSH_PACKET_LENGTH; i++) {
+      len = (len << 8) | ((buf.getByte(off + i) ^ keystream[i]) & 0xff);
+    }
+    return len;
+  }
+
+  @Override
+  public void encrypt(ByteBuf buf, int off, int len, int seq) {
+    int n = nonce(seq);
+
+    header.keystream(0, 0, n, keystream, 0, 1);
+    crypt(buf, off, SshConstant.SSH_PACKET_LENGTH);
+
+    crypt(main, n, buf, off + SshConstant.SSH_PACKET_LENGTH, len);
+
+    authenticate(n, buf, off, SshConstant.SSH_PACKET_LENGTH + len);
+    buf.setBytes(off + SshConstant.SSH_PACKET_LENGTH + len, tag);
+  }
+
+  @Override
+  public void decrypt(ByteBuf buf, int off, int len, int seq) throws AEADBadTagException {
+    int n = nonce(seq);
+
+    // verify before decrypt, a forged packet costs no decryption
+    authenticate(n, buf, off, SshConstant.SSH_PACKET_LENGTH + len);
+
+    int diff = 0, pos = off + SshConstant.SSH_PACKET_LENGTH + len;
+    for (int i = 0; i < TAG_SIZE; i++) {
+      diff |= tag[i] ^ buf.getByte(pos + i);
+    }
+    if (diff != 0) {
+      throw new AEADBadTagException("Poly1305 tag mismatch");
+    }
+
+    header.keystream(0, 0, n, keystream, 0, 1);
+    crypt(buf, off, SshConstant.SSH_PACKET_LENGTH);
+
+    crypt(main, n, buf, off + SshConstant.SSH_PACKET_LENGTH, len);
+  }
+
+  /*
+   * The nonce is the 64-bit big-endian sequence number, its high 32 bits are always 0 here, which
+   * leaves the first nonce word 0.
+   */
+  private static int nonce(int seq) {
+    return Integer.reverseBytes(seq);
+  }
+
+  /*
+   * Computes the Poly1305 tag of the segment into the tag buffer, the one-time key is the first 32
+   * bytes of the keystream block 0 of K_2.
+   */
+  private void authenticate(int n, ByteBuf buf, int off, int len) {
+    main.keystream(0, 0, n, keystream, 0, 1);
+    poly1305.init(keystream, 0);
+
+    if (buf.hasArray()) {
+      poly1305.update(buf.array(), buf.arrayOffset() + off, len);
+    } else {
+      for (int end = off + len; off < end; ) {
+        int l = Math.min(staged.length, end - off);
+        buf.getBytes(off, staged, 0, l);
+        poly1305.update(staged, 0, l);
+        off += l;
+      }
+    }
+
+    poly1305.finish(tag, 0);
+  }
+
+  /*
+   * Encrypts, or decrypts, the segment in place with K_2, the block counter starts from 1.
+   */
+  private void crypt(ChaCha20 cc, int n, ByteBuf buf, int off, int len) {
+    long counter = 1;
+    for (int end = off + len; off < end; ) {
+      int l = Math.min(keystream.length, end - off);
+      int blocks = (l + ChaCha20.BLOCK_SIZE - 1) / ChaCha20.BLOCK_SIZE;
+
+      cc.keystream(counter, 0, n, keystream, 0, blocks);
+      crypt(buf, off, l);
+
+      counter += blocks;
+      off += l;
+    }
+  }
+
+  /*
+   * XORs the segment in place with the keystream generated
+   */
+  private void crypt(ByteBuf buf, int off, int len) {
+    if (buf.hasArray()) {
+      xor(buf.array(), buf.arrayOffset() + off, len);
+    } else {
+      buf.getBytes(off, staged, 0, len);
+      xor(staged, 0, len);
+      buf.setBytes(off, staged, 0, len);
+    }
+  }
+
+  private void xor(byte[] data, int off, int len) {
+    byte[] ks = keystream;
+    for (int i = 0; i < len; i++) {
+      data[off + i] ^= ks[i];
+    }
+  }
+}
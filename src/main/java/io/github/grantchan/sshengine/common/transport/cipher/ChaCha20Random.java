@@ -0,0 +1,127 @@
+package io.github.grantchan.sshengine.common.transport.cipher;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * <p>A ChaCha20 based random generator, in the same way as OpenBSD arc4random, for the padding of
+ * the packets and the cookie of the key exchange.</p>
+ *
+ * <p>Every thread, typically an event loop, has its own instance, see {@link #current()}, so the
+ * bytes are handed out without any lock. The keystream is produced 16 blocks at a time, the first
+ * 40 bytes of it are taken as the key and the nonce of the next round straight away, and the bytes
+ * handed out are wiped from the buffer, so the earlier output can't be recovered from the state.
+ * The generator is reseeded from a shared {@link SecureRandom} every 1.6 MB of output, which is the
+ * only time a lock is taken.</p>
+ *
+ * @see <a href="https://cvsweb.openbsd.org/src/lib/libc/crypt/arc4random.c">arc4random.c</a>
+ */
+public final class ChaCha20Random {
+
+  private static final int BUFFER_BLOCKS = 16;
+  private static final int SEED_SIZE = ChaCha20.KEY_SIZE + Long.BYTES;
+  private static final long RESEED_INTERVAL = 1600000;
+
+  private static final SecureRandom seeder = new SecureRandom();
+
+  private static final FastThreadLocal<ChaCha20Random> instances =
+      new FastThreadLocal<ChaCha20Random>() {
+        @Override
+        protected ChaCha20Random initialValue() {
+          return new ChaCha20Random();
+        }
+      };
+
+  private final byte[] buf = new byte[BUFFER_BLOCKS * ChaCha20.BLOCK_SIZE];
+
+  /** Index of the next byte to hand out in {@code buf} */
+  private int pos = buf.length;
+
+  /** Re-keyed in place every round, it starts with an all zero key until the first seed */
+  private final ChaCha20 chacha = new ChaCha20(new byte[ChaCha20.KEY_SIZE], 0);
+  private int n0, n1;
+
+  /** Number of bytes to produce before the next reseed */
+  private long remaining = 0;
+
+  ChaCha20Random() {
+    reseed();
+  }
+
+  /**
+   * @return the instance of the current thread, it must not be shared with other threads
+   */
+  public static ChaCha20Random current() {
+    return instances.get();
+  }
+
+  public void nextBytes(byte[] bytes) {
+    nextBytes(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Fills a range of the array with random bytes.
+   *
+   * @param bytes  the array to fill
+   * @param off    the offset, in {@code bytes}, where the range starts
+   * @param len    the length of the range
+   */
+  public void nextBytes(byte[] bytes, int off, int len) {
+    while (len > 0) {
+      if (pos == buf.length) {
+        refill();
+      }
+
+      int n = Math.min(len, buf.length - pos);
+      System.arraycopy(buf, pos, bytes, off, n);
+      Arrays.fill(buf, pos, pos + n, (byte) 0);
+
+      pos += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  private void refill() {
+    if (remaining <= 0) {
+      reseed();
+    }
+
+    chacha.keystream(0, n0, n1, buf, 0, BUFFER_BLOCKS);
+
+    // fast key erasure, the head of the keystream becomes the key of the next round
+    rekey(buf);
+    Arrays.fill(buf, 0, SEED_SIZE, (byte) 0);
+
+    pos = SEED_SIZE;
+    remaining -= buf.length - SEED_SIZE;
+  }
+
+  /*
+   * Takes a fresh seed from the system, mixed with the current keystream.
+   */
+  private void reseed() {
+    byte[] seed = new byte[SEED_SIZE];
+    seeder.nextBytes(seed);
+
+    byte[] ks = new byte[ChaCha20.BLOCK_SIZE];
+    chacha.keystream(0, n0, n1, ks, 0, 1);
+    for (int i = 0; i < SEED_SIZE; i++) {
+      seed[i] ^= ks[i];
+    }
+    Arrays.fill(ks, (byte) 0);
+
+    rekey(seed);
+    Arrays.fill(seed, (byte) 0);
+
+    remaining = RESEED_INTERVAL;
+  }
+
+  private void rekey(byte[] seed) {
+    chacha.setKey(seed, 0);
+    n0 = ChaCha20.getIntLE(seed, ChaCha20.KEY_SIZE);
+    n1 = ChaCha20.getIntLE(seed, ChaCha20.KEY_SIZE + 4);
+  }
+}
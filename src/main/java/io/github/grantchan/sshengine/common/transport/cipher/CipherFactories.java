@@ -1,5 +1,6 @@
 package io.github.grantchan.sshengine.common.transport.cipher;
 
+import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.common.NamedObject;
 import io.github.grantchan.sshengine.common.SshException;
 import io.github.grantchan.sshengine.util.buffer.Bytes;
@@ -8,17 +9,87 @@ import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Set;
 
 public enum CipherFactories implements NamedObject, CipherFactory {
 
+  /*
+   * AES-GCM encrypts and authenticates the packet in a single pass, the MAC negotiated is
+   * ignored, the 16-byte authentication tag takes its place.
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc5647">AES Galois Counter Mode for the Secure
+   * Shell Transport Layer Protocol</a>
+   */
+  aes256gcm("aes256-gcm@openssh.com", "AES", "AES/GCM/NoPadding",
+      AesGcmCipher.NONCE_SIZE, 32, 16, AesGcmCipher.TAG_SIZE) {
+    @Override
+    public AeadCipher createAead(byte[] key, byte[] iv, int mode) throws SshException {
+      return createAesGcm(key, iv, mode);
+    }
+  },
+  aes128gcm("aes128-gcm@openssh.com", "AES", "AES/GCM/NoPadding",
+      AesGcmCipher.NONCE_SIZE, 16, 16, AesGcmCipher.TAG_SIZE) {
+    @Override
+    public AeadCipher createAead(byte[] key, byte[] iv, int mode) throws SshException {
+      return createAesGcm(key, iv, mode);
+    }
+  },
+
+  /*
+   * ChaCha20 with Poly1305 as the authenticator, the packet length field is encrypted with a
+   * separate key, the MAC negotiated is ignored. It's implemented in pure Java, and it's faster
+   * than AES on the hosts without AES instructions.
+   *
+   * @see <a href="https://cvsweb.openbsd.org/src/usr.bin/ssh/PROTOCOL.chacha20poly1305">
+   *   PROTOCOL.chacha20poly1305</a>
+   */
+  chacha20poly1305("chacha20-poly1305@openssh.com", "ChaCha20", "ChaCha20-Poly1305",
+      0, ChaCha20Poly1305Cipher.KEY_SIZE, 8, ChaCha20Poly1305Cipher.TAG_SIZE) {
+    @Override
+    public AeadCipher createAead(byte[] key, byte[] iv, int mode) {
+      return new ChaCha20Poly1305Cipher(Bytes.resize(key, getBlkSize()));
+    }
+
+    @Override
+    public boolean isProvided() {
+      return false;
+    }
+  },
+
   aes256cbc("aes256-cbc", "AES", "AES/CBC/NoPadding", 16, 32),
-  aes256ctr("aes256-ctr", "AES", "AES/CTR/NoPadding", 16, 32);
+
+  /*
+   * The counter of a packet is the IV plus the number of cipher blocks encrypted before it, so the
+   * cipher can be positioned at any packet.
+   */
+  aes256ctr("aes256-ctr", "AES", "AES/CTR/NoPadding", 16, 32) {
+    @Override
+    public boolean isSeekable() {
+      return true;
+    }
+
+    @Override
+    public void seek(Cipher cip, byte[] key, byte[] iv, int mode, long blocks) throws SshException {
+      byte[] ctr = Bytes.resize(iv, getIvSize()).clone();
+
+      // add the number of blocks to the big-endian counter, which wraps around
+      long carry = blocks;
+      for (int i = ctr.length - 1; i >= 0 && carry != 0; i--) {
+        long sum = (ctr[i] & 0xff) + (carry & 0xff);
+        ctr[i] = (byte) sum;
+        carry = (carry >>> 8) + (sum >>> 8);
+      }
+
+      init(cip, Bytes.resize(key, getBlkSize()), ctr, mode);
+    }
+  };
 
   private static final Set<CipherFactories> values =
       Collections.unmodifiableSet(EnumSet.allOf(CipherFactories.class));
@@ -28,13 +99,26 @@ public enum CipherFactories implements NamedObject, CipherFactory {
   private final String transformation;
   private final int ivSize;
   private final int blkSize;
+  /** The packet is padded until its length is a multiple of this size */
+  private final int alignment;
+  /** Size of the authentication tag, 0 if it's not an authenticated encryption cipher */
+  private final int tagSize;
+  /** The JCA provider to create the instances from, {@code null} for the default one */
+  private volatile Provider provider;
 
   CipherFactories(String name, String algorithm, String transformation, int ivSize, int blkSize) {
+    this(name, algorithm, transformation, ivSize, blkSize, ivSize, 0);
+  }
+
+  CipherFactories(String name, String algorithm, String transformation, int ivSize, int blkSize,
+                  int alignment, int tagSize) {
     this.name = name;
     this.algorithm = algorithm;
     this.transformation = transformation;
     this.ivSize = ivSize;
     this.blkSize = blkSize;
+    this.alignment = alignment;
+    this.tagSize = tagSize;
   }
 
   @Override
@@ -46,6 +130,10 @@ public enum CipherFactories implements NamedObject, CipherFactory {
     return this.algorithm;
   }
 
+  public String getTransformation() {
+    return this.transformation;
+  }
+
   public int getIvSize() {
     return this.ivSize;
   }
@@ -54,11 +142,102 @@ public enum CipherFactories implements NamedObject, CipherFactory {
     return this.blkSize;
   }
 
+  public int getAlignment() {
+    return this.alignment;
+  }
+
+  public int getTagSize() {
+    return this.tagSize;
+  }
+
+  /**
+   * @return true if it's an authenticated encryption cipher, which is created by
+   * {@link #createAead(byte[], byte[], int)}, and replaces the MAC
+   */
+  public boolean isAead() {
+    return this.tagSize > 0;
+  }
+
+  /**
+   * @return true if the cipher can be positioned at any packet, with
+   * {@link #seek(Cipher, byte[], byte[], int, long)}, or {@link AeadCipher#seek(long)}, so the
+   * packets can be encrypted out of order, by several instances. It's not the case for CBC, which
+   * chains every packet to the one before.
+   */
+  public boolean isSeekable() {
+    return isAead();
+  }
+
+  /**
+   * Positions a cipher created by {@link #create(byte[], byte[], int)} at a cipher block of the
+   * stream, as if the blocks before it were processed.
+   *
+   * @param cip     the cipher
+   * @param key     the encryption key it's created with
+   * @param iv      the initial IV it's created with
+   * @param mode    the mode it's created with
+   * @param blocks  the number of cipher blocks processed before
+   * @throws SshException if the cipher can't be positioned
+   */
+  public void seek(Cipher cip, byte[] key, byte[] iv, int mode, long blocks) throws SshException {
+    throw new SshException(SshMessage.SSH_DISCONNECT_KEY_EXCHANGE_FAILED,
+        "Not a seekable cipher - name:" + name);
+  }
+
+  /**
+   * @return true if the instances are created by a JCA provider, so that
+   * {@link #setProvider(Provider)} applies to them
+   */
+  public boolean isProvided() {
+    return true;
+  }
+
+  /**
+   * @return the JCA provider pinned to this cipher, {@code null} if the default one is used
+   */
+  public Provider getProvider() {
+    return this.provider;
+  }
+
+  /**
+   * Pins the JCA provider of this cipher, the instances created afterwards come from it.
+   *
+   * @param provider  the provider, {@code null} to fall back to the default one
+   */
+  public void setProvider(Provider provider) {
+    this.provider = provider;
+  }
+
+  /**
+   * @return create a new {@link AeadCipher} instance
+   * @throws SshException if it's not an authenticated encryption cipher
+   */
+  public AeadCipher createAead(byte[] key, byte[] iv, int mode) throws SshException {
+    throw new SshException(SshMessage.SSH_DISCONNECT_KEY_EXCHANGE_FAILED,
+        "Not an authenticated encryption cipher - name:" + name);
+  }
+
+  AeadCipher createAesGcm(byte[] key, byte[] iv, int mode) throws SshException {
+    key = Bytes.resize(key, getBlkSize());
+    iv = Bytes.resize(iv, getIvSize());
+
+    try {
+      return new AesGcmCipher(key, iv, mode, provider);
+    } catch (GeneralSecurityException e) {
+      String message =
+          String.format("Failed to create cipher instance - name:%s, algorithm:%s, transformation:%s",
+              name, algorithm, transformation);
+
+      throw new SshException(message, e);
+    }
+  }
+
   @Override
   public Cipher create(byte[] key, byte[] iv, int mode) throws SshException {
     Cipher cip;
     try {
-      cip = Cipher.getInstance(transformation);
+      Provider p = provider;
+      cip = (p == null) ? Cipher.getInstance(transformation) : Cipher.getInstance(transformation, p);
     } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
       String message =
           String.format("Failed to create cipher instance - name:%s, algorithm:%s, transformation:%s",
@@ -67,9 +246,12 @@ public enum CipherFactories implements NamedObject, CipherFactory {
       throw new SshException(message, e);
     }
 
-    key = Bytes.resize(key, getBlkSize());
-    iv = Bytes.resize(iv, getIvSize());
+    init(cip, Bytes.resize(key, getBlkSize()), Bytes.resize(iv, getIvSize()), mode);
+
+    return cip;
+  }
 
+  void init(Cipher cip, byte[] key, byte[] iv, int mode) throws SshException {
     try {
       cip.init(mode, new SecretKeySpec(key, getAlgorithm()), new IvParameterSpec(iv));
     } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
@@ -79,8 +261,6 @@ public enum CipherFactories implements NamedObject, CipherFactory {
 
       throw new SshException(message, e);
     }
-
-    return cip;
   }
 
   public static String getNames() {
@@ -93,6 +273,7 @@ public enum CipherFactories implements NamedObject, CipherFactory {
 
   @Override
   public String toString() {
-    return name + "[" + algorithm + "," + transformation + "," + ivSize + "," + blkSize + "]";
+    return name + "[" + algorithm + "," + transformation + "," + ivSize + "," + blkSize
+        + (isAead() ? "," + tagSize : "") + "]";
   }
 }
@@ -0,0 +1,159 @@
+package io.github.grantchan.sshengine.common.transport.cipher;
+
+import static io.github.grantchan.sshengine.common.transport.cipher.ChaCha20.getIntLE;
+import static io.github.grantchan.sshengine.common.transport.cipher.ChaCha20.putIntLE;
+
+/**
+ * <p>The Poly1305 one-time authenticator, the accumulator is kept in five 26-bit limbs, so the
+ * products fit in a long.</p>
+ *
+ * <p>An instance is reused, {@link #init(byte[], int)} starts over with a new one-time key.</p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc8439#section-2.5">The Poly1305 Algorithm</a>
+ */
+final class Poly1305 {
+
+  static final int KEY_SIZE = 32;
+  static final int TAG_SIZE = 16;
+
+  private static final int BLOCK_SIZE = 16;
+  private static final long MASK = 0x3ffffff;
+
+  private long r0, r1, r2, r3, r4;
+  private long s1, s2, s3, s4;
+  private long h0, h1, h2, h3, h4;
+  private int pad0, pad1, pad2, pad3;
+
+  /** Holds the bytes which don't make a full block yet */
+  private final byte[] partial = new byte[BLOCK_SIZE];
+  private int partialLen;
+
+  void init(byte[] key, int off) {
+    // r &= 0xffffffc0ffffffc0ffffffc0fffffff
+    r0 = getIntLE(key, off) & 0x3ffffff;
+    r1 = (getIntLE(key, off + 3) >>> 2) & 0x3ffff03;
+    r2 = (getIntLE(key, off + 6) >>> 4) & 0x3ffc0ff;
+    r3 = (getIntLE(key, off + 9) >>> 6) & 0x3f03fff;
+    r4 = (getIntLE(key, off + 12) >>> 8) & 0x00fffff;
+
+    s1 = r1 * 5;
+    s2 = r2 * 5;
+    s3 = r3 * 5;
+    s4 = r4 * 5;
+
+    h0 = h1 = h2 = h3 = h4 = 0;
+
+    pad0 = getIntLE(key, off + 16);
+    pad1 = getIntLE(key, off + 20);
+    pad2 = getIntLE(key, off + 24);
+    pad3 = getIntLE(key, off + 28);
+
+    partialLen = 0;
+  }
+
+  void update(byte[] m, int off, int len) {
+    if (partialLen > 0) {
+      int n = Math.min(BLOCK_SIZE - partialLen, len);
+      System.arraycopy(m, off, partial, partialLen, n);
+      partialLen += n;
+      off += n;
+      len -= n;
+
+      if (partialLen < BLOCK_SIZE) {
+        return;
+      }
+      block(partial, 0, 1 << 24);
+      partialLen = 0;
+    }
+
+    for (; len >= BLOCK_SIZE; off += BLOCK_SIZE, len -= BLOCK_SIZE) {
+      block(m, off, 1 << 24);
+    }
+
+    if (len > 0) {
+      System.arraycopy(m, off, partial, 0, len);
+      partialLen = len;
+    }
+  }
+
+  /**
+   * Finishes the computation, and writes the 16-byte tag to {@code out}.
+   */
+  void finish(byte[] out, int off) {
+    if (partialLen > 0) {
+      partial[partialLen] = 1;
+      for (int i = partialLen + 1; i < BLOCK_SIZE; i++) {
+        partial[i] = 0;
+      }
+      block(partial, 0, 0);
+      partialLen = 0;
+    }
+
+    // fully carry h
+    long c;
+    c = h1 >>> 26; h1 &= MASK; h2 += c;
+    c = h2 >>> 26; h2 &= MASK; h3 += c;
+    c = h3 >>> 26; h3 &= MASK; h4 += c;
+    c = h4 >>> 26; h4 &= MASK; h0 += c * 5;
+    c = h0 >>> 26; h0 &= MASK; h1 += c;
+
+    // compute h - p, and take it if it's not negative
+    long g0 = h0 + 5;
+    c = g0 >>> 26; g0 &= MASK;
+    long g1 = h1 + c;
+    c = g1 >>> 26; g1 &= MASK;
+    long g2 = h2 + c;
+    c = g2 >>> 26; g2 &= MASK;
+    long g3 = h3 + c;
+    c = g3 >>> 26; g3 &= MASK;
+    long g4 = h4 + c - (1 << 26);
+
+    long mask = ~(g4 >> 63);
+    h0 = (h0 & ~mask) | (g0 & mask);
+    h1 = (h1 & ~mask) | (g1 & mask);
+    h2 = (h2 & ~mask) | (g2 & mask);
+    h3 = (h3 & ~mask) | (g3 & mask);
+    h4 = (h4 & ~mask) | (g4 & mask & MASK);
+
+    // h = (h + pad) % 2^128
+    long f0 = ((h0      ) | (h1 << 26)) & 0xffffffffL;
+    long f1 = ((h1 >>> 6) | (h2 << 20)) & 0xffffffffL;
+    long f2 = ((h2 >>> 12) | (h3 << 14)) & 0xffffffffL;
+    long f3 = ((h3 >>> 18) | (h4 << 8)) & 0xffffffffL;
+
+    f0 += pad0 & 0xffffffffL;
+    f1 += (pad1 & 0xffffffffL) + (f0 >>> 32);
+    f2 += (pad2 & 0xffffffffL) + (f1 >>> 32);
+    f3 += (pad3 & 0xffffffffL) + (f2 >>> 32);
+
+    putIntLE(out, off,      (int) f0);
+    putIntLE(out, off + 4,  (int) f1);
+    putIntLE(out, off + 8,  (int) f2);
+    putIntLE(out, off + 12, (int) f3);
+  }
+
+  /*
+   * h = (h + m) * r mod 2^130 - 5, hibit is 2^128, in the top limb, for a full block
+   */
+  private void block(byte[] m, int off, int hibit) {
+    h0 += getIntLE(m, off) & 0x3ffffff;
+    h1 += (getIntLE(m, off + 3) >>> 2) & 0x3ffffff;
+    h2 += (getIntLE(m, off + 6) >>> 4) & 0x3ffffff;
+    h3 += (getIntLE(m, off + 9) >>> 6) & 0x3ffffff;
+    h4 += (getIntLE(m, off + 12) >>> 8) | hibit;
+
+    long d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+    long d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+    long d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+    long d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+    long d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+    long c;
+    c = d0 >>> 26; h0 = d0 & MASK; d1 += c;
+    c = d1 >>> 26; h1 = d1 & MASK; d2 += c;
+    c = d2 >>> 26; h2 = d2 & MASK; d3 += c;
+    c = d3 >>> 26; h3 = d3 & MASK; d4 += c;
+    c = d4 >>> 26; h4 = d4 & MASK; h0 += c * 5;
+    c = h0 >>> 26; h0 &= MASK; h1 += c;
+  }
+}
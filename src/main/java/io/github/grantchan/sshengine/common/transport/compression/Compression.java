@@ -1,10 +1,46 @@
 package io.github.grantchan.sshengine.common.transport.compression;
 
+import io.netty.buffer.ByteBuf;
+
 import java.io.IOException;
 
+/**
+ * <p>The compression of the packets of one direction, it's a single stream for the whole
+ * connection, as RFC 4253 requires, each packet is flushed rather than finished, so the context of
+ * the previous packets is kept for the next ones.</p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc4253#section-6.2">Compression</a>
+ */
 public interface Compression {
 
-  byte[] compress(byte[] data);
+  /**
+   * Compresses the readable bytes of {@code src}, and appends the result to {@code dst}.
+   *
+   * @param src  the payload, it's fully read
+   * @param dst  the buffer to write the compressed payload to
+   */
+  void compress(ByteBuf src, ByteBuf dst);
+
+  /**
+   * Decompresses the readable bytes of {@code src}, and appends the result to {@code dst}.
+   *
+   * @param src     the compressed payload, it's fully read
+   * @param dst     the buffer to write the payload to
+   * @param maxLen  the maximum number of bytes the payload may be decompressed to
+   * @throws IOException if the data is corrupted, or it's decompressed to more than
+   *                     {@code maxLen} bytes
+   */
+  void decompress(ByteBuf src, ByteBuf dst, int maxLen) throws IOException;
+
+  /**
+   * @return the level the packets are compressed at, it's only meaningful for the outgoing
+   * packets
+   */
+  int getLevel();
 
-  byte[] decompress(byte[] data) throws IOException;
+  /**
+   * @return the size of the compressed payloads over the size of the payloads, it's only
+   * meaningful for the outgoing packets
+   */
+  double getRatio();
 }
@@ -0,0 +1,90 @@
+package io.github.grantchan.sshengine.common.transport.compression;
+
+import io.github.grantchan.sshengine.util.LazySupplier;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>The share of the CPU time the compression of all the sessions may take, it's shared by the
+ * {@link DelayedZLib} instances, which back off to the fastest level while it's exceeded.</p>
+ *
+ * <p>The time spent compressing is summed up over windows of fixed length, the budget is exceeded
+ * if it's more than the share of the time of all the processors, in the last window, or already
+ * in the current one.</p>
+ */
+public class CompressionBudget {
+
+  private static final double DEFAULT_SHARE = 0.5;
+
+  private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static final LazySupplier<CompressionBudget> DEFAULT =
+      new LazySupplier<CompressionBudget>() {
+        @Override
+        protected CompressionBudget initialize() {
+          return new CompressionBudget(Runtime.getRuntime().availableProcessors(), DEFAULT_SHARE);
+        }
+      };
+
+  /** The compression time allowed in a window */
+  private final long allowance;
+
+  private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+  private final LongAdder spent = new LongAdder();
+
+  /** The compression time in the last window that's over */
+  private volatile long lastSpent = 0;
+
+  /**
+   * @param nCpus  the number of processors
+   * @param share  the share of their time the compression may take, between 0 and 1
+   */
+  public CompressionBudget(int nCpus, double share) {
+    if (nCpus <= 0 || share < 0 || share > 1) {
+      throw new IllegalArgumentException("Invalid budget: " + share + " of " + nCpus + " CPUs");
+    }
+    this.allowance = (long) (WINDOW_NANOS * nCpus * share);
+  }
+
+  /**
+   * @return the budget shared by all the sessions, half of the time of all the processors
+   */
+  public static CompressionBudget getDefault() {
+    return DEFAULT.get();
+  }
+
+  /**
+   * Adds the time spent compressing a packet.
+   *
+   * @param nanos  the time, in nanoseconds
+   */
+  public void spend(long nanos) {
+    roll(System.nanoTime());
+    spent.add(nanos);
+  }
+
+  /**
+   * @return true if the compression has taken more than its share of the processors' time
+   */
+  public boolean isExceeded() {
+    roll(System.nanoTime());
+    return lastSpent > allowance || spent.sum() > allowance;
+  }
+
+  /*
+   * Starts a new window once the current one is over, only one of the threads getting here at the
+   * same time does it, the time added by the others meanwhile may end up in either window.
+   */
+  private void roll(long now) {
+    long start = windowStart.get();
+    long elapsed = now - start;
+    if (elapsed < WINDOW_NANOS || !windowStart.compareAndSet(start, now)) {
+      return;
+    }
+
+    // scaled to the length of a window, the last one may have been longer if it was idle
+    lastSpent = (long) ((double) spent.sumThenReset() * WINDOW_NANOS / elapsed);
+  }
+}
@@ -1,46 +1,245 @@
 package io.github.grantchan.sshengine.common.transport.compression;
 
-import java.io.ByteArrayOutputStream;
+import io.github.grantchan.sshengine.arch.SshMessage;
+import io.github.grantchan.sshengine.common.SshException;
+import io.netty.buffer.ByteBuf;
+
 import java.io.IOException;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
+/**
+ * <p>The "zlib@openssh.com" compression, zlib that's only started once the user is authenticated,
+ * which is up to the packet codecs.</p>
+ *
+ * <p>The deflater and the inflater are kept for the life of the connection, each packet is
+ * compressed with {@link Deflater#SYNC_FLUSH}, so it ends on a byte boundary and can be
+ * decompressed right away, while the dictionary built by the previous packets is kept. The data
+ * goes from one {@link ByteBuf} to another, through their backing arrays when they have one,
+ * otherwise through a scratch array, which is reused for every packet.</p>
+ *
+ * <p>The compression level adapts to the data. The ratio achieved is sampled every
+ * {@value #SAMPLE_SIZE} bytes: the data that hardly compresses, like archives or images, is sent
+ * in stored blocks, with level 0, and the level is raised step by step for the data that
+ * compresses well, like text, as long as the {@link CompressionBudget} isn't exceeded, otherwise
+ * it's back to the fastest level. Every level is understood by the other side, they only differ
+ * in how hard the deflater tries.</p>
+ */
 public class DelayedZLib implements Compression {
 
   private static final int BUFFER_SIZE = 1024;
 
-  private final Deflater deflater = new Deflater();
+  /** The number of bytes compressed at a level, before the ratio is checked */
+  static final int SAMPLE_SIZE = 64 * 1024;
+
+  /** The samples sent in stored blocks, before trying to compress again */
+  private static final int STORED_SAMPLES = 16;
+
+  /** Above this ratio, the data is considered incompressible */
+  private static final double STORE_RATIO = 0.9;
+  /** Below this ratio, a higher level is worth trying */
+  private static final double RAISE_RATIO = 0.5;
+
+  /** The level zlib uses by default, {@link Deflater#DEFAULT_COMPRESSION} */
+  private static final int DEFAULT_LEVEL = 6;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private final Deflater deflater = new Deflater(DEFAULT_LEVEL);
   private final Inflater inflater = new Inflater();
 
+  private final CompressionBudget budget;
+
+  /** For the data of a buffer without a backing array, it grows as needed */
+  private byte[] in = new byte[BUFFER_SIZE];
+  private byte[] out = new byte[BUFFER_SIZE];
+
+  private int level = DEFAULT_LEVEL;
+  private int samplesStored = 0;
+
+  private long sampleIn = 0;
+  private long sampleOut = 0;
+  private long totalIn = 0;
+  private long totalOut = 0;
+
+  public DelayedZLib() {
+    this(CompressionBudget.getDefault());
+  }
+
+  /**
+   * @param budget  the CPU time budget of the compression, shared with the other sessions
+   */
+  public DelayedZLib(CompressionBudget budget) {
+    this.budget = budget;
+  }
+
   @Override
-  public byte[] compress(byte[] data) {
-    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+  public void compress(ByteBuf src, ByteBuf dst) {
+    long start = System.nanoTime();
+    int len = src.readableBytes();
+    int from = dst.writerIndex();
+
+    if (src.hasArray()) {
+      deflater.setInput(src.array(), src.arrayOffset() + src.readerIndex(), len);
+    } else {
+      deflater.setInput(input(src, len), 0, len);
+    }
+    src.skipBytes(len);
+
+    deflate(dst);
 
-    deflater.setInput(data);
-    deflater.finish();
+    int n = dst.writerIndex() - from;
+    budget.spend(System.nanoTime() - start);
 
-    byte[] buf = new byte[BUFFER_SIZE];
-    for (int len = deflater.deflate(buf); len > 0; len = deflater.deflate(buf)) {
-      out.write(buf, 0, len);
+    totalIn += len;
+    totalOut += n;
+
+    sampleIn += len;
+    sampleOut += n;
+    if (sampleIn >= SAMPLE_SIZE) {
+      adapt(dst);
     }
-    return out.toByteArray();
   }
 
+  /*
+   * Deflater#deflate(byte[], int, int, int):
+   * In the case of FULL_FLUSH or SYNC_FLUSH, if the return value is len, the space available in
+   * output buffer b, this method should be invoked again with the same flush parameter and more
+   * output space.
+   */
+  private void deflate(ByteBuf dst) {
+    int n, room;
+    do {
+      dst.ensureWritable(BUFFER_SIZE);
+      room = dst.writableBytes();
+
+      if (dst.hasArray()) {
+        n = deflater.deflate(dst.array(), dst.arrayOffset() + dst.writerIndex(), room,
+            Deflater.SYNC_FLUSH);
+        dst.writerIndex(dst.writerIndex() + n);
+      } else {
+        room = Math.min(room, out.length);
+        n = deflater.deflate(out, 0, room, Deflater.SYNC_FLUSH);
+        dst.writeBytes(out, 0, n);
+      }
+    } while (n == room);
+  }
+
+  /*
+   * Picks the level of the next sample from the ratio of the last one.
+   */
+  private void adapt(ByteBuf dst) {
+    double ratio = (double) sampleOut / sampleIn;
+    sampleIn = sampleOut = 0;
+
+    int next;
+    if (level == Deflater.NO_COMPRESSION) {
+      // stored blocks are never smaller, so it's the only way to find out if the data has changed
+      next = (++samplesStored < STORED_SAMPLES) ? level : Deflater.BEST_SPEED;
+    } else if (ratio > STORE_RATIO) {
+      next = Deflater.NO_COMPRESSION;
+    } else if (budget.isExceeded()) {
+      next = Deflater.BEST_SPEED;
+    } else if (ratio < RAISE_RATIO) {
+      next = Math.min(level + 1, Deflater.BEST_COMPRESSION);
+    } else {
+      next = level;
+    }
+
+    if (next != level) {
+      setLevel(next, dst);
+    }
+  }
+
+  /*
+   * The new level is taken into use by the next call to deflate, which doesn't compress the input
+   * given, but only what's pending with the old level, so it's done with no input here, before
+   * the next packet. What it outputs, if anything, belongs to the packet just compressed.
+   */
+  private void setLevel(int next, ByteBuf dst) {
+    level = next;
+    samplesStored = 0;
+
+    deflater.setLevel(next);
+    deflater.setInput(EMPTY);
+    deflate(dst);
+  }
+
+  /**
+   * @return the level the next packet is compressed at, from 0, for stored blocks, to 9
+   */
   @Override
-  public byte[] decompress(byte[] data) throws IOException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+  public int getLevel() {
+    return level;
+  }
 
+  /**
+   * @return the size of the compressed data over the size of the data, since the compression
+   * started, 1 if nothing is compressed yet
+   */
+  @Override
+  public double getRatio() {
+    return (totalIn == 0) ? 1 : (double) totalOut / totalIn;
+  }
+
+  @Override
+  public void decompress(ByteBuf src, ByteBuf dst, int maxLen) throws IOException {
+    int len = src.readableBytes();
+    if (src.hasArray()) {
+      inflater.setInput(src.array(), src.arrayOffset() + src.readerIndex(), len);
+    } else {
+      inflater.setInput(input(src, len), 0, len);
+    }
+    src.skipBytes(len);
+
+    int total = 0;
     try {
-      inflater.setInput(data);
+      while (true) {
+        // one byte over the limit is enough to tell it's exceeded
+        dst.ensureWritable(Math.min(BUFFER_SIZE, maxLen - total + 1));
+        int room = Math.min(dst.writableBytes(), maxLen - total + 1);
 
-      byte[] buf = new byte[BUFFER_SIZE];
-      for (int len = inflater.inflate(buf); len > 0; len = inflater.inflate(buf)) {
-        out.write(buf, 0, len);
+        int n;
+        if (dst.hasArray()) {
+          n = inflater.inflate(dst.array(), dst.arrayOffset() + dst.writerIndex(), room);
+          dst.writerIndex(dst.writerIndex() + n);
+        } else {
+          n = inflater.inflate(out, 0, Math.min(room, out.length));
+          dst.writeBytes(out, 0, n);
+        }
+
+        total += n;
+        if (total > maxLen) {
+          throw new SshException(SshMessage.SSH_DISCONNECT_COMPRESSION_ERROR,
+              "Decompressed payload exceeds " + maxLen + " bytes");
+        }
+
+        if (n == 0) {
+          if (inflater.needsInput() || inflater.finished()) {
+            return;
+          }
+          if (inflater.needsDictionary()) {
+            throw new SshException(SshMessage.SSH_DISCONNECT_COMPRESSION_ERROR,
+                "Error decompressing data - preset dictionary required");
+          }
+        }
       }
-      return out.toByteArray();
     } catch (DataFormatException e) {
-      throw new IOException("Error decompressing data");
+      throw new SshException(SshMessage.SSH_DISCONNECT_COMPRESSION_ERROR,
+          "Error decompressing data", e);
+    }
+  }
+
+  /*
+   * Copies the data of a buffer without a backing array to the scratch array, the deflater and the
+   * inflater only take arrays on Java 8.
+   */
+  private byte[] input(ByteBuf src, int len) {
+    if (in.length < len) {
+      in = new byte[Math.max(len, in.length << 1)];
     }
+    src.getBytes(src.readerIndex(), in, 0, len);
+    return in;
   }
 }
@@ -9,6 +9,7 @@ import io.github.grantchan.sshengine.common.transport.kex.KexGroup;
 import io.github.grantchan.sshengine.common.transport.kex.KexGroupFactories;
 import io.github.grantchan.sshengine.common.transport.kex.KexProposal;
 import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
+import io.github.grantchan.sshengine.util.buffer.Bytes;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
@@ -137,6 +138,12 @@ public abstract class AbstractReqHandler extends ChannelInboundHandlerAdapter
      *
      * @see <a href="https://tools.ietf.org/html/rfc4253#section-7.1">Algorithm Negotiation</a>
      */
+    // a key re-exchange started by the other side, ours is sent in reply, before the messages of
+    // the key exchange method
+    if (!session.isKexInitSent()) {
+      session.sendKexInit();
+    }
+
     int startPos = msg.readerIndex();
     msg.skipBytes(SshConstant.MSG_KEX_COOKIE_SIZE);
 
@@ -158,6 +165,34 @@ public abstract class AbstractReqHandler extends ChannelInboundHandlerAdapter
 
   protected abstract List<String> resolveKexInit(ByteBuf buf);
 
+  @Override
+  public void handleNewKeys(ByteBuf req) throws SshException {
+    AbstractSession session = Objects.requireNonNull(getSession(), "Session is not initialized");
+
+    /*
+     * RFC 4253:
+     * The other side sends SSH_MSG_NEWKEYS:
+     *   byte      SSH_MSG_NEWKEYS
+     *
+     * Key exchange ends by each side sending an SSH_MSG_NEWKEYS message.
+     * This message is sent with the old keys and algorithms.  All messages
+     * sent after this message MUST use the new keys and algorithms.
+     *
+     * When this message is received, the new keys and algorithms MUST be
+     * used for receiving.
+     *
+     * The purpose of this message is to ensure that a party is able to
+     * respond with an SSH_MSG_DISCONNECT message that the other party can
+     * understand if something goes wrong with the key exchange.
+     *
+     * @see <a href="https://tools.ietf.org/html/rfc4253#section-7.3">Taking Keys Into Use</a>
+     */
+    logger.debug("{} Session ID: {}", session, Bytes.md5(session.getRawId()));
+
+    // the keys were derived when our SSH_MSG_NEWKEYS was sent
+    session.takeNewInKeys();
+  }
+
   public void handleServiceRequest(ByteBuf req) throws SshException {
   }
 
@@ -4,9 +4,11 @@ import io.github.grantchan.sshengine.arch.SshConstant;
 import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.common.AbstractSession;
 import io.github.grantchan.sshengine.common.SshException;
+import io.github.grantchan.sshengine.common.transport.cipher.AeadCipher;
 import io.github.grantchan.sshengine.common.transport.compression.Compression;
-import io.github.grantchan.sshengine.util.buffer.Bytes;
+import io.github.grantchan.sshengine.common.transport.kex.CryptoContext;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
@@ -14,6 +16,7 @@ import io.netty.util.ReferenceCountUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -24,10 +27,21 @@ public class PacketDecoder extends ChannelInboundHandlerAdapter
 
   private static final Logger logger = LoggerFactory.getLogger(PacketDecoder.class);
 
+  /** Retained capacity of the accumulate buffer, above which it's shrunk when it's mostly read */
+  private static final int RETAINED_CAPACITY = 64 * 1024;
+
   private final AbstractSession session;
 
+  /**
+   * The bytes received, but not decoded yet, it's the inbound buffer itself as long as it's
+   * decoded in full, and only merged with the next one when a packet spans them. It's released as
+   * soon as it's fully read, so an idle session doesn't hold a buffer.
+   */
   private ByteBuf accrued;
 
+  /** Allocates the accumulate buffers, and the buffers of the decompressed payloads */
+  private ByteBufAllocator alloc;
+
  /**
   * <p>An indicator remembers which decoding step is currently at.</p>
   *
@@ -44,6 +58,9 @@ public class PacketDecoder extends ChannelInboundHandlerAdapter
   /** Packet sequence number */
   private AtomicInteger seq = new AtomicInteger(0);
 
+  /** Scratch state to decrypt and verify the packets in place */
+  private final PacketScratch scratch = new PacketScratch();
+
   /** Total number of bytes of packets received */
   private AtomicLong bytesOfPacket = new AtomicLong(0);
 
@@ -53,6 +70,14 @@ public class PacketDecoder extends ChannelInboundHandlerAdapter
   /** Total number of bytes of uncompressed data received or data after being uncompressed */
   private AtomicLong bytesOfData = new AtomicLong(0);
 
+  /** The context of the last packet decoded, the counters below are reset when it's replaced */
+  private CryptoContext keys;
+  /** Number of packets received, and their bytes, since the keys in use were taken into use */
+  private long packetsSinceKeys = 0;
+  private long bytesSinceKeys = 0;
+  /** When the keys in use were taken into use, in {@link System#nanoTime()} */
+  private long keysSince = System.nanoTime();
+
   public PacketDecoder(AbstractSession session) {
     this.session = session;
   }
@@ -64,7 +89,7 @@ public class PacketDecoder extends ChannelInboundHandlerAdapter
 
   @Override
   public void handlerAdded(ChannelHandlerContext ctx) {
-    accrued = session.createBuffer();
+    alloc = ctx.alloc();
   }
 
   @Override
@@ -75,19 +100,65 @@ public class PacketDecoder extends ChannelInboundHandlerAdapter
 
   @Override
   public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-    accrued.writeBytes((ByteBuf) msg);
-
-    int blkSize = getSession().getInCipherBlkSize();
+    cumulate((ByteBuf) msg);
 
     ByteBuf packet;
 
-    // Received packet must be bigger than a block
-    while (accrued.readableBytes() > blkSize && (packet = decode(accrued)) != null) {
+    // Received packet must be bigger than a block, the block size is read for every packet, as it
+    // changes when the new keys are taken into use, after a packet of SSH_MSG_NEWKEYS
+    while (accrued.readableBytes() > session.getInCrypto().getCipherBlkSize()
+        && (packet = decode(accrued)) != null) {
       ctx.fireChannelRead(packet);
+    }
 
-      accrued.discardReadBytes();
+    if (!accrued.isReadable()) {
+      accrued.release();
+      accrued = null;
+    } else if (accrued.capacity() > RETAINED_CAPACITY
+        && accrued.readableBytes() < accrued.capacity() >> 2) {
+      // don't keep the capacity of a large packet for the few bytes of the next one
+      accrued = expand(accrued, accrued.readableBytes());
+    } else if (accrued.refCnt() == 1) {
+      // The decoded packets are slices of the accumulate buffer, only compact it when none of them
+      // is still being referenced, otherwise their content would be shifted underneath them
+      accrued.discardSomeReadBytes();
     }
-    ReferenceCountUtil.release(msg);
+  }
+
+  /*
+   * Takes over the inbound buffer, the packets are decrypted in place, and handed over as slices
+   * of it. The bytes are only copied when a packet spans the buffers received, into the spare
+   * room of the accumulate buffer if it isn't shared with a packet decoded, otherwise into a new
+   * one.
+   */
+  private void cumulate(ByteBuf in) {
+    if (accrued == null) {
+      if (in.refCnt() == 1 && !in.isReadOnly()) {
+        accrued = in;
+        return;
+      }
+      accrued = alloc.buffer(in.readableBytes());
+    } else if (accrued.refCnt() > 1 || accrued.isReadOnly()
+        || accrued.maxWritableBytes() < in.readableBytes()) {
+      accrued = expand(accrued, in.readableBytes());
+    }
+
+    try {
+      accrued.writeBytes(in);
+    } finally {
+      in.release();
+    }
+  }
+
+  /*
+   * Copies the readable bytes of the buffer to a new one, with room for more bytes, and releases
+   * the old one, which is only freed once the packets sliced out of it are released.
+   */
+  private ByteBuf expand(ByteBuf old, int more) {
+    ByteBuf buf = alloc.buffer(old.readableBytes() + more);
+    buf.writeBytes(old);
+    old.release();
+    return buf;
   }
 
   /**
@@ -104,14 +175,41 @@ public class PacketDecoder extends ChannelInboundHandlerAdapter
    * the accumulate packet buffer remains unchanged.
    */
   private ByteBuf decode(ByteBuf msg) throws Exception {
+    // the context is replaced as a whole at SSH_MSG_NEWKEYS, a packet is decoded with one of them
+    CryptoContext crypto = session.getInCrypto();
+    if (crypto != keys) {
+      keys = crypto;
+      packetsSinceKeys = 0;
+      bytesSinceKeys = 0;
+      keysSince = System.nanoTime();
+    }
+
     int rIdx = msg.readerIndex();
-    byte[] buf = new byte[msg.readableBytes()];
-    msg.getBytes(rIdx, buf);
 
-    AbstractSession session = getSession();
+    ByteBuf data;
+    AeadCipher aead = crypto.getAeadCipher();
+    if (aead != null) {
+      data = decodeAead(crypto, aead, msg);
+    } else if (crypto.isMacEtm()) {
+      data = decodeEtm(crypto, msg);
+    } else {
+      data = decode(crypto, msg);
+    }
 
-    Cipher cipher = session.getInCipher();
-    int blkSize = session.getInCipherBlkSize();
+    if (data != null) {
+      packetsSinceKeys++;
+      bytesSinceKeys += msg.readerIndex() - rIdx;
+      session.checkRekey(bytesSinceKeys, packetsSinceKeys, keysSince);
+    }
+
+    return data;
+  }
+
+  private ByteBuf decode(CryptoContext crypto, ByteBuf msg) throws Exception {
+    int rIdx = msg.readerIndex();
+
+    Cipher cipher = crypto.getCipher();
+    int blkSize = crypto.getCipherBlkSize();
 
     /*
      * Two decode steps here:
@@ -119,6 +217,8 @@ public class PacketDecoder extends ChannelInboundHandlerAdapter
      *    cipher block size. We then check the packet size indicated in the first block to see if
      *    the packet is fully received, if yes, move on to step 2, otherwise, return null.
      * 2. Decode the rest blocks of the packet
+     *
+     * Both steps decrypt the packet in place, the accumulate buffer is never copied out.
      */
 
     // Decrypt the first block, if necessary
@@ -130,7 +230,7 @@ public class PacketDecoder extends ChannelInboundHandlerAdapter
       }
 
       // Decrypt the first block of the packet
-      msg.setBytes(rIdx, cipher.update(buf, 0, blkSize));
+      scratch.cipher(cipher, msg, rIdx, blkSize);
 
       step.set(1);
     }
@@ -150,7 +250,7 @@ public class PacketDecoder extends ChannelInboundHandlerAdapter
           "Invalid packet length: " + len);
     }
 
-    int macSize = session.getInMacSize();
+    int macSize = crypto.getMacSize();
 
     // Integrity check - checking the size of unread bytes to see whether it's a segment.
     // If yes, meaning the packet has not been fully received, quit here.
@@ -161,42 +261,153 @@ public class PacketDecoder extends ChannelInboundHandlerAdapter
       return null;
     }
 
-    bytesOfPacket.addAndGet(buf.length);
+    int pktLen = SshConstant.SSH_PACKET_LENGTH + len;
+
+    bytesOfPacket.addAndGet(pktLen + macSize);
 
     // Here comes step 2 mentioned above - decrypts the remaining blocks of the packet
     if (cipher != null) {
       // The first block has been already decrypted, we figure out the size of the rest by:
       // 1. recovering the full size of the packet: len + SSH_PACKET_LENGTH,
       // 2. subtracting a block size
-      int cipLen = SshConstant.SSH_PACKET_LENGTH + len - blkSize;
+      int cipLen = pktLen - blkSize;
       if (cipLen > 0) {
-        msg.setBytes(rIdx + blkSize, cipher.update(buf, rIdx + blkSize, cipLen));
+        scratch.cipher(cipher, msg, rIdx + blkSize, cipLen);
       }
     }
 
-    byte[] macBlk = new byte[macSize];
-
     // The packet is fully decrypted here, we verify its integrity by the MAC
-    Mac mac = session.getInMac();
+    Mac mac = crypto.getMac();
     if (mac != null) {
-      mac.update(Bytes.fromInt(seq.get()));
+      verify(mac, msg, rIdx, pktLen, macSize);
+    }
 
-      byte[] decryptedPacket = new byte[SshConstant.SSH_PACKET_LENGTH + len];
-      msg.getBytes(rIdx, decryptedPacket);
-      mac.update(decryptedPacket, 0, SshConstant.SSH_PACKET_LENGTH + len);
-      mac.doFinal(macBlk, 0);
+    step.set(0);
 
-      int i = macSize, j = 0, k = SshConstant.SSH_PACKET_LENGTH + len;
-      // Go through the MAC segment, which is at the end of the packet, to verify
-      while (i-- > 0) {
-        if (macBlk[j++] != buf[k++]) {
-          logger.error("{} Failed to verify the packet at position: {}", session, k - 1);
+    return readPayload(crypto, msg, len, macSize);
+  }
 
-          throw new SshException(SshMessage.SSH_DISCONNECT_MAC_ERROR, "MAC Error");
-        }
-      }
+  /**
+   * Decode the incoming SSH packet, which is encrypted by an authenticated encryption cipher.
+   *
+   * <pre>
+   *
+   *                     |<- - - - - - - - encrypted - - - - - - - ->|
+   * | packet size (int) | padding size (byte) |<- -  DATA  - ->| padding | authentication tag |
+   *
+   * </pre>
+   *
+   * <p>The packet size is read first, the packet is only decrypted, in place, when it's fully
+   * received and its authentication tag is verified.</p>
+   *
+   * @return the message data decoded from the packet, if successful, otherwise null,
+   * the accumulate packet buffer remains unchanged.
+   */
+  private ByteBuf decodeAead(CryptoContext crypto, AeadCipher aead, ByteBuf msg)
+      throws Exception {
+    int rIdx = msg.readerIndex();
+
+    int len = aead.getPacketLength(msg, rIdx, seq.get());
+
+    // It's an invalid packet if it's less than 5 bytes or bigger than 256k bytes, or it's not
+    // aligned to the cipher block size
+    if (len < SshConstant.SSH_PACKET_HEADER_LENGTH || len > SshConstant.SSH_PACKET_MAX_LENGTH
+        || len % crypto.getCipherBlkSize() != 0) {
+      logger.error("{} Illegal packet to decode - invalid packet length: {}", session, len);
+
+      throw new SshException(SshMessage.SSH_DISCONNECT_PROTOCOL_ERROR,
+          "Invalid packet length: " + len);
     }
 
+    int tagSize = aead.getTagSize();
+
+    // Integrity check - checking the size of unread bytes to see whether it's a segment.
+    // If yes, meaning the packet has not been fully received, quit here.
+    if (msg.readableBytes() < SshConstant.SSH_PACKET_LENGTH + len + tagSize) {
+      return null;
+    }
+
+    bytesOfPacket.addAndGet(SshConstant.SSH_PACKET_LENGTH + len + tagSize);
+
+    try {
+      aead.decrypt(msg, rIdx, len, seq.get());
+    } catch (AEADBadTagException e) {
+      logger.error("{} Failed to verify the packet, sequence number: {}", session, seq.get());
+
+      throw new SshException(SshMessage.SSH_DISCONNECT_MAC_ERROR, "MAC Error", e);
+    }
+
+    msg.skipBytes(SshConstant.SSH_PACKET_LENGTH);
+
+    return readPayload(crypto, msg, len, tagSize);
+  }
+
+  /**
+   * Decode the incoming SSH packet, which is protected by an encrypt-then-MAC algorithm.
+   *
+   * <pre>
+   *
+   *                     |<- - - - - - - - encrypted - - - - - - - ->|
+   * | packet size (int) | padding size (byte) |<- -  DATA  - ->| padding | MAC block |
+   *
+   * </pre>
+   *
+   * <p>The packet size is sent in clear, the MAC is computed over the packet size and the encrypted
+   * packet, it's verified before the packet is decrypted, so a corrupted or forged packet is
+   * rejected without paying for the decryption.</p>
+   *
+   * @return the message data decoded from the packet, if successful, otherwise null,
+   * the accumulate packet buffer remains unchanged.
+   */
+  private ByteBuf decodeEtm(CryptoContext crypto, ByteBuf msg) throws Exception {
+    int rIdx = msg.readerIndex();
+
+    int len = msg.getInt(rIdx);
+
+    // It's an invalid packet if it's less than 5 bytes or bigger than 256k bytes, or it's not
+    // aligned to the cipher block size
+    if (len < SshConstant.SSH_PACKET_HEADER_LENGTH || len > SshConstant.SSH_PACKET_MAX_LENGTH
+        || len % crypto.getCipherBlkSize() != 0) {
+      logger.error("{} Illegal packet to decode - invalid packet length: {}", session, len);
+
+      throw new SshException(SshMessage.SSH_DISCONNECT_PROTOCOL_ERROR,
+          "Invalid packet length: " + len);
+    }
+
+    int macSize = crypto.getMacSize();
+    int pktLen = SshConstant.SSH_PACKET_LENGTH + len;
+
+    // Integrity check - checking the size of unread bytes to see whether it's a segment.
+    // If yes, meaning the packet has not been fully received, quit here.
+    if (msg.readableBytes() < pktLen + macSize) {
+      return null;
+    }
+
+    bytesOfPacket.addAndGet(pktLen + macSize);
+
+    verify(crypto.getMac(), msg, rIdx, pktLen, macSize);
+
+    Cipher cipher = crypto.getCipher();
+    if (cipher != null) {
+      scratch.cipher(cipher, msg, rIdx + SshConstant.SSH_PACKET_LENGTH, len);
+    }
+
+    msg.skipBytes(SshConstant.SSH_PACKET_LENGTH);
+
+    return readPayload(crypto, msg, len, macSize);
+  }
+
+  /**
+   * Reads the payload out of a decrypted and verified packet.
+   *
+   * @param crypto       the context the packet is decoded with
+   * @param msg          the buffer holds the packet, its reader index points to the padding size
+   * @param len          the value of the packet length field
+   * @param trailerSize  the size of the MAC, or the authentication tag, after the packet
+   * @return the payload, decompressed if necessary
+   */
+  private ByteBuf readPayload(CryptoContext crypto, ByteBuf msg, int len, int trailerSize)
+      throws Exception {
     seq.incrementAndGet();
 
     int pad = msg.readByte() & 0xFF;
@@ -204,36 +415,70 @@ public class PacketDecoder extends ChannelInboundHandlerAdapter
 
     ByteBuf data;
 
-    Compression compression = session.getInCompression();
+    Compression compression = crypto.getCompression();
     if (compression != null && session.isAuthed() && len > 0) {
-      byte[] zipped = new byte[len];
       bytesOfZippedData.addAndGet(len);
 
-      msg.readBytes(zipped);
-      byte[] unzipped = compression.decompress(zipped);
-      bytesOfData.addAndGet(unzipped.length);
-
-      data = session.createBuffer(unzipped.length);
-      data.writeBytes(unzipped);
+      // decompressed straight out of the accumulate buffer, a packet can't be decompressed to more
+      // than the maximum packet length, whatever the ratio is
+      data = alloc.heapBuffer(len << 1);
+      try {
+        compression.decompress(msg.readSlice(len), data, SshConstant.SSH_PACKET_MAX_LENGTH);
+      } catch (Exception e) {
+        data.release();
+        throw e;
+      }
+      bytesOfData.addAndGet(data.readableBytes());
 
       if (logger.isTraceEnabled()) {
         StringBuilder sb = new StringBuilder();
         ByteBufUtil.appendPrettyHexDump(sb, data);
-        logger.trace("{} Decompressed packet ({} -> {} bytes): \n{}", session, zipped.length,
-            unzipped.length, sb.toString());
+        logger.trace("{} Decompressed packet ({} -> {} bytes): \n{}", session, len,
+            data.readableBytes(), sb.toString());
       }
     } else {
-      data = session.createBuffer(len);
-
-      msg.readBytes(data);
+      // hand over the payload as a slice of the accumulate buffer, instead of copying it
+      data = msg.readRetainedSlice(len);
 
       bytesOfData.addAndGet(len);
     }
 
-    msg.skipBytes(pad + macSize); // skip padding & integration check data
-
-    step.set(0);
+    msg.skipBytes(pad + trailerSize); // skip padding & integration check data
 
     return data;
   }
+
+  /**
+   * Verifies the MAC, which follows right after the packet, against the packet - decrypted, or
+   * still encrypted when it's encrypt-then-MAC.
+   *
+   * <pre>
+   *   mac = MAC(key, sequence_number || unencrypted_packet)
+   * </pre>
+   *
+   * @param mac      the MAC algorithm to compute with
+   * @param buf      the buffer holds the decrypted packet, along with the received MAC
+   * @param off      the absolute index, in {@code buf}, where the packet starts
+   * @param pktLen   the length of the packet, including the packet length field
+   * @param macSize  the size of the received MAC
+   * @throws SshException if the received MAC doesn't match the computed one
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc4253#section-6.4">Data Integrity</a>
+   */
+  private void verify(Mac mac, ByteBuf buf, int off, int pktLen, int macSize) throws Exception {
+    int s = seq.get();
+    byte[] macBlk = scratch.mac(mac, s, buf, off, pktLen);
+
+    // compare all the bytes regardless of where the first difference is
+    int diff = 0, pos = off + pktLen;
+    for (int i = 0; i < macSize; i++) {
+      diff |= macBlk[i] ^ buf.getByte(pos + i);
+    }
+
+    if (diff != 0) {
+      logger.error("{} Failed to verify the packet, sequence number: {}", session, s);
+
+      throw new SshException(SshMessage.SSH_DISCONNECT_MAC_ERROR, "MAC Error");
+    }
+  }
 }
@@ -1,20 +1,29 @@
 package io.github.grantchan.sshengine.common.transport.handler;
 
 import io.github.grantchan.sshengine.arch.SshConstant;
+import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.common.AbstractSession;
+import io.github.grantchan.sshengine.common.CryptoExecutor;
+import io.github.grantchan.sshengine.common.SshException;
+import io.github.grantchan.sshengine.common.transport.cipher.AeadCipher;
+import io.github.grantchan.sshengine.common.transport.cipher.ChaCha20Random;
 import io.github.grantchan.sshengine.common.transport.compression.Compression;
-import io.github.grantchan.sshengine.util.buffer.Bytes;
+import io.github.grantchan.sshengine.common.transport.kex.CryptoContext;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.PendingWriteQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.Cipher;
 import javax.crypto.Mac;
-import java.security.SecureRandom;
+import java.nio.channels.ClosedChannelException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -23,13 +32,17 @@ public class PacketEncoder extends ChannelOutboundHandlerAdapter
 
   private static final Logger logger = LoggerFactory.getLogger(PacketEncoder.class);
 
-  private static final SecureRandom rand = new SecureRandom();
-
   private final AbstractSession session;
 
   /** Packet sequence number */
   private AtomicInteger seq = new AtomicInteger(0);
 
+  /** Scratch state to compute the MAC and encrypt the packets in place */
+  private final PacketScratch scratch = new PacketScratch();
+
+  /** Random bytes to pad the packets with, refilled for every packet */
+  private byte[] padding = new byte[0];
+
   /** Total number of bytes of the packet sent */
   private AtomicLong bytesOfPacket = new AtomicLong(0);
 
@@ -39,6 +52,34 @@ public class PacketEncoder extends ChannelOutboundHandlerAdapter
   /** Total number of bytes of uncompressed data sent or data before being compressed */
   private AtomicLong bytesOfData = new AtomicLong(0);
 
+  /** Number of packets sent, and their bytes, since the keys in use were taken into use */
+  private long packetsSinceKeys = 0;
+  private long bytesSinceKeys = 0;
+  /** When the keys in use were taken into use, in {@link System#nanoTime()} */
+  private long keysSince = System.nanoTime();
+
+  /** Whether our SSH_MSG_KEXINIT is sent, and SSH_MSG_NEWKEYS isn't yet */
+  private boolean holding = false;
+  /** When the key exchange started, in {@link System#nanoTime()} */
+  private long holdStart;
+  /**
+   * Messages written during the key exchange, sent once the new keys are in use, their bytes count
+   * towards the channel's outbound buffer, so the writers see it unwritable as it piles up
+   */
+  private PendingWriteQueue held;
+
+  /** The context of the last packet encoded */
+  private CryptoContext crypto;
+  /** Encrypts the packets of that context in parallel, {@code null} if they're not */
+  private SealPipeline pipeline;
+
+  /** Packets encoded, held until the ones before them, encrypted in parallel, are sent */
+  private final Queue<Unsent> unsent = new ArrayDeque<>();
+  /** Whether a flush is requested while there are packets held */
+  private boolean flushPending = false;
+  /** Why the packets held are dropped rather than sent, once a packet failed to be encrypted */
+  private Throwable dropCause;
+
   public PacketEncoder(AbstractSession session) {
     this.session = session;
   }
@@ -49,94 +90,288 @@ public class PacketEncoder extends ChannelOutboundHandlerAdapter
   }
 
   @Override
-  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
-    ByteBuf buf = encode((ByteBuf) msg);
+  public void handlerAdded(ChannelHandlerContext ctx) {
+    held = new PendingWriteQueue(ctx);
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+      throws Exception {
+    ByteBuf buf = (ByteBuf) msg;
+    int cmd = buf.getByte(buf.readerIndex()) & 0xFF;
+
+    /*
+     * RFC 4253:
+     * Once a party has sent a SSH_MSG_KEXINIT message for key exchange or
+     * re-exchange, until it has sent a SSH_MSG_NEWKEYS message, it MUST NOT
+     * send any messages other than:
+     *
+     * o  Transport layer generic messages (1 to 19) (but
+     *    SSH_MSG_SERVICE_REQUEST and SSH_MSG_SERVICE_ACCEPT MUST NOT be
+     *    sent);
+     *
+     * o  Algorithm negotiation messages (20 to 29) (but further
+     *    SSH_MSG_KEXINIT messages MUST NOT be sent);
+     *
+     * o  Specific key exchange method messages (30 to 49).
+     *
+     * @see <a href="https://tools.ietf.org/html/rfc4253#section-7.1">Algorithm Negotiation</a>
+     *
+     * The other messages are held, rather than the writers blocked, and sent with the new keys.
+     */
+    if (holding && isHeld(cmd)) {
+      held.add(buf, promise);
+      return;
+    }
 
-    ctx.write(buf, promise);
+    encode(ctx, buf, promise);
+
+    if (cmd == SshMessage.SSH_MSG_KEXINIT) {
+      holding = true;
+      holdStart = System.nanoTime();
+    } else if (cmd == SshMessage.SSH_MSG_NEWKEYS) {
+      // this message is the last one sent with the old keys
+      session.takeNewOutKeys();
+      resetCounters();
+
+      holding = false;
+      release(ctx);
+    }
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) {
+    // the packets held are flushed once they're sent
+    if (!unsent.isEmpty()) {
+      flushPending = true;
+    }
+    ctx.flush();
   }
 
-  private ByteBuf encode(ByteBuf msg) {
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) {
+    held.removeAndFailAll(new ClosedChannelException());
+
+    // the packets being encrypted are dropped once they're done
+    if (dropCause == null) {
+      dropCause = new ClosedChannelException();
+    }
+    send(ctx);
+  }
+
+  private static boolean isHeld(int cmd) {
+    return cmd >= SshMessage.SSH_MSG_USERAUTH_REQUEST
+        || cmd == SshMessage.SSH_MSG_SERVICE_REQUEST
+        || cmd == SshMessage.SSH_MSG_SERVICE_ACCEPT;
+  }
+
+  /*
+   * Sends the messages held during the key exchange, with the new keys.
+   */
+  private void release(ChannelHandlerContext ctx) throws GeneralSecurityException, SshException {
+    int count = held.size();
+    if (count == 0) {
+      return;
+    }
+
+    ByteBuf msg;
+    while ((msg = (ByteBuf) held.current()) != null) {
+      // the queue releases the message it removes, which is handed on rather than dropped
+      msg.retain();
+      encode(ctx, msg, held.remove());
+    }
+    flush(ctx);
+
+    logger.debug("{} Sent {} messages held for {}ms during key exchange", session, count,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - holdStart));
+  }
+
+  private void resetCounters() {
+    packetsSinceKeys = 0;
+    bytesSinceKeys = 0;
+    keysSince = System.nanoTime();
+  }
+
+  /*
+   * Encodes the message into a packet, and writes it, or holds it if the packets before it are
+   * still being encrypted.
+   */
+  private void encode(ChannelHandlerContext ctx, ByteBuf msg, ChannelPromise promise)
+      throws GeneralSecurityException, SshException {
+    // the context is replaced as a whole at SSH_MSG_NEWKEYS, a packet is encoded with one of them
+    CryptoContext crypto = session.getOutCrypto();
+    if (crypto != this.crypto) {
+      this.crypto = crypto;
+
+      // whether it's encrypted in parallel is decided once, for all the packets of the context
+      CryptoExecutor executor = session.getParallelEncryption();
+      if (executor != null && crypto.isSeekable()) {
+        pipeline = new SealPipeline(crypto, executor, ctx.channel().eventLoop());
+
+        logger.debug("{} Encrypting the large packets in parallel, {}", session, executor);
+      } else {
+        pipeline = null;
+      }
+    }
+
     int len = msg.readableBytes();
     int off = msg.readerIndex() - SshConstant.SSH_PACKET_HEADER_LENGTH;
 
     bytesOfData.addAndGet(len);
 
-    Compression comp = session.getOutCompression();
+    Compression comp = crypto.getCompression();
     if (comp != null && session.isAuthed() && len > 0) {
-      byte[] plain = new byte[len];
-      msg.readBytes(plain);
-
-      msg.readerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
-      msg.writerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
-
-      byte[] zipped = comp.compress(plain);
-      logger.debug("{} Compressed packet: ({} -> {} bytes)", session, plain.length,
-          zipped.length);
+      // compressed into a new buffer, with the room for the header, the payload isn't copied out
+      int level = comp.getLevel();
+
+      ByteBuf zipped = ctx.alloc().heapBuffer(SshConstant.SSH_PACKET_HEADER_LENGTH + len);
+      zipped.writerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+      zipped.readerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+      try {
+        comp.compress(msg, zipped);
+      } catch (RuntimeException e) {
+        zipped.release();
+        throw e;
+      }
+      msg.release();
+      msg = zipped;
+      off = 0;
+
+      logger.debug("{} Compressed packet: ({} -> {} bytes)", session, len, msg.readableBytes());
+      if (comp.getLevel() != level) {
+        logger.debug("{} Compression level changed from {} to {}, ratio: {}", session, level,
+            comp.getLevel(), String.format("%.2f", comp.getRatio()));
+      }
 
-      msg.writeBytes(zipped);
       len = msg.readableBytes();
 
       bytesOfZippedData.addAndGet(len);
     }
 
-    // Calculate padding length
-    int blkSize  = session.getOutCipherBlkSize();
+    // Calculate padding length, the packet length field, which an authenticated encryption cipher
+    // and an encrypt-then-MAC algorithm leave in clear, is not counted in
+    AeadCipher aead = crypto.getAeadCipher();
+    boolean etm = crypto.isMacEtm();
+    int blkSize  = crypto.getCipherBlkSize();
     int oldLen = len;
     len += SshConstant.SSH_PACKET_HEADER_LENGTH;
+    if (aead != null || etm) {
+      len -= SshConstant.SSH_PACKET_LENGTH;
+    }
     int pad = (-len) & (blkSize - 1);
     if (pad < blkSize) {
       pad += blkSize;
     }
-    len += pad - 4;
+    len = oldLen + SshConstant.SSH_PADDING_LENGTH + pad;
 
     // Write 5 header bytes
-    msg.readerIndex(0);
+    msg.readerIndex(off);
     msg.writerIndex(off);
     msg.writeInt(len);
     msg.writeByte(pad);
 
-    // Fill padding
-    msg.writerIndex(off + SshConstant.SSH_PACKET_HEADER_LENGTH + oldLen);
-    byte[] padding = new byte[pad];
-    rand.nextBytes(padding);
-    msg.writeBytes(padding);
+    // the authentication tag of an authenticated encryption cipher takes the place of the MAC
+    Mac mac = crypto.getMac();
+    int macSize;
+    if (aead != null) {
+      macSize = aead.getTagSize();
+    } else {
+      macSize = (mac == null) ? 0 : crypto.getMacSize();
+    }
 
-    byte[] packet = new byte[msg.readableBytes()];
-    msg.getBytes(off, packet);
+    // Fill padding, and reserve the room for the MAC, so the buffer grows at most once
+    msg.writerIndex(off + SshConstant.SSH_PACKET_HEADER_LENGTH + oldLen);
+    msg.ensureWritable(pad + macSize);
 
-    Mac mac = session.getOutMac();
-    if (mac != null) {
-      int macSize = session.getOutMacSize();
+    // the padding length is less than 2 cipher blocks, the array is big enough for any of them
+    if (padding.length < pad) {
+      padding = new byte[blkSize << 1];
+    }
+    ChaCha20Random.current().nextBytes(padding, 0, pad);
+    msg.writeBytes(padding, 0, pad);
 
-      mac.update(Bytes.fromInt(seq.get()));
-      mac.update(packet);
+    if (logger.isTraceEnabled()) {
+      StringBuilder sb = new StringBuilder();
+      ByteBufUtil.appendPrettyHexDump(sb, msg);
+      logger.trace("{} Packet before encryption: \n{}", session, sb.toString());
+    }
 
-      byte[] tmp = mac.doFinal();
-      if (macSize != session.getOutDefMacSize()) {
-        msg.writeBytes(tmp, 0, macSize);
-      } else {
-        msg.writeBytes(tmp);
-      }
+    int size = len + SshConstant.SSH_PACKET_LENGTH + macSize;
+
+    if (pipeline == null) {
+      scratch.seal(crypto, msg, off, len, seq.getAndIncrement());
+      send(ctx, msg, promise);
+    } else {
+      Unsent u = new Unsent(msg, promise);
+      u.sealed = pipeline.seal(msg, off, len, seq.getAndIncrement(), t -> {
+        if (t != null && dropCause == null) {
+          dropCause = t;
+          ctx.channel().pipeline().fireExceptionCaught(t);
+        }
+        u.sealed = true;
+        send(ctx);
+      });
+
+      unsent.add(u);
+      send(ctx);
     }
 
-    Cipher cipher = session.getOutCipher();
-    if (cipher != null) {
-      if (logger.isTraceEnabled()) {
-        StringBuilder sb = new StringBuilder();
-        ByteBufUtil.appendPrettyHexDump(sb, msg);
-        logger.trace("{} Packet before encryption: \n{}", session, sb.toString());
-      }
+    bytesOfPacket.addAndGet(size);
 
-      byte[] tmp = new byte[len + 4 - off];
-      msg.getBytes(off, tmp);
+    packetsSinceKeys++;
+    bytesSinceKeys += size;
+    session.checkRekey(bytesSinceKeys, packetsSinceKeys, keysSince);
+  }
+
+  /*
+   * Writes the packet, or holds it behind the ones being encrypted.
+   */
+  private void send(ChannelHandlerContext ctx, ByteBuf msg, ChannelPromise promise) {
+    if (unsent.isEmpty()) {
+      ctx.write(msg, promise);
+    } else {
+      Unsent u = new Unsent(msg, promise);
+      u.sealed = true;
+      unsent.add(u);
+    }
+  }
 
-      msg.setBytes(off, cipher.update(tmp));
+  /*
+   * Writes the packets held, up to the first one still being encrypted, and flushes them if it's
+   * requested meanwhile.
+   */
+  private void send(ChannelHandlerContext ctx) {
+    boolean sent = false;
+
+    Unsent u;
+    while ((u = unsent.peek()) != null && u.sealed) {
+      unsent.poll();
+      if (dropCause == null) {
+        ctx.write(u.msg, u.promise);
+        sent = true;
+      } else {
+        u.msg.release();
+        u.promise.tryFailure(dropCause);
+      }
     }
 
-    seq.incrementAndGet();
+    if (sent && flushPending) {
+      ctx.flush();
+    }
+    if (unsent.isEmpty()) {
+      flushPending = false;
+    }
+  }
 
-    bytesOfPacket.addAndGet(msg.readableBytes());
+  private static final class Unsent {
+    private final ByteBuf msg;
+    private final ChannelPromise promise;
+    /** Whether it's encrypted, and ready to be sent */
+    private boolean sealed;
 
-    return msg;
+    private Unsent(ByteBuf msg, ChannelPromise promise) {
+      this.msg = msg;
+      this.promise = promise;
+    }
   }
 }
@@ -0,0 +1,139 @@
+package io.github.grantchan.sshengine.common.transport.handler;
+
+import io.github.grantchan.sshengine.arch.SshConstant;
+import io.github.grantchan.sshengine.common.transport.cipher.AeadCipher;
+import io.github.grantchan.sshengine.common.transport.kex.CryptoContext;
+import io.netty.buffer.ByteBuf;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import java.security.GeneralSecurityException;
+
+/**
+ * <p>Scratch state, owned by one packet codec of a session, to run the cipher and MAC over a
+ * {@link ByteBuf} without allocating per packet.</p>
+ *
+ * <p>The JCE only works efficiently on byte arrays: it allocates a temporary array when fed a
+ * direct buffer, and it copies its input when asked to overwrite it. Here the content of the
+ * buffer is processed piece by piece, through arrays which are reused across packets.</p>
+ *
+ * <p>Not thread-safe, it's meant to be used from the channel's event loop only, or from the job
+ * the packet is handed to, see {@link SealPipeline}.</p>
+ */
+final class PacketScratch {
+
+  private static final int SIZE = 8192;
+
+  /** Holds the content of a direct buffer, before it's fed to the cipher or MAC */
+  private final byte[] staged = new byte[SIZE];
+
+  /** Receives the output of the cipher, before it's written back to the buffer */
+  private final byte[] ciphered = new byte[SIZE];
+
+  /** Holds the MAC computed locally */
+  private byte[] macBlk = new byte[0];
+
+  /**
+   * Encrypts a packet in place, and appends its MAC, or its authentication tag, to it.
+   *
+   * @param crypto  the cipher and MAC to apply
+   * @param buf     the buffer holds the packet, padded, its writer index is at the end of the
+   *                padding, and the room for the MAC is reserved after it
+   * @param off     the absolute index, in {@code buf}, where the packet starts
+   * @param len     the value of the packet length field
+   * @param seq     the sequence number of the packet
+   */
+  void seal(CryptoContext crypto, ByteBuf buf, int off, int len, int seq)
+      throws GeneralSecurityException {
+    int pktLen = len + SshConstant.SSH_PACKET_LENGTH;
+
+    AeadCipher aead = crypto.getAeadCipher();
+    Cipher cipher = crypto.getCipher();
+    Mac mac = crypto.getMac();
+
+    if (aead != null) {
+      aead.encrypt(buf, off, len, seq);
+      buf.writerIndex(buf.writerIndex() + aead.getTagSize());
+    } else if (crypto.isMacEtm()) {
+      // encrypt everything but the packet length field, then compute the MAC over the result
+      if (cipher != null) {
+        cipher(cipher, buf, off + SshConstant.SSH_PACKET_LENGTH, len);
+      }
+
+      buf.writeBytes(mac(mac, seq, buf, off, pktLen), 0, crypto.getMacSize());
+    } else {
+      if (mac != null) {
+        buf.writeBytes(mac(mac, seq, buf, off, pktLen), 0, crypto.getMacSize());
+      }
+
+      if (cipher != null) {
+        cipher(cipher, buf, off, pktLen);
+      }
+    }
+  }
+
+  /**
+   * Encrypts or decrypts a segment of the buffer in place, the output overwrites the input.
+   *
+   * @param cipher  the cipher to apply, either in encrypt or decrypt mode
+   * @param buf     the buffer holds the data
+   * @param off     the absolute index, in {@code buf}, where the segment starts
+   * @param len     the length of the segment, must be a multiple of the cipher block size
+   */
+  void cipher(Cipher cipher, ByteBuf buf, int off, int len) throws ShortBufferException {
+    for (int end = off + len; off < end; ) {
+      int n = Math.min(SIZE, end - off);
+      if (buf.hasArray()) {
+        cipher.update(buf.array(), buf.arrayOffset() + off, n, ciphered, 0);
+      } else {
+        buf.getBytes(off, staged, 0, n);
+        cipher.update(staged, 0, n, ciphered, 0);
+      }
+      buf.setBytes(off, ciphered, 0, n);
+      off += n;
+    }
+  }
+
+  /**
+   * Computes the MAC of a packet.
+   *
+   * <pre>
+   *   mac = MAC(key, sequence_number || unencrypted_packet)
+   * </pre>
+   *
+   * @param mac     the MAC algorithm to compute with
+   * @param seq     the sequence number of the packet
+   * @param buf     the buffer holds the unencrypted packet
+   * @param off     the absolute index, in {@code buf}, where the packet starts
+   * @param len     the length of the packet, including the packet length field
+   * @return the computed MAC, valid until the next call, its length is at least
+   *         {@link Mac#getMacLength()}
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc4253#section-6.4">Data Integrity</a>
+   */
+  byte[] mac(Mac mac, int seq, ByteBuf buf, int off, int len) throws ShortBufferException {
+    mac.update((byte) (seq >>> 24));
+    mac.update((byte) (seq >>> 16));
+    mac.update((byte) (seq >>> 8));
+    mac.update((byte) seq);
+
+    if (buf.hasArray()) {
+      mac.update(buf.array(), buf.arrayOffset() + off, len);
+    } else {
+      for (int end = off + len; off < end; ) {
+        int n = Math.min(SIZE, end - off);
+        buf.getBytes(off, staged, 0, n);
+        mac.update(staged, 0, n);
+        off += n;
+      }
+    }
+
+    if (macBlk.length < mac.getMacLength()) {
+      macBlk = new byte[mac.getMacLength()];
+    }
+    mac.doFinal(macBlk, 0);
+
+    return macBlk;
+  }
+}
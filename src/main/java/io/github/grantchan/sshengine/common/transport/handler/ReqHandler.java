@@ -5,13 +5,10 @@ import io.github.grantchan.sshengine.common.AbstractSession;
 import io.github.grantchan.sshengine.common.Service;
 import io.github.grantchan.sshengine.common.SshException;
 import io.github.grantchan.sshengine.common.transport.kex.KexGroup;
-import io.github.grantchan.sshengine.util.buffer.Bytes;
 import io.netty.buffer.ByteBuf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigInteger;
-import java.security.MessageDigest;
 import java.util.Objects;
 
 public interface ReqHandler extends SessionHolder, Service {
@@ -80,48 +77,4 @@ public interface ReqHandler extends SessionHolder, Service {
   void handleServiceAccept(ByteBuf req) throws SshException;
 
   void handleNewKeys(ByteBuf req) throws SshException;
-
-  /**
-   * Negotiates the
-   * <ul><li>key exchange method,</li>
-   *     <li>public key algorithm,</li>
-   *     <li>symmetric encryption algorithm,</li>
-   *     <li>message authentication algorithm,</li>
-   *     <li>hash algorithm</li></ul>
-   * supported by both parties.
-   *
-   * <p>
-   * It iterates over client's kex algorithms, on at a time, choose the first
-   * algorithm that the server also supports.
-   * </p>
-   *
-   * @param c2s kex algorithms sent by client
-   * @param s2c kex algorithms sent by server
-   * @return the negotiated result, if failed, returns null
-   */
-  static String negotiate(String c2s, String s2c) {
-    String[] c = c2s.split(",");
-    String[] s = s2c.split(",");
-
-    for (String ci : c) {
-      for (String si : s) {
-        if (Objects.equals(ci, si)) {
-          return ci;
-        }
-      }
-    }
-    return null;
-  }
-
-  static byte[] hashKey(byte[] e, int blockSize, BigInteger k, byte[] id, MessageDigest md) {
-    while (e.length < blockSize) {
-      byte[] b = Bytes.concat(Bytes.addLen(k), id, e);
-
-      md.update(b);
-      e = Bytes.concat(e, md.digest());
-    }
-
-    return e;
-  }
-
 }
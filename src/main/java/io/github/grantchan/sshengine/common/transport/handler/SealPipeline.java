@@ -0,0 +1,146 @@
+package io.github.grantchan.sshengine.common.transport.handler;
+
+import io.github.grantchan.sshengine.arch.SshConstant;
+import io.github.grantchan.sshengine.common.CryptoExecutor;
+import io.github.grantchan.sshengine.common.SshException;
+import io.github.grantchan.sshengine.common.transport.kex.CryptoContext;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoop;
+
+import java.security.GeneralSecurityException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * <p>Encrypts, and computes the MAC of, the outgoing packets of one crypto context on a
+ * {@link CryptoExecutor}, several packets at a time.</p>
+ *
+ * <p>The packets are still sequenced, compressed and padded one by one on the event loop, after
+ * which the position of a packet in the stream, its sequence number and the number of packets and
+ * cipher blocks before it, is known. It's then encrypted by a lane, a copy of the context of its
+ * own, positioned at the packet, see {@link CryptoContext#seek(long, long)}. Sending the packets
+ * in order is left to the caller.</p>
+ *
+ * <p>The packets encrypted on the event loop are done by a lane kept for them, which follows the
+ * stream as it goes, it's only positioned again after the packets encrypted on the executor, so a
+ * run of small packets costs no more than without the pipeline.</p>
+ *
+ * <p>Only for a context whose cipher can be positioned, see {@link CryptoContext#isSeekable()},
+ * every packet of the context is encrypted by a lane, the context itself only compresses. It's
+ * used on the event loop, the lanes are handed to the jobs.</p>
+ */
+final class SealPipeline {
+
+  /** A packet smaller than this is encrypted on the event loop, it's not worth the hand-off */
+  static final int MIN_PARALLEL_SIZE = 4096;
+
+  /** Maximum number of packets encrypted on the executor at a time */
+  static final int MAX_IN_FLIGHT = 16;
+
+  private final CryptoContext crypto;
+  private final CryptoExecutor executor;
+  private final EventLoop loop;
+
+  /** The lanes idle, a lane is created when none is */
+  private final Queue<Lane> lanes = new ConcurrentLinkedQueue<>();
+
+  /** The lane of the packets encrypted on the event loop, created with the first of them */
+  private Lane inline;
+
+  /** Number of packets, and cipher blocks, encrypted with the context so far */
+  private long packets = 0;
+  private long blocks = 0;
+
+  /** Number of packets being encrypted on the executor */
+  private int inFlight = 0;
+
+  SealPipeline(CryptoContext crypto, CryptoExecutor executor, EventLoop loop) {
+    this.crypto = crypto;
+    this.executor = executor;
+    this.loop = loop;
+  }
+
+  CryptoContext getCrypto() {
+    return crypto;
+  }
+
+  /**
+   * Encrypts a packet, and appends its MAC, on the executor if it's large enough, and there's room
+   * for it, otherwise right away.
+   *
+   * @param buf       the buffer holds the packet, see
+   *                  {@link PacketScratch#seal(CryptoContext, ByteBuf, int, int, int)}
+   * @param off       the absolute index, in {@code buf}, where the packet starts
+   * @param len       the value of the packet length field
+   * @param seq       the sequence number of the packet
+   * @param onSealed  called on the event loop, once the packet is encrypted on the executor, with
+   *                  {@code null}, or with the exception it failed with, or on the executor if
+   *                  the event loop is shut down meanwhile, so {@code buf} is released still
+   * @return true if the packet is encrypted right away, {@code onSealed} isn't called then
+   */
+  boolean seal(ByteBuf buf, int off, int len, int seq, Consumer<Throwable> onSealed)
+      throws GeneralSecurityException, SshException {
+    long packet = packets++;
+    long block = blocks;
+
+    // the packet length field is encrypted too, unless it's left in clear by encrypt-then-MAC
+    int encrypted = crypto.isMacEtm() ? len : len + SshConstant.SSH_PACKET_LENGTH;
+    blocks += encrypted / crypto.getCipherBlkSize();
+
+    if (len >= MIN_PARALLEL_SIZE && inFlight < MAX_IN_FLIGHT) {
+      Lane idle = lanes.poll();
+      Lane lane = (idle != null) ? idle : new Lane(crypto.fork());
+      boolean submitted = executor.trySubmit(loop, CryptoExecutor.Priority.BULK, () -> {
+        lane.seal(packet, block, buf, off, len, seq);
+        return lane;
+      }, done -> {
+        inFlight--;
+        lanes.offer(done);
+        onSealed.accept(null);
+      }, t -> {
+        inFlight--;
+        onSealed.accept(t);
+      });
+
+      if (submitted) {
+        inFlight++;
+        return false;
+      }
+
+      // the executor is saturated, the packet is encrypted here instead
+      lanes.offer(lane);
+    }
+
+    if (inline == null) {
+      inline = new Lane(crypto.fork());
+    }
+    inline.seal(packet, block, buf, off, len, seq);
+    return true;
+  }
+
+  /*
+   * A copy of the context, with the scratch state to encrypt with it, used by one packet at a time
+   */
+  private static final class Lane {
+
+    private final CryptoContext crypto;
+    private final PacketScratch scratch = new PacketScratch();
+
+    /** The packet the cipher is at, it's positioned only to encrypt another one */
+    private long next = 0;
+
+    private Lane(CryptoContext crypto) {
+      this.crypto = crypto;
+    }
+
+    private void seal(long packet, long block, ByteBuf buf, int off, int len, int seq)
+        throws GeneralSecurityException, SshException {
+      if (packet != next) {
+        crypto.seek(packet, block);
+      }
+      scratch.seal(crypto, buf, off, len, seq);
+      next = packet + 1;
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package io.github.grantchan.sshengine.common.transport.kex;
+
+import io.github.grantchan.sshengine.arch.SshMessage;
+import io.github.grantchan.sshengine.common.SshException;
+import io.github.grantchan.sshengine.common.transport.cipher.AeadCipher;
+import io.github.grantchan.sshengine.common.transport.cipher.CipherFactories;
+import io.github.grantchan.sshengine.common.transport.compression.Compression;
+import io.github.grantchan.sshengine.common.transport.compression.CompressionFactories;
+import io.github.grantchan.sshengine.common.transport.mac.MacFactories;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>The cipher, MAC and compression of the packets of one direction, client to server, or server
+ * to client, as they're set up by a key exchange.</p>
+ *
+ * <p>A key exchange creates a new one for each direction, which replaces the one in use as a whole
+ * when SSH_MSG_NEWKEYS is sent, or received, so a packet is never processed with the algorithms
+ * and keys of different key exchanges. It holds the state of its cipher, MAC and compression, so
+ * it's never shared across threads, other than through a copy of its own, see {@link #fork()}.</p>
+ */
+public final class CryptoContext {
+
+  /** The context before the first key exchange, no encryption, no MAC, no compression */
+  public static final CryptoContext NONE = new CryptoContext();
+
+  private static final int DEFAULT_BLOCK_SIZE = 8;
+
+  private final CipherFactories cf;
+  private final MacFactories mf;
+  private final CompressionFactories cmf;
+
+  /** The keys, kept to create the copies of the context, see {@link #fork()} */
+  private final byte[] key;
+  private final byte[] iv;
+  private final int mode;
+  private final byte[] macKey;
+
+  private final Cipher cipher;
+  private final AeadCipher aeadCipher;
+  private final int cipherBlkSize;
+
+  private final Mac mac;
+  private final int macSize;
+  private final boolean macEtm;
+
+  private final Compression compression;
+
+  private CryptoContext() {
+    cf = null;
+    mf = null;
+    cmf = null;
+    key = null;
+    iv = null;
+    mode = 0;
+    macKey = null;
+    cipher = null;
+    aeadCipher = null;
+    cipherBlkSize = DEFAULT_BLOCK_SIZE;
+    mac = null;
+    macSize = 0;
+    macEtm = false;
+    compression = null;
+  }
+
+  /**
+   * @param cf      the cipher, {@code null} for no encryption
+   * @param key     the encryption key
+   * @param iv      the initial IV
+   * @param mode    {@link Cipher#ENCRYPT_MODE} for the outgoing packets,
+   *                {@link Cipher#DECRYPT_MODE} for the incoming ones
+   * @param mf      the MAC, {@code null} for none, it's ignored if the cipher is an authenticated
+   *                encryption cipher, whose authentication tag takes the place of the MAC
+   * @param macKey  the integrity key
+   * @param cmf     the compression, {@code null} for none
+   * @throws SshException if the cipher, or the MAC, can't be initialized
+   */
+  public CryptoContext(CipherFactories cf, byte[] key, byte[] iv, int mode,
+                       MacFactories mf, byte[] macKey,
+                       CompressionFactories cmf) throws SshException {
+    boolean isAead = cf != null && cf.isAead();
+
+    this.cf = cf;
+    this.mf = isAead ? null : mf;
+    this.cmf = cmf;
+    this.key = key;
+    this.iv = iv;
+    this.mode = mode;
+    this.macKey = macKey;
+
+    if (cf == null) {
+      cipher = null;
+      aeadCipher = null;
+      cipherBlkSize = DEFAULT_BLOCK_SIZE;
+    } else {
+      cipher = isAead ? null : cf.create(key, iv, mode);
+      aeadCipher = isAead ? cf.createAead(key, iv, mode) : null;
+      cipherBlkSize = cf.getAlignment();
+    }
+
+    if (this.mf == null) {
+      mac = null;
+      macSize = 0;
+      macEtm = false;
+    } else {
+      mac = this.mf.create(macKey);
+      if (mac == null) {
+        throw new SshException(SshMessage.SSH_DISCONNECT_MAC_ERROR,
+            "Unsupported MAC: " + this.mf.getName());
+      }
+      macSize = this.mf.getBlkSize();
+      macEtm = this.mf.isEtm();
+    }
+
+    compression = (cmf == null) ? null : cmf.create();
+  }
+
+  /**
+   * Derives the keys of a direction from the result of a key exchange, and sets up the algorithms
+   * negotiated with them.
+   *
+   * <pre>
+   *   Initial IV client to server:     HASH(K || H || "A" || session_id)
+   *   Initial IV server to client:     HASH(K || H || "B" || session_id)
+   *   Encryption key client to server: HASH(K || H || "C" || session_id)
+   *   Encryption key server to client: HASH(K || H || "D" || session_id)
+   *   Integrity key client to server:  HASH(K || H || "E" || session_id)
+   *   Integrity key server to client:  HASH(K || H || "F" || session_id)
+   * </pre>
+   *
+   * @param kexInit    the algorithms negotiated
+   * @param c2s        {@code true} for the client to server direction
+   * @param mode       {@link Cipher#ENCRYPT_MODE} for the outgoing packets,
+   *                   {@link Cipher#DECRYPT_MODE} for the incoming ones
+   * @param kh         the hash algorithm of the key exchange, fed with K and H, every key is
+   *                   derived from a copy of it, so it's left as it is
+   * @param sessionId  the session identifier, the exchange hash of the first key exchange
+   * @return the context of the direction
+   * @throws SshException if an algorithm negotiated isn't supported
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc4253#section-7.2">Output from Key Exchange</a>
+   */
+  public static CryptoContext derive(List<String> kexInit, boolean c2s, int mode, HashBuilder kh,
+                                     byte[] sessionId) throws SshException {
+    String cipherName = kexInit.get(c2s ? KexProposal.Param.ENCRYPTION_C2S
+                                        : KexProposal.Param.ENCRYPTION_S2C);
+    String macName = kexInit.get(c2s ? KexProposal.Param.MAC_C2S : KexProposal.Param.MAC_S2C);
+    String compName = kexInit.get(c2s ? KexProposal.Param.COMPRESSION_C2S
+                                      : KexProposal.Param.COMPRESSION_S2C);
+
+    CipherFactories cf = CipherFactories.from(cipherName);
+    if (cf == null) {
+      throw new SshException(SshMessage.SSH_DISCONNECT_KEY_EXCHANGE_FAILED,
+          "Unsupported cipher: " + cipherName);
+    }
+    CompressionFactories cmf = Objects.requireNonNull(CompressionFactories.from(compName));
+
+    byte[] iv = derive(kh, c2s ? 'A' : 'B', sessionId, 0);
+    byte[] key = derive(kh, c2s ? 'C' : 'D', sessionId, cf.getBlkSize());
+
+    MacFactories mf = null;
+    byte[] macKey = null;
+    if (!cf.isAead()) {
+      mf = MacFactories.from(macName);
+      if (mf == null) {
+        throw new SshException(SshMessage.SSH_DISCONNECT_MAC_ERROR, "Unsupported MAC: " + macName);
+      }
+
+      macKey = derive(kh, c2s ? 'E' : 'F', sessionId, mf.getDefBlkSize());
+    }
+
+    return new CryptoContext(cf, key, iv, mode, mf, macKey, cmf);
+  }
+
+  /*
+   * HASH(K || H || x || session_id), K and H are already fed into kh.
+   *
+   * If the key length needed is longer than the output of the HASH, the key is extended by
+   * computing HASH of the concatenation of K and H and the entire key so far, and appending the
+   * resulting bytes to the key, until enough bytes are available.
+   */
+  private static byte[] derive(HashBuilder kh, char x, byte[] sessionId, int size)
+      throws SshException {
+    MessageDigest md = kh.fork();
+    md.update((byte) x);
+    md.update(sessionId);
+    byte[] key = md.digest();
+
+    while (key.length < size) {
+      md = kh.fork();
+      md.update(key);
+      byte[] more = md.digest();
+
+      byte[] k = Arrays.copyOf(key, key.length + more.length);
+      System.arraycopy(more, 0, k, key.length, more.length);
+      key = k;
+    }
+    return key;
+  }
+
+  /**
+   * @return true if the cipher can be positioned at any packet, see {@link #seek(long, long)}
+   */
+  public boolean isSeekable() {
+    return cf != null && cf.isSeekable();
+  }
+
+  /**
+   * @return a new context, with the same algorithms and keys, but its own instances of the cipher
+   * and the MAC, at the start of the stream, and no compression. With {@link #seek(long, long)},
+   * the copies encrypt the packets of a direction in parallel, while this context compresses them.
+   * @throws SshException if the cipher, or the MAC, can't be initialized
+   */
+  public CryptoContext fork() throws SshException {
+    return new CryptoContext(cf, key, iv, mode, mf, macKey, null);
+  }
+
+  /**
+   * Positions the cipher at a packet, as if the packets before it were processed with it.
+   *
+   * @param packets  the number of packets processed with the keys before
+   * @param blocks   the number of cipher blocks they're made of
+   * @throws SshException if the cipher can't be positioned
+   *
+   * @see #isSeekable()
+   */
+  public void seek(long packets, long blocks) throws SshException {
+    if (aeadCipher != null) {
+      aeadCipher.seek(packets);
+    } else if (cipher != null) {
+      cf.seek(cipher, key, iv, mode, blocks);
+    }
+  }
+
+  public Cipher getCipher() {
+    return cipher;
+  }
+
+  public AeadCipher getAeadCipher() {
+    return aeadCipher;
+  }
+
+  /**
+   * @return the size the packets are aligned to, which is the block size of the cipher, or 8 for
+   * a stream cipher or no cipher
+   */
+  public int getCipherBlkSize() {
+    return cipherBlkSize;
+  }
+
+  public Mac getMac() {
+    return mac;
+  }
+
+  public int getMacSize() {
+    return macSize;
+  }
+
+  /**
+   * @return whether the MAC is computed over the encrypted packet, rather than the plain one
+   */
+  public boolean isMacEtm() {
+    return macEtm;
+  }
+
+  public Compression getCompression() {
+    return compression;
+  }
+
+  @Override
+  public String toString() {
+    return "cipher: " + (cf == null ? "none" : cf.getName()) +
+        ", MAC: " + (mf == null ? (aeadCipher == null ? "none" : "<implicit>") : mf.getName()) +
+        ", compression: " + (cmf == null ? "none" : cmf.getName());
+  }
+}
@@ -0,0 +1,99 @@
+package io.github.grantchan.sshengine.common.transport.kex;
+
+import io.github.grantchan.sshengine.arch.SshMessage;
+import io.github.grantchan.sshengine.common.SshException;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * <p>Key agreement over Curve25519, with the X25519 function.</p>
+ *
+ * <p>The public keys, Q_C and Q_S, are exchanged and hashed as strings of 32 bytes, rather than
+ * mpints, and the shared secret K, 32 bytes as well, is taken as an unsigned integer in network
+ * byte order, then encoded as an mpint.</p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc8731">RFC 8731 - Secure Shell (SSH) Key Exchange
+ * Method Using Curve25519 and Curve448</a>
+ */
+public class Curve25519 extends Kex {
+
+  private final byte[] prvKey;
+  private final byte[] encodedPubKey;
+
+  private byte[] receivedEncodedPubKey;
+  private BigInteger sharedKey;
+
+  /**
+   * Takes the key pair from the {@link KeyPairPool}, generated ahead of time.
+   */
+  public Curve25519() throws SshException {
+    X25519.KeyPair kp = KeyPairPool.getDefault().takeX25519();
+
+    this.prvKey = kp.prvKey;
+    this.encodedPubKey = kp.pubKey;
+    this.pubKey = new BigInteger(1, encodedPubKey);
+  }
+
+  @Override
+  public String getName() {
+    return "X25519";
+  }
+
+  @Override
+  public byte[] getEncodedPubKey() {
+    return encodedPubKey.clone();
+  }
+
+  @Override
+  public void receivedPubKey(byte[] key) throws SshException {
+    Objects.requireNonNull(key);
+
+    /*
+     * RFC 8731:
+     * Clients and servers MUST also abort if the length of the received public keys are not the
+     * expected lengths.
+     */
+    if (key.length != X25519.KEY_SIZE) {
+      throw new SshException(SshMessage.SSH_DISCONNECT_KEY_EXCHANGE_FAILED,
+          "Invalid X25519 public key length: " + key.length);
+    }
+
+    this.receivedEncodedPubKey = key.clone();
+    receivedPubKey(new BigInteger(1, key));
+  }
+
+  @Override
+  public BigInteger getSecretKey() throws SshException {
+    if (sharedKey != null) {
+      return sharedKey;
+    }
+
+    if (receivedEncodedPubKey == null) {
+      throw new SshException(SshMessage.SSH_DISCONNECT_KEY_EXCHANGE_FAILED,
+          "The public key of the peer hasn't been received");
+    }
+
+    byte[] k = X25519.scalarMult(prvKey, receivedEncodedPubKey);
+
+    /*
+     * RFC 8731:
+     * If the output is the all-zero value, the shared secret MUST be rejected, which would happen
+     * with a public key of small order.
+     */
+    int acc = 0;
+    for (byte b : k) {
+      acc |= b;
+    }
+    if (acc == 0) {
+      throw new SshException(SshMessage.SSH_DISCONNECT_KEY_EXCHANGE_FAILED,
+          "Invalid X25519 shared secret");
+    }
+
+    sharedKey = new BigInteger(1, k);
+    Arrays.fill(k, (byte) 0);
+
+    return sharedKey;
+  }
+}
@@ -11,31 +11,26 @@ import java.security.*;
 import java.security.spec.KeySpec;
 import java.util.Objects;
 
-public class DH extends Kex {
+public class DH extends JcaKex {
 
   private final BigInteger p; // safe prime;
   private final BigInteger g; // generator for subgroup
 
+  /**
+   * Takes the key pair from the {@link KeyPairPool}, generated ahead of time.
+   */
   public DH(final DhGroup dhg) throws SshException {
-    this(Objects.requireNonNull(dhg).P(), dhg.G());
+    this(Objects.requireNonNull(dhg).P(), dhg.G(), KeyPairPool.getDefault().take(dhg));
   }
 
   public DH(final BigInteger p, final BigInteger g) throws SshException {
+    this(p, g, generateKeyPair(p, g));
+  }
+
+  private DH(final BigInteger p, final BigInteger g, final KeyPair kp) throws SshException {
     this.p = Objects.requireNonNull(p);
     this.g = Objects.requireNonNull(g);
 
-    KeyPairGenerator kpg;
-    try {
-      kpg = KeyPairGenerator.getInstance("DH");
-      DHParameterSpec spec = new DHParameterSpec(p, g);
-      kpg.initialize(spec);
-    } catch (NoSuchAlgorithmException e) {
-      throw new SshException("Failed to create the Diffie-Hellman key pair generator instance", e);
-    } catch (InvalidAlgorithmParameterException e) {
-      throw new SshException("Failed to initialize the key pair generator", e);
-    }
-
-    KeyPair kp = kpg.generateKeyPair();
     this.pubKey = ((DHPublicKey)kp.getPublic()).getY();
 
     try {
@@ -48,6 +43,23 @@ public class DH extends Kex {
     }
   }
 
+  private static KeyPair generateKeyPair(final BigInteger p, final BigInteger g)
+      throws SshException {
+    KeyPairGenerator kpg;
+    try {
+      kpg = KeyPairGenerator.getInstance("DH");
+      DHParameterSpec spec = new DHParameterSpec(Objects.requireNonNull(p),
+                                                 Objects.requireNonNull(g));
+      kpg.initialize(spec);
+    } catch (NoSuchAlgorithmException e) {
+      throw new SshException("Failed to create the Diffie-Hellman key pair generator instance", e);
+    } catch (InvalidAlgorithmParameterException e) {
+      throw new SshException("Failed to initialize the key pair generator", e);
+    }
+
+    return kpg.generateKeyPair();
+  }
+
   public BigInteger getP() {
     return p;
   }
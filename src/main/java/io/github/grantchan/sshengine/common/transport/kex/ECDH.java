@@ -12,30 +12,24 @@ import java.security.spec.ECPublicKeySpec;
 import java.security.spec.KeySpec;
 import java.util.Objects;
 
-public class ECDH extends Kex {
+public class ECDH extends JcaKex {
 
   private final ECParameterSpec spec;
 
+  /**
+   * Takes the key pair from the {@link KeyPairPool}, generated ahead of time.
+   */
   public ECDH(final ECurve curve) throws SshException {
-    this(Objects.requireNonNull(curve).value());
+    this(Objects.requireNonNull(curve).value(), KeyPairPool.getDefault().take(curve));
   }
 
   public ECDH(final ECParameterSpec spec) throws SshException {
-    Objects.requireNonNull(spec);
-
-    KeyPairGenerator kpg;
-    try {
-      kpg = KeyPairGenerator.getInstance("EC");
-      kpg.initialize(spec);
-    } catch (NoSuchAlgorithmException e) {
-      throw new SshException("Failed to create EC key pair generator instance", e);
-    } catch (InvalidAlgorithmParameterException e) {
-      throw new SshException("Failed to initialize EC key pair generator", e);
-    }
+    this(spec, generateKeyPair(spec));
+  }
 
-    this.spec = spec;
+  private ECDH(final ECParameterSpec spec, final KeyPair kp) throws SshException {
+    this.spec = Objects.requireNonNull(spec);
 
-    KeyPair kp = kpg.generateKeyPair();
     ECPoint pt = ((ECPublicKey)kp.getPublic()).getW();
     this.pubKey = new BigInteger(ECurve.bytesOf(pt, spec.getCurve()));
 
@@ -49,6 +43,22 @@ public class ECDH extends Kex {
     }
   }
 
+  private static KeyPair generateKeyPair(final ECParameterSpec spec) throws SshException {
+    Objects.requireNonNull(spec);
+
+    KeyPairGenerator kpg;
+    try {
+      kpg = KeyPairGenerator.getInstance("EC");
+      kpg.initialize(spec);
+    } catch (NoSuchAlgorithmException e) {
+      throw new SshException("Failed to create EC key pair generator instance", e);
+    } catch (InvalidAlgorithmParameterException e) {
+      throw new SshException("Failed to initialize EC key pair generator", e);
+    }
+
+    return kpg.generateKeyPair();
+  }
+
   @Override
   public String getName() {
     return "EC";
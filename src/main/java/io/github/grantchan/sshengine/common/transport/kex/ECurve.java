@@ -319,7 +319,7 @@ public enum ECurve {
   /**
    * Converts a byte array to an ECPoint
    */
-  static ECPoint ecPointOf(final byte[] buf) {
+  public static ECPoint ecPointOf(final byte[] buf) {
     Objects.requireNonNull(buf);
 
     int i = 0;
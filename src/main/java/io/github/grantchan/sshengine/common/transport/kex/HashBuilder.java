@@ -0,0 +1,119 @@
+package io.github.grantchan.sshengine.common.transport.kex;
+
+import io.github.grantchan.sshengine.arch.SshMessage;
+import io.github.grantchan.sshengine.common.SshException;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * <p>Feeds the fields of the exchange hash, and of the key derivation, into a
+ * {@link MessageDigest}, encoded as they are on the wire, rather than putting them together in an
+ * array to be hashed.</p>
+ *
+ * <pre>
+ *   H = HASH(string V_C || string V_S || string I_C || string I_S || string K_S || ... )
+ *   HASH(mpint K || H || "A" || session_id)
+ * </pre>
+ *
+ * <p>{@link #digest()} completes the hash and resets the digest, so one builder is used for every
+ * hash of a key exchange. {@link #fork()} takes a copy of the fields fed so far, the key derivation
+ * feeds K and H once, and derives all the keys from it.</p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc4251#section-5">Data Type Representations Used in the SSH Protocols</a>
+ */
+public final class HashBuilder {
+
+  private final MessageDigest md;
+
+  private final byte[] uint32 = new byte[Integer.BYTES];
+
+  public HashBuilder(MessageDigest md) {
+    this.md = md;
+  }
+
+  public HashBuilder putByte(byte b) {
+    md.update(b);
+    return this;
+  }
+
+  public HashBuilder putUInt32(int i) {
+    uint32[0] = (byte) (i >>> 24);
+    uint32[1] = (byte) (i >>> 16);
+    uint32[2] = (byte) (i >>> 8);
+    uint32[3] = (byte) i;
+    md.update(uint32);
+    return this;
+  }
+
+  /**
+   * Feeds the bytes as they are, without their length.
+   */
+  public HashBuilder putRaw(byte[] b) {
+    md.update(b);
+    return this;
+  }
+
+  /**
+   * Feeds the bytes as a {@code string}, their length followed by them.
+   */
+  public HashBuilder putString(byte[] b) {
+    putUInt32(b.length);
+    md.update(b);
+    return this;
+  }
+
+  /**
+   * Feeds the UTF-8 bytes of the string as a {@code string}, their length followed by them.
+   */
+  public HashBuilder putString(String s) {
+    return putString(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Feeds the number as a {@code mpint}, its length followed by its big-endian bytes. As
+   * {@link io.github.grantchan.sshengine.util.buffer.Bytes#addLen(BigInteger)} does, the bytes are
+   * taken as unsigned, a zero is put before them if their first bit is set, so that a shared secret
+   * read as a negative number hashes as the positive one the peer has.
+   */
+  public HashBuilder putMpInt(BigInteger n) {
+    byte[] b = n.toByteArray();
+    if ((b[0] & 0x80) != 0) {
+      putUInt32(b.length + 1);
+      md.update((byte) 0);
+    } else {
+      putUInt32(b.length);
+    }
+    md.update(b);
+    return this;
+  }
+
+  /**
+   * @return the hash of the fields fed, the digest is reset for the next one
+   */
+  public byte[] digest() {
+    return md.digest();
+  }
+
+  /**
+   * @return a copy of the digest, with the fields fed so far, more fields can be fed into either
+   * of them without affecting the other
+   * @throws SshException if the digest doesn't support being copied
+   */
+  public MessageDigest fork() throws SshException {
+    try {
+      return (MessageDigest) md.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new SshException(SshMessage.SSH_DISCONNECT_KEY_EXCHANGE_FAILED,
+          "Unable to copy the digest - " + md.getAlgorithm(), e);
+    }
+  }
+
+  /**
+   * Discards the fields fed so far.
+   */
+  public void reset() {
+    md.reset();
+  }
+}
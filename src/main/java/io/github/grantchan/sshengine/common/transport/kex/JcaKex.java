@@ -0,0 +1,59 @@
+package io.github.grantchan.sshengine.common.transport.kex;
+
+import io.github.grantchan.sshengine.common.SshException;
+import io.github.grantchan.sshengine.util.buffer.Bytes;
+
+import javax.crypto.KeyAgreement;
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.KeySpec;
+import java.util.Objects;
+
+/**
+ * <p>A key agreement done by a JCA {@link KeyAgreement}, the public key of the peer is turned into
+ * a {@link java.security.PublicKey} by the {@link KeyFactory} of the algorithm, see
+ * {@link #getName()}, from the key spec of {@link #getKeySpec()}.</p>
+ */
+public abstract class JcaKex extends Kex {
+
+  KeyAgreement ka;
+  private BigInteger sharedKey; // secret key shared by both sides
+
+  abstract KeySpec getKeySpec();
+
+  @Override
+  public BigInteger getSecretKey() throws SshException {
+    if (sharedKey != null) {
+      return sharedKey;
+    }
+
+    try {
+      KeyFactory kf = KeyFactory.getInstance(getName());
+
+      KeySpec ks = Objects.requireNonNull(getKeySpec());
+
+      ka.doPhase(kf.generatePublic(ks), true);
+    } catch (NoSuchAlgorithmException e) {
+      throw new SshException("Failed to create the key factory instance - name:" + getName(), e);
+    } catch (InvalidKeySpecException e) {
+      throw new SshException("Failed to generate public key via the give specification", e);
+    } catch (InvalidKeyException e) {
+      throw new SshException("Failed to get to the next phase during the key agreement process", e);
+    }
+
+    byte[] k = Objects.requireNonNull(ka.generateSecret());
+
+    int i = 0;
+    while (k[i] == 0) {
+      i++;
+    }
+
+    sharedKey = new BigInteger(Objects.requireNonNull(Bytes.last(k, k.length - i),
+        "Failed to negotiate a share secret key."));
+
+    return sharedKey;
+  }
+}
@@ -2,15 +2,8 @@ package io.github.grantchan.sshengine.common.transport.kex;
 
 import io.github.grantchan.sshengine.common.NamedObject;
 import io.github.grantchan.sshengine.common.SshException;
-import io.github.grantchan.sshengine.util.buffer.Bytes;
 
-import javax.crypto.KeyAgreement;
 import java.math.BigInteger;
-import java.security.InvalidKeyException;
-import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
 import java.util.Objects;
 
 public abstract class Kex implements NamedObject {
@@ -18,11 +11,6 @@ public abstract class Kex implements NamedObject {
   BigInteger pubKey;         // public key generated by this machine
   BigInteger receivedPubKey; // public key generated by peer machine, sent by peer
 
-  KeyAgreement ka;
-  private BigInteger sharedKey; // secret key shared by both sides
-
-  abstract KeySpec getKeySpec();
-
   public BigInteger getPubKey() {
     return this.pubKey;
   }
@@ -35,35 +23,27 @@ public abstract class Kex implements NamedObject {
     this.receivedPubKey = key;
   }
 
-  public BigInteger getSecretKey() throws SshException {
-    if (sharedKey != null) {
-      return sharedKey;
-    }
-
-    try {
-      KeyFactory kf = KeyFactory.getInstance(getName());
-
-      KeySpec ks = Objects.requireNonNull(getKeySpec());
-
-      ka.doPhase(kf.generatePublic(ks), true);
-    } catch (NoSuchAlgorithmException e) {
-      throw new SshException("Failed to create the key factory instance - name:" + getName(), e);
-    } catch (InvalidKeySpecException e) {
-      throw new SshException("Failed to generate public key via the give specification", e);
-    } catch (InvalidKeyException e) {
-      throw new SshException("Failed to get to the next phase during the key agreement process", e);
-    }
-
-    byte[] k = Objects.requireNonNull(ka.generateSecret());
-
-    int i = 0;
-    while (k[i] == 0) {
-      i++;
-    }
-
-    sharedKey = new BigInteger(Objects.requireNonNull(Bytes.last(k, k.length - i),
-        "Failed to negotiate a share secret key."));
+  /**
+   * @return the public key of this side, as it's sent to the peer and hashed into the exchange hash,
+   * by default, the bytes of an mpint, e or f of Diffie-Hellman, or Q_C or Q_S of ECDH, which
+   * always starts with 0x04 and is never padded
+   */
+  public byte[] getEncodedPubKey() {
+    return pubKey.toByteArray();
+  }
 
-    return sharedKey;
+  /**
+   * @param key  the public key of the peer, in the same encoding as {@link #getEncodedPubKey()}
+   * @throws SshException if the key is malformed
+   */
+  public void receivedPubKey(byte[] key) throws SshException {
+    receivedPubKey(new BigInteger(Objects.requireNonNull(key)));
   }
+
+  /**
+   * @return the shared secret K, worked out from the private key of this side and the public key
+   * of the peer
+   * @throws SshException if the shared secret can't be computed
+   */
+  public abstract BigInteger getSecretKey() throws SshException;
 }
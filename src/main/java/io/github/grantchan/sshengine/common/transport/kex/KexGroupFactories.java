@@ -1,5 +1,6 @@
 package io.github.grantchan.sshengine.common.transport.kex;
 
+import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.client.ClientSession;
 import io.github.grantchan.sshengine.client.transport.kex.ClientDhGroup;
 import io.github.grantchan.sshengine.common.AbstractSession;
@@ -8,14 +9,43 @@ import io.github.grantchan.sshengine.common.SshException;
 import io.github.grantchan.sshengine.common.transport.digest.DigestFactories;
 import io.github.grantchan.sshengine.server.ServerSession;
 import io.github.grantchan.sshengine.server.transport.kex.ServerDhGroup;
+import io.github.grantchan.sshengine.server.transport.kex.ServerDhGroupEx;
 
 import java.security.MessageDigest;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 public enum KexGroupFactories implements NamedObject, KexGroupFactory {
 
+  /*
+   * The Curve25519 key exchange, with SHA2-256, is faster than the NIST curves, it's designed to
+   * be implemented in constant time, and is the one preferred by OpenSSH.
+   *
+   * This method SHOULD be implemented.
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc8731">curve25519-sha256</a>
+   */
+  curve25519("curve25519-sha256") {
+    @Override
+    public KexGroup create(AbstractSession session) throws SshException {
+      return getKexHandler(DigestFactories.sha256.create(), new Curve25519(), session);
+    }
+  },
+
+  /*
+   * The name of curve25519-sha256 before it's standardized, it's identical otherwise.
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc8731#section-2">curve25519-sha256@libssh.org</a>
+   */
+  curve25519libssh("curve25519-sha256@libssh.org") {
+    @Override
+    public KexGroup create(AbstractSession session) throws SshException {
+      return getKexHandler(DigestFactories.sha256.create(), new Curve25519(), session);
+    }
+  },
+
   /*
    * This ECDH method may be implemented because it is smaller and faster than using large FFC
    * primes with traditional Diffie-Hellman (DH).
@@ -229,12 +259,21 @@ public enum KexGroupFactories implements NamedObject, KexGroupFactory {
    * <a href="https://tools.ietf.org/id/draft-ietf-curdle-ssh-kex-sha2-09.html#rfc.section.3.4">
    *   diffie-hellman-group-exchange-sha256</a>
    */
-//  dhgexsha256("diffie-hellman-group-exchange-sha256") {
-//    @Override
-//    public KexGroup create(AbstractSession s) throws SshException {
-//      return new ServerDhGroupEx(DigestFactories.sha256.create(), s);
-//    }
-//  },
+  dhgexsha256("diffie-hellman-group-exchange-sha256") {
+    @Override
+    public KexGroup create(AbstractSession s) throws SshException {
+      if (!(s instanceof ServerSession)) {
+        throw new SshException(SshMessage.SSH_DISCONNECT_KEY_EXCHANGE_FAILED,
+            getName() + " is only supported by the server");
+      }
+      return new ServerDhGroupEx(DigestFactories.sha256.create(), (ServerSession) s);
+    }
+
+    @Override
+    boolean isServerOnly() {
+      return true;
+    }
+  },
 
   /*
    * This set of ephemerally generated key exchange groups uses SHA-1 as defined in [RFC4419].
@@ -280,6 +319,22 @@ public enum KexGroupFactories implements NamedObject, KexGroupFactory {
     return NamedObject.getNames(values);
   }
 
+  /**
+   * @return the names of the key exchanges the client supports, the server supports all of them
+   */
+  public static String getClientNames() {
+    return NamedObject.getNames(
+        values.stream().filter(f -> !f.isServerOnly()).collect(Collectors.toList()));
+  }
+
+  /**
+   * @return true if the key exchange is implemented by the server only, so the client mustn't
+   * propose it
+   */
+  boolean isServerOnly() {
+    return false;
+  }
+
   public static KexGroup create(String name, AbstractSession s) throws SshException {
     KexGroupFactories f = NamedObject.find(name, values, String.CASE_INSENSITIVE_ORDER);
     return (f == null) ? null : f.create(s);
@@ -0,0 +1,241 @@
+package io.github.grantchan.sshengine.common.transport.kex;
+
+import io.github.grantchan.sshengine.arch.SshConstant;
+import io.github.grantchan.sshengine.common.transport.cipher.ChaCha20Random;
+import io.github.grantchan.sshengine.util.LazySupplier;
+import io.github.grantchan.sshengine.util.buffer.Bytes;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>The algorithm negotiation of one side of the key exchange, with the preference lists of that
+ * side compiled once, when it's configured, rather than for every handshake.</p>
+ *
+ * <p>The names of each {@link KexProposal} are interned and kept in the order preferred, along
+ * with their bytes, so a name-list received is matched in place, in the buffer it arrives in,
+ * without being decoded and split. The payload of SSH_MSG_KEXINIT is serialized once as well, a
+ * new one is a copy of it with the cookie filled in.</p>
+ *
+ * <p>An instance is immutable, {@link #with(KexProposal, String)} derives one with a list
+ * overridden, e.g. for a listener that only allows some of the algorithms.</p>
+ */
+public final class KexNegotiator {
+
+  private static final byte[] FFP = new byte[] {0};               // first factory packet follows
+  private static final byte[] RESERVED = new byte[] {0, 0, 0, 0}; // reserved (FFU)
+
+  private static final byte COMMA = ',';
+
+  private static final LazySupplier<KexNegotiator> CLIENT = new LazySupplier<KexNegotiator>() {
+    @Override
+    protected KexNegotiator initialize() {
+      return of(KexProposal::getProposals, false);
+    }
+  };
+
+  /** Compiled from {@link KexProposal#getServerProposals()}, reset when they're reordered */
+  private static volatile KexNegotiator server;
+
+  private final boolean isServer;
+
+  /** The comma separated lists, by {@link KexProposal#getId()} */
+  private final String[] lists;
+  /** The interned names of each list, in the order preferred */
+  private final String[][] names;
+  /** The US-ASCII bytes of {@link #names} */
+  private final byte[][][] bytes;
+
+  /** The payload of SSH_MSG_KEXINIT, with a zero cookie */
+  private final byte[] template;
+
+  private KexNegotiator(String[] lists, boolean isServer) {
+    this.isServer = isServer;
+    this.lists = lists;
+
+    int n = lists.length;
+    names = new String[n][];
+    bytes = new byte[n][][];
+    for (int i = 0; i < n; i++) {
+      String[] nn = lists[i].split(",", -1);
+      byte[][] bb = new byte[nn.length][];
+      for (int j = 0; j < nn.length; j++) {
+        nn[j] = nn[j].intern();
+        bb[j] = nn[j].getBytes(StandardCharsets.US_ASCII);
+      }
+      names[i] = nn;
+      bytes[i] = bb;
+    }
+
+    template = Bytes.concat(
+        new byte[SshConstant.MSG_KEX_COOKIE_SIZE],
+        Bytes.joinWithLength(lists),
+        FFP, RESERVED
+    );
+  }
+
+  static KexNegotiator of(Function<KexProposal, Supplier<String>> proposals,
+                          boolean isServer) {
+    String[] lists = new String[KexProposal.ALL.size()];
+    for (KexProposal p : KexProposal.ALL) {
+      lists[p.getId()] = Objects.requireNonNull(proposals.apply(p).get());
+    }
+    return new KexNegotiator(lists, isServer);
+  }
+
+  /**
+   * @return the negotiator of the client, with the proposals of {@link KexProposal#getProposals()}
+   */
+  public static KexNegotiator getClientDefault() {
+    return CLIENT.get();
+  }
+
+  /**
+   * @return the negotiator of the servers not given one, with the proposals of
+   * {@link KexProposal#getServerProposals()}, as they are now
+   */
+  public static KexNegotiator getServerDefault() {
+    KexNegotiator n = server;
+    if (n == null) {
+      n = of(KexProposal::getServerProposals, true);
+      server = n;
+    }
+    return n;
+  }
+
+  /*
+   * Called when the server proposals are reordered, the next call of getServerDefault() compiles
+   * them again, the sessions already started keep the ones they have.
+   */
+  static void resetServerDefault() {
+    server = null;
+  }
+
+  public boolean isServer() {
+    return isServer;
+  }
+
+  /**
+   * @return the comma separated list of names proposed for {@code p}, in the order preferred
+   */
+  public String getProposals(KexProposal p) {
+    return lists[p.getId()];
+  }
+
+  /**
+   * Derives a negotiator with the list of {@code p} overridden, the other lists are the same as
+   * this one's.
+   *
+   * @param p      the category of the algorithms
+   * @param names  a comma separated list of names, in the order preferred, each of them must be
+   *               supported
+   * @return the new negotiator
+   * @throws IllegalArgumentException if the list is empty, or has a name not supported
+   */
+  public KexNegotiator with(KexProposal p, String names) {
+    Objects.requireNonNull(names);
+
+    Set<String> supported = new HashSet<>(Arrays.asList(p.getServerProposals().get().split(",")));
+    for (String name : names.split(",", -1)) {
+      if (!supported.contains(name)) {
+        throw new IllegalArgumentException("Unsupported " + p.getName() + " algorithm: '" + name +
+            "', supported: " + supported);
+      }
+    }
+
+    String[] ll = lists.clone();
+    ll[p.getId()] = names;
+    return new KexNegotiator(ll, isServer);
+  }
+
+  /**
+   * @return the payload of a new SSH_MSG_KEXINIT, the message id excluded, with a random cookie
+   */
+  public byte[] newKexInit() {
+    byte[] ki = template.clone();
+    ChaCha20Random.current().nextBytes(ki, 0, SshConstant.MSG_KEX_COOKIE_SIZE);
+    return ki;
+  }
+
+  /**
+   * Reads the name-list of {@code p} from the SSH_MSG_KEXINIT of the other side, and negotiates
+   * the algorithm with it, which is the first one of the client's list that's supported by the
+   * server as well.
+   *
+   * @param p    the category of the algorithms
+   * @param buf  the message, its reader index is at the name-list, and it's moved past it
+   * @return the name negotiated, as it's interned in this negotiator
+   * @throws IllegalStateException if there's no algorithm supported by both sides
+   */
+  public String negotiate(KexProposal p, ByteBuf buf) {
+    int len = buf.readInt();
+    int start = buf.readerIndex();
+    buf.skipBytes(len);
+    int end = start + len;
+
+    int id = p.getId();
+    byte[][] ours = bytes[id];
+
+    if (isServer) {
+      // the first of theirs that's one of ours
+      for (int i = start; ; ) {
+        int j = buf.indexOf(i, end, COMMA);
+        if (j < 0) {
+          j = end;
+        }
+
+        for (int k = 0; k < ours.length; k++) {
+          if (matches(buf, i, j, ours[k])) {
+            return names[id][k];
+          }
+        }
+
+        if (j == end) {
+          break;
+        }
+        i = j + 1;
+      }
+    } else {
+      // the first of ours that's one of theirs
+      for (int k = 0; k < ours.length; k++) {
+        for (int i = start; ; ) {
+          int j = buf.indexOf(i, end, COMMA);
+          if (j < 0) {
+            j = end;
+          }
+
+          if (matches(buf, i, j, ours[k])) {
+            return names[id][k];
+          }
+
+          if (j == end) {
+            break;
+          }
+          i = j + 1;
+        }
+      }
+    }
+
+    throw new IllegalStateException("Failed to negotiate the " + p.name() + " in key exchange "
+        + "- our proposals: " + lists[id] + ", their proposals: "
+        + buf.toString(start, len, StandardCharsets.UTF_8));
+  }
+
+  private static boolean matches(ByteBuf buf, int from, int to, byte[] name) {
+    if (to - from != name.length) {
+      return false;
+    }
+    for (int i = 0; i < name.length; i++) {
+      if (buf.getByte(from + i) != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
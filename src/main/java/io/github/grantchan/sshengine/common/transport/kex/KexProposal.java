@@ -1,21 +1,20 @@
 package io.github.grantchan.sshengine.common.transport.kex;
 
-import io.github.grantchan.sshengine.arch.SshConstant;
 import io.github.grantchan.sshengine.common.NamedObject;
 import io.github.grantchan.sshengine.common.transport.cipher.CipherFactories;
 import io.github.grantchan.sshengine.common.transport.compression.CompressionFactories;
 import io.github.grantchan.sshengine.common.transport.mac.MacFactories;
 import io.github.grantchan.sshengine.common.transport.signature.SignatureFactories;
-import io.github.grantchan.sshengine.util.buffer.Bytes;
 
-import java.security.SecureRandom;
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public enum KexProposal implements NamedObject {
 
-  KEX             (Param.KEX,             "KEX",              KexGroupFactories::getNames),
+  KEX             (Param.KEX,             "KEX",              KexGroupFactories::getClientNames,
+                                                              KexGroupFactories::getNames),
   SERVER_HOST_KEY (Param.SERVER_HOST_KEY, "Server Host Key",  SignatureFactories::getNames),
   ENCRYPTION_C2S  (Param.ENCRYPTION_C2S,  "Encryption C2S",   CipherFactories::getNames),
   ENCRYPTION_S2C  (Param.ENCRYPTION_S2C,  "Encryption S2C",   CipherFactories::getNames),
@@ -26,19 +25,25 @@ public enum KexProposal implements NamedObject {
   LANGUAGE_C2S    (Param.LANGUAGE_C2S,    "Language C2S",     () -> ""),
   LANGUAGE_S2C    (Param.LANGUAGE_S2C,    "Language S2C",     () -> "");
 
-  private static final byte[] FFP = new byte[] {0};               // first factory packet follows
-  private static final byte[] RESERVED = new byte[] {0, 0, 0, 0}; // reserved (FFU)
-
   public static final Set<KexProposal> ALL = EnumSet.allOf(KexProposal.class);
 
   private final int id;
   private final String name;
   private final Supplier<String> proposals;
+  /** The server's default proposals, a superset of the client's when some are server only */
+  private final Supplier<String> serverDefaults;
+  /** The server's proposals, in the order preferred on this host, {@code null} if not set */
+  private volatile String serverProposals;
 
   KexProposal(int id, String name, Supplier<String> proposals) {
+    this(id, name, proposals, proposals);
+  }
+
+  KexProposal(int id, String name, Supplier<String> proposals, Supplier<String> serverDefaults) {
     this.id = id;
     this.name = name;
     this.proposals = proposals;
+    this.serverDefaults = serverDefaults;
   }
 
   public int getId() {
@@ -54,26 +59,40 @@ public enum KexProposal implements NamedObject {
     return proposals;
   }
 
+  /**
+   * @return the proposals sent by the server, which are the same as {@link #getProposals()},
+   * unless they have been reordered by {@link #setServerProposals(String)}
+   */
+  public Supplier<String> getServerProposals() {
+    String pp = serverProposals;
+    return (pp == null) ? serverDefaults : () -> pp;
+  }
+
+  /**
+   * Overrides the order of the proposals sent by the server.
+   *
+   * @param names  a comma separated list of names, {@code null} to restore the default order
+   */
+  public void setServerProposals(String names) {
+    this.serverProposals = names;
+    KexNegotiator.resetServerDefault();
+  }
+
   /**
    * Construct the key exchange initialization packet.
    */
   public static byte[] toBytes() {
-    SecureRandom rand = new SecureRandom();
-
-    byte[] cookie = new byte[SshConstant.MSG_KEX_COOKIE_SIZE];
-    rand.nextBytes(cookie);
-
-    int i = 0;
-    String[] pp = new String[KexProposal.ALL.size()];
-    for (KexProposal p : KexProposal.ALL) {
-      pp[i++] = p.getProposals().get();
-    }
-
-    return Bytes.concat(
-        cookie,
-        Bytes.joinWithLength(pp),
-        FFP, RESERVED
-    );
+    return KexNegotiator.getClientDefault().newKexInit();
+  }
+
+  /**
+   * Construct the key exchange initialization packet.
+   *
+   * @param proposals  the function to get the proposals of a category
+   * @see KexNegotiator#newKexInit()
+   */
+  public static byte[] toBytes(Function<KexProposal, Supplier<String>> proposals) {
+    return KexNegotiator.of(proposals, false).newKexInit();
   }
 
   public static class Param {
@@ -0,0 +1,248 @@
+package io.github.grantchan.sshengine.common.transport.kex;
+
+import io.github.grantchan.sshengine.common.AbstractLogger;
+import io.github.grantchan.sshengine.common.CryptoExecutor;
+import io.github.grantchan.sshengine.common.SshException;
+import io.github.grantchan.sshengine.util.LazySupplier;
+
+import javax.crypto.spec.DHParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * <p>Ephemeral key pairs of the key exchange, generated ahead of time.</p>
+ *
+ * <p>The pool keeps up to {@code size} key pairs ready for each {@link DhGroup} and {@link ECurve}
+ * asked for, and for X25519, a key exchange takes one out, so a key pair is never used twice.
+ * Whenever a pool drops below its size, it's topped up by the {@link CryptoExecutor} of the key
+ * exchanges, one key pair per job, of {@link CryptoExecutor.Priority#REFILL} priority, so a key
+ * exchange waiting for a thread goes ahead of the refills, which take the threads left. If a pool
+ * is empty, the key pair is generated right away, by the caller, as it would be without the
+ * pool.</p>
+ *
+ * <p>The pool of a group, or a curve, is created the first time it's asked for.</p>
+ */
+public class KeyPairPool extends AbstractLogger {
+
+  private static final int DEFAULT_SIZE = 8;
+
+  private static final LazySupplier<KeyPairPool> DEFAULT = new LazySupplier<KeyPairPool>() {
+    @Override
+    protected KeyPairPool initialize() {
+      return new KeyPairPool(DEFAULT_SIZE);
+    }
+  };
+
+  private final int size;
+
+  /** The executor of the key exchanges, it runs the refills too */
+  private final CryptoExecutor executor;
+
+  private final Map<Object, Slot<?>> slots = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder refilled = new LongAdder();
+  private final LongAdder refillNanos = new LongAdder();
+
+  /**
+   * @param size  the number of key pairs to keep ready per group or curve, 0 to disable the
+   *              pre-generation
+   */
+  public KeyPairPool(int size) {
+    this(size, CryptoExecutor.getDefault());
+  }
+
+  /**
+   * @param size      the number of key pairs to keep ready per group or curve, 0 to disable the
+   *                  pre-generation
+   * @param executor  the executor of the key exchanges, to pre-generate the key pairs with
+   */
+  public KeyPairPool(int size, CryptoExecutor executor) {
+    this.size = size;
+    this.executor = executor;
+  }
+
+  /**
+   * @return the pool shared by all the key exchanges
+   */
+  public static KeyPairPool getDefault() {
+    return DEFAULT.get();
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @param group  the Diffie-Hellman group
+   * @return a key pair of the group, never handed out before
+   * @throws SshException if the key pair can't be generated
+   */
+  public KeyPair take(DhGroup group) throws SshException {
+    return take(group, "DH", () -> generator("DH", new DHParameterSpec(group.P(), group.G())));
+  }
+
+  /**
+   * @param curve  the elliptic curve
+   * @return a key pair on the curve, never handed out before
+   * @throws SshException if the key pair can't be generated
+   */
+  public KeyPair take(ECurve curve) throws SshException {
+    return take(curve, "EC", () -> generator("EC", curve.value()));
+  }
+
+  /**
+   * @return an X25519 key pair, never handed out before
+   * @throws SshException if the key pair can't be generated
+   */
+  X25519.KeyPair takeX25519() throws SshException {
+    return take("X25519", "X25519", () -> X25519.KeyPair::generate);
+  }
+
+  /*
+   * The generator is only created along with the pool of the key, it holds the parameters of the
+   * group or the curve, P() of a group is worked out on every call
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T take(Object key, String algorithm, Supplier<Generator<T>> generator)
+      throws SshException {
+    Slot<T> slot =
+        (Slot<T>) slots.computeIfAbsent(key, k -> new Slot<>(k, algorithm, generator.get()));
+
+    T kp = slot.ready.poll();
+    if (kp != null) {
+      slot.count.decrementAndGet();
+      hits.increment();
+    } else {
+      misses.increment();
+      try {
+        kp = slot.generator.generate();
+      } catch (GeneralSecurityException e) {
+        throw new SshException("Failed to generate the " + algorithm + " key pair of " + key, e);
+      }
+    }
+
+    slot.refill();
+
+    return kp;
+  }
+
+  /**
+   * @return the number of key pairs taken out of the pool
+   */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * @return the number of key pairs generated by the caller, as the pool was empty
+   */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * @return the number of key pairs generated in the background
+   */
+  public long getRefillCount() {
+    return refilled.sum();
+  }
+
+  /**
+   * @return the number of key pairs generated per second by the refills, while they're running
+   */
+  public double getRefillRate() {
+    long nanos = refillNanos.sum();
+    return (nanos == 0) ? 0 : refilled.sum() * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+  }
+
+  /**
+   * @return the number of key pairs ready in the pool of the group or the curve given, or of
+   * X25519 if it's {@code "X25519"}
+   */
+  public int getReady(Object key) {
+    Slot slot = slots.get(key);
+    return (slot == null) ? 0 : slot.count.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("KeyPairPool[size=%d, hits=%d, misses=%d, refilled=%d, rate=%.1f/s]",
+        size, getHitCount(), getMissCount(), getRefillCount(), getRefillRate());
+  }
+
+  private static Generator<KeyPair> generator(String algorithm, AlgorithmParameterSpec spec) {
+    return () -> {
+      KeyPairGenerator kpg = KeyPairGenerator.getInstance(algorithm);
+      kpg.initialize(spec);
+
+      return kpg.generateKeyPair();
+    };
+  }
+
+  @FunctionalInterface
+  private interface Generator<T> {
+    T generate() throws GeneralSecurityException;
+  }
+
+  private class Slot<T> {
+
+    private final Object key;
+    private final String algorithm;
+    private final Generator<T> generator;
+
+    private final Queue<T> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger count = new AtomicInteger(0);
+    private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+    Slot(Object key, String algorithm, Generator<T> generator) {
+      this.key = key;
+      this.algorithm = algorithm;
+      this.generator = generator;
+    }
+
+    void refill() {
+      if (count.get() >= size || !refilling.compareAndSet(false, true)) {
+        return;
+      }
+
+      // if the executor is full, the next key pair taken tries again
+      if (!executor.tryExecute(CryptoExecutor.Priority.REFILL, this::refillOne)) {
+        refilling.set(false);
+      }
+    }
+
+    private void refillOne() {
+      try {
+        long start = System.nanoTime();
+        ready.offer(generator.generate());
+        count.incrementAndGet();
+
+        refillNanos.add(System.nanoTime() - start);
+        refilled.increment();
+      } catch (GeneralSecurityException e) {
+        logger.warn("Failed to pre-generate the {} key pair of {}", algorithm, key, e);
+
+        refilling.set(false);
+        return;
+      }
+      refilling.set(false);
+
+      // the next one, in a job of its own, it also covers a key pair taken after the count is
+      // checked, which found the refill still running and left it to this one
+      refill();
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package io.github.grantchan.sshengine.common.transport.kex;
+
+import io.github.grantchan.sshengine.common.transport.cipher.ChaCha20Random;
+
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.add;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.invert;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.mul;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.pack;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.sub;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.swap;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.unpack;
+
+/**
+ * <p>The X25519 function, scalar multiplication on Curve25519 in Montgomery form, as defined in
+ * RFC 7748.</p>
+ *
+ * <p>The field arithmetic is done by {@link io.github.grantchan.sshengine.util.curve25519.Field25519}.
+ * The Montgomery ladder walks all the 255 bits of the scalar with the same sequence of operations,
+ * and the conditional swaps are done with masks rather than branches, so the time taken doesn't
+ * depend on the scalar.</p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc7748#section-5">RFC 7748 - The X25519 and X448
+ * Functions</a>
+ * @see <a href="https://tweetnacl.cr.yp.to/">TweetNaCl</a>
+ */
+final class X25519 {
+
+  static final int KEY_SIZE = 32;
+
+  private static final byte[] BASE_POINT = new byte[KEY_SIZE];
+  static {
+    BASE_POINT[0] = 9;
+  }
+
+  /** (A - 2) / 4, where A = 486662 */
+  private static final long[] A24 = {0xdb41, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+  /**
+   * A private key, with its public key, see {@link KeyPairPool#takeX25519()}
+   */
+  static final class KeyPair {
+
+    final byte[] prvKey;
+    final byte[] pubKey;
+
+    private KeyPair(byte[] prvKey) {
+      this.prvKey = prvKey;
+      this.pubKey = publicKey(prvKey);
+    }
+
+    /**
+     * @return a new key pair, of a private key taken from the generator of the current thread
+     */
+    static KeyPair generate() {
+      byte[] prvKey = new byte[KEY_SIZE];
+      ChaCha20Random.current().nextBytes(prvKey);
+
+      return new KeyPair(prvKey);
+    }
+  }
+
+  /**
+   * @param prvKey  the private key, 32 random bytes
+   * @return the public key, the private key multiplied by the base point
+   */
+  static byte[] publicKey(byte[] prvKey) {
+    return scalarMult(prvKey, BASE_POINT);
+  }
+
+  /**
+   * @param k  the scalar, a private key
+   * @param u  the u-coordinate of the point, a public key
+   * @return the u-coordinate of k * u
+   */
+  static byte[] scalarMult(byte[] k, byte[] u) {
+    byte[] z = new byte[KEY_SIZE];
+    System.arraycopy(k, 0, z, 0, KEY_SIZE);
+
+    // clamps the scalar
+    z[31] = (byte) ((z[31] & 0x7f) | 0x40);
+    z[0] &= (byte) 0xf8;
+
+    long[] x = new long[16];
+    unpack(x, u);
+
+    long[] a = new long[16], b = x.clone(), c = new long[16], d = new long[16];
+    long[] e = new long[16], f = new long[16];
+    a[0] = d[0] = 1;
+
+    for (int i = 254; i >= 0; i--) {
+      int r = (z[i >>> 3] >>> (i & 7)) & 1;
+      swap(a, b, r);
+      swap(c, d, r);
+
+      add(e, a, c);
+      sub(a, a, c);
+      add(c, b, d);
+      sub(b, b, d);
+      mul(d, e, e);
+      mul(f, a, a);
+      mul(a, c, a);
+      mul(c, b, e);
+      add(e, a, c);
+      sub(a, a, c);
+      mul(b, a, a);
+      sub(c, d, f);
+      mul(a, c, A24);
+      add(a, a, d);
+      mul(c, c, a);
+      mul(a, d, f);
+      mul(d, b, x);
+      mul(b, e, e);
+
+      swap(a, b, r);
+      swap(c, d, r);
+    }
+
+    invert(c, c);
+    mul(a, a, c);
+
+    byte[] out = new byte[KEY_SIZE];
+    pack(out, a);
+    return out;
+  }
+
+  /* Private constructor to prevent this class from being explicitly instantiated */
+  private X25519() {}
+}
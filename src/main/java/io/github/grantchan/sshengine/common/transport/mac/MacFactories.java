@@ -8,6 +8,7 @@ import javax.crypto.spec.SecretKeySpec;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Objects;
@@ -15,6 +16,66 @@ import java.util.Set;
 
 public enum MacFactories implements NamedObject, MacFactory {
 
+  /*
+   * UMAC, a universal hash keyed once per session, the packet sequence number is its nonce.
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc4418">RFC 4418</a>
+   */
+  umac64etm("umac-64-etm@openssh.com", "UMAC64", 8, Umac.KEY_SIZE, true) {
+    @Override
+    Mac newMac() {
+      return Umac.getInstance(getBlkSize());
+    }
+
+    @Override
+    public boolean isProvided() {
+      return false;
+    }
+  },
+  umac128etm("umac-128-etm@openssh.com", "UMAC128", 16, Umac.KEY_SIZE, true) {
+    @Override
+    Mac newMac() {
+      return Umac.getInstance(getBlkSize());
+    }
+
+    @Override
+    public boolean isProvided() {
+      return false;
+    }
+  },
+
+  /*
+   * Encrypt-then-MAC, the MAC is computed over the packet length, which is sent in clear, and the
+   * encrypted packet, so a corrupted or forged packet is rejected before it's decrypted.
+   *
+   * @see <a href="https://cvsweb.openbsd.org/src/usr.bin/ssh/PROTOCOL">PROTOCOL, section 1.7</a>
+   */
+  hmacsha256etm("hmac-sha2-256-etm@openssh.com", "HmacSHA256", 32, 32, true),
+  hmacsha512etm("hmac-sha2-512-etm@openssh.com", "HmacSHA512", 64, 64, true),
+
+  umac64("umac-64@openssh.com", "UMAC64", 8, Umac.KEY_SIZE) {
+    @Override
+    Mac newMac() {
+      return Umac.getInstance(getBlkSize());
+    }
+
+    @Override
+    public boolean isProvided() {
+      return false;
+    }
+  },
+  umac128("umac-128@openssh.com", "UMAC128", 16, Umac.KEY_SIZE) {
+    @Override
+    Mac newMac() {
+      return Umac.getInstance(getBlkSize());
+    }
+
+    @Override
+    public boolean isProvided() {
+      return false;
+    }
+  },
+
   hmacsha1("hmac-sha1", "HmacSHA1", 20, 20);
 
   private static final Set<MacFactories> values =
@@ -24,12 +85,20 @@ public enum MacFactories implements NamedObject, MacFactory {
   private String transformation;
   private int blkSize;
   private int defBlkSize;
+  private boolean etm;
+  /** The JCA provider to create the instances from, {@code null} for the default one */
+  private volatile Provider provider;
 
   MacFactories(String name, String transformation, int blkSize, int defBlkSize) {
+    this(name, transformation, blkSize, defBlkSize, false);
+  }
+
+  MacFactories(String name, String transformation, int blkSize, int defBlkSize, boolean etm) {
     this.name = name;
     this.transformation = transformation;
     this.blkSize = blkSize;
     this.defBlkSize = defBlkSize;
+    this.etm = etm;
   }
 
   @Override
@@ -37,6 +106,10 @@ public enum MacFactories implements NamedObject, MacFactory {
     return this.name;
   }
 
+  public String getTransformation() {
+    return this.transformation;
+  }
+
   public int getBlkSize() {
     return this.blkSize;
   }
@@ -45,11 +118,42 @@ public enum MacFactories implements NamedObject, MacFactory {
     return this.defBlkSize;
   }
 
+  /**
+   * @return true if it's an encrypt-then-MAC algorithm
+   */
+  public boolean isEtm() {
+    return this.etm;
+  }
+
+  /**
+   * @return true if the instances are created by a JCA provider, so that
+   * {@link #setProvider(Provider)} applies to them
+   */
+  public boolean isProvided() {
+    return true;
+  }
+
+  /**
+   * @return the JCA provider pinned to this MAC, {@code null} if the default one is used
+   */
+  public Provider getProvider() {
+    return this.provider;
+  }
+
+  /**
+   * Pins the JCA provider of this MAC, the instances created afterwards come from it.
+   *
+   * @param provider  the provider, {@code null} to fall back to the default one
+   */
+  public void setProvider(Provider provider) {
+    this.provider = provider;
+  }
+
   @Override
   public Mac create(byte[] key) {
     Mac mac = null;
     try {
-      mac = Mac.getInstance(transformation);
+      mac = newMac();
     } catch (NoSuchAlgorithmException e) {
       e.printStackTrace();
     }
@@ -64,6 +168,14 @@ public enum MacFactories implements NamedObject, MacFactory {
     return mac;
   }
 
+  /**
+   * @return a new, uninitialized, {@code Mac} instance of this algorithm
+   */
+  Mac newMac() throws NoSuchAlgorithmException {
+    Provider p = provider;
+    return (p == null) ? Mac.getInstance(transformation) : Mac.getInstance(transformation, p);
+  }
+
   public static String getNames() {
     return NamedObject.getNames(values);
   }
@@ -74,6 +186,7 @@ public enum MacFactories implements NamedObject, MacFactory {
 
   @Override
   public String toString() {
-    return name + "[" + transformation + "," + blkSize + "," + defBlkSize + "]";
+    return name + "[" + transformation + "," + blkSize + "," + defBlkSize
+        + (etm ? ",etm" : "") + "]";
   }
 }
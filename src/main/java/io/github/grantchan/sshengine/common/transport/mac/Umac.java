@@ -0,0 +1,461 @@
+package io.github.grantchan.sshengine.common.transport.mac;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.MacSpi;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.ProviderException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+
+/**
+ * <p>UMAC with AES-128, as used by umac-64@openssh.com and umac-128@openssh.com, pure Java.</p>
+ *
+ * <p>The message is hashed by UHASH in 2 (UMAC-64) or 4 (UMAC-128) iterations, with different
+ * keys, each of them produces 4 bytes of the tag:</p>
+ * <ul>
+ *   <li>L1, NH over every 1024-byte chunk of the message, 32 bytes at a time, in 64-bit long
+ *       arithmetic</li>
+ *   <li>L2, a polynomial hash modulo 2^64 - 59 over the L1 outputs, only when the message is
+ *       longer than one chunk</li>
+ *   <li>L3, an inner product modulo 2^36 - 5, which brings the L2 output down to 32 bits</li>
+ * </ul>
+ * <p>The hash is then XORed with a pad, the AES encryption of the nonce. All the key material is
+ * derived once, when the MAC is initialized with the session key.</p>
+ *
+ * <p>The packet sequence number is not part of the message, but the nonce. As the packet codecs
+ * feed every MAC with {@code sequence_number || packet}, the first 4 bytes of every message are
+ * taken as the nonce, the rest is hashed.</p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc4418">UMAC: Message Authentication Code using
+ * Universal Hashing</a>
+ * @see <a href="https://cvsweb.openbsd.org/src/usr.bin/ssh/umac.c">umac.c</a>
+ */
+final class Umac extends MacSpi {
+
+  static final int KEY_SIZE = 16;
+
+  /** The size of a chunk hashed by L1, in bytes, which is also the size of the NH key */
+  private static final int L1_KEY_LEN = 1024;
+
+  /** The NH key of an iteration is shifted by 16 bytes from the previous one */
+  private static final int L1_KEY_SHIFT = 16;
+
+  /** NH works on 32 bytes at a time, the last piece of a chunk is padded with zeros */
+  private static final int L1_PAD_BOUNDARY = 32;
+
+  private static final long M32 = 0xffffffffL;
+
+  /** 2^64 - 59, the prime of L2 */
+  private static final long P64 = -59L;
+
+  /** 2^36 - 5, the prime of L3 */
+  private static final long P36 = (1L << 36) - 5;
+  private static final long M36 = (1L << 36) - 1;
+
+  private final int tagLen;
+  private final int iters;
+  /** The high 32 bits of the 64-bit nonce, the low ones are the sequence number */
+  private int nonceHigh = 0;
+
+  /* Key material, derived from the session key */
+  private int[] nhKey;
+  private long[] polyKey;
+  private long[] ipKey;
+  private int[] ipTrans;
+  private Cipher pdf;
+
+  /* State of the message being hashed */
+  private final long[] nh;
+  private final long[] poly;
+  private final byte[] block = new byte[L1_PAD_BOUNDARY];
+  private int blockLen;
+  private int chunkLen;
+  private long msgLen;
+  private int seq;
+  private int seqLen;
+  private final byte[] one = new byte[1];
+
+  /* The pad of the last nonce, UMAC-64 takes two consecutive nonces from one AES block */
+  private final byte[] nonce = new byte[KEY_SIZE];
+  private final byte[] pad = new byte[KEY_SIZE];
+  private int padNonce;
+  private boolean padValid;
+
+  Umac(int tagLen) {
+    this.tagLen = tagLen;
+    this.iters = tagLen / Integer.BYTES;
+    this.nh = new long[iters];
+    this.poly = new long[iters];
+  }
+
+  /**
+   * @param tagLen  the length of the tag, 8 for UMAC-64, 16 for UMAC-128
+   * @return a new UMAC instance, to be initialized with a 16-byte key
+   */
+  static Mac getInstance(int tagLen) {
+    return new Mac(new Umac(tagLen), null, "UMAC" + tagLen * Byte.SIZE) {};
+  }
+
+  /*
+   * The high 32 bits of the nonce are 0 in SSH, as the nonce is the 32-bit sequence number, only
+   * the test vectors of RFC 4418 need a wider one.
+   */
+  void setNonceHigh(int nonceHigh) {
+    this.nonceHigh = nonceHigh;
+    this.padValid = false;
+  }
+
+  @Override
+  protected int engineGetMacLength() {
+    return tagLen;
+  }
+
+  @Override
+  protected void engineInit(Key key, AlgorithmParameterSpec params) throws InvalidKeyException {
+    byte[] k = key.getEncoded();
+    if (k == null || k.length != KEY_SIZE) {
+      throw new InvalidKeyException("UMAC requires a " + KEY_SIZE + "-byte key");
+    }
+
+    try {
+      Cipher aes = Cipher.getInstance("AES/ECB/NoPadding");
+      aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(k, "AES"));
+
+      byte[] buf = kdf(aes, 1, L1_KEY_LEN + L1_KEY_SHIFT * (iters - 1));
+      nhKey = new int[buf.length / Integer.BYTES];
+      for (int i = 0; i < nhKey.length; i++) {
+        nhKey[i] = getInt(buf, i * Integer.BYTES);
+      }
+
+      buf = kdf(aes, 2, 24 * iters);
+      polyKey = new long[iters];
+      for (int i = 0; i < iters; i++) {
+        polyKey[i] = getLong(buf, 24 * i) & 0x01ffffff01ffffffL;
+      }
+
+      // the L2 output is less than 2^64, the first half of the 16-byte L3 input is always 0, so
+      // only the last 4 of the 8 keys of an iteration are used
+      buf = kdf(aes, 3, 64 * iters);
+      ipKey = new long[4 * iters];
+      for (int i = 0; i < ipKey.length; i++) {
+        ipKey[i] = Long.remainderUnsigned(getLong(buf, 64 * (i / 4) + 32 + 8 * (i % 4)), P36);
+      }
+
+      buf = kdf(aes, 4, 4 * iters);
+      ipTrans = new int[iters];
+      for (int i = 0; i < iters; i++) {
+        ipTrans[i] = getInt(buf, 4 * i);
+      }
+
+      pdf = Cipher.getInstance("AES/ECB/NoPadding");
+      pdf.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(kdf(aes, 0, KEY_SIZE), "AES"));
+    } catch (InvalidKeyException e) {
+      throw e;
+    } catch (GeneralSecurityException e) {
+      throw new ProviderException(e);
+    }
+
+    padValid = false;
+    engineReset();
+  }
+
+  @Override
+  protected void engineUpdate(byte input) {
+    one[0] = input;
+    engineUpdate(one, 0, 1);
+  }
+
+  @Override
+  protected void engineUpdate(byte[] input, int offset, int len) {
+    for (; seqLen < Integer.BYTES && len > 0; seqLen++, offset++, len--) {
+      seq = (seq << 8) | (input[offset] & 0xff);
+    }
+
+    msgLen += len;
+    while (len > 0) {
+      if (chunkLen == L1_KEY_LEN) {
+        // the chunk is full, and the message goes on
+        endChunk();
+        l2();
+      }
+
+      int n = Math.min(len, L1_KEY_LEN - chunkLen);
+      l1(input, offset, n);
+      offset += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  protected byte[] engineDoFinal() {
+    endChunk();
+
+    byte[] tag = new byte[tagLen];
+    if (msgLen > L1_KEY_LEN) {
+      l2();
+      for (int i = 0; i < iters; i++) {
+        putInt(tag, 4 * i, l3(i, poly[i]));
+      }
+    } else {
+      for (int i = 0; i < iters; i++) {
+        putInt(tag, 4 * i, l3(i, nh[i]));
+      }
+    }
+
+    int idx = 0, n = seq;
+    if (tagLen == 8) {
+      idx = n & 1;
+      n &= ~1;
+    }
+    if (!padValid || n != padNonce) {
+      // the nonce is the 64-bit sequence number, followed by 8 zero bytes
+      putInt(nonce, 0, nonceHigh);
+      putInt(nonce, 4, n);
+      try {
+        pdf.doFinal(nonce, 0, nonce.length, pad, 0);
+      } catch (GeneralSecurityException e) {
+        throw new ProviderException(e);
+      }
+      padNonce = n;
+      padValid = true;
+    }
+    for (int i = 0; i < tagLen; i++) {
+      tag[i] ^= pad[idx * tagLen + i];
+    }
+
+    engineReset();
+    return tag;
+  }
+
+  @Override
+  protected void engineReset() {
+    Arrays.fill(nh, 0);
+    Arrays.fill(poly, 1);
+    blockLen = 0;
+    chunkLen = 0;
+    msgLen = 0;
+    seq = 0;
+    seqLen = 0;
+  }
+
+  /*
+   * Feeds NH with a piece of the current chunk, 32 bytes at a time, the remaining bytes are held
+   * till more data comes in or the chunk ends.
+   */
+  private void l1(byte[] m, int off, int len) {
+    if (blockLen > 0) {
+      int n = Math.min(L1_PAD_BOUNDARY - blockLen, len);
+      System.arraycopy(m, off, block, blockLen, n);
+      blockLen += n;
+      chunkLen += n;
+      off += n;
+      len -= n;
+
+      if (blockLen < L1_PAD_BOUNDARY) {
+        return;
+      }
+      nh(block, 0, L1_PAD_BOUNDARY, (chunkLen - L1_PAD_BOUNDARY) >>> 2);
+      blockLen = 0;
+    }
+
+    int n = len & -L1_PAD_BOUNDARY;
+    if (n > 0) {
+      nh(m, off, n, chunkLen >>> 2);
+      chunkLen += n;
+      off += n;
+      len -= n;
+    }
+
+    if (len > 0) {
+      System.arraycopy(m, off, block, 0, len);
+      blockLen = len;
+      chunkLen += len;
+    }
+  }
+
+  /*
+   * NH of a multiple of 32 bytes, for all the iterations at once, so every message word is read
+   * once. The message words are little-endian, the accumulators are kept in locals.
+   */
+  private void nh(byte[] m, int off, int len, int k) {
+    int[] key = nhKey;
+    long h0 = nh[0], h1 = nh[1];
+    long h2 = iters > 2 ? nh[2] : 0, h3 = iters > 2 ? nh[3] : 0;
+
+    for (int end = off + len; off < end; off += L1_PAD_BOUNDARY, k += 8) {
+      long m0 = getIntLE(m, off);
+      long m1 = getIntLE(m, off + 4);
+      long m2 = getIntLE(m, off + 8);
+      long m3 = getIntLE(m, off + 12);
+      long m4 = getIntLE(m, off + 16);
+      long m5 = getIntLE(m, off + 20);
+      long m6 = getIntLE(m, off + 24);
+      long m7 = getIntLE(m, off + 28);
+
+      h0 += ((m0 + key[k])     & M32) * ((m4 + key[k + 4]) & M32)
+          + ((m1 + key[k + 1]) & M32) * ((m5 + key[k + 5]) & M32)
+          + ((m2 + key[k + 2]) & M32) * ((m6 + key[k + 6]) & M32)
+          + ((m3 + key[k + 3]) & M32) * ((m7 + key[k + 7]) & M32);
+
+      h1 += ((m0 + key[k + 4]) & M32) * ((m4 + key[k + 8])  & M32)
+          + ((m1 + key[k + 5]) & M32) * ((m5 + key[k + 9])  & M32)
+          + ((m2 + key[k + 6]) & M32) * ((m6 + key[k + 10]) & M32)
+          + ((m3 + key[k + 7]) & M32) * ((m7 + key[k + 11]) & M32);
+
+      if (iters > 2) {
+        h2 += ((m0 + key[k + 8])  & M32) * ((m4 + key[k + 12]) & M32)
+            + ((m1 + key[k + 9])  & M32) * ((m5 + key[k + 13]) & M32)
+            + ((m2 + key[k + 10]) & M32) * ((m6 + key[k + 14]) & M32)
+            + ((m3 + key[k + 11]) & M32) * ((m7 + key[k + 15]) & M32);
+
+        h3 += ((m0 + key[k + 12]) & M32) * ((m4 + key[k + 16]) & M32)
+            + ((m1 + key[k + 13]) & M32) * ((m5 + key[k + 17]) & M32)
+            + ((m2 + key[k + 14]) & M32) * ((m6 + key[k + 18]) & M32)
+            + ((m3 + key[k + 15]) & M32) * ((m7 + key[k + 19]) & M32);
+      }
+    }
+
+    nh[0] = h0;
+    nh[1] = h1;
+    if (iters > 2) {
+      nh[2] = h2;
+      nh[3] = h3;
+    }
+  }
+
+  /*
+   * Hashes the last, zero padded, piece of the chunk, and adds the bit length of the chunk
+   */
+  private void endChunk() {
+    if (blockLen > 0 || chunkLen == 0) {
+      Arrays.fill(block, blockLen, L1_PAD_BOUNDARY, (byte) 0);
+      nh(block, 0, L1_PAD_BOUNDARY, (chunkLen - blockLen) >>> 2);
+      blockLen = 0;
+    }
+
+    long bits = (long) chunkLen << 3;
+    for (int i = 0; i < iters; i++) {
+      nh[i] += bits;
+    }
+  }
+
+  /*
+   * Folds the L1 output of the ended chunk into the polynomial hash, and starts a new chunk
+   */
+  private void l2() {
+    for (int i = 0; i < iters; i++) {
+      long m = nh[i];
+      if ((m >>> 32) == M32) {
+        // too big to be a word of the polynomial, escaped with the marker p - 1
+        poly[i] = poly(poly[i], polyKey[i], P64 - 1);
+        poly[i] = poly(poly[i], polyKey[i], m - 59);
+      } else {
+        poly[i] = poly(poly[i], polyKey[i], m);
+      }
+      nh[i] = 0;
+    }
+    chunkLen = 0;
+  }
+
+  /*
+   * (k * y + m) mod p64, with y and m less than p64, and k less than 2^57 after the key mask
+   */
+  private static long poly(long y, long k, long m) {
+    long lo = k * y;
+    long hi = multiplyHigh(k, y);
+
+    // 2^64 = 59 mod p64, hi * 59 fits in 63 bits
+    long r = lo + hi * 59;
+    if (Long.compareUnsigned(r, lo) < 0) {
+      r += 59;
+    }
+    if (Long.compareUnsigned(r, P64) >= 0) {
+      r -= P64;
+    }
+
+    long s = r + m;
+    if (Long.compareUnsigned(s, r) < 0) {
+      s += 59;
+    } else if (Long.compareUnsigned(s, P64) >= 0) {
+      s -= P64;
+    }
+    return s;
+  }
+
+  /*
+   * The high 64 bits of the unsigned 128-bit product
+   */
+  private static long multiplyHigh(long a, long b) {
+    long a0 = a & M32, a1 = a >>> 32;
+    long b0 = b & M32, b1 = b >>> 32;
+
+    long t = a1 * b0 + ((a0 * b0) >>> 32);
+    long w = (t & M32) + a0 * b1;
+
+    return a1 * b1 + (t >>> 32) + (w >>> 32);
+  }
+
+  /*
+   * Inner product of the 16-bit words of the 64-bit input with the keys, mod p36, truncated to 32
+   * bits and XORed with the translation key
+   */
+  private int l3(int i, long v) {
+    long[] k = ipKey;
+    int j = 4 * i;
+
+    long t = k[j]     * (v >>> 48)
+           + k[j + 1] * ((v >>> 32) & 0xffff)
+           + k[j + 2] * ((v >>> 16) & 0xffff)
+           + k[j + 3] * (v & 0xffff);
+
+    t = (t & M36) + 5 * (t >>> 36);
+    if (t >= P36) {
+      t -= P36;
+    }
+    return (int) t ^ ipTrans[i];
+  }
+
+  /*
+   * The key derivation function, AES in counter mode
+   */
+  private static byte[] kdf(Cipher aes, int index, int len) throws GeneralSecurityException {
+    byte[] in = new byte[KEY_SIZE];
+    in[7] = (byte) index;
+
+    byte[] out = new byte[(len + KEY_SIZE - 1) / KEY_SIZE * KEY_SIZE];
+    for (int i = 0; i < out.length; i += KEY_SIZE) {
+      in[KEY_SIZE - 1] = (byte) (i / KEY_SIZE + 1);
+      aes.doFinal(in, 0, KEY_SIZE, out, i);
+    }
+    return Arrays.copyOf(out, len);
+  }
+
+  private static int getInt(byte[] buf, int off) {
+    return (buf[off] & 0xff) << 24
+        | (buf[off + 1] & 0xff) << 16
+        | (buf[off + 2] & 0xff) << 8
+        | (buf[off + 3] & 0xff);
+  }
+
+  private static int getIntLE(byte[] buf, int off) {
+    return (buf[off] & 0xff)
+        | (buf[off + 1] & 0xff) << 8
+        | (buf[off + 2] & 0xff) << 16
+        | (buf[off + 3] & 0xff) << 24;
+  }
+
+  private static long getLong(byte[] buf, int off) {
+    return (getInt(buf, off) & M32) << 32 | (getInt(buf, off + 4) & M32);
+  }
+
+  private static void putInt(byte[] buf, int off, int val) {
+    buf[off]     = (byte) (val >>> 24);
+    buf[off + 1] = (byte) (val >>> 16);
+    buf[off + 2] = (byte) (val >>> 8);
+    buf[off + 3] = (byte) val;
+  }
+}
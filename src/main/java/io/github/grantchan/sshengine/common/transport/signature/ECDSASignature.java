@@ -0,0 +1,187 @@
+package io.github.grantchan.sshengine.common.transport.signature;
+
+import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
+import io.github.grantchan.sshengine.util.buffer.Bytes;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.Key;
+import java.security.SignatureException;
+import java.security.interfaces.ECKey;
+import java.util.Arrays;
+import java.util.Objects;
+
+public class ECDSASignature extends Signature {
+
+  private static final byte TAG_INTEGER = 0x02;
+  private static final byte TAG_SEQUENCE = 0x30;
+
+  private final String keyType;
+
+  /**
+   * @param keyType         the public key algorithm, e.g. "ecdsa-sha2-nistp256"
+   * @param transformation  the JCA signature, of the hash function of the curve, e.g.
+   *                        "SHA256withECDSA"
+   * @param key             the public key to verify with, or the private key to sign with
+   */
+  public ECDSASignature(String keyType, String transformation, Key key) {
+    super(transformation, key);
+
+    if (!(key instanceof ECKey)) {
+      throw new IllegalArgumentException("not an EC key");
+    }
+    this.keyType = keyType;
+  }
+
+  /**
+   * Signs the data, the JCA signature, r and s in a DER encoded sequence, is converted into the
+   * signature blob of SSH:
+   * <pre>
+   *   mpint    r
+   *   mpint    s
+   * </pre>
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc5656#section-3.1.2">Signature Encoding</a>
+   */
+  @Override
+  public byte[] sign() throws SignatureException {
+    byte[] der = super.sign();
+
+    ByteBuf buf = Unpooled.wrappedBuffer(der);
+    try {
+      if (buf.readByte() != TAG_SEQUENCE) {
+        throw new SignatureException("Invalid DER signature, SEQUENCE expected");
+      }
+      readLength(buf);
+
+      BigInteger r = readInteger(buf);
+      BigInteger s = readInteger(buf);
+
+      return Bytes.joinWithLength(r, s);
+    } catch (IndexOutOfBoundsException e) {
+      throw new SignatureException("Truncated DER signature", e);
+    } finally {
+      buf.release();
+    }
+  }
+
+  @Override
+  public boolean verify(byte[] sig) throws SignatureException {
+    if (sig == null) {
+      throw new SignatureException("Empty signature data");
+    }
+
+    /*
+     * The resulting signature is encoded as follows:
+     *
+     * string    "ecdsa-sha2-[identifier]"
+     * string    ecdsa_signature_blob
+     *
+     * The ecdsa_signature_blob value has the following specific encoding:
+     *
+     * mpint    r
+     * mpint    s
+     *
+     * @see <a href="https://tools.ietf.org/html/rfc5656#section-3.1.2">Signature Encoding</a>
+     */
+    ByteBuf buf = Unpooled.wrappedBuffer(sig);
+    String type = ByteBufIo.readUtf8(buf);
+    if (!type.equals(keyType)) {
+      throw new IllegalArgumentException("Key type mismatched, expected: " + keyType +
+          ", actual: " + type);
+    }
+
+    BigInteger r, s;
+    try {
+      ByteBuf blob = Unpooled.wrappedBuffer(ByteBufIo.readBytes(buf));
+
+      r = ByteBufIo.readMpInt(blob);
+      s = ByteBufIo.readMpInt(blob);
+    } catch (IndexOutOfBoundsException e) {
+      throw new SignatureException("Truncated signature blob", e);
+    }
+
+    if (r.signum() <= 0 || s.signum() <= 0) {
+      return false;
+    }
+
+    return Objects.requireNonNull(instance).verify(encode(r, s));
+  }
+
+  private static BigInteger readInteger(ByteBuf buf) throws SignatureException {
+    if (buf.readByte() != TAG_INTEGER) {
+      throw new SignatureException("Invalid DER signature, INTEGER expected");
+    }
+
+    byte[] val = new byte[readLength(buf)];
+    buf.readBytes(val);
+
+    return new BigInteger(val);
+  }
+
+  /**
+   * The length is one byte if it's less than 128, otherwise the first byte is 0x80 ORed with the
+   * number of bytes of the length followed
+   */
+  private static int readLength(ByteBuf buf) throws SignatureException {
+    int len = buf.readUnsignedByte();
+    if ((len & 0x80) == 0) {
+      return len;
+    }
+
+    int n = len & 0x7f;
+    if (n == 0 || n > 2) {
+      throw new SignatureException("Invalid DER length");
+    }
+
+    len = 0;
+    while (n-- > 0) {
+      len = (len << 8) | buf.readUnsignedByte();
+    }
+    return len;
+  }
+
+  /**
+   * The whole buffer is formatted as:<br/>
+   * 0x30 [length] 0x02 [length of r] [r] 0x02 [length of s] [s]
+   */
+  private static byte[] encode(BigInteger r, BigInteger s) {
+    byte[] rb = r.toByteArray();
+    byte[] sb = s.toByteArray();
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    body.write(TAG_INTEGER);
+    writeLength(body, rb.length);
+    body.write(rb, 0, rb.length);
+    body.write(TAG_INTEGER);
+    writeLength(body, sb.length);
+    body.write(sb, 0, sb.length);
+
+    ByteArrayOutputStream der = new ByteArrayOutputStream();
+    der.write(TAG_SEQUENCE);
+    writeLength(der, body.size());
+    byte[] b = body.toByteArray();
+    der.write(b, 0, b.length);
+
+    return der.toByteArray();
+  }
+
+  private static void writeLength(ByteArrayOutputStream out, int len) {
+    if (len < 0x80) {
+      out.write(len);
+      return;
+    }
+
+    byte[] nbo = Bytes.fromInt(len);
+
+    int n = 0;
+    while (nbo[n] == 0) {
+      ++n;
+    }
+    out.write(0x80 | (nbo.length - n));
+    byte[] rest = Arrays.copyOfRange(nbo, n, nbo.length);
+    out.write(rest, 0, rest.length);
+  }
+}
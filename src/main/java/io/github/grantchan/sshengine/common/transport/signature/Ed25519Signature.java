@@ -0,0 +1,85 @@
+package io.github.grantchan.sshengine.common.transport.signature;
+
+import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
+import io.github.grantchan.sshengine.util.curve25519.Ed25519;
+import io.github.grantchan.sshengine.util.curve25519.Ed25519PrivateKey;
+import io.github.grantchan.sshengine.util.curve25519.Ed25519PublicKey;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.ByteArrayOutputStream;
+import java.security.Key;
+import java.security.SignatureException;
+
+public class Ed25519Signature extends Signature {
+
+  private final Ed25519PublicKey pubKey;
+  private final Ed25519PrivateKey prvKey;
+
+  /** Ed25519 hashes the whole message twice when signing, so it's buffered until then */
+  private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+  public Ed25519Signature(Key key) {
+    if (key instanceof Ed25519PublicKey) { // if initiated as a verifier
+      this.pubKey = (Ed25519PublicKey) key;
+      this.prvKey = null;
+    } else if (key instanceof Ed25519PrivateKey) {
+      this.pubKey = null;
+      this.prvKey = (Ed25519PrivateKey) key;
+    } else {
+      throw new IllegalArgumentException("not an Ed25519 key");
+    }
+  }
+
+  @Override
+  public void update(byte[] data) {
+    this.data.write(data, 0, data.length);
+  }
+
+  @Override
+  public byte[] sign() throws SignatureException {
+    if (prvKey == null) {
+      throw new SignatureException("Not initialized for signing");
+    }
+
+    byte[] sig = prvKey.sign(data.toByteArray());
+    data.reset();
+
+    return sig;
+  }
+
+  @Override
+  public boolean verify(byte[] sig) throws SignatureException {
+    if (sig == null) {
+      throw new SignatureException("Empty signature data");
+    }
+    if (pubKey == null) {
+      throw new SignatureException("Not initialized for verification");
+    }
+
+    /*
+     * The resulting signature is encoded as follows:
+     *
+     * string    "ssh-ed25519"
+     * string    signature
+     *
+     * Here, 'signature' is the 64-octet signature produced in accordance with RFC 8032, Section
+     * 5.1.6.
+     *
+     * @see <a href="https://tools.ietf.org/html/rfc8709#section-6">Signature Format</a>
+     */
+    ByteBuf buf = Unpooled.wrappedBuffer(sig);
+    String keyType = ByteBufIo.readUtf8(buf);
+    if (!keyType.equals("ssh-ed25519")) {
+      throw new IllegalArgumentException("Key type mismatched, expected: ssh-ed25519, actual: " +
+          keyType);
+    }
+
+    byte[] sigData = ByteBufIo.readBytes(buf);
+
+    boolean valid = Ed25519.verify(pubKey.getA(), data.toByteArray(), sigData);
+    data.reset();
+
+    return valid;
+  }
+}
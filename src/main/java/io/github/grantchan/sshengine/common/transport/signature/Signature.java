@@ -9,6 +9,13 @@ public abstract class Signature {
 
   protected java.security.Signature instance;
 
+  /**
+   * For the signatures not backed by a JCA {@link java.security.Signature}, {@link #instance} is
+   * left {@code null}, and {@link #update(byte[])} and {@link #sign()} are overridden.
+   */
+  protected Signature() {
+  }
+
   public Signature(String transformation, Key key) {
     try {
       instance = java.security.Signature.getInstance(transformation);
@@ -33,7 +40,7 @@ public abstract class Signature {
     update(bytes);
   }
 
-  public final byte[] sign() throws SignatureException {
+  public byte[] sign() throws SignatureException {
     return Objects.requireNonNull(instance).sign();
   }
 
@@ -9,6 +9,30 @@ import java.util.Set;
 
 public enum SignatureFactories implements NamedObject, SignatureFactory {
 
+  ed25519("ssh-ed25519") {
+    @Override
+    public Signature create(Key key) {
+      return new Ed25519Signature(key);
+    }
+  },
+  ecdsap256("ecdsa-sha2-nistp256") {
+    @Override
+    public Signature create(Key key) {
+      return new ECDSASignature(getName(), "SHA256withECDSA", key);
+    }
+  },
+  ecdsap384("ecdsa-sha2-nistp384") {
+    @Override
+    public Signature create(Key key) {
+      return new ECDSASignature(getName(), "SHA384withECDSA", key);
+    }
+  },
+  ecdsap521("ecdsa-sha2-nistp521") {
+    @Override
+    public Signature create(Key key) {
+      return new ECDSASignature(getName(), "SHA512withECDSA", key);
+    }
+  },
   rsa("ssh-rsa") {
     @Override
     public Signature create(Key key) {
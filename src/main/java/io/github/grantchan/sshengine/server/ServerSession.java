@@ -2,137 +2,88 @@ package io.github.grantchan.sshengine.server;
 
 import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.common.AbstractSession;
-import io.github.grantchan.sshengine.common.transport.compression.Compression;
+import io.github.grantchan.sshengine.common.transport.kex.CryptoContext;
+import io.github.grantchan.sshengine.common.transport.kex.KexNegotiator;
 import io.github.grantchan.sshengine.server.connection.AbstractServerChannel;
 import io.github.grantchan.sshengine.server.connection.SessionChannel;
+import io.github.grantchan.sshengine.server.transport.hostkey.HostKeyStore;
+import io.github.grantchan.sshengine.server.transport.kex.ModuliStore;
 import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 
-import javax.crypto.Cipher;
-import javax.crypto.Mac;
 import java.math.BigInteger;
 import java.util.Objects;
 
 public class ServerSession extends AbstractSession {
 
-  public ServerSession(Channel channel) {
-    super(channel);
-  }
-
-  @Override
-  public Cipher getInCipher() {
-    return getC2sCipher();
-  }
-
-  @Override
-  public void setInCipher(Cipher inCipher) {
-    setC2sCipher(inCipher);
-  }
-
-  @Override
-  public Cipher getOutCipher() {
-    return getS2cCipher();
-  }
-
-  @Override
-  public void setOutCipher(Cipher outCipher) {
-    setS2cCipher(outCipher);
-  }
-
-  @Override
-  public int getInCipherBlkSize() {
-    return getC2sCipherBlkSize();
-  }
-
-  @Override
-  public void setInCipherBlkSize(int inBlkSize) {
-    setC2sCipherBlkSize(inBlkSize);
-  }
-
-  @Override
-  public int getOutCipherBlkSize() {
-    return getS2cCipherBlkSize();
-  }
-
-  @Override
-  public void setOutCipherBlkSize(int outBlkSize) {
-    setS2cCipherBlkSize(outBlkSize);
-  }
+  private final HostKeyStore hostKeys;
+  private final ModuliStore moduli;
+  private final KexNegotiator negotiator;
 
-  @Override
-  public Mac getInMac() {
-    return getC2sMac();
-  }
-
-  @Override
-  public void setInMac(Mac inMac) {
-    setC2sMac(inMac);
-  }
-
-  @Override
-  public Mac getOutMac() {
-    return getS2cMac();
+  public ServerSession(Channel channel) {
+    this(channel, HostKeyStore.getDefault());
   }
 
-  @Override
-  public void setOutMac(Mac outMac) {
-    setS2cMac(outMac);
+  public ServerSession(Channel channel, HostKeyStore hostKeys) {
+    this(channel, hostKeys, ModuliStore.getDefault());
   }
 
-  @Override
-  public int getInMacSize() {
-    return getC2sMacSize();
+  public ServerSession(Channel channel, HostKeyStore hostKeys, ModuliStore moduli) {
+    this(channel, hostKeys, moduli, KexNegotiator.getServerDefault());
   }
 
-  @Override
-  public void setInMacSize(int inMacSize) {
-    setC2sMacSize(inMacSize);
-  }
+  public ServerSession(Channel channel, HostKeyStore hostKeys, ModuliStore moduli,
+                       KexNegotiator negotiator) {
+    super(channel);
 
-  @Override
-  public int getOutMacSize() {
-    return getS2cMacSize();
+    this.hostKeys = Objects.requireNonNull(hostKeys);
+    this.moduli = Objects.requireNonNull(moduli);
+    this.negotiator = Objects.requireNonNull(negotiator);
   }
 
-  @Override
-  public void setOutMacSize(int outMacSize) {
-    setS2cMacSize(outMacSize);
+  public HostKeyStore getHostKeys() {
+    return hostKeys;
   }
 
-  @Override
-  public void setInDefMacSize(int inDefMacSize) {
-    setC2sDefMacSize(inDefMacSize);
+  /**
+   * @return the groups of the Diffie-Hellman group exchange
+   */
+  public ModuliStore getModuli() {
+    return moduli;
   }
 
+  /**
+   * @return the algorithms proposed by the server, and how they're negotiated
+   */
   @Override
-  public int getOutDefMacSize() {
-    return getS2cDefMacSize();
+  public KexNegotiator getNegotiator() {
+    return negotiator;
   }
 
   @Override
-  public void setOutDefMacSize(int outDefMacSize) {
-    setS2cDefMacSize(outDefMacSize);
+  public CryptoContext getInCrypto() {
+    return getC2sCrypto();
   }
 
   @Override
-  public Compression getInCompression() {
-    return getC2sCompression();
+  public void setInCrypto(CryptoContext inCrypto) {
+    setC2sCrypto(inCrypto);
   }
 
   @Override
-  public void setInCompression(Compression inCompression) {
-    setC2sCompression(inCompression);
+  public CryptoContext getOutCrypto() {
+    return getS2cCrypto();
   }
 
   @Override
-  public Compression getOutCompression() {
-    return getS2cCompression();
+  public void setOutCrypto(CryptoContext outCrypto) {
+    setS2cCrypto(outCrypto);
   }
 
   @Override
-  public void setOutCompression(Compression outCompression) {
-    setS2cCompression(outCompression);
+  public boolean isServer() {
+    return true;
   }
 
   /**
@@ -150,19 +101,27 @@ public class ServerSession extends AbstractSession {
 
     logger.debug("{} Replying SSH_MSG_SERVICE_ACCEPT...", this);
 
-    channel.writeAndFlush(buf);
+    write(buf);
   }
 
-  public void replyKexDhReply(byte[] k_s, BigInteger f, byte[] sigH) {
+  /**
+   * Sends the {@link SshMessage#SSH_MSG_KEXDH_REPLY} to client, the same message number is used by
+   * SSH_MSG_KEX_ECDH_REPLY.
+   *
+   * @param k_s     server public host key and certificates (K_S)
+   * @param f       the encoded public key of the server, f of Diffie-Hellman, or Q_S
+   * @param sigH    signature of H
+   */
+  public void replyKexDhReply(byte[] k_s, byte[] f, byte[] sigH) {
     ByteBuf reply = createMessage(SshMessage.SSH_MSG_KEXDH_REPLY);
 
     ByteBufIo.writeBytes(reply, k_s);
-    ByteBufIo.writeMpInt(reply, f);
+    ByteBufIo.writeBytes(reply, f);
     ByteBufIo.writeBytes(reply, sigH);
 
     logger.debug("{} Replying SSH_MSG_KEXDH_REPLY...", this);
 
-    channel.writeAndFlush(reply);
+    write(reply);
   }
 
   /**
@@ -184,7 +143,7 @@ public class ServerSession extends AbstractSession {
 
     logger.debug("{} Replying SSH_MSG_KEX_DH_GEX_REPLY...", this);
 
-    channel.writeAndFlush(reply);
+    write(reply);
   }
 
   @Override
@@ -225,7 +184,7 @@ public class ServerSession extends AbstractSession {
 
     logger.debug("{} Replying SSH_MSG_USERAUTH_SUCCESS...", this);
 
-    channel.writeAndFlush(uas);
+    write(uas);
   }
 
   /**
@@ -253,7 +212,7 @@ public class ServerSession extends AbstractSession {
 
     logger.debug("{} Replying SSH_MSG_USERAUTH_FAILURE...", this);
 
-    channel.writeAndFlush(uaf);
+    write(uaf);
   }
 
   /**
@@ -272,7 +231,7 @@ public class ServerSession extends AbstractSession {
 
     logger.debug("{} Replying SSH_MSG_USERAUTH_PK_OK...", this);
 
-    channel.writeAndFlush(uapo);
+    write(uapo);
   }
 
   public void replyChannelOpenConfirmation(int rChId, int lChId, int wndSize, int wndPacketSize) {
@@ -286,7 +245,7 @@ public class ServerSession extends AbstractSession {
     logger.debug("{} Replying SSH_MSG_CHANNEL_OPEN_CONFIRMATION... remote id:{}, local id:{}," +
         " window size:{}, packet size:{}", this, rChId, lChId, wndSize, wndPacketSize);
 
-    channel.writeAndFlush(conf);
+    write(conf);
   }
 
   public void replyChannelOpenFailure(int peerId, int reason, String message, String lang) {
@@ -300,7 +259,7 @@ public class ServerSession extends AbstractSession {
     logger.debug("{} Replying SSH_MSG_CHANNEL_OPEN_FAILURE... remote channel id:{}, reason code:{}," +
         " message:{}, lang:{}", this, peerId, reason, message, lang);
 
-    channel.writeAndFlush(cof);
+    write(cof);
   }
 
   public AbstractServerChannel createChannel(String type) {
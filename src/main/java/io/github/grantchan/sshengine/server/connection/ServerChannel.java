@@ -3,6 +3,7 @@ package io.github.grantchan.sshengine.server.connection;
 import io.github.grantchan.sshengine.common.CommonState;
 import io.github.grantchan.sshengine.common.connection.Channel;
 import io.github.grantchan.sshengine.common.connection.SshChannelException;
+import io.github.grantchan.sshengine.common.message.ChannelRequestMessage;
 import io.netty.buffer.ByteBuf;
 
 import java.io.IOException;
@@ -28,5 +29,5 @@ public interface ServerChannel extends Channel, CommonState {
 
   void handleData(ByteBuf req) throws IOException;
 
-  void handleRequest(ByteBuf req) throws IOException;
+  void handleRequest(ChannelRequestMessage req) throws IOException;
 }
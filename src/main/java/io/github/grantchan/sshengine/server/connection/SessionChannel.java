@@ -2,9 +2,9 @@ package io.github.grantchan.sshengine.server.connection;
 
 import io.github.grantchan.sshengine.common.AbstractSession;
 import io.github.grantchan.sshengine.common.connection.TtyMode;
+import io.github.grantchan.sshengine.common.message.ChannelRequestMessage;
 import io.github.grantchan.sshengine.server.ServerSession;
 import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
-import io.github.grantchan.sshengine.util.buffer.Bytes;
 import io.netty.buffer.ByteBuf;
 
 import java.io.Closeable;
@@ -44,7 +44,7 @@ public class SessionChannel extends AbstractServerChannel {
   }
 
   @Override
-  public void handleRequest(ByteBuf req) throws IOException {
+  public void handleRequest(ChannelRequestMessage req) throws IOException {
 
     /*
      * 5.4.  Channel-Specific Requests
@@ -88,20 +88,21 @@ public class SessionChannel extends AbstractServerChannel {
      *
      * @see <a href="https://tools.ietf.org/html/rfc4254#section-5.4">Channel-Specific Requests</a>
      */
-    String type = ByteBufIo.readUtf8(req);
+    // a known request type is the name shared by WireTokens, rather than a string decoded anew
+    String type = req.getType();
 
     logger.debug("{} Received SSH_MSG_CHANNEL_REQUEST. request type:{}", this, type);
 
-    boolean wantReply = req.getBoolean(req.readerIndex());
+    boolean wantReply = req.isWantReply();
 
     boolean ret = false;
     switch (type) {
       case "pty-req":
-        ret = handlePtyReq(req);
+        ret = handlePtyReq(req.getData(), wantReply);
         break;
 
       case "shell":
-        ret = handleShell(req);
+        ret = handleShell(wantReply);
         break;
 
       default:
@@ -120,7 +121,7 @@ public class SessionChannel extends AbstractServerChannel {
     }
   }
 
-  private boolean handlePtyReq(ByteBuf req) {
+  private boolean handlePtyReq(ByteBuf req, boolean wantReply) {
 
     /*
      * 6.2.  Requesting a Pseudo-Terminal
@@ -154,30 +155,32 @@ public class SessionChannel extends AbstractServerChannel {
       return false;
     }
 
-    boolean wantReply = req.readBoolean();
     String term = ByteBufIo.readUtf8(req);
     int termCols = req.readInt();
     int termRows = req.readInt();
     int termWidth = req.readInt();
     int termHeight = req.readInt();
-    byte[] modes = ByteBufIo.readBytes(req);
 
-    int i = 0;
-    while (i < modes.length && modes[i] != TtyMode.TTY_OP_END.value()) {
-      int opcode = modes[i++] & 0xff;
+    // the encoded terminal modes are read where they are, rather than copied out
+    ByteBuf modes = req.readSlice(req.readInt());
+    while (modes.isReadable()) {
+      int opcode = modes.readUnsignedByte();
+      if (opcode == TtyMode.TTY_OP_END.value()) {
+        break;
+      }
       if (opcode > 159) {
         logger.warn("{} Unknown opcode: {}", this, opcode);
         continue;
       }
 
+      int val = modes.readInt();
+
       TtyMode mode = TtyMode.from(opcode);
       if (mode != null) {
-        ttyModes.put(mode, Bytes.toInt(modes, i));
+        ttyModes.put(mode, val);
       } else {
         logger.warn("{} Unsupported tty mode - opcode: {}", this, opcode);
       }
-
-      i += Integer.BYTES;
     }
 
     logger.debug("{} Received pty-req request. want reply:{}, terminal:{}, " +
@@ -187,7 +190,7 @@ public class SessionChannel extends AbstractServerChannel {
     return true;
   }
 
-  private boolean handleShell(ByteBuf req) throws IOException {
+  private boolean handleShell(boolean wantReply) throws IOException {
 
     /*
      * 6.5.  Starting a Shell or a Command
@@ -214,8 +217,6 @@ public class SessionChannel extends AbstractServerChannel {
       return false;
     }
 
-    boolean wantReply = req.readBoolean();
-
     logger.debug("{} Received shell request. want reply:{}", this, wantReply);
 
     shell = new TtyProcessShell(chIn, chOut, chErr, "/bin/sh", "-i", "-l");
@@ -280,8 +281,8 @@ public class SessionChannel extends AbstractServerChannel {
      *
      * @see <a href="https://tools.ietf.org/html/rfc4254#section-5.2">Data Transfer</a>
      */
-    byte[] data = ByteBufIo.readBytes(req);
-    logger.debug("{} SSH_MSG_CHANNEL_DATA len = {}", this, data.length);
+    ByteBuf data = req.readSlice(req.readInt());
+    logger.debug("{} SSH_MSG_CHANNEL_DATA len = {}", this, data.readableBytes());
 
     if (isOpen()) {
       chIn.write(data);
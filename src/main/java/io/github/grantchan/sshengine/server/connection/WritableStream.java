@@ -1,5 +1,7 @@
 package io.github.grantchan.sshengine.server.connection;
 
+import io.netty.buffer.ByteBuf;
+
 import java.io.IOException;
 
 @FunctionalInterface
@@ -36,4 +38,16 @@ public interface WritableStream {
       write(buf[i]);
     }
   }
+
+  /**
+   * Write the readable bytes of a buffer to the stream
+   *
+   * @param buf  the buffer to be written to the stream, it's fully read
+   * @throws IOException  if error happens while writing
+   */
+  default void write(ByteBuf buf) throws IOException {
+    while (buf.isReadable()) {
+      write(buf.readByte());
+    }
+  }
 }
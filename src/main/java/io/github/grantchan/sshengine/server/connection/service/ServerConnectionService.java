@@ -5,10 +5,11 @@ import io.github.grantchan.sshengine.common.AbstractLogger;
 import io.github.grantchan.sshengine.common.AbstractSession;
 import io.github.grantchan.sshengine.common.Service;
 import io.github.grantchan.sshengine.common.connection.Channel;
+import io.github.grantchan.sshengine.common.message.ChannelOpenMessage;
+import io.github.grantchan.sshengine.common.message.ChannelRequestMessage;
 import io.github.grantchan.sshengine.common.transport.handler.SessionHolder;
 import io.github.grantchan.sshengine.server.ServerSession;
 import io.github.grantchan.sshengine.server.connection.ServerChannel;
-import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
 import io.netty.buffer.ByteBuf;
 
 import java.io.IOException;
@@ -18,6 +19,10 @@ public class ServerConnectionService extends AbstractLogger implements Service,
 
   private final ServerSession session;
 
+  /** The messages are wrapped in them, they're parsed in place */
+  private final ChannelOpenMessage channelOpen = new ChannelOpenMessage();
+  private final ChannelRequestMessage channelRequest = new ChannelRequestMessage();
+
   public ServerConnectionService(ServerSession session) {
     this.session = session;
   }
@@ -101,10 +106,11 @@ public class ServerConnectionService extends AbstractLogger implements Service,
      *
      * @see <a href="https://tools.ietf.org/html/rfc4254#section-5.1">Opening a Channel</a>
      */
-    String type = ByteBufIo.readUtf8(req);
-    int peerId = req.readInt();
-    long rwndsize = req.readUnsignedInt();
-    long rpksize = req.readUnsignedInt();
+    ChannelOpenMessage msg = channelOpen.wrap(req);
+    String type = msg.getType();
+    int peerId = msg.getSenderChannel();
+    long rwndsize = msg.getInitialWindowSize();
+    long rpksize = msg.getMaximumPacketSize();
 
     logger.debug("{} Received SSH_MSG_CHANNEL_OPEN. channel type:{}, sender channel id:{}, " +
         "initial window size:{}, maximum packet size:{}", session, type, peerId, rwndsize, rpksize);
@@ -163,13 +169,14 @@ public class ServerConnectionService extends AbstractLogger implements Service,
   }
 
   private void channelRequest(ByteBuf req) throws IOException {
-    int id = req.readInt();
+    ChannelRequestMessage msg = channelRequest.wrap(req);
+    int id = msg.getRecipientChannel();
 
     ServerChannel channel = (ServerChannel) Channel.get(id);
     if (Objects.isNull(channel)) {
       throw new IllegalStateException("Channel not found - id:" + id);
     }
 
-    channel.handleRequest(req);
+    channel.handleRequest(msg);
   }
 }
@@ -1,14 +1,14 @@
 package io.github.grantchan.sshengine.server.transport.handler;
 
-import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.common.AbstractSession;
 import io.github.grantchan.sshengine.common.transport.handler.PacketDecoder;
 import io.github.grantchan.sshengine.common.transport.handler.PacketEncoder;
 import io.github.grantchan.sshengine.common.transport.handler.SessionHolder;
-import io.github.grantchan.sshengine.common.transport.kex.KexProposal;
+import io.github.grantchan.sshengine.common.transport.kex.KexNegotiator;
 import io.github.grantchan.sshengine.server.ServerSession;
+import io.github.grantchan.sshengine.server.transport.hostkey.HostKeyStore;
+import io.github.grantchan.sshengine.server.transport.kex.ModuliStore;
 import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
-import io.github.grantchan.sshengine.util.buffer.Bytes;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
@@ -29,9 +29,31 @@ public class ServerIdEx extends ChannelInboundHandlerAdapter implements SessionH
 
   private ByteBuf accrued;
 
+  private final HostKeyStore hostKeys;
+  private final ModuliStore moduli;
+  private final KexNegotiator negotiator;
+
+  public ServerIdEx() {
+    this(HostKeyStore.getDefault());
+  }
+
+  public ServerIdEx(HostKeyStore hostKeys) {
+    this(hostKeys, ModuliStore.getDefault());
+  }
+
+  public ServerIdEx(HostKeyStore hostKeys, ModuliStore moduli) {
+    this(hostKeys, moduli, KexNegotiator.getServerDefault());
+  }
+
+  public ServerIdEx(HostKeyStore hostKeys, ModuliStore moduli, KexNegotiator negotiator) {
+    this.hostKeys = hostKeys;
+    this.moduli = moduli;
+    this.negotiator = negotiator;
+  }
+
   @Override
   public void handlerAdded(ChannelHandlerContext ctx) {
-    session = new ServerSession(ctx.channel());
+    session = new ServerSession(ctx.channel(), hostKeys, moduli, negotiator);
     accrued = session.createBuffer();
   }
 
@@ -102,10 +124,7 @@ public class ServerIdEx extends ChannelInboundHandlerAdapter implements SessionH
                  new PacketEncoder(session));   /* First step for outgoing packet - encode */
       cp.remove(this);
 
-      byte[] ki = KexProposal.toBytes();
-      session.setRawS2cKex(Bytes.concat(new byte[] {SshMessage.SSH_MSG_KEXINIT}, ki));
-
-      session.sendKexInit(ki);
+      session.sendKexInit();
 
       if (accrued.readableBytes() > 0) {
         ctx.fireChannelRead(accrued);
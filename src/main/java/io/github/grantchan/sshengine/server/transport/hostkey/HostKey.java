@@ -0,0 +1,103 @@
+package io.github.grantchan.sshengine.server.transport.hostkey;
+
+import io.github.grantchan.sshengine.common.transport.signature.Signature;
+import io.github.grantchan.sshengine.common.transport.signature.SignatureFactories;
+import io.github.grantchan.sshengine.util.buffer.Bytes;
+import io.github.grantchan.sshengine.util.publickey.PublicKeyUtil;
+
+import java.security.KeyPair;
+import java.security.SignatureException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * <p>A host key of the server, with everything a key exchange needs from it worked out once: the
+ * public key blob sent to the client as K_S, its fingerprints, and the signers of the exchange
+ * hash.</p>
+ *
+ * <p>A signer holds the state of the signature being computed, so it can't be shared by two key
+ * exchanges at once. The signers initialized with the private key are kept in a pool, a key
+ * exchange takes one out and puts it back once the signature is done, the pool grows to the number
+ * of key exchanges signing at the same time.</p>
+ */
+public class HostKey {
+
+  private final String algorithm;
+  private final KeyPair keyPair;
+
+  private final byte[] blob;
+  private final String md5;
+  private final String sha256;
+
+  private final Queue<Signature> signers = new ConcurrentLinkedQueue<>();
+
+  /**
+   * @param algorithm  the public key algorithm, e.g. "ssh-rsa"
+   * @param keyPair    the key pair
+   */
+  public HostKey(String algorithm, KeyPair keyPair) {
+    this.algorithm = Objects.requireNonNull(algorithm);
+    this.keyPair = Objects.requireNonNull(keyPair);
+
+    this.blob = Objects.requireNonNull(PublicKeyUtil.bytesOf(keyPair.getPublic()),
+        "Unsupported public key: " + keyPair.getPublic().getAlgorithm());
+    this.md5 = Bytes.md5(blob);
+    this.sha256 = Bytes.sha256(blob);
+  }
+
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  public KeyPair getKeyPair() {
+    return keyPair;
+  }
+
+  /**
+   * @return the public key blob, K_S in the key exchange, it's shared and must not be modified
+   */
+  public byte[] getBlob() {
+    return blob;
+  }
+
+  public String getMd5() {
+    return md5;
+  }
+
+  public String getSha256() {
+    return sha256;
+  }
+
+  /**
+   * Signs the data with the private key.
+   *
+   * @param data  the data to sign, the exchange hash H
+   * @return the signature, encoded as:
+   * <pre>
+   *   string    public key algorithm name
+   *   string    signature blob
+   * </pre>
+   * @throws SignatureException if the data can't be signed
+   */
+  public byte[] sign(byte[] data) throws SignatureException {
+    Signature signer = signers.poll();
+    if (signer == null) {
+      signer = Objects.requireNonNull(SignatureFactories.create(algorithm, keyPair.getPrivate()),
+          "Unknown signature: " + algorithm);
+    }
+
+    signer.update(data);
+    byte[] sig = signer.sign();
+
+    // a signer is reset once the signature is done, it's only put back if it succeeded
+    signers.offer(signer);
+
+    return Bytes.concat(Bytes.addLen(algorithm), Bytes.addLen(sig));
+  }
+
+  @Override
+  public String toString() {
+    return algorithm + " MD5:" + md5 + " SHA256:" + sha256;
+  }
+}
@@ -0,0 +1,222 @@
+package io.github.grantchan.sshengine.server.transport.hostkey;
+
+import io.github.grantchan.sshengine.util.LazySupplier;
+import io.github.grantchan.sshengine.util.curve25519.Ed25519;
+import io.github.grantchan.sshengine.util.keypair.loader.DSAKeyPairPEMLoader;
+import io.github.grantchan.sshengine.util.keypair.loader.ECKeyPairPEMLoader;
+import io.github.grantchan.sshengine.util.keypair.loader.KeyPairPEMLoader;
+import io.github.grantchan.sshengine.util.keypair.loader.OpenSSHKeyPairPEMLoader;
+import io.github.grantchan.sshengine.util.keypair.loader.RSAKeyPairPEMLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>The host keys of the server, one per public key algorithm, each one loaded, or generated,
+ * once and then shared by all the key exchanges.</p>
+ *
+ * <p>If the store has a directory, the keys are read from the files named as OpenSSH does, e.g.
+ * ssh_host_rsa_key, in PEM format, or in the OpenSSH private key format, and a key missing there
+ * is generated and written to its file, so the server keeps its identity across restarts. Without
+ * a directory, the keys are generated in memory, and live as long as the store.</p>
+ *
+ * <p>As in OpenSSH, there's a single ssh_host_ecdsa_key, on whichever curve. It's the key of the
+ * ECDSA algorithm of its curve, the other two get a key generated in memory.</p>
+ */
+public class HostKeyStore {
+
+  private enum Type {
+    ED25519("ssh-ed25519", "Ed25519", 256, "ssh_host_ed25519_key",
+        OpenSSHKeyPairPEMLoader.getInstance()) {
+      @Override
+      KeyPair generate() {
+        return Ed25519.generateKeyPair();
+      }
+    },
+    ECDSA_NISTP256("ecdsa-sha2-nistp256", "EC", 256, "ssh_host_ecdsa_key",
+        ECKeyPairPEMLoader.getInstance()),
+    ECDSA_NISTP384("ecdsa-sha2-nistp384", "EC", 384, "ssh_host_ecdsa_key",
+        ECKeyPairPEMLoader.getInstance()),
+    ECDSA_NISTP521("ecdsa-sha2-nistp521", "EC", 521, "ssh_host_ecdsa_key",
+        ECKeyPairPEMLoader.getInstance()),
+    RSA("ssh-rsa", "RSA", 2048, "ssh_host_rsa_key", RSAKeyPairPEMLoader.getInstance()),
+    DSA("ssh-dss", "DSA", 1024, "ssh_host_dsa_key", DSAKeyPairPEMLoader.getInstance());
+
+    private final String algorithm;
+    private final String keyAlgorithm;
+    private final int keySize;
+    private final String fileName;
+
+    /** Writes a new key, in PEM format but for Ed25519 */
+    private final KeyPairPEMLoader loader;
+
+    /** Reads a key, in the format of {@code loader}, or in the OpenSSH private key format */
+    private final KeyPairPEMLoader reader;
+
+    Type(String algorithm, String keyAlgorithm, int keySize, String fileName,
+         KeyPairPEMLoader loader) {
+      this.algorithm = algorithm;
+      this.keyAlgorithm = keyAlgorithm;
+      this.keySize = keySize;
+      this.fileName = fileName;
+      this.loader = loader;
+
+      KeyPairPEMLoader openssh = OpenSSHKeyPairPEMLoader.getInstance();
+      this.reader = (loader == openssh)
+          ? loader : KeyPairPEMLoader.aggregate(Arrays.asList(loader, openssh));
+    }
+
+    /*
+     * Whether a key read from the file is of this type, the curve of an EC key is checked too, as
+     * the ECDSA types share their file
+     */
+    boolean accepts(KeyPair kp) {
+      PublicKey pub = kp.getPublic();
+      if (!keyAlgorithm.equals(pub.getAlgorithm())) {
+        return false;
+      }
+      return !(pub instanceof ECPublicKey)
+          || ((ECPublicKey) pub).getParams().getCurve().getField().getFieldSize() == keySize;
+    }
+
+    KeyPair generate() throws GeneralSecurityException {
+      KeyPairGenerator kpg = KeyPairGenerator.getInstance(keyAlgorithm);
+      kpg.initialize(keySize);
+
+      return kpg.generateKeyPair();
+    }
+
+    static Type from(String algorithm) {
+      for (Type t : values()) {
+        if (t.algorithm.equals(algorithm)) {
+          return t;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final LazySupplier<HostKeyStore> DEFAULT = new LazySupplier<HostKeyStore>() {
+    @Override
+    protected HostKeyStore initialize() {
+      return new HostKeyStore(null);
+    }
+  };
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final Path dir;
+  private final Map<String, HostKey> keys = new ConcurrentHashMap<>();
+
+  /**
+   * @param dir  the directory of the host key files, {@code null} to keep the keys in memory only
+   */
+  public HostKeyStore(Path dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * @return the store shared by the servers not given one, it keeps the keys in memory only
+   */
+  public static HostKeyStore getDefault() {
+    return DEFAULT.get();
+  }
+
+  public Path getDir() {
+    return dir;
+  }
+
+  /**
+   * Loads, or generates, the keys of all the algorithms supported, so that none of it is left to
+   * the first key exchange.
+   *
+   * @throws IOException if a key file can't be read or written
+   * @throws GeneralSecurityException if a key can't be decoded or generated
+   */
+  public void loadAll() throws IOException, GeneralSecurityException {
+    for (Type t : Type.values()) {
+      get(t.algorithm);
+    }
+  }
+
+  /**
+   * @param algorithm  the public key algorithm negotiated, e.g. "ssh-rsa"
+   * @return the host key of the algorithm, loaded or generated if this is the first time it's asked
+   * for
+   * @throws IOException if the key file can't be read or written
+   * @throws GeneralSecurityException if the algorithm isn't supported, or the key can't be decoded
+   * or generated
+   */
+  public HostKey get(String algorithm) throws IOException, GeneralSecurityException {
+    HostKey key = keys.get(algorithm);
+    if (key != null) {
+      return key;
+    }
+
+    Type type = Type.from(algorithm);
+    if (type == null) {
+      throw new GeneralSecurityException("Unsupported host key algorithm: " + algorithm);
+    }
+
+    synchronized (this) {
+      key = keys.get(algorithm);
+      if (key == null) {
+        key = new HostKey(algorithm, load(type));
+        keys.put(algorithm, key);
+
+        logger.info("Host key loaded - {}", key);
+      }
+    }
+    return key;
+  }
+
+  private KeyPair load(Type type) throws IOException, GeneralSecurityException {
+    Path file = (dir == null) ? null : dir.resolve(type.fileName);
+    if (file != null && Files.exists(file)) {
+      logger.debug("Loading host key from {}", file);
+
+      KeyPair kp;
+      try {
+        kp = type.reader.load(file);
+      } catch (IllegalAccessException e) {
+        throw new GeneralSecurityException(e);
+      }
+      if (kp == null) {
+        throw new GeneralSecurityException("Invalid host key file: " + file);
+      }
+      if (type.accepts(kp)) {
+        return kp;
+      }
+
+      // the key of another ECDSA curve, it's left as it is
+      logger.info("Host key {} isn't of {}, generating one in memory", file, type.algorithm);
+
+      return type.generate();
+    }
+
+    KeyPair kp = type.generate();
+
+    if (file != null) {
+      logger.info("Host key {} not found, writing a new one", file);
+
+      Files.createDirectories(dir);
+      try {
+        type.loader.save(kp, file);
+      } catch (IllegalAccessException e) {
+        throw new GeneralSecurityException(e);
+      }
+    }
+    return kp;
+  }
+}
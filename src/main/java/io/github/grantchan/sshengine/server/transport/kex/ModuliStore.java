@@ -0,0 +1,247 @@
+package io.github.grantchan.sshengine.server.transport.kex;
+
+import io.github.grantchan.sshengine.common.transport.kex.DhGroup;
+import io.github.grantchan.sshengine.util.LazySupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.spec.DHParameterSpec;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * <p>The groups of the Diffie-Hellman group exchange, read from a file in the format of OpenSSH's
+ * /etc/ssh/moduli, once, and indexed by size, so a group is picked in O(log n) for each request.</p>
+ *
+ * <p>Each line of the file is a group:</p>
+ * <pre>
+ *   timestamp type tests trials size generator modulus
+ * </pre>
+ * <p>where type 2 is a safe prime, p = 2q + 1, tests is a bit mask of the primality tests the
+ * modulus has passed, and size is the number of bits of the modulus minus one. The entries are
+ * validated in parallel when the file is loaded, the ones not usable are dropped.</p>
+ *
+ * <p>Without the file, the store falls back to the MODP groups of RFC 3526, as OpenSSH does.</p>
+ *
+ * @see <a href="https://man.openbsd.org/moduli.5">moduli(5)</a>
+ */
+public class ModuliStore {
+
+  /** The smallest group allowed, groups of less than 2048 bits are considered weak */
+  public static final int MIN_BITS = 2048;
+  /** The largest group allowed */
+  public static final int MAX_BITS = 8192;
+
+  public static final Path DEFAULT_FILE = Paths.get("/etc/ssh/moduli");
+
+  private static final int TYPE_SAFE = 2;
+  private static final int TESTS_COMPOSITE = 0x01;
+
+  /** Small odd primes, to weed out a corrupted modulus before the expensive test */
+  private static final int[] SMALL_PRIMES = {3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47};
+
+  private static final LazySupplier<ModuliStore> DEFAULT = new LazySupplier<ModuliStore>() {
+    @Override
+    protected ModuliStore initialize() {
+      return new ModuliStore(DEFAULT_FILE);
+    }
+  };
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final Path file;
+
+  /** The groups by the number of bits of the modulus, it's replaced as a whole once loaded */
+  private volatile NavigableMap<Integer, List<DHParameterSpec>> groups;
+
+  /**
+   * @param file  the moduli file, {@code null} to use the built-in groups only
+   */
+  public ModuliStore(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * @return the store shared by the servers not given one, it reads /etc/ssh/moduli if it exists
+   */
+  public static ModuliStore getDefault() {
+    return DEFAULT.get();
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * Reads and validates the moduli file, or falls back to the built-in groups if there's no file,
+   * or none of the groups in it is usable.
+   *
+   * @throws IOException if the file exists but can't be read
+   */
+  public synchronized void load() throws IOException {
+    if (groups != null) {
+      return;
+    }
+
+    NavigableMap<Integer, List<DHParameterSpec>> loaded = null;
+    if (file != null && Files.exists(file)) {
+      long start = System.nanoTime();
+
+      List<String> lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+      loaded = index(lines.parallelStream()
+                          .map(this::parse)
+                          .filter(Objects::nonNull)
+                          .collect(Collectors.toList()));
+
+      int count = loaded.values().stream().mapToInt(List::size).sum();
+      logger.info("Loaded {} groups of sizes {} from {} in {}ms", count, loaded.keySet(), file,
+          (System.nanoTime() - start) / 1_000_000);
+    }
+
+    if (loaded == null || loaded.isEmpty()) {
+      logger.info("No usable group in {}, falling back to the built-in groups", file);
+
+      loaded = index(Arrays.asList(
+          new DHParameterSpec(DhGroup.P14.P(), DhGroup.P14.G()),
+          new DHParameterSpec(DhGroup.P15.P(), DhGroup.P15.G()),
+          new DHParameterSpec(DhGroup.P16.P(), DhGroup.P16.G()),
+          new DHParameterSpec(DhGroup.P17.P(), DhGroup.P17.G()),
+          new DHParameterSpec(DhGroup.P18.P(), DhGroup.P18.G())));
+    }
+
+    groups = loaded;
+  }
+
+  /**
+   * Picks a group for the request of the client, the smallest size not less than the one
+   * preferred, or the largest one below it if there's none, with a group picked at random among
+   * the ones of that size.
+   *
+   * @param min  minimal size in bits of an acceptable group
+   * @param n    preferred size in bits of the group
+   * @param max  maximal size in bits of an acceptable group
+   * @return the group, {@code null} if there's none in the range
+   * @throws IOException if the moduli file isn't loaded yet, and can't be read
+   */
+  public DHParameterSpec get(int min, int n, int max) throws IOException {
+    NavigableMap<Integer, List<DHParameterSpec>> gg = groups;
+    if (gg == null) {
+      load();
+      gg = groups;
+    }
+
+    NavigableMap<Integer, List<DHParameterSpec>> range = gg.subMap(min, true, max, true);
+
+    Map.Entry<Integer, List<DHParameterSpec>> e = range.ceilingEntry(n);
+    if (e == null) {
+      e = range.floorEntry(n);
+    }
+    if (e == null) {
+      return null;
+    }
+
+    List<DHParameterSpec> candidates = e.getValue();
+    return candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+  }
+
+  /**
+   * @return the sizes in bits of the groups available
+   * @throws IOException if the moduli file isn't loaded yet, and can't be read
+   */
+  public NavigableSet<Integer> sizes() throws IOException {
+    if (groups == null) {
+      load();
+    }
+    return groups.navigableKeySet();
+  }
+
+  private static NavigableMap<Integer, List<DHParameterSpec>> index(List<DHParameterSpec> specs) {
+    NavigableMap<Integer, List<DHParameterSpec>> map = new TreeMap<>();
+    for (DHParameterSpec s : specs) {
+      map.computeIfAbsent(s.getP().bitLength(), k -> new ArrayList<>()).add(s);
+    }
+    map.replaceAll((k, v) -> Collections.unmodifiableList(v));
+
+    return Collections.unmodifiableNavigableMap(map);
+  }
+
+  /*
+   * Parses and validates a line of the file, returns null if it's a comment, or the group isn't
+   * usable.
+   */
+  private DHParameterSpec parse(String line) {
+    line = line.trim();
+    if (line.isEmpty() || line.startsWith("#")) {
+      return null;
+    }
+
+    String[] fields = line.split("\\s+");
+    if (fields.length != 7) {
+      logger.debug("Malformed moduli entry, expected 7 fields, actual: {}", fields.length);
+      return null;
+    }
+
+    try {
+      int type = Integer.parseInt(fields[1]);
+      int tests = Integer.parseInt(fields[2]);
+      int size = Integer.parseInt(fields[4]) + 1;
+      BigInteger g = new BigInteger(fields[5], 16);
+      BigInteger p = new BigInteger(fields[6], 16);
+
+      // only safe primes, that haven't been found composite by any of the tests done on them
+      if (type != TYPE_SAFE || (tests & TESTS_COMPOSITE) != 0 || (tests & ~TESTS_COMPOSITE) == 0) {
+        return null;
+      }
+
+      if (size < MIN_BITS || size > MAX_BITS || p.bitLength() != size) {
+        return null;
+      }
+
+      if (!isSafePrime(p, g)) {
+        logger.warn("Moduli entry of {} bits is not a safe prime, discarded", size);
+        return null;
+      }
+
+      return new DHParameterSpec(p, g);
+    } catch (NumberFormatException e) {
+      logger.debug("Malformed moduli entry - {}", e.getMessage());
+      return null;
+    }
+  }
+
+  /*
+   * A full primality test of p and q takes seconds for a large modulus, which has already been
+   * done when the file was generated by "ssh-keygen -M screen". What's checked here is that the
+   * entry hasn't been corrupted: p = 2q + 1 is odd, neither p nor q has a small factor, the
+   * generator is in range, and p passes the Euler test to the base g, g^q = +/-1 (mod p), which
+   * takes one modular exponentiation.
+   */
+  private static boolean isSafePrime(BigInteger p, BigInteger g) {
+    if (!p.testBit(0) || !p.testBit(1)) { // p = 2q + 1, q odd, so p = 3 (mod 4)
+      return false;
+    }
+
+    BigInteger pMinus1 = p.subtract(BigInteger.ONE);
+    if (g.compareTo(BigInteger.ONE) <= 0 || g.compareTo(pMinus1) >= 0) {
+      return false;
+    }
+
+    BigInteger q = p.shiftRight(1);
+    for (int sp : SMALL_PRIMES) {
+      BigInteger d = BigInteger.valueOf(sp);
+      if (p.mod(d).signum() == 0 || q.mod(d).signum() == 0) {
+        return false;
+      }
+    }
+
+    BigInteger r = g.modPow(q, p);
+    return r.equals(BigInteger.ONE) || r.equals(pMinus1);
+  }
+}
@@ -2,25 +2,20 @@ package io.github.grantchan.sshengine.server.transport.kex;
 
 import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.common.AbstractLogger;
+import io.github.grantchan.sshengine.common.CryptoExecutor;
 import io.github.grantchan.sshengine.common.SshException;
+import io.github.grantchan.sshengine.common.transport.kex.HashBuilder;
 import io.github.grantchan.sshengine.common.transport.kex.Kex;
 import io.github.grantchan.sshengine.common.transport.kex.KexGroup;
 import io.github.grantchan.sshengine.common.transport.kex.KexProposal;
-import io.github.grantchan.sshengine.common.transport.signature.Signature;
-import io.github.grantchan.sshengine.common.transport.signature.SignatureFactories;
 import io.github.grantchan.sshengine.server.ServerSession;
+import io.github.grantchan.sshengine.server.transport.hostkey.HostKey;
 import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
-import io.github.grantchan.sshengine.util.buffer.Bytes;
-import io.github.grantchan.sshengine.util.publickey.PublicKeyUtil;
 import io.netty.buffer.ByteBuf;
 
-import java.math.BigInteger;
 import java.security.*;
-import java.security.interfaces.RSAPublicKey;
 import java.util.List;
-
-import static io.github.grantchan.sshengine.util.buffer.Bytes.md5;
-import static io.github.grantchan.sshengine.util.buffer.Bytes.sha256;
+import java.util.concurrent.Callable;
 
 public class ServerDhGroup extends AbstractLogger implements KexGroup {
 
@@ -60,8 +55,22 @@ public class ServerDhGroup extends AbstractLogger implements KexGroup {
      * First, the client sends the following:
      *   byte    SSH_MSG_KEXDH_INIT
      *   mpint   e
+     *
+     * it's Q_C, a string, in ECDH and Curve25519 key exchanges, read as it is either way
      */
-    BigInteger e = ByteBufIo.readMpInt(req);
+    byte[] e = ByteBufIo.readBytes(req);
+
+    // the key agreement and the signing are done on the crypto executor, the reply is sent back on
+    // the event loop
+    CryptoExecutor.Priority priority =
+        session.isAuthed() ? CryptoExecutor.Priority.REKEY : CryptoExecutor.Priority.KEX;
+    session.offload(priority, () -> exchange(e), Callable::call);
+  }
+
+  /*
+   * Computes the exchange hash and signs it, returns the action to reply to the client.
+   */
+  private Callable<Void> exchange(byte[] e) throws Exception {
     kex.receivedPubKey(e);
 
     /*
@@ -93,55 +102,38 @@ public class ServerDhGroup extends AbstractLogger implements KexGroup {
      *  data is first hashed with HASH to compute H, and H is then hashed
      *  with SHA-1 as part of the signing operation.
      */
+    byte[] f = kex.getEncodedPubKey();
+
     String v_c = session.getClientId();
     String v_s = session.getServerId();
     byte[] i_c = session.getRawC2sKex();
     byte[] i_s = session.getRawS2cKex();
 
-    KeyPairGenerator kpg;
-    try {
-      kpg = KeyPairGenerator.getInstance("RSA");
-    } catch (NoSuchAlgorithmException e1) {
-      e1.printStackTrace();
-      return;
-    }
-    KeyPair kp = kpg.generateKeyPair();
-
-    RSAPublicKey pubKey = ((RSAPublicKey) kp.getPublic());
-
-    byte[] k_s = PublicKeyUtil.bytesOf(pubKey);
-
-    logger.debug("{} Host RSA public key fingerprint MD5: {}, SHA256: {}",
-        session, md5(k_s), sha256(k_s));
+    List<String> kexParams = session.getKexInit();
 
-    byte[] h_s = Bytes.concat(
-        Bytes.joinWithLength(v_c, v_s),
-        Bytes.joinWithLength(i_c, i_s, k_s),
-        Bytes.joinWithLength(e, kex.getPubKey(), kex.getSecretKey())
-    );
+    HostKey hostKey = session.getHostKeys().get(kexParams.get(KexProposal.Param.SERVER_HOST_KEY));
 
-    md.update(h_s, 0, h_s.length);
-    byte[] h = md.digest();
-    session.setRawId(h);
+    byte[] k_s = hostKey.getBlob();
 
-    List<String> kexParams = session.getKexInit();
+    logger.debug("{} Host public key - {}", session, hostKey);
 
-    Signature sig = SignatureFactories.create(kexParams.get(KexProposal.Param.SERVER_HOST_KEY),
-        kp.getPrivate());
-    if (sig == null) {
-      throw new IllegalArgumentException("Unknown signature: " + KexProposal.Param.SERVER_HOST_KEY);
-    }
+    byte[] h = new HashBuilder(md)
+        .putString(v_c).putString(v_s)
+        .putString(i_c).putString(i_s).putString(k_s)
+        .putString(e).putString(f)
+        .putMpInt(kex.getSecretKey())
+        .digest();
 
-    sig.update(h);
+    byte[] sigH = hostKey.sign(h);
 
-    byte[] sigH = Bytes.concat(
-          Bytes.addLen(kexParams.get(KexProposal.Param.SERVER_HOST_KEY)),
-          Bytes.addLen(sig.sign())
-        );
+    return () -> {
+      session.setExchangeHash(h);
 
-    session.replyKexDhReply(k_s, kex.getPubKey(), sigH);
-    logger.debug("{} KEX process completed after SSH_MSG_KEXDH_INIT", session);
+      session.replyKexDhReply(k_s, f, sigH);
+      logger.debug("{} KEX process completed after SSH_MSG_KEXDH_INIT", session);
 
-    session.requestKexNewKeys();
+      session.requestKexNewKeys(this);
+      return null;
+    };
   }
 }
@@ -1,9 +1,20 @@
 package io.github.grantchan.sshengine.server.userauth.method;
 
+import io.github.grantchan.sshengine.common.CryptoExecutor;
 import io.github.grantchan.sshengine.server.ServerSession;
 import io.netty.buffer.ByteBuf;
 
 public interface Method {
 
   boolean authorize(String user, String service, ByteBuf buf, ServerSession session) throws Exception;
+
+  /**
+   * Authorizes the user, and hands the result to {@code done}. It may happen later, on the event
+   * loop of the session, if the check is offloaded to the crypto executor. By default, it calls
+   * {@link #authorize(String, String, ByteBuf, ServerSession)} in place.
+   */
+  default void authorize(String user, String service, ByteBuf buf, ServerSession session,
+                         CryptoExecutor.Callback<Boolean> done) throws Exception {
+    done.accept(authorize(user, service, buf, session));
+  }
 }
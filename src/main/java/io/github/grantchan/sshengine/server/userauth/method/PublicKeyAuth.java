@@ -2,6 +2,7 @@ package io.github.grantchan.sshengine.server.userauth.method;
 
 import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.common.AbstractLogger;
+import io.github.grantchan.sshengine.common.CryptoExecutor;
 import io.github.grantchan.sshengine.common.transport.signature.Signature;
 import io.github.grantchan.sshengine.common.transport.signature.SignatureFactories;
 import io.github.grantchan.sshengine.server.ServerSession;
@@ -26,6 +27,46 @@ public class PublicKeyAuth extends AbstractLogger implements Method {
 
   @Override
   public boolean authorize(String user, String service, ByteBuf buf, ServerSession session) throws Exception {
+    Signature verifier = prepare(user, service, buf, session);
+    if (verifier == null) {
+      return false;
+    }
+
+    return verifier.verify(ByteBufIo.readBytes(buf));
+  }
+
+  /*
+   * The signature is verified on the crypto executor, the result is handed back on the event loop.
+   */
+  @Override
+  public void authorize(String user, String service, ByteBuf buf, ServerSession session,
+                        CryptoExecutor.Callback<Boolean> done) throws Exception {
+    Signature verifier = prepare(user, service, buf, session);
+    if (verifier == null) {
+      done.accept(false);
+      return;
+    }
+
+    byte[] sig = ByteBufIo.readBytes(buf);
+
+    session.offload(CryptoExecutor.Priority.USERAUTH, () -> {
+      try {
+        return verifier.verify(sig);
+      } catch (Exception e) {
+        // a malformed signature, or one of another key type, fails the request, not the session
+        logger.debug("{} Failed to verify the signature - {}", session, e.getMessage());
+
+        return false;
+      }
+    }, done);
+  }
+
+  /*
+   * Reads the request up to the signature, returns the verifier fed with the signed data, or null
+   * if the public key isn't acceptable.
+   */
+  private Signature prepare(String user, String service, ByteBuf buf, ServerSession session)
+      throws Exception {
     /*
      * byte      SSH_MSG_USERAUTH_REQUEST
      * ....      (fields already consumed before getting here)
@@ -55,7 +96,7 @@ public class PublicKeyAuth extends AbstractLogger implements Method {
     if (!match) {
       logger.debug("{} Public key not found in server - '{}'", session, publicKey);
 
-      return false;
+      return null;
     }
 
     if (!hasSig) {
@@ -74,8 +115,6 @@ public class PublicKeyAuth extends AbstractLogger implements Method {
      * ....      (fields already consumed before getting here)
      * string    signature
      */
-    byte[] sig = ByteBufIo.readBytes(buf);
-
     Signature verifier = Objects.requireNonNull(SignatureFactories.create(keyType, publicKey));
 
     /*
@@ -106,6 +145,6 @@ public class PublicKeyAuth extends AbstractLogger implements Method {
 
     verifier.update(data);
 
-    return verifier.verify(sig);
+    return verifier;
   }
 }
@@ -4,19 +4,22 @@ import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.common.AbstractLogger;
 import io.github.grantchan.sshengine.common.Service;
 import io.github.grantchan.sshengine.common.SshException;
+import io.github.grantchan.sshengine.common.message.UserAuthRequestMessage;
 import io.github.grantchan.sshengine.common.userauth.service.ServiceFactories;
 import io.github.grantchan.sshengine.common.userauth.service.ServiceFactory;
 import io.github.grantchan.sshengine.server.ServerSession;
 import io.github.grantchan.sshengine.server.userauth.method.Method;
 import io.github.grantchan.sshengine.server.userauth.method.MethodFactories;
 import io.github.grantchan.sshengine.server.userauth.method.SshAuthInProgressException;
-import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
 import io.netty.buffer.ByteBuf;
 
 public class ServerUserAuthService extends AbstractLogger implements Service {
 
   private final ServerSession session;
 
+  /** Every request is wrapped in it, it's parsed in place */
+  private final UserAuthRequestMessage request = new UserAuthRequestMessage();
+
   private String service;
   private int retryCnt;
   private final int maxRetryCnt;
@@ -42,9 +45,9 @@ public class ServerUserAuthService extends AbstractLogger implements Service {
        *
        * @see <a href="https://tools.ietf.org/html/rfc4252#section-5">Authentication Requests</a>
        */
-      String user = ByteBufIo.readUtf8(req);
-      String service = ByteBufIo.readUtf8(req);
-      String method = ByteBufIo.readUtf8(req);
+      UserAuthRequestMessage msg = request.wrap(req);
+      String service = msg.getService();
+      String method = msg.getMethod();
 
       logger.debug("{} Received SSH_MSG_USERAUTH_REQUEST service={}, method={}",
                    session, service, method);
@@ -68,10 +71,13 @@ public class ServerUserAuthService extends AbstractLogger implements Service {
             "Unknown service - '" + service + "'");
       }
 
-      if (session.getUsername() == null || this.service == null) {
+      // the user name is only decoded for the first request, it's compared in place for the others
+      String user = session.getUsername();
+      if (user == null || this.service == null) {
+        user = msg.getUser();
         session.setUsername(user);
         this.service = service;
-      } else if (session.getUsername().equals(user) && this.service.equals(service)) {
+      } else if (msg.isUser(user) && this.service.equals(service)) {
         retryCnt++;
 
         if (retryCnt >= maxRetryCnt) {
@@ -96,31 +102,40 @@ public class ServerUserAuthService extends AbstractLogger implements Service {
 
       Method auth = MethodFactories.create(method);
 
-      boolean result = false;
       if (auth == null) {
         logger.debug("{} Unsupported authentication method - '{}'", session, method);
-      } else {
-        logger.debug("{} Authenticating to start service '{}' by method '{}' (attempt {} / {})",
-                     session, service, method, retryCnt, maxRetryCnt);
-
-        try {
-          result = auth.authorize(user, service, req, session);
-        } catch (SshAuthInProgressException e) {
-          logger.debug("{} Authentication in progress...", session);
 
-          return;
-        } catch (Exception e) {
-          logger.debug("{} Failed to authenticate. method={}", session, method);
-        }
+        complete(service, false);
+        return;
       }
 
-      if (result) {
-        session.acceptService(service);
-        session.replyUserAuthSuccess();
-        session.setAuthed(true);
-      } else {
-        session.replyUserAuthFailure(MethodFactories.getNames(), false);
+      logger.debug("{} Authenticating to start service '{}' by method '{}' (attempt {} / {})",
+                   session, service, method, retryCnt, maxRetryCnt);
+
+      try {
+        auth.authorize(user, service, req, session, result -> complete(service, result));
+      } catch (SshAuthInProgressException e) {
+        logger.debug("{} Authentication in progress...", session);
+      } catch (SshException e) {
+        throw e;
+      } catch (Exception e) {
+        logger.debug("{} Failed to authenticate. method={}", session, method);
+
+        complete(service, false);
       }
     }
   }
+
+  /*
+   * Replies the result of the authentication, which may come from the crypto executor.
+   */
+  private void complete(String service, boolean result) throws SshException {
+    if (result) {
+      session.acceptService(service);
+      session.replyUserAuthSuccess();
+      session.setAuthed(true);
+    } else {
+      session.replyUserAuthFailure(MethodFactories.getNames(), false);
+    }
+  }
 }
@@ -76,6 +76,19 @@ public final class ByteBufIo {
     return new String(val, StandardCharsets.UTF_8);
   }
 
+  /**
+   * Read a UTF-8 string from a {@link ByteBuf}, without moving its reader index
+   *
+   * @param buf  The {@link ByteBuf} object to read from
+   * @return the UTF-8 string
+   */
+  public static String peekUtf8(ByteBuf buf) {
+    Objects.requireNonNull(buf, "Cannot read UTF-8 string from a null ByteBuf object");
+
+    int idx = buf.readerIndex();
+    return buf.toString(idx + Integer.BYTES, buf.getInt(idx), StandardCharsets.UTF_8);
+  }
+
   /**
    * Write a string to a {@link ByteBuf}
    *
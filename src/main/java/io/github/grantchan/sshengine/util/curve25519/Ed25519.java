@@ -0,0 +1,382 @@
+package io.github.grantchan.sshengine.util.curve25519;
+
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.add;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.invert;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.mul;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.pack;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.parity;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.pow2523;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.sub;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.swap;
+import static io.github.grantchan.sshengine.util.curve25519.Field25519.unpack;
+
+/**
+ * <p>The Ed25519 signature scheme, as defined in RFC 8032, in the same way as TweetNaCl.</p>
+ *
+ * <p>A point of edwards25519 is held in extended coordinates (X, Y, Z, T), the scalar
+ * multiplication is a double-and-add ladder with masked swaps, so signing takes the same time
+ * whatever the private key. Verification isn't constant time, it only handles public data.</p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc8032#section-5.1">RFC 8032 - Ed25519</a>
+ * @see <a href="https://tweetnacl.cr.yp.to/">TweetNaCl</a>
+ */
+public final class Ed25519 {
+
+  public static final int KEY_SIZE = 32;
+  public static final int SIGNATURE_SIZE = 64;
+
+  private static final long[] GF0 = new long[16];
+  private static final long[] GF1 = {1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+  /** d, the curve constant, -121665/121666 */
+  private static final long[] D = {
+      0x78a3, 0x1359, 0x4dca, 0x75eb, 0xd8ab, 0x4141, 0x0a4d, 0x0070,
+      0xe898, 0x7779, 0x4079, 0x8cc7, 0xfe73, 0x2b6f, 0x6cee, 0x5203};
+
+  /** 2 * d */
+  private static final long[] D2 = {
+      0xf159, 0x26b2, 0x9b94, 0xebd6, 0xb156, 0x8283, 0x149a, 0x00e0,
+      0xd130, 0xeef3, 0x80f2, 0x198e, 0xfce7, 0x56df, 0xd9dc, 0x2406};
+
+  /** x of the base point B */
+  private static final long[] X = {
+      0xd51a, 0x8f25, 0x2d60, 0xc956, 0xa7b2, 0x9525, 0xc760, 0x692c,
+      0xdc5c, 0xfdd6, 0xe231, 0xc0a4, 0x53fe, 0xcd6e, 0x36d3, 0x2169};
+
+  /** y of the base point B, 4/5 */
+  private static final long[] Y = {
+      0x6658, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666,
+      0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666};
+
+  /** sqrt(-1) */
+  private static final long[] I = {
+      0xa0b0, 0x4a0e, 0x1b27, 0xc4ee, 0xe478, 0xad2f, 0x1806, 0x2f43,
+      0xd7a7, 0x3dfb, 0x0099, 0x2b4d, 0xdf0b, 0x4fc1, 0x2480, 0x2b83};
+
+  /** L, the order of the base point, 2^252 + 27742317777372353535851937790883648493 */
+  private static final long[] L = {
+      0xed, 0xd3, 0xf5, 0x5c, 0x1a, 0x63, 0x12, 0x58,
+      0xd6, 0x9c, 0xf7, 0xa2, 0xde, 0xf9, 0xde, 0x14,
+      0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x10};
+
+  private static final SecureRandom random = new SecureRandom();
+
+  /**
+   * @return a new key pair, of {@link Ed25519PublicKey} and {@link Ed25519PrivateKey}
+   */
+  public static KeyPair generateKeyPair() {
+    byte[] seed = new byte[KEY_SIZE];
+    random.nextBytes(seed);
+
+    Ed25519PrivateKey prvKey = new Ed25519PrivateKey(seed);
+    Arrays.fill(seed, (byte) 0);
+
+    return new KeyPair(prvKey.getPublicKey(), prvKey);
+  }
+
+  /**
+   * @param seed  the private key, 32 random bytes
+   * @return the public key, A
+   */
+  public static byte[] publicKey(byte[] seed) {
+    byte[] d = expand(seed);
+
+    long[][] p = newPoint();
+    scalarBase(p, d);
+    Arrays.fill(d, (byte) 0);
+
+    byte[] a = new byte[KEY_SIZE];
+    packPoint(a, p);
+    return a;
+  }
+
+  /**
+   * @param seed  the private key
+   * @param pub   the public key of {@code seed}
+   * @param msg   the message to sign
+   * @return the signature, R followed by S, 64 bytes
+   */
+  public static byte[] sign(byte[] seed, byte[] pub, byte[] msg) {
+    byte[] d = expand(seed);
+
+    // r = SHA-512(prefix || M), the prefix is the upper half of the expanded private key
+    MessageDigest md = sha512();
+    md.update(d, 32, 32);
+    md.update(msg);
+    byte[] r = md.digest();
+    reduce(r);
+
+    byte[] sig = new byte[SIGNATURE_SIZE];
+
+    long[][] p = newPoint();
+    scalarBase(p, r);
+    packPoint(sig, p);
+
+    // k = SHA-512(R || A || M)
+    md.update(sig, 0, 32);
+    md.update(pub, 0, KEY_SIZE);
+    md.update(msg);
+    byte[] h = md.digest();
+    reduce(h);
+
+    // S = (r + k * s) mod L
+    long[] x = new long[64];
+    for (int i = 0; i < 32; i++) {
+      x[i] = r[i] & 0xff;
+    }
+    for (int i = 0; i < 32; i++) {
+      for (int j = 0; j < 32; j++) {
+        x[i + j] += (h[i] & 0xff) * (long) (d[j] & 0xff);
+      }
+    }
+    modL(sig, 32, x);
+
+    Arrays.fill(d, (byte) 0);
+    Arrays.fill(r, (byte) 0);
+
+    return sig;
+  }
+
+  /**
+   * @param pub  the public key
+   * @param msg  the message signed
+   * @param sig  the signature, R followed by S
+   * @return {@code true} if the signature is valid
+   */
+  public static boolean verify(byte[] pub, byte[] msg, byte[] sig) {
+    if (pub.length != KEY_SIZE || sig.length != SIGNATURE_SIZE || !isReduced(sig, 32)) {
+      return false;
+    }
+
+    long[][] q = newPoint();
+    if (!unpackNeg(q, pub)) {
+      return false;
+    }
+
+    MessageDigest md = sha512();
+    md.update(sig, 0, 32);
+    md.update(pub);
+    md.update(msg);
+    byte[] h = md.digest();
+    reduce(h);
+
+    // checks R == [S]B - [k]A
+    long[][] p = newPoint();
+    scalarMult(p, q, h);
+
+    scalarBase(q, Arrays.copyOfRange(sig, 32, 64));
+    addPoint(p, q);
+
+    byte[] t = new byte[32];
+    packPoint(t, p);
+
+    int diff = 0;
+    for (int i = 0; i < 32; i++) {
+      diff |= t[i] ^ sig[i];
+    }
+    return diff == 0;
+  }
+
+  /*
+   * Hashes the seed, and clamps the lower half, which becomes the scalar s.
+   */
+  private static byte[] expand(byte[] seed) {
+    byte[] d = sha512().digest(seed);
+    d[0] &= (byte) 0xf8;
+    d[31] &= 0x7f;
+    d[31] |= 0x40;
+    return d;
+  }
+
+  private static MessageDigest sha512() {
+    try {
+      return MessageDigest.getInstance("SHA-512");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static long[][] newPoint() {
+    return new long[4][16];
+  }
+
+  private static void addPoint(long[][] p, long[][] q) {
+    long[] a = new long[16], b = new long[16], c = new long[16], d = new long[16];
+    long[] t = new long[16], e = new long[16], f = new long[16], g = new long[16];
+    long[] h = new long[16];
+
+    sub(a, p[1], p[0]);
+    sub(t, q[1], q[0]);
+    mul(a, a, t);
+    add(b, p[0], p[1]);
+    add(t, q[0], q[1]);
+    mul(b, b, t);
+    mul(c, p[3], q[3]);
+    mul(c, c, D2);
+    mul(d, p[2], q[2]);
+    add(d, d, d);
+    sub(e, b, a);
+    sub(f, d, c);
+    add(g, d, c);
+    add(h, b, a);
+
+    mul(p[0], e, f);
+    mul(p[1], h, g);
+    mul(p[2], g, f);
+    mul(p[3], e, h);
+  }
+
+  private static void swapPoint(long[][] p, long[][] q, int b) {
+    for (int i = 0; i < 4; i++) {
+      swap(p[i], q[i], b);
+    }
+  }
+
+  private static void packPoint(byte[] r, long[][] p) {
+    long[] tx = new long[16], ty = new long[16], zi = new long[16];
+    invert(zi, p[2]);
+    mul(tx, p[0], zi);
+    mul(ty, p[1], zi);
+    pack(r, ty);
+    r[31] ^= (byte) (parity(tx) << 7);
+  }
+
+  private static void scalarMult(long[][] p, long[][] q, byte[] s) {
+    System.arraycopy(GF0, 0, p[0], 0, 16);
+    System.arraycopy(GF1, 0, p[1], 0, 16);
+    System.arraycopy(GF1, 0, p[2], 0, 16);
+    System.arraycopy(GF0, 0, p[3], 0, 16);
+
+    for (int i = 255; i >= 0; i--) {
+      int b = (s[i >>> 3] >>> (i & 7)) & 1;
+      swapPoint(p, q, b);
+      addPoint(q, p);
+      addPoint(p, p);
+      swapPoint(p, q, b);
+    }
+  }
+
+  private static void scalarBase(long[][] p, byte[] s) {
+    long[][] q = newPoint();
+    System.arraycopy(X, 0, q[0], 0, 16);
+    System.arraycopy(Y, 0, q[1], 0, 16);
+    System.arraycopy(GF1, 0, q[2], 0, 16);
+    mul(q[3], X, Y);
+
+    scalarMult(p, q, s);
+  }
+
+  /*
+   * Decodes the point, and negates it, returns false if the bytes aren't a point of the curve.
+   */
+  private static boolean unpackNeg(long[][] r, byte[] p) {
+    long[] t = new long[16], chk = new long[16], num = new long[16], den = new long[16];
+    long[] den2 = new long[16], den4 = new long[16], den6 = new long[16];
+
+    System.arraycopy(GF1, 0, r[2], 0, 16);
+    unpack(r[1], p);
+
+    // x^2 = (y^2 - 1) / (d * y^2 + 1)
+    mul(num, r[1], r[1]);
+    mul(den, num, D);
+    sub(num, num, r[2]);
+    add(den, r[2], den);
+
+    mul(den2, den, den);
+    mul(den4, den2, den2);
+    mul(den6, den4, den2);
+    mul(t, den6, num);
+    mul(t, t, den);
+
+    pow2523(t, t);
+    mul(t, t, num);
+    mul(t, t, den);
+    mul(t, t, den);
+    mul(r[0], t, den);
+
+    mul(chk, r[0], r[0]);
+    mul(chk, chk, den);
+    if (!Field25519.equals(chk, num)) {
+      mul(r[0], r[0], I);
+    }
+
+    mul(chk, r[0], r[0]);
+    mul(chk, chk, den);
+    if (!Field25519.equals(chk, num)) {
+      return false;
+    }
+
+    if (parity(r[0]) == ((p[31] & 0xff) >>> 7)) {
+      sub(r[0], GF0, r[0]);
+    }
+
+    mul(r[3], r[0], r[1]);
+    return true;
+  }
+
+  /*
+   * r[off..off+32] = x mod L, x is 64 limbs of 8 bits.
+   */
+  private static void modL(byte[] r, int off, long[] x) {
+    long carry;
+    for (int i = 63; i >= 32; i--) {
+      carry = 0;
+      int j;
+      for (j = i - 32; j < i - 12; j++) {
+        x[j] += carry - 16 * x[i] * L[j - (i - 32)];
+        carry = (x[j] + 128) >> 8;
+        x[j] -= carry << 8;
+      }
+      x[j] += carry;
+      x[i] = 0;
+    }
+
+    carry = 0;
+    for (int j = 0; j < 32; j++) {
+      x[j] += carry - (x[31] >> 4) * L[j];
+      carry = x[j] >> 8;
+      x[j] &= 255;
+    }
+    for (int j = 0; j < 32; j++) {
+      x[j] -= carry * L[j];
+    }
+    for (int i = 0; i < 32; i++) {
+      x[i + 1] += x[i] >> 8;
+      r[off + i] = (byte) (x[i] & 255);
+    }
+  }
+
+  /*
+   * Reduces the 64 bytes modulo L, the result is in the lower 32 bytes, the upper ones are zeroed.
+   */
+  private static void reduce(byte[] r) {
+    long[] x = new long[64];
+    for (int i = 0; i < 64; i++) {
+      x[i] = r[i] & 0xff;
+    }
+    Arrays.fill(r, (byte) 0);
+    modL(r, 0, x);
+  }
+
+  /*
+   * Checks S < L, RFC 8032 requires to reject the signatures otherwise, as they're malleable.
+   */
+  private static boolean isReduced(byte[] s, int off) {
+    for (int i = 31; i >= 0; i--) {
+      int b = s[off + i] & 0xff;
+      if (b != L[i]) {
+        return b < L[i];
+      }
+    }
+    return false;
+  }
+
+  /* Private constructor to prevent this class from being explicitly instantiated */
+  private Ed25519() {}
+}
@@ -0,0 +1,63 @@
+package io.github.grantchan.sshengine.util.curve25519;
+
+import java.security.PrivateKey;
+import java.util.Objects;
+
+/**
+ * An Ed25519 private key, the 32 bytes seed, along with its public key, which is part of every
+ * signature.
+ */
+public final class Ed25519PrivateKey implements PrivateKey {
+
+  private static final long serialVersionUID = 1L;
+
+  private final byte[] seed;
+  private final Ed25519PublicKey pubKey;
+
+  public Ed25519PrivateKey(byte[] seed) {
+    this(seed, new Ed25519PublicKey(Ed25519.publicKey(Objects.requireNonNull(seed))));
+  }
+
+  /**
+   * @param seed    the private key
+   * @param pubKey  the public key of {@code seed}, it's not checked
+   */
+  public Ed25519PrivateKey(byte[] seed, Ed25519PublicKey pubKey) {
+    if (Objects.requireNonNull(seed).length != Ed25519.KEY_SIZE) {
+      throw new IllegalArgumentException("Invalid Ed25519 private key length: " + seed.length);
+    }
+    this.seed = seed.clone();
+    this.pubKey = Objects.requireNonNull(pubKey);
+  }
+
+  public byte[] getSeed() {
+    return seed.clone();
+  }
+
+  public Ed25519PublicKey getPublicKey() {
+    return pubKey;
+  }
+
+  /**
+   * @param msg  the message to sign
+   * @return the signature, 64 bytes
+   */
+  public byte[] sign(byte[] msg) {
+    return Ed25519.sign(seed, pubKey.getA(), msg);
+  }
+
+  @Override
+  public String getAlgorithm() {
+    return "Ed25519";
+  }
+
+  @Override
+  public String getFormat() {
+    return "RAW";
+  }
+
+  @Override
+  public byte[] getEncoded() {
+    return getSeed();
+  }
+}
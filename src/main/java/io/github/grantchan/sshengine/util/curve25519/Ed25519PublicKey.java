@@ -0,0 +1,55 @@
+package io.github.grantchan.sshengine.util.curve25519;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An Ed25519 public key, the 32 bytes of the encoded point A, as they are in the SSH public key
+ * blob. The JDK has no Ed25519 key before Java 15.
+ */
+public final class Ed25519PublicKey implements PublicKey {
+
+  private static final long serialVersionUID = 1L;
+
+  private final byte[] a;
+
+  public Ed25519PublicKey(byte[] a) {
+    if (Objects.requireNonNull(a).length != Ed25519.KEY_SIZE) {
+      throw new IllegalArgumentException("Invalid Ed25519 public key length: " + a.length);
+    }
+    this.a = a.clone();
+  }
+
+  /**
+   * @return the encoded point A
+   */
+  public byte[] getA() {
+    return a.clone();
+  }
+
+  @Override
+  public String getAlgorithm() {
+    return "Ed25519";
+  }
+
+  @Override
+  public String getFormat() {
+    return "RAW";
+  }
+
+  @Override
+  public byte[] getEncoded() {
+    return getA();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return (o instanceof Ed25519PublicKey) && Arrays.equals(a, ((Ed25519PublicKey) o).a);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(a);
+  }
+}
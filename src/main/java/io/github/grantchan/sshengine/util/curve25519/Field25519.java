@@ -0,0 +1,164 @@
+package io.github.grantchan.sshengine.util.curve25519;
+
+/**
+ * <p>The arithmetic of the field of integers modulo p = 2^255 - 19, the base field of Curve25519,
+ * shared by X25519 and Ed25519.</p>
+ *
+ * <p>An element is held in 16 signed limbs of 16 bits each, in the same way as TweetNaCl, the
+ * limbs may grow beyond 16 bits between the carries. None of the operations branches on the value
+ * of an element.</p>
+ *
+ * @see <a href="https://tweetnacl.cr.yp.to/">TweetNaCl</a>
+ */
+public final class Field25519 {
+
+  /**
+   * Decodes the 32 bytes, little-endian, into a field element, the top bit is ignored.
+   */
+  public static void unpack(long[] o, byte[] n) {
+    for (int i = 0; i < 16; i++) {
+      o[i] = (n[2 * i] & 0xff) | ((long) (n[2 * i + 1] & 0xff) << 8);
+    }
+    o[15] &= 0x7fff;
+  }
+
+  /**
+   * Encodes the field element, reduced modulo p, into 32 bytes, little-endian.
+   */
+  public static void pack(byte[] o, long[] n) {
+    long[] t = n.clone();
+    long[] m = new long[16];
+
+    carry(t);
+    carry(t);
+    carry(t);
+
+    // subtracts p twice at most, to get the canonical value
+    for (int j = 0; j < 2; j++) {
+      m[0] = t[0] - 0xffed;
+      for (int i = 1; i < 15; i++) {
+        m[i] = t[i] - 0xffff - ((m[i - 1] >> 16) & 1);
+        m[i - 1] &= 0xffff;
+      }
+      m[15] = t[15] - 0x7fff - ((m[14] >> 16) & 1);
+      int b = (int) ((m[15] >> 16) & 1);
+      m[14] &= 0xffff;
+      swap(t, m, 1 - b);
+    }
+
+    for (int i = 0; i < 16; i++) {
+      o[2 * i] = (byte) t[i];
+      o[2 * i + 1] = (byte) (t[i] >> 8);
+    }
+  }
+
+  public static void carry(long[] o) {
+    for (int i = 0; i < 16; i++) {
+      o[i] += 1L << 16;
+      long c = o[i] >> 16;
+      if (i < 15) {
+        o[i + 1] += c - 1;
+      } else {
+        o[0] += 38 * (c - 1);
+      }
+      o[i] -= c << 16;
+    }
+  }
+
+  /*
+   * Swaps p and q if b is 1, leaves them as they are if b is 0, without branching on b.
+   */
+  public static void swap(long[] p, long[] q, int b) {
+    long mask = ~((long) b - 1);
+    for (int i = 0; i < 16; i++) {
+      long t = mask & (p[i] ^ q[i]);
+      p[i] ^= t;
+      q[i] ^= t;
+    }
+  }
+
+  public static void add(long[] o, long[] a, long[] b) {
+    for (int i = 0; i < 16; i++) {
+      o[i] = a[i] + b[i];
+    }
+  }
+
+  public static void sub(long[] o, long[] a, long[] b) {
+    for (int i = 0; i < 16; i++) {
+      o[i] = a[i] - b[i];
+    }
+  }
+
+  public static void mul(long[] o, long[] a, long[] b) {
+    long[] t = new long[31];
+    for (int i = 0; i < 16; i++) {
+      for (int j = 0; j < 16; j++) {
+        t[i + j] += a[i] * b[j];
+      }
+    }
+
+    // 2^256 = 38 mod p
+    for (int i = 0; i < 15; i++) {
+      t[i] += 38 * t[i + 16];
+    }
+    System.arraycopy(t, 0, o, 0, 16);
+
+    carry(o);
+    carry(o);
+  }
+
+  /*
+   * o = i^(p - 2) = 1 / i, by Fermat's little theorem
+   */
+  public static void invert(long[] o, long[] i) {
+    long[] c = i.clone();
+    for (int a = 253; a >= 0; a--) {
+      mul(c, c, c);
+      if (a != 2 && a != 4) {
+        mul(c, c, i);
+      }
+    }
+    System.arraycopy(c, 0, o, 0, 16);
+  }
+
+  /*
+   * o = i^((p - 5) / 8), which is part of the square root, see RFC 8032, section 5.1.3
+   */
+  public static void pow2523(long[] o, long[] i) {
+    long[] c = i.clone();
+    for (int a = 250; a >= 0; a--) {
+      mul(c, c, c);
+      if (a != 1) {
+        mul(c, c, i);
+      }
+    }
+    System.arraycopy(c, 0, o, 0, 16);
+  }
+
+  /**
+   * @return {@code true} if the two elements are equal modulo p
+   */
+  public static boolean equals(long[] a, long[] b) {
+    byte[] c = new byte[32], d = new byte[32];
+    pack(c, a);
+    pack(d, b);
+
+    int diff = 0;
+    for (int i = 0; i < 32; i++) {
+      diff |= c[i] ^ d[i];
+    }
+    return diff == 0;
+  }
+
+  /**
+   * @return the lowest bit of the element, reduced modulo p, the "sign" of the element
+   */
+  public static int parity(long[] a) {
+    byte[] d = new byte[32];
+    pack(d, a);
+    return d[0] & 1;
+  }
+
+  /* Private constructor to prevent this class from being explicitly instantiated */
+  private Field25519() {}
+}
@@ -35,7 +35,7 @@ public final class Reader {
    * @return    byte buffer in {@code in}
    * @throws IOException  if any error happens while reading
    */
-  private static byte[] readLengthBytes(InputStream in) throws IOException {
+  public static byte[] readLengthBytes(InputStream in) throws IOException {
     int len = readInt(in);
 
     return readBytes(in, len);
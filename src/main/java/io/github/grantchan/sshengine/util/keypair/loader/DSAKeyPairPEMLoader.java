@@ -1,11 +1,15 @@
 package io.github.grantchan.sshengine.util.keypair.loader;
 
 import sun.security.util.DerInputStream;
+import sun.security.util.DerOutputStream;
 import sun.security.util.DerValue;
 
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.*;
+import java.security.interfaces.DSAParams;
+import java.security.interfaces.DSAPrivateKey;
+import java.security.interfaces.DSAPublicKey;
 import java.security.spec.DSAPrivateKeySpec;
 import java.security.spec.DSAPublicKeySpec;
 import java.util.Objects;
@@ -81,4 +85,28 @@ public class DSAKeyPairPEMLoader implements KeyPairPEMLoader {
 
     return new KeyPair(pubKey, prvKey);
   }
+
+  @Override
+  public byte[] toBytes(KeyPair kp) throws IOException {
+    Objects.requireNonNull(kp);
+
+    if (!(kp.getPublic() instanceof DSAPublicKey) || !(kp.getPrivate() instanceof DSAPrivateKey)) {
+      throw new InvalidParameterException("Not a DSA key pair");
+    }
+
+    DSAParams params = ((DSAPublicKey) kp.getPublic()).getParams();
+
+    DerOutputStream seq = new DerOutputStream();
+    seq.putInteger(BigInteger.ZERO);
+    seq.putInteger(params.getP());
+    seq.putInteger(params.getQ());
+    seq.putInteger(params.getG());
+    seq.putInteger(((DSAPublicKey) kp.getPublic()).getY());
+    seq.putInteger(((DSAPrivateKey) kp.getPrivate()).getX());
+
+    DerOutputStream dos = new DerOutputStream();
+    dos.write(DerValue.tag_Sequence, seq);
+
+    return dos.toByteArray();
+  }
 }
@@ -9,6 +9,8 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.util.*;
@@ -93,9 +95,45 @@ public interface KeyPairPEMLoader {
 
   KeyPair load(byte[] keyBytes) throws IOException, GeneralSecurityException, IllegalAccessException;
 
+  /**
+   * Write the key pair into a file in PEM format, which can be read back by {@link #load(Path)}.
+   *
+   * The file is created readable and writable by the owner only, where the file system supports
+   * POSIX permissions, as OpenSSH refuses to use a private key file open to others.
+   *
+   * @param kp  the key pair to write
+   * @param pem the file to write to, it must not exist
+   * @throws IOException if any error happens when writing the file
+   * @throws IllegalAccessException if this loader doesn't support writing
+   */
+  default void save(KeyPair kp, Path pem) throws IOException, IllegalAccessException {
+    String key = Base64.getMimeEncoder(64, new byte[] {'\n'}).encodeToString(toBytes(kp));
+    String content = getBeginLine() + "\n" + key + "\n" + getEndLine() + "\n";
+
+    if (pem.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+      Files.createFile(pem,
+          PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    }
+    Files.write(pem, content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Transform the {@link KeyPair} into the DER encoded bytes array, the reverse of
+   * {@link #load(byte[])}.
+   *
+   * @param kp the key pair to transform
+   * @return the DER encoded bytes array
+   * @throws IOException if any error happens when encoding
+   * @throws IllegalAccessException if this loader doesn't support writing
+   */
+  byte[] toBytes(KeyPair kp) throws IOException, IllegalAccessException;
+
   KeyPairPEMLoader ALL = aggregate(
       Arrays.asList(DSAKeyPairPEMLoader.getInstance(),
-                    RSAKeyPairPEMLoader.getInstance()
+                    RSAKeyPairPEMLoader.getInstance(),
+                    ECKeyPairPEMLoader.getInstance(),
+                    OpenSSHKeyPairPEMLoader.getInstance()
       )
   );
 
@@ -144,6 +182,11 @@ public interface KeyPairPEMLoader {
       public KeyPair load(byte[] keyBytes) throws IllegalAccessException {
         throw new IllegalAccessException("This method SHOULD NOT BE EXPLICITLY CALLED");
       }
+
+      @Override
+      public byte[] toBytes(KeyPair kp) throws IllegalAccessException {
+        throw new IllegalAccessException("This method SHOULD NOT BE EXPLICITLY CALLED");
+      }
     };
   }
 }
@@ -1,11 +1,13 @@
 package io.github.grantchan.sshengine.util.keypair.loader;
 
 import sun.security.util.DerInputStream;
+import sun.security.util.DerOutputStream;
 import sun.security.util.DerValue;
 
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.*;
+import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.spec.RSAPrivateCrtKeySpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.Objects;
@@ -98,4 +100,29 @@ public class RSAKeyPairPEMLoader implements KeyPairPEMLoader {
 
     return new KeyPair(pubKey, prvKey);
   }
+
+  @Override
+  public byte[] toBytes(KeyPair kp) throws IOException {
+    Objects.requireNonNull(kp);
+
+    PrivateKey prvKey = kp.getPrivate();
+    if (!(prvKey instanceof RSAPrivateCrtKey)) {
+      throw new InvalidParameterException("Not an RSA private key with CRT components");
+    }
+
+    RSAPrivateCrtKey k = (RSAPrivateCrtKey) prvKey;
+
+    DerOutputStream seq = new DerOutputStream();
+    seq.putInteger(BigInteger.ZERO);
+    for (BigInteger i : new BigInteger[] {k.getModulus(), k.getPublicExponent(),
+        k.getPrivateExponent(), k.getPrimeP(), k.getPrimeQ(), k.getPrimeExponentP(),
+        k.getPrimeExponentQ(), k.getCrtCoefficient()}) {
+      seq.putInteger(i);
+    }
+
+    DerOutputStream dos = new DerOutputStream();
+    dos.write(DerValue.tag_Sequence, seq);
+
+    return dos.toByteArray();
+  }
 }
@@ -2,10 +2,12 @@ package io.github.grantchan.sshengine.util.publickey;
 
 import io.github.grantchan.sshengine.common.transport.kex.ECurve;
 import io.github.grantchan.sshengine.util.buffer.Bytes;
-import sun.security.provider.DSAPublicKey;
+import io.github.grantchan.sshengine.util.curve25519.Ed25519PublicKey;
 
+import java.nio.charset.StandardCharsets;
 import java.security.PublicKey;
 import java.security.interfaces.DSAParams;
+import java.security.interfaces.DSAPublicKey;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.ECParameterSpec;
@@ -37,6 +39,8 @@ public final class PublicKeyUtil {
       return compare((RSAPublicKey) a, (RSAPublicKey) b);
     } else if ((a instanceof ECPublicKey) && (b instanceof ECPublicKey)) {
       return compare((ECPublicKey) a, (ECPublicKey) b);
+    } else if ((a instanceof Ed25519PublicKey) && (b instanceof Ed25519PublicKey)) {
+      return a.equals(b);
     }
     return false;
   }
@@ -186,6 +190,8 @@ public final class PublicKeyUtil {
       if (curve != null) {
         return "ecdsa-sha2-" + curve.name();
       }
+    } else if (pubKey instanceof Ed25519PublicKey) {
+      return "ssh-ed25519";
     }
     return null;
   }
@@ -213,6 +219,8 @@ public final class PublicKeyUtil {
       return bytesOf((RSAPublicKey) pubKey);
     } else if (pubKey instanceof ECPublicKey) {
       return bytesOf((ECPublicKey) pubKey);
+    } else if (pubKey instanceof Ed25519PublicKey) {
+      return bytesOf((Ed25519PublicKey) pubKey);
     }
     return null;
   }
@@ -282,6 +290,23 @@ public final class PublicKeyUtil {
         );
   }
 
+  /**
+   * Return the bytes of a {@link Ed25519PublicKey}
+   * <p>by combining:
+   * <ul><li>the key type string, "ssh-ed25519"</li>
+   *     <li>the encoded point A, 32 bytes, via {@link Ed25519PublicKey#getA()}</li></ul></p>
+   *
+   * @param pubKey The {@link Ed25519PublicKey} to convert to byte array
+   * @return       Byte arrays converted from {@code pubKey}
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc8709#section-4">Public Key Format</a>
+   */
+  private static byte[] bytesOf(Ed25519PublicKey pubKey) {
+    Objects.requireNonNull(pubKey, "Invalid parameter - pubKey is null");
+
+    return Bytes.joinWithLength("ssh-ed25519".getBytes(StandardCharsets.UTF_8), pubKey.getA());
+  }
+
   /* Private constructor to prevent this class from being explicitly instantiated */
   private PublicKeyUtil() {}
 }
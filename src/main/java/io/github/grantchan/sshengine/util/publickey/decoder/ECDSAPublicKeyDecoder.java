@@ -0,0 +1,93 @@
+package io.github.grantchan.sshengine.util.publickey.decoder;
+
+import io.github.grantchan.sshengine.common.transport.kex.ECurve;
+import io.github.grantchan.sshengine.util.iostream.Reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.EllipticCurve;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+public class ECDSAPublicKeyDecoder implements PublicKeyDecoder<ECPublicKey> {
+
+  private static final List<String> supportKeyTypes = Collections.unmodifiableList(
+      Arrays.asList("ecdsa-sha2-nistp256", "ecdsa-sha2-nistp384", "ecdsa-sha2-nistp521"));
+
+  private static final ECDSAPublicKeyDecoder instance = new ECDSAPublicKeyDecoder();
+  public static PublicKeyDecoder<?> getInstance() {
+    return instance;
+  }
+
+  @Override
+  public Collection<String> supportTypes() {
+    return supportKeyTypes;
+  }
+
+  /**
+   * The key type, "ecdsa-sha2-[identifier]", is followed by:
+   * <pre>
+   *   string   [identifier], the curve name, e.g. "nistp256"
+   *   string   Q, the public point, as an uncompressed octet string
+   * </pre>
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc5656#section-3.1">Public Key Format</a>
+   */
+  @Override
+  public ECPublicKey decode0(InputStream key) throws IOException, GeneralSecurityException {
+    String name = Reader.readLengthUtf8(key);
+
+    ECurve curve;
+    try {
+      curve = ECurve.valueOf(name);
+    } catch (IllegalArgumentException | NullPointerException e) {
+      throw new InvalidKeySpecException("Unsupported curve: " + name);
+    }
+
+    byte[] q = Reader.readLengthBytes(key);
+    if (q == null) {
+      throw new InvalidKeySpecException("Missing public point of curve: " + name);
+    }
+
+    ECParameterSpec spec = curve.value();
+    ECPoint w;
+    try {
+      w = ECurve.ecPointOf(q);
+    } catch (IllegalArgumentException | UnsupportedOperationException e) {
+      throw new InvalidKeySpecException(e.getMessage());
+    }
+    if (!isOnCurve(w, spec.getCurve())) {
+      throw new InvalidKeySpecException("Public point is not on curve: " + name);
+    }
+
+    KeyFactory kf = KeyFactory.getInstance("EC");
+    return (ECPublicKey) kf.generatePublic(new ECPublicKeySpec(w, spec));
+  }
+
+  /**
+   * @return true if y^2 = x^3 + ax + b (mod p), for a point from the peer, which isn't trusted
+   */
+  private static boolean isOnCurve(ECPoint pt, EllipticCurve curve) {
+    BigInteger p = ((ECFieldFp) curve.getField()).getP();
+    BigInteger x = pt.getAffineX();
+    BigInteger y = pt.getAffineY();
+
+    if (x.compareTo(p) >= 0 || y.compareTo(p) >= 0) {
+      return false;
+    }
+
+    BigInteger rhs = x.pow(3).add(curve.getA().multiply(x)).add(curve.getB()).mod(p);
+    return y.modPow(BigInteger.valueOf(2), p).equals(rhs);
+  }
+}
@@ -0,0 +1,38 @@
+package io.github.grantchan.sshengine.util.publickey.decoder;
+
+import io.github.grantchan.sshengine.util.curve25519.Ed25519;
+import io.github.grantchan.sshengine.util.curve25519.Ed25519PublicKey;
+import io.github.grantchan.sshengine.util.iostream.Reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+public class Ed25519PublicKeyDecoder implements PublicKeyDecoder<Ed25519PublicKey> {
+
+  private static final List<String> supportKeyTypes = Collections.singletonList("ssh-ed25519");
+
+  private static final Ed25519PublicKeyDecoder instance = new Ed25519PublicKeyDecoder();
+  public static PublicKeyDecoder<?> getInstance() {
+    return instance;
+  }
+
+  @Override
+  public Collection<String> supportTypes() {
+    return supportKeyTypes;
+  }
+
+  @Override
+  public Ed25519PublicKey decode0(InputStream key) throws IOException, InvalidKeySpecException {
+    byte[] a = Reader.readLengthBytes(key);
+    if (a == null || a.length != Ed25519.KEY_SIZE) {
+      throw new InvalidKeySpecException("Invalid Ed25519 public key length: " +
+          (a == null ? 0 : a.length));
+    }
+
+    return new Ed25519PublicKey(a);
+  }
+}
@@ -49,7 +49,9 @@ public interface PublicKeyDecoder<T extends PublicKey> {
   PublicKeyDecoder<? extends PublicKey> ALL = aggregate(
       Arrays.asList(
           DSAPublicKeyDecoder.getInstance(),
-          RSAPublicKeyDecoder.getInstance()
+          RSAPublicKeyDecoder.getInstance(),
+          ECDSAPublicKeyDecoder.getInstance(),
+          Ed25519PublicKeyDecoder.getInstance()
       )
   );
 
@@ -0,0 +1,113 @@
+package io.github.grantchan.sshengine.common;
+
+import io.github.grantchan.sshengine.client.ClientSession;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AbstractSessionTest {
+
+  private static final int MESSAGES = 10;
+
+  private final EventLoopGroup group = new DefaultEventLoopGroup(2);
+  private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+  private final CountDownLatch done = new CountDownLatch(MESSAGES * Integer.BYTES);
+
+  private Channel server;
+  private ClientSession session;
+
+  @Before
+  public void setUp() throws Exception {
+    LocalAddress address = new LocalAddress(AbstractSessionTest.class.getSimpleName());
+
+    server = new ServerBootstrap()
+        .group(group)
+        .channel(LocalServerChannel.class)
+        .childHandler(new ChannelInitializer<LocalChannel>() {
+          @Override
+          protected void initChannel(LocalChannel ch) {
+            ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+              @Override
+              public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                ByteBuf buf = (ByteBuf) msg;
+                synchronized (received) {
+                  while (buf.isReadable()) {
+                    received.write(buf.readByte());
+                    done.countDown();
+                  }
+                }
+                buf.release();
+              }
+            });
+          }
+        })
+        .bind(address).sync().channel();
+
+    Channel client = new Bootstrap()
+        .group(group)
+        .channel(LocalChannel.class)
+        .handler(new ChannelInboundHandlerAdapter())
+        .connect(address).sync().channel();
+
+    session = new ClientSession(client);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    session.getChannel().close().sync();
+    session.close();
+    server.close().sync();
+    group.shutdownGracefully();
+  }
+
+  @Test
+  public void whenWrittenFromOtherThread_shouldSendEveryMessage() throws Exception {
+    // keeps the event loop busy, so the flush scheduled by the first message runs only after the
+    // later messages are written
+    CountDownLatch busy = new CountDownLatch(1);
+    session.getChannel().eventLoop().execute(() -> {
+      try {
+        busy.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < MESSAGES; i++) {
+        session.write(Unpooled.buffer(Integer.BYTES).writeInt(i));
+      }
+    });
+    writer.start();
+    writer.join();
+    busy.countDown();
+
+    assertTrue("only " + received.size() + " bytes received",
+        done.await(5, TimeUnit.SECONDS));
+
+    ByteBuf in = Unpooled.wrappedBuffer(received.toByteArray());
+    for (int i = 0; i < MESSAGES; i++) {
+      assertEquals(i, in.readInt());
+    }
+  }
+}
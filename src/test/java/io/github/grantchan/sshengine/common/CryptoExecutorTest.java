@@ -0,0 +1,128 @@
+package io.github.grantchan.sshengine.common;
+
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class CryptoExecutorTest {
+
+  private final EventLoop loop = new DefaultEventLoop();
+
+  @After
+  public void tearDown() {
+    loop.shutdownGracefully();
+  }
+
+  @Test
+  public void whenThreadIsBusy_shouldRunHigherPriorityFirst() throws Exception {
+    CryptoExecutor executor = new CryptoExecutor(1, 10);
+
+    CountDownLatch blocker = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(4);
+    List<String> order = new CopyOnWriteArrayList<>();
+
+    executor.submit(loop, CryptoExecutor.Priority.KEX, () -> blocker.await(5, TimeUnit.SECONDS),
+        r -> done.countDown(), t -> {});
+    for (CryptoExecutor.Priority p : new CryptoExecutor.Priority[] {
+        CryptoExecutor.Priority.KEX, CryptoExecutor.Priority.USERAUTH,
+        CryptoExecutor.Priority.REKEY}) {
+      executor.submit(loop, p, p::name, r -> {
+        assertTrue(loop.inEventLoop());
+        order.add(r);
+        done.countDown();
+      }, t -> {});
+    }
+
+    assertEquals(3, executor.getPending() - 1);
+
+    blocker.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    assertEquals("[REKEY, USERAUTH, KEX]", order.toString());
+    assertEquals(4, executor.getCompletedCount());
+  }
+
+  @Test
+  public void whenSaturated_shouldReject() throws Exception {
+    CryptoExecutor executor = new CryptoExecutor(1, 1);
+
+    CountDownLatch blocker = new CountDownLatch(1);
+    executor.submit(loop, CryptoExecutor.Priority.KEX, () -> blocker.await(5, TimeUnit.SECONDS),
+        r -> {}, t -> {});
+
+    assertThrows(SshException.class, () -> executor.submit(loop, CryptoExecutor.Priority.KEX,
+        () -> true, r -> {}, t -> {}));
+    assertEquals(1, executor.getRejectedCount());
+
+    blocker.countDown();
+  }
+
+  @Test
+  public void whenBulkJobsFillTheirShare_shouldKeepRoomForKeyExchanges() throws Exception {
+    CryptoExecutor executor = new CryptoExecutor(1, 4);
+
+    CountDownLatch blocker = new CountDownLatch(1);
+    for (int i = 0; i < 2; i++) {
+      assertTrue(executor.trySubmit(loop, CryptoExecutor.Priority.BULK,
+          () -> blocker.await(5, TimeUnit.SECONDS), r -> {}, t -> {}));
+    }
+
+    assertFalse(executor.trySubmit(loop, CryptoExecutor.Priority.BULK, () -> true,
+        r -> {}, t -> {}));
+    assertEquals(0, executor.getRejectedCount());
+
+    executor.submit(loop, CryptoExecutor.Priority.KEX, () -> true, r -> {}, t -> {});
+    executor.submit(loop, CryptoExecutor.Priority.KEX, () -> true, r -> {}, t -> {});
+    assertEquals(4, executor.getPending());
+
+    blocker.countDown();
+  }
+
+  @Test
+  public void whenTaskFails_shouldCallOnFailureOnEventLoop() throws Exception {
+    CryptoExecutor executor = new CryptoExecutor(1, 1);
+
+    CountDownLatch failed = new CountDownLatch(1);
+    executor.submit(loop, CryptoExecutor.Priority.USERAUTH, () -> {
+      throw new IllegalStateException("boom");
+    }, r -> {}, t -> {
+      if (loop.inEventLoop() && "boom".equals(t.getMessage())) {
+        failed.countDown();
+      }
+    });
+
+    assertTrue(failed.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void whenEventLoopShutDown_shouldStillCallOnFailure() throws Exception {
+    CryptoExecutor executor = new CryptoExecutor(1, 1);
+
+    CountDownLatch blocker = new CountDownLatch(1);
+    CountDownLatch failed = new CountDownLatch(1);
+    assertTrue(executor.trySubmit(loop, CryptoExecutor.Priority.KEX,
+        () -> blocker.await(5, TimeUnit.SECONDS), r -> {}, t -> {
+          if (t instanceof RejectedExecutionException) {
+            failed.countDown();
+          }
+        }));
+
+    assertTrue(loop.shutdownGracefully(0, 0, TimeUnit.SECONDS).await(5, TimeUnit.SECONDS));
+    blocker.countDown();
+
+    assertTrue(failed.await(5, TimeUnit.SECONDS));
+    assertEquals(0, executor.getPending());
+  }
+}
@@ -0,0 +1,52 @@
+package io.github.grantchan.sshengine.common.message;
+
+import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UserAuthRequestMessageTest {
+
+  private final UserAuthRequestMessage msg = new UserAuthRequestMessage();
+
+  @Test
+  public void whenWrapped_shouldReadCommonFieldsInPlace() {
+    ByteBuf buf = request("root", "ssh-connection", "publickey");
+    buf.writeBoolean(true);
+
+    msg.wrap(buf);
+
+    assertSame("ssh-connection", msg.getService());
+    assertSame("publickey", msg.getMethod());
+    assertEquals("root", msg.getUser());
+    assertTrue(msg.getData().readBoolean());
+  }
+
+  @Test
+  public void whenUserCompared_shouldMatchWholeName() {
+    msg.wrap(request("root", "ssh-connection", "none"));
+    assertTrue(msg.isUser("root"));
+    assertFalse(msg.isUser("roo"));
+    assertFalse(msg.isUser("rooter"));
+    assertFalse(msg.isUser("röot"));
+
+    msg.wrap(request("röot", "ssh-connection", "none"));
+    assertTrue(msg.isUser("röot"));
+    assertFalse(msg.isUser("root"));
+  }
+
+  private static ByteBuf request(String user, String service, String method) {
+    ByteBuf buf = Unpooled.buffer();
+    ByteBufIo.writeBytes(buf, user.getBytes(StandardCharsets.UTF_8));
+    ByteBufIo.writeUtf8(buf, service);
+    ByteBufIo.writeUtf8(buf, method);
+    return buf;
+  }
+}
@@ -0,0 +1,46 @@
+package io.github.grantchan.sshengine.common.message;
+
+import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class WireTokensTest {
+
+  @Test
+  public void whenKnownNameRead_shouldReturnInternedName() {
+    for (String name : new String[] {"session", "pty-req", "exit-status", "ssh-connection",
+                                     "publickey", "keepalive@openssh.com"}) {
+      ByteBuf buf = string(name);
+
+      assertSame(name, WireTokens.read(buf));
+      assertFalse(buf.isReadable());
+    }
+  }
+
+  @Test
+  public void whenUnknownNameRead_shouldDecodeIt() {
+    ByteBuf buf = string("sessio");
+    buf.writeInt(42);
+
+    String name = WireTokens.read(buf);
+    assertEquals("sessio", name);
+    assertEquals(42, buf.readInt());
+
+    assertNull(WireTokens.find(string("pty-req-"), Integer.BYTES, 8));
+    assertEquals("été", WireTokens.read(string("été")));
+  }
+
+  private static ByteBuf string(String s) {
+    ByteBuf buf = Unpooled.buffer();
+    ByteBufIo.writeBytes(buf, s.getBytes(StandardCharsets.UTF_8));
+    return buf;
+  }
+}
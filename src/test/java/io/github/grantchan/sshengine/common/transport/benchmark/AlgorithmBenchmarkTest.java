@@ -0,0 +1,101 @@
+package io.github.grantchan.sshengine.common.transport.benchmark;
+
+import io.github.grantchan.sshengine.common.transport.cipher.CipherFactories;
+import io.github.grantchan.sshengine.common.transport.kex.KexProposal;
+import io.github.grantchan.sshengine.common.transport.mac.MacFactories;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class AlgorithmBenchmarkTest {
+
+  @After
+  public void tearDown() {
+    for (CipherFactories cf : CipherFactories.values()) {
+      cf.setProvider(null);
+    }
+    for (MacFactories mf : MacFactories.values()) {
+      mf.setProvider(null);
+    }
+    for (KexProposal p : KexProposal.ALL) {
+      p.setServerProposals(null);
+    }
+  }
+
+  @Test
+  public void whenSelected_shouldPinProviderAndReorderServerProposals() throws Exception {
+    List<BenchmarkResult> results =
+        new AlgorithmBenchmark(1, 5, TimeUnit.MILLISECONDS).select();
+
+    assertEquals(CipherFactories.values().length + MacFactories.values().length, results.size());
+    for (BenchmarkResult r : results) {
+      assertTrue(r.toString(), r.getThroughput() > 0);
+    }
+
+    for (CipherFactories cf : CipherFactories.values()) {
+      assertEquals(cf.toString(), cf.isProvided(), cf.getProvider() != null);
+      if (!cf.isAead()) {
+        assertNotNull(cf.create(new byte[cf.getBlkSize()], new byte[cf.getIvSize()],
+            Cipher.ENCRYPT_MODE));
+      }
+    }
+    for (MacFactories mf : MacFactories.values()) {
+      assertEquals(mf.toString(), mf.isProvided(), mf.getProvider() != null);
+      assertNotNull(mf.create(new byte[mf.getDefBlkSize()]));
+    }
+
+    // same algorithms, the order may differ
+    assertEquals(names(CipherFactories.getNames()),
+                 names(KexProposal.ENCRYPTION_S2C.getServerProposals().get()));
+    assertEquals(names(MacFactories.getNames()),
+                 names(KexProposal.MAC_C2S.getServerProposals().get()));
+
+    // the client side is left alone
+    assertEquals(CipherFactories.getNames(), KexProposal.ENCRYPTION_S2C.getProposals().get());
+  }
+
+  @Test
+  public void whenRanked_shouldPutAeadAndEtmFirstAndChargeTheMacToTheOtherCiphers() {
+    List<BenchmarkResult> macs = AlgorithmBenchmark.rankMacs(Arrays.asList(
+        result("hmac-sha1", 1500),
+        result("hmac-sha2-512-etm@openssh.com", 0),
+        result("hmac-sha2-256-etm@openssh.com", 400),
+        result("umac-64-etm@openssh.com", 300)));
+    assertEquals(Arrays.asList("hmac-sha2-256-etm@openssh.com", "umac-64-etm@openssh.com",
+                               "hmac-sha1"), names(macs));
+
+    // the ones which failed on every provider are dropped, and aes256-ctr alone is the fastest,
+    // but not with the MAC it needs
+    List<BenchmarkResult> ciphers = AlgorithmBenchmark.rankCiphers(Arrays.asList(
+        result("aes256-ctr", 5000),
+        result("aes256-cbc", 900),
+        result("aes128-gcm@openssh.com", 0),
+        result("chacha20-poly1305@openssh.com", 500),
+        result("aes256-gcm@openssh.com", 3000)), macs.get(0));
+    assertEquals(Arrays.asList("aes256-gcm@openssh.com", "chacha20-poly1305@openssh.com",
+                               "aes256-ctr", "aes256-cbc"), names(ciphers));
+  }
+
+  private static BenchmarkResult result(String name, double throughput) {
+    return new BenchmarkResult(name, Collections.emptyMap(), null, throughput);
+  }
+
+  private static List<String> names(List<BenchmarkResult> results) {
+    return results.stream().map(BenchmarkResult::getName).collect(Collectors.toList());
+  }
+
+  private static HashSet<String> names(String list) {
+    return new HashSet<>(Arrays.asList(list.split(",")));
+  }
+}
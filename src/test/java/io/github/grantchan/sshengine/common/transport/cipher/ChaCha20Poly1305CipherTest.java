@@ -0,0 +1,116 @@
+package io.github.grantchan.sshengine.common.transport.cipher;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import javax.crypto.AEADBadTagException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ChaCha20Poly1305CipherTest {
+
+  /**
+   * @see <a href="https://tools.ietf.org/html/rfc8439#section-2.3.2">Test Vector for the ChaCha20
+   * Block Function</a>
+   */
+  @Test
+  public void testChaCha20Block() {
+    byte[] key = ByteBufUtil.decodeHexDump(
+        "000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f");
+
+    // The RFC puts a 32-bit counter in front of a 96-bit nonce (00000009 0000004a 00000000),
+    // which is the same state as a 64-bit counter with the first nonce word as its high part
+    long counter = 1 | (0x09000000L << 32);
+
+    byte[] actual = new byte[ChaCha20.BLOCK_SIZE];
+    new ChaCha20(key, 0).keystream(counter, 0x4a000000, 0, actual, 0, 1);
+
+    byte[] expected = ByteBufUtil.decodeHexDump(
+        "10f1e7e4d13b5915500fdd1fa32071c4c7d1f4c733c068030422aa9ac3d46c4e"
+            + "d2826446079faa0914c2d705d98b02a2b5129cd1de164eb9cbd083e8a2503c4e");
+
+    assertArrayEquals(expected, actual);
+  }
+
+  /**
+   * @see <a href="https://tools.ietf.org/html/rfc8439#section-2.5.2">Poly1305 Example and Test
+   * Vector</a>
+   */
+  @Test
+  public void testPoly1305() {
+    byte[] key = ByteBufUtil.decodeHexDump(
+        "85d6be7857556d337f4452fe42d506a80103808afb0db2fd4abff6af4149f51b");
+    byte[] msg = "Cryptographic Forum Research Group".getBytes(StandardCharsets.US_ASCII);
+
+    Poly1305 poly1305 = new Poly1305();
+    poly1305.init(key, 0);
+    // feed it in uneven pieces, to go through the partial block handling
+    poly1305.update(msg, 0, 5);
+    poly1305.update(msg, 5, 20);
+    poly1305.update(msg, 25, msg.length - 25);
+
+    byte[] actual = new byte[Poly1305.TAG_SIZE];
+    poly1305.finish(actual, 0);
+
+    assertArrayEquals(ByteBufUtil.decodeHexDump("a8061dc1305136c6c22b8baf0c0127a9"), actual);
+  }
+
+  @Test
+  public void whenPacketEncrypted_shouldBeDecryptedByPeer() throws Exception {
+    Random rand = new Random(20191108);
+
+    byte[] key = new byte[ChaCha20Poly1305Cipher.KEY_SIZE];
+    rand.nextBytes(key);
+
+    // a packet bigger than the keystream generated at a time
+    int len = 10000;
+    byte[] packet = new byte[len];
+    rand.nextBytes(packet);
+
+    ByteBuf buf = Unpooled.buffer();
+    buf.writeInt(len);
+    buf.writeBytes(packet);
+    buf.writeZero(ChaCha20Poly1305Cipher.TAG_SIZE);
+
+    int seq = 3;
+
+    new ChaCha20Poly1305Cipher(key).encrypt(buf, 0, len, seq);
+
+    ChaCha20Poly1305Cipher peer = new ChaCha20Poly1305Cipher(key);
+    assertEquals(len, peer.getPacketLength(buf, 0, seq));
+
+    peer.decrypt(buf, 0, len, seq);
+
+    assertEquals(len, buf.readInt());
+    byte[] actual = new byte[len];
+    buf.readBytes(actual);
+    assertArrayEquals(packet, actual);
+  }
+
+  @Test
+  public void whenPacketTampered_shouldThrowBadTag() {
+    byte[] key = new byte[ChaCha20Poly1305Cipher.KEY_SIZE];
+    new Random(20191108).nextBytes(key);
+
+    int len = 32;
+    ByteBuf buf = Unpooled.buffer();
+    buf.writeInt(len);
+    buf.writeZero(len + ChaCha20Poly1305Cipher.TAG_SIZE);
+
+    new ChaCha20Poly1305Cipher(key).encrypt(buf, 0, len, 0);
+
+    buf.setByte(10, buf.getByte(10) ^ 1);
+
+    assertThrows(AEADBadTagException.class,
+        () -> new ChaCha20Poly1305Cipher(key).decrypt(buf, 0, len, 0));
+  }
+}
@@ -0,0 +1,52 @@
+package io.github.grantchan.sshengine.common.transport.cipher;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ChaCha20RandomTest {
+
+  @Test
+  public void whenFilledInPieces_shouldCoverWholeRangeAcrossRefills() {
+    ChaCha20Random rand = new ChaCha20Random();
+
+    // odd sizes, so the pieces straddle the boundaries of the internal buffer
+    byte[] bytes = new byte[10000];
+    for (int off = 0; off < bytes.length; off += 37) {
+      rand.nextBytes(bytes, off, Math.min(37, bytes.length - off));
+    }
+
+    // any run of 32 zero bytes would mean a range was left unfilled
+    for (int i = 0; i + 32 <= bytes.length; i += 32) {
+      assertFalse("Unfilled at " + i,
+          Arrays.equals(new byte[32], Arrays.copyOfRange(bytes, i, i + 32)));
+    }
+  }
+
+  @Test
+  public void whenSeededSeparately_shouldProduceDifferentBytes() {
+    byte[] a = new byte[64];
+    byte[] b = new byte[64];
+    new ChaCha20Random().nextBytes(a);
+    new ChaCha20Random().nextBytes(b);
+
+    assertFalse(Arrays.equals(a, b));
+  }
+
+  @Test
+  public void whenCalledFromDifferentThreads_shouldUseOwnInstance() throws Exception {
+    ChaCha20Random mine = ChaCha20Random.current();
+    assertSame(mine, ChaCha20Random.current());
+
+    ChaCha20Random[] theirs = new ChaCha20Random[1];
+    Thread t = new Thread(() -> theirs[0] = ChaCha20Random.current());
+    t.start();
+    t.join();
+
+    assertNotSame(mine, theirs[0]);
+  }
+}
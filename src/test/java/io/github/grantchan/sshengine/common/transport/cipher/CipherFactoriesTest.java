@@ -0,0 +1,50 @@
+package io.github.grantchan.sshengine.common.transport.cipher;
+
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+
+public class CipherFactoriesTest {
+
+  /**
+   * Test when a counter mode cipher is positioned at a block, it should produce the same output as
+   * the one which has processed the blocks before, the counter carried over its bytes.
+   */
+  @Test
+  public void whenCounterModeSeeked_shouldContinueTheStream() throws Exception {
+    CipherFactories cf = CipherFactories.aes256ctr;
+
+    byte[] key = new byte[cf.getBlkSize()];
+    Arrays.fill(key, (byte) 7);
+    byte[] iv = new byte[cf.getIvSize()];
+    Arrays.fill(iv, 8, iv.length, (byte) 0xff);
+    iv[iv.length - 1] = (byte) 0xfe;
+
+    byte[] data = new byte[cf.getIvSize() * 5];
+    Cipher whole = cf.create(key, iv, Cipher.ENCRYPT_MODE);
+    byte[] expected = whole.update(data);
+
+    Cipher seeked = cf.create(key, iv, Cipher.ENCRYPT_MODE);
+    cf.seek(seeked, key, iv, Cipher.ENCRYPT_MODE, 3);
+    byte[] actual = seeked.update(data, 0, cf.getIvSize() * 2);
+
+    assertArrayEquals(Arrays.copyOfRange(expected, cf.getIvSize() * 3, data.length), actual);
+  }
+
+  @Test
+  public void whenChainedModeSeeked_shouldThrowException() throws Exception {
+    CipherFactories cf = CipherFactories.aes256cbc;
+    assertFalse(cf.isSeekable());
+
+    byte[] key = new byte[cf.getBlkSize()];
+    byte[] iv = new byte[cf.getIvSize()];
+    Cipher c = cf.create(key, iv, Cipher.ENCRYPT_MODE);
+
+    assertThrows(Exception.class, () -> cf.seek(c, key, iv, Cipher.ENCRYPT_MODE, 1));
+  }
+}
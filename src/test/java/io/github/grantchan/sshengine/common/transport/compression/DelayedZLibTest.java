@@ -0,0 +1,157 @@
+package io.github.grantchan.sshengine.common.transport.compression;
+
+import io.github.grantchan.sshengine.arch.SshMessage;
+import io.github.grantchan.sshengine.common.SshException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class DelayedZLibTest {
+
+  private static final int MAX_LEN = 256 * 1024;
+
+  @Test
+  public void whenPacketsCompressedInSequence_shouldKeepDictionary() throws Exception {
+    DelayedZLib sender = new DelayedZLib();
+    DelayedZLib receiver = new DelayedZLib();
+
+    String text = "the quick brown fox jumps over the lazy dog, again and again, 0123456789";
+
+    int[] sizes = new int[2];
+    for (int i = 0; i < sizes.length; i++) {
+      ByteBuf zipped = Unpooled.buffer();
+      sender.compress(Unpooled.copiedBuffer(text, StandardCharsets.US_ASCII), zipped);
+      sizes[i] = zipped.readableBytes();
+
+      // each packet is decompressed on its own, as soon as it's received
+      ByteBuf unzipped = Unpooled.buffer();
+      receiver.decompress(zipped, unzipped, MAX_LEN);
+      assertEquals(text, unzipped.toString(StandardCharsets.US_ASCII));
+    }
+
+    // the second one refers back to the first one
+    assertTrue(sizes[1] * 4 < sizes[0]);
+  }
+
+  @Test
+  public void whenBuffersHaveNoBackingArray_shouldRoundTrip() throws Exception {
+    DelayedZLib sender = new DelayedZLib();
+    DelayedZLib receiver = new DelayedZLib();
+
+    byte[] data = new byte[100_000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 251);
+    }
+
+    ByteBuf src = Unpooled.directBuffer().writeBytes(data);
+    ByteBuf zipped = Unpooled.directBuffer();
+    sender.compress(src, zipped);
+    assertEquals(0, src.readableBytes());
+
+    ByteBuf unzipped = Unpooled.directBuffer();
+    receiver.decompress(zipped, unzipped, MAX_LEN);
+    assertEquals(Unpooled.wrappedBuffer(data), unzipped);
+  }
+
+  @Test
+  public void whenDecompressedBeyondLimit_shouldThrowCompressionError() {
+    DelayedZLib sender = new DelayedZLib();
+    DelayedZLib receiver = new DelayedZLib();
+
+    // a megabyte of zeros is deflated to about a kilobyte
+    ByteBuf zipped = Unpooled.buffer();
+    sender.compress(Unpooled.wrappedBuffer(new byte[4 * MAX_LEN]), zipped);
+    assertTrue(zipped.readableBytes() < 8 * 1024);
+
+    ByteBuf unzipped = Unpooled.buffer();
+    SshException e = assertThrows(SshException.class,
+        () -> receiver.decompress(zipped, unzipped, MAX_LEN));
+    assertThat(e, hasProperty("reason", is(SshMessage.SSH_DISCONNECT_COMPRESSION_ERROR)));
+    assertTrue(unzipped.readableBytes() <= MAX_LEN + 1);
+  }
+
+  @Test
+  public void whenDataIncompressible_shouldStoreThenTryAgain() throws Exception {
+    DelayedZLib sender = new DelayedZLib(new CompressionBudget(1, 1));
+    DelayedZLib receiver = new DelayedZLib();
+
+    byte[] random = new byte[DelayedZLib.SAMPLE_SIZE];
+    new Random(0).nextBytes(random);
+
+    roundTrip(sender, receiver, random);
+    assertEquals(Deflater.NO_COMPRESSION, sender.getLevel());
+
+    // text again, it's noticed once stored blocks have been tried for a while
+    byte[] text = text(DelayedZLib.SAMPLE_SIZE);
+    for (int i = 0; i < 16 && sender.getLevel() == Deflater.NO_COMPRESSION; i++) {
+      roundTrip(sender, receiver, text);
+    }
+    assertEquals(Deflater.BEST_SPEED, sender.getLevel());
+
+    roundTrip(sender, receiver, text);
+    assertEquals(Deflater.BEST_SPEED + 1, sender.getLevel());
+  }
+
+  @Test
+  public void whenDataCompressesWell_shouldRaiseLevel() throws Exception {
+    DelayedZLib sender = new DelayedZLib(new CompressionBudget(1, 1));
+    DelayedZLib receiver = new DelayedZLib();
+
+    byte[] text = text(DelayedZLib.SAMPLE_SIZE);
+    for (int i = 0; i < 4; i++) {
+      roundTrip(sender, receiver, text);
+    }
+
+    assertEquals(Deflater.BEST_COMPRESSION, sender.getLevel());
+    assertTrue(sender.getRatio() < 0.5);
+  }
+
+  @Test
+  public void whenBudgetExceeded_shouldBackOffToFastest() throws Exception {
+    DelayedZLib sender = new DelayedZLib(new CompressionBudget(1, 0));
+    DelayedZLib receiver = new DelayedZLib();
+
+    roundTrip(sender, receiver, text(DelayedZLib.SAMPLE_SIZE));
+
+    assertEquals(Deflater.BEST_SPEED, sender.getLevel());
+  }
+
+  /*
+   * Sends the data in packets of 16KB, and checks they're received as they're sent.
+   */
+  private static void roundTrip(DelayedZLib sender, DelayedZLib receiver, byte[] data)
+      throws Exception {
+    for (int off = 0; off < data.length; off += 16 * 1024) {
+      ByteBuf src = Unpooled.wrappedBuffer(data, off, Math.min(16 * 1024, data.length - off));
+      ByteBuf expected = src.duplicate();
+
+      ByteBuf zipped = Unpooled.buffer();
+      sender.compress(src, zipped);
+
+      ByteBuf unzipped = Unpooled.buffer();
+      receiver.decompress(zipped, unzipped, MAX_LEN);
+      assertEquals(expected, unzipped);
+    }
+  }
+
+  private static byte[] text(int len) {
+    StringBuilder sb = new StringBuilder(len);
+    Random rnd = new Random(0);
+    while (sb.length() < len) {
+      sb.append("INFO [worker-").append(rnd.nextInt(8)).append("] request ")
+        .append(rnd.nextInt(100000)).append(" served in ").append(rnd.nextInt(500)).append("ms\n");
+    }
+    return sb.substring(0, len).getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -3,15 +3,18 @@ package io.github.grantchan.sshengine.common.transport.handler;
 import io.github.grantchan.sshengine.arch.SshConstant;
 import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.client.ClientSession;
+import io.github.grantchan.sshengine.common.CryptoExecutor;
 import io.github.grantchan.sshengine.common.SshException;
 import io.github.grantchan.sshengine.common.transport.cipher.CipherFactories;
 import io.github.grantchan.sshengine.common.transport.compression.Compression;
 import io.github.grantchan.sshengine.common.transport.compression.CompressionFactories;
+import io.github.grantchan.sshengine.common.transport.kex.CryptoContext;
 import io.github.grantchan.sshengine.common.transport.mac.MacFactories;
 import io.github.grantchan.sshengine.server.ServerSession;
 import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.EventLoop;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.logging.LoggingHandler;
 import org.junit.After;
@@ -25,23 +28,44 @@ import org.junit.runners.Parameterized.Parameter;
 import org.junit.runners.Parameterized.Parameters;
 
 import javax.crypto.Cipher;
-import javax.crypto.Mac;
 import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
+import static io.github.grantchan.sshengine.common.transport.cipher.CipherFactories.aes128gcm;
 import static io.github.grantchan.sshengine.common.transport.cipher.CipherFactories.aes256cbc;
 import static io.github.grantchan.sshengine.common.transport.cipher.CipherFactories.aes256ctr;
+import static io.github.grantchan.sshengine.common.transport.cipher.CipherFactories.aes256gcm;
+import static io.github.grantchan.sshengine.common.transport.cipher.CipherFactories.chacha20poly1305;
 import static io.github.grantchan.sshengine.common.transport.compression.CompressionFactories.delayedZLib;
 import static io.github.grantchan.sshengine.common.transport.mac.MacFactories.hmacsha1;
+import static io.github.grantchan.sshengine.common.transport.mac.MacFactories.hmacsha256etm;
+import static io.github.grantchan.sshengine.common.transport.mac.MacFactories.hmacsha512etm;
+import static io.github.grantchan.sshengine.common.transport.mac.MacFactories.umac128;
+import static io.github.grantchan.sshengine.common.transport.mac.MacFactories.umac128etm;
+import static io.github.grantchan.sshengine.common.transport.mac.MacFactories.umac64;
+import static io.github.grantchan.sshengine.common.transport.mac.MacFactories.umac64etm;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 @RunWith(Parameterized.class)
 public class PacketCodecTest {
   private EmbeddedChannel clientChannel, serverChannel;
+  private ClientSession clientSession;
 
   private final Random rand = new SecureRandom();
 
@@ -67,7 +91,20 @@ public class PacketCodecTest {
         {aes256ctr, null,     delayedZLib},
         {null,      hmacsha1, delayedZLib},
         {aes256cbc, hmacsha1, delayedZLib},
-        {aes256ctr, hmacsha1, delayedZLib}
+        {aes256ctr, hmacsha1, delayedZLib},
+        {aes128gcm, null,     null},
+        {aes256gcm, null,     null},
+        {aes256gcm, null,     delayedZLib},
+        {chacha20poly1305, null, null},
+        {chacha20poly1305, null, delayedZLib},
+        {null,      hmacsha256etm, null},
+        {aes256cbc, hmacsha256etm, null},
+        {aes256ctr, hmacsha512etm, null},
+        {aes256ctr, hmacsha512etm, delayedZLib},
+        {null,      umac64,   null},
+        {aes256ctr, umac128,  null},
+        {aes256cbc, umac64etm, null},
+        {aes256ctr, umac128etm, delayedZLib}
     });
   }
 
@@ -82,7 +119,7 @@ public class PacketCodecTest {
   public void setUp() throws SshException {
     // Client as sender to send encoded message
     clientChannel = new EmbeddedChannel(new LoggingHandler());
-    ClientSession clientSession = new ClientSession(clientChannel);
+    clientSession = new ClientSession(clientChannel);
     clientChannel.pipeline().addLast(new PacketEncoder(clientSession));
 
     // Server as receiver to decode message
@@ -90,53 +127,34 @@ public class PacketCodecTest {
     ServerSession serverSession = new ServerSession(serverChannel);
     serverChannel.pipeline().addFirst(new PacketDecoder(serverSession));
 
+    byte[] secretKey = null;
+    byte[] iv = null;
     if (cipFactories != null) {
       // Set up cipher factory
-      byte[] secretKey = new byte[cipFactories.getBlkSize()];
+      secretKey = new byte[cipFactories.getBlkSize()];
       rand.nextBytes(secretKey);
 
-      byte[] iv = new byte[cipFactories.getBlkSize()];
+      iv = new byte[cipFactories.getBlkSize()];
       rand.nextBytes(iv);
-
-      // Set up cipher setting in client session
-      Cipher clientC2sCip = cipFactories.create(secretKey, iv, Cipher.ENCRYPT_MODE);
-      clientSession.setOutCipher(clientC2sCip);
-      clientSession.setOutCipherBlkSize(cipFactories.getIvSize());
-
-      // Set up cipher setting in server session
-      Cipher serverC2sCip = cipFactories.create(secretKey, iv, Cipher.DECRYPT_MODE);
-      serverSession.setInCipher(serverC2sCip);
-      serverSession.setInCipherBlkSize(cipFactories.getIvSize());
     }
 
-    byte[] macKey;
+    byte[] macKey = null;
     if (macFactories != null) {
       // Set up MAC factory
-      macKey = new byte[macFactories.getBlkSize()];
+      macKey = new byte[macFactories.getDefBlkSize()];
       rand.nextBytes(macKey);
-
-      // Set up MAC setting in client session
-      Mac clientC2sMac = macFactories.create(macKey);
-      clientSession.setOutMac(clientC2sMac);
-      clientSession.setOutMacSize(macFactories.getBlkSize());
-      clientSession.setOutDefMacSize(macFactories.getDefBlkSize());
-
-      // Setup MAC setting in server session
-      Mac serverC2sMac = macFactories.create(macKey);
-      serverSession.setInMac(serverC2sMac);
-      serverSession.setInMacSize(macFactories.getBlkSize());
-      serverSession.setInDefMacSize(macFactories.getDefBlkSize());
     }
 
     if (compFactories != null) {
-      Compression clientComp = compFactories.create();
-      clientSession.setOutCompression(clientComp);
       clientSession.setAuthed(true);
-
-      Compression serverComp = compFactories.create();
-      serverSession.setInCompression(serverComp);
       serverSession.setAuthed(true);
     }
+
+    // Set up the cipher, MAC and compression of the client to server direction, in both sessions
+    clientSession.setOutCrypto(new CryptoContext(cipFactories, secretKey, iv, Cipher.ENCRYPT_MODE,
+        macFactories, macKey, compFactories));
+    serverSession.setInCrypto(new CryptoContext(cipFactories, secretKey, iv, Cipher.DECRYPT_MODE,
+        macFactories, macKey, compFactories));
   }
 
   @After
@@ -179,4 +197,283 @@ public class PacketCodecTest {
     assertEquals(SshMessage.SSH_MSG_DEBUG, decodedMsg.readByte() & 0xFF);
     assertEquals(expectedString, ByteBufIo.readUtf8(decodedMsg));
   }
+
+  /**
+   * Test when the packet is tampered on the way, receiver should reject it with a MAC error, as
+   * long as either a MAC or an authenticated encryption cipher is in use.
+   */
+  @Test
+  public void whenPacketTampered_shouldThrowMacError() {
+    assumeTrue(macFactories != null || (cipFactories != null && cipFactories.isAead()));
+
+    ByteBuf msg = Unpooled.buffer();
+    msg.writerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+    msg.readerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+    msg.writeByte(SshMessage.SSH_MSG_DEBUG);
+    ByteBufIo.writeUtf8(msg, "a quick movement of the enemy will jeopardize six gunboats");
+
+    assertTrue(clientChannel.writeOutbound(msg));
+
+    ByteBuf encodedMsg = clientChannel.readOutbound();
+
+    // flip a bit of the MAC, or the authentication tag, at the end of the packet
+    int last = encodedMsg.writerIndex() - 1;
+    encodedMsg.setByte(last, encodedMsg.getByte(last) ^ 1);
+
+    SshException e = assertThrows(SshException.class, () -> serverChannel.writeInbound(encodedMsg));
+    assertThat(e, hasProperty("reason", is(SshMessage.SSH_DISCONNECT_MAC_ERROR)));
+  }
+
+  /**
+   * Test when the message is bigger than the scratch buffers used to encrypt, decrypt and compute
+   * the MAC, receiver should still be able to handle the message, which is processed piece by
+   * piece.
+   */
+  @Test
+  public void whenLargeMessageSent_shouldBeHandledByRecipient() {
+    byte[] expectedBytes = new byte[20000];
+    rand.nextBytes(expectedBytes);
+
+    ByteBuf msg = Unpooled.buffer();
+    msg.writerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+    msg.readerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+    msg.writeByte(SshMessage.SSH_MSG_IGNORE);
+    ByteBufIo.writeBytes(msg, expectedBytes);
+
+    assertTrue(clientChannel.writeOutbound(msg));
+    assertEquals(1, clientChannel.outboundMessages().size());
+
+    ByteBuf encodedMsg = clientChannel.readOutbound();
+
+    assertTrue(serverChannel.writeInbound(encodedMsg));
+    assertEquals(1, serverChannel.inboundMessages().size());
+
+    ByteBuf decodedMsg = serverChannel.readInbound();
+
+    assertEquals(SshMessage.SSH_MSG_IGNORE, decodedMsg.readByte() & 0xFF);
+    assertArrayEquals(expectedBytes, ByteBufIo.readBytes(decodedMsg));
+
+    decodedMsg.release();
+  }
+
+  /**
+   * Test when several packets arrive in one single read, receiver should be able to decode all of
+   * them, one by one, in the order they were sent.
+   */
+  @Test
+  public void whenMultipleMessagesReceivedInOneRead_shouldBeHandledInOrder() {
+    int count = 5;
+
+    ByteBuf stream = Unpooled.buffer();
+    for (int i = 0; i < count; i++) {
+      ByteBuf msg = Unpooled.buffer();
+      msg.writerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+      msg.readerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+      msg.writeByte(SshMessage.SSH_MSG_DEBUG);
+      ByteBufIo.writeUtf8(msg, "message #" + i);
+
+      assertTrue(clientChannel.writeOutbound(msg));
+
+      ByteBuf encodedMsg = clientChannel.readOutbound();
+      stream.writeBytes(encodedMsg);
+      encodedMsg.release();
+    }
+
+    assertTrue(serverChannel.writeInbound(stream));
+    assertEquals(count, serverChannel.inboundMessages().size());
+
+    for (int i = 0; i < count; i++) {
+      ByteBuf decodedMsg = serverChannel.readInbound();
+
+      assertEquals(SshMessage.SSH_MSG_DEBUG, decodedMsg.readByte() & 0xFF);
+      assertEquals("message #" + i, ByteBufIo.readUtf8(decodedMsg));
+
+      decodedMsg.release();
+    }
+  }
+
+  /**
+   * Test when the packets are split across reads, receiver should decode each of them once it's
+   * fully received, and release every buffer read.
+   */
+  @Test
+  public void whenMessagesSplitAcrossReads_shouldBeDecodedAndReleased() {
+    int[] sizes = {10, 20000, 1, 300};
+
+    ByteBuf stream = Unpooled.buffer();
+    for (int size : sizes) {
+      ByteBuf msg = Unpooled.buffer();
+      msg.writerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+      msg.readerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+      msg.writeByte(SshMessage.SSH_MSG_IGNORE);
+      ByteBufIo.writeBytes(msg, new byte[size]);
+
+      assertTrue(clientChannel.writeOutbound(msg));
+
+      ByteBuf encodedMsg = clientChannel.readOutbound();
+      stream.writeBytes(encodedMsg);
+      encodedMsg.release();
+    }
+
+    List<ByteBuf> reads = new ArrayList<>();
+    while (stream.isReadable()) {
+      ByteBuf read = stream.readBytes(Math.min(333, stream.readableBytes()));
+      reads.add(read);
+      serverChannel.writeInbound(read);
+    }
+    assertEquals(sizes.length, serverChannel.inboundMessages().size());
+
+    for (int size : sizes) {
+      ByteBuf decodedMsg = serverChannel.readInbound();
+
+      assertEquals(SshMessage.SSH_MSG_IGNORE, decodedMsg.readByte() & 0xFF);
+      assertEquals(size, ByteBufIo.readBytes(decodedMsg).length);
+
+      decodedMsg.release();
+    }
+
+    for (ByteBuf read : reads) {
+      assertEquals(0, read.refCnt());
+    }
+  }
+
+  /**
+   * Test when a message other than the key exchange ones is written during a key exchange, sender
+   * should hold it, rather than send it, until its SSH_MSG_NEWKEYS is sent.
+   */
+  @Test
+  public void whenMessageWrittenDuringKeyExchange_shouldBeSentAfterNewKeys() {
+    clientChannel.writeOutbound(message(SshMessage.SSH_MSG_KEXINIT));
+    clientChannel.writeOutbound(message(SshMessage.SSH_MSG_CHANNEL_DATA));
+    clientChannel.writeOutbound(message(SshMessage.SSH_MSG_IGNORE));
+    assertEquals(2, clientChannel.outboundMessages().size());
+
+    clientChannel.writeOutbound(message(SshMessage.SSH_MSG_NEWKEYS));
+    assertEquals(4, clientChannel.outboundMessages().size());
+
+    for (int expected : new int[] {SshMessage.SSH_MSG_KEXINIT, SshMessage.SSH_MSG_IGNORE,
+                                   SshMessage.SSH_MSG_NEWKEYS, SshMessage.SSH_MSG_CHANNEL_DATA}) {
+      assertTrue(serverChannel.writeInbound((ByteBuf) clientChannel.readOutbound()));
+
+      ByteBuf decodedMsg = serverChannel.readInbound();
+      assertEquals(expected, decodedMsg.readByte() & 0xFF);
+      decodedMsg.release();
+    }
+  }
+
+  /**
+   * Test when the messages held during a key exchange pile up, sender should count them towards
+   * the outbound buffer, so the channel turns unwritable until they're sent.
+   */
+  @Test
+  public void whenMessagesHeldDuringKeyExchangePileUp_shouldMakeChannelUnwritable() {
+    clientChannel.writeOutbound(message(SshMessage.SSH_MSG_KEXINIT));
+
+    int highWaterMark = clientChannel.config().getWriteBufferHighWaterMark();
+    for (int i = 0; i < 5; i++) {
+      ByteBuf msg = message(SshMessage.SSH_MSG_CHANNEL_DATA);
+      msg.writeZero(highWaterMark / 4);
+      clientChannel.write(msg);
+    }
+    assertFalse(clientChannel.isWritable());
+    assertEquals(1, clientChannel.outboundMessages().size());
+
+    clientChannel.writeOutbound(message(SshMessage.SSH_MSG_NEWKEYS));
+    assertTrue(clientChannel.isWritable());
+
+    clientChannel.releaseOutbound();
+  }
+
+  /**
+   * Test when the large packets are encrypted in parallel, and done out of order, sender should
+   * send every packet in the order of their sequence numbers, and flush them once they're sent.
+   */
+  @Test
+  public void whenPacketsEncryptedInParallel_shouldBeSentInOrder() {
+    assumeTrue(cipFactories != null && cipFactories.isSeekable());
+
+    ReversingExecutor executor = new ReversingExecutor();
+    clientSession.setParallelEncryption(executor);
+
+    // random, so that the packets remain large if they're compressed
+    int[] sizes = {10, 20000, 5000, 100, 30000, 1};
+    byte[][] payloads = new byte[sizes.length][];
+    for (int i = 0; i < sizes.length; i++) {
+      payloads[i] = new byte[sizes[i]];
+      rand.nextBytes(payloads[i]);
+
+      ByteBuf msg = Unpooled.buffer();
+      msg.writerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+      msg.readerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+      msg.writeByte(SshMessage.SSH_MSG_IGNORE);
+      ByteBufIo.writeBytes(msg, payloads[i]);
+
+      clientChannel.writeOutbound(msg);
+    }
+
+    // only the packet before the first large one is sent, the others wait for it
+    assertEquals(1, clientChannel.outboundMessages().size());
+    assertEquals(3, executor.jobs.size());
+
+    executor.runAll();
+    clientChannel.runPendingTasks();
+    assertEquals(sizes.length, clientChannel.outboundMessages().size());
+
+    for (byte[] payload : payloads) {
+      assertTrue(serverChannel.writeInbound((ByteBuf) clientChannel.readOutbound()));
+
+      ByteBuf decodedMsg = serverChannel.readInbound();
+      assertEquals(SshMessage.SSH_MSG_IGNORE, decodedMsg.readByte() & 0xFF);
+      assertArrayEquals(payload, ByteBufIo.readBytes(decodedMsg));
+      decodedMsg.release();
+    }
+  }
+
+  /**
+   * Holds the jobs submitted, and runs them when asked, the last submitted first, on the caller's
+   * thread.
+   */
+  private static final class ReversingExecutor extends CryptoExecutor {
+
+    private final Deque<Runnable> jobs = new ArrayDeque<>();
+
+    private ReversingExecutor() {
+      super(1, 16);
+    }
+
+    @Override
+    public <T> boolean trySubmit(EventLoop loop, Priority priority, Callable<T> task,
+                                 Callback<? super T> onSuccess, Callback<Throwable> onFailure) {
+      jobs.push(() -> {
+        try {
+          T result = task.call();
+          loop.execute(() -> {
+            try {
+              onSuccess.accept(result);
+            } catch (Exception e) {
+              throw new IllegalStateException(e);
+            }
+          });
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      return true;
+    }
+
+    private void runAll() {
+      while (!jobs.isEmpty()) {
+        jobs.pop().run();
+      }
+    }
+  }
+
+  private static ByteBuf message(byte id) {
+    ByteBuf msg = Unpooled.buffer();
+    msg.writerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+    msg.readerIndex(SshConstant.SSH_PACKET_HEADER_LENGTH);
+    msg.writeByte(id);
+    ByteBufIo.writeUtf8(msg, SshMessage.from(id));
+    return msg;
+  }
 }
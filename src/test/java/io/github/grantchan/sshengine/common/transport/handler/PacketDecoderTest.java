@@ -3,6 +3,7 @@ package io.github.grantchan.sshengine.common.transport.handler;
 import io.github.grantchan.sshengine.arch.SshMessage;
 import io.github.grantchan.sshengine.common.AbstractSession;
 import io.github.grantchan.sshengine.common.SshException;
+import io.github.grantchan.sshengine.common.transport.kex.CryptoContext;
 import io.github.grantchan.sshengine.server.ServerSession;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -24,8 +25,7 @@ public class PacketDecoderTest {
   @Test
   public void whenPacketSizeIsTooSmall_shouldThrowProtocolError() {
     AbstractSession session = Mockito.mock(ServerSession.class);
-    Mockito.when(session.getInCipherBlkSize()).thenReturn(8);
-    Mockito.when(session.createBuffer()).thenReturn(Unpooled.buffer());
+    Mockito.when(session.getInCrypto()).thenReturn(CryptoContext.NONE);
 
     ChannelHandlerContext ctx = Mockito.mock(ChannelHandlerContext.class);
 
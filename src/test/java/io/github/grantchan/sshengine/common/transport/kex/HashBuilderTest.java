@@ -0,0 +1,54 @@
+package io.github.grantchan.sshengine.common.transport.kex;
+
+import io.github.grantchan.sshengine.util.buffer.Bytes;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class HashBuilderTest {
+
+  @Test
+  public void whenFieldsFed_shouldHashTheirWireEncoding() throws Exception {
+    MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+    byte[] blob = {1, 2, 3};
+    BigInteger k = new BigInteger(new byte[] {(byte) 0x80, 0, 1});  // negative, as a shared secret may be
+
+    byte[] h = new HashBuilder(md)
+        .putString("SSH-2.0-test")
+        .putString(blob)
+        .putUInt32(2048)
+        .putMpInt(k)
+        .putRaw(blob)
+        .digest();
+
+    byte[] expected = md.digest(Bytes.concat(
+        Bytes.addLen("SSH-2.0-test"),
+        Bytes.addLen(blob),
+        Bytes.fromInt(2048),
+        Bytes.addLen(k),
+        blob
+    ));
+
+    assertArrayEquals(expected, h);
+  }
+
+  @Test
+  public void whenForked_shouldHashFromThePrefix() throws Exception {
+    MessageDigest md = MessageDigest.getInstance("SHA-256");
+    HashBuilder kh = new HashBuilder(md).putMpInt(BigInteger.TEN).putRaw(new byte[] {7});
+
+    MessageDigest a = kh.fork();
+    a.update((byte) 'A');
+    MessageDigest c = kh.fork();
+    c.update((byte) 'C');
+
+    MessageDigest ref = MessageDigest.getInstance("SHA-256");
+    byte[] prefix = Bytes.concat(Bytes.addLen(BigInteger.TEN), new byte[] {7});
+    assertArrayEquals(ref.digest(Bytes.concat(prefix, new byte[] {'A'})), a.digest());
+    assertArrayEquals(ref.digest(Bytes.concat(prefix, new byte[] {'C'})), c.digest());
+  }
+}
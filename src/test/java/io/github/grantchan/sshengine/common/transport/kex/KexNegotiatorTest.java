@@ -0,0 +1,105 @@
+package io.github.grantchan.sshengine.common.transport.kex;
+
+import io.github.grantchan.sshengine.arch.SshConstant;
+import io.github.grantchan.sshengine.util.buffer.ByteBufIo;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class KexNegotiatorTest {
+
+  private static final String ETM = "hmac-sha2-256-etm@openssh.com";
+
+  @Test
+  public void whenServer_shouldPickFirstOfClientsSupportedByServer() {
+    KexNegotiator kn = KexNegotiator.getServerDefault()
+                                    .with(KexProposal.MAC_C2S, ETM + ",hmac-sha1");
+
+    assertEquals("hmac-sha1", kn.negotiate(KexProposal.MAC_C2S, nameList("a,hmac-sha1," + ETM)));
+    assertEquals(ETM, kn.negotiate(KexProposal.MAC_C2S, nameList(ETM)));
+  }
+
+  @Test
+  public void whenClient_shouldPickFirstOfOursSupportedByServer() {
+    KexNegotiator kn = KexNegotiator.getClientDefault()
+                                    .with(KexProposal.MAC_C2S, ETM + ",hmac-sha1");
+
+    assertEquals(ETM, kn.negotiate(KexProposal.MAC_C2S, nameList("hmac-sha1," + ETM)));
+  }
+
+  @Test
+  public void whenNegotiated_shouldReturnInternedName() {
+    String name = new String("hmac-sha1".toCharArray());
+    KexNegotiator kn = KexNegotiator.getServerDefault().with(KexProposal.MAC_C2S, name);
+
+    assertSame(name.intern(), kn.negotiate(KexProposal.MAC_C2S, nameList("hmac-sha1")));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void whenNamesArePrefixesOnly_shouldFail() {
+    KexNegotiator kn = KexNegotiator.getServerDefault().with(KexProposal.MAC_C2S, "hmac-sha1");
+
+    kn.negotiate(KexProposal.MAC_C2S, nameList("hmac-sha,hmac-sha1-96,"));
+  }
+
+  @Test
+  public void whenBothLanguagesAreEmpty_shouldNegotiateEmpty() {
+    ByteBuf buf = nameList("");
+
+    assertEquals("", KexNegotiator.getServerDefault().negotiate(KexProposal.LANGUAGE_C2S, buf));
+    assertFalse(buf.isReadable());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void whenOverriddenWithUnsupportedName_shouldFail() {
+    KexNegotiator.getServerDefault().with(KexProposal.ENCRYPTION_C2S, "aes128-ctr,rot13");
+  }
+
+  @Test
+  public void whenKexInitCreated_shouldOnlyDifferInCookie() {
+    KexNegotiator kn = KexNegotiator.getServerDefault();
+
+    byte[] ki1 = kn.newKexInit();
+    byte[] ki2 = kn.newKexInit();
+
+    int cookieSize = SshConstant.MSG_KEX_COOKIE_SIZE;
+    assertFalse(Arrays.equals(Arrays.copyOf(ki1, cookieSize), Arrays.copyOf(ki2, cookieSize)));
+    assertEquals(Arrays.toString(Arrays.copyOfRange(ki1, cookieSize, ki1.length)),
+                 Arrays.toString(Arrays.copyOfRange(ki2, cookieSize, ki2.length)));
+
+    ByteBuf buf = Unpooled.wrappedBuffer(ki1);
+    buf.skipBytes(cookieSize);
+    for (KexProposal p : KexProposal.ALL) {
+      assertEquals(kn.getProposals(p), ByteBufIo.readUtf8(buf));
+    }
+  }
+
+  @Test
+  public void whenServerProposalsReordered_shouldRecompileDefault() {
+    KexNegotiator before = KexNegotiator.getServerDefault();
+    try {
+      KexProposal.MAC_S2C.setServerProposals("hmac-sha1");
+
+      KexNegotiator after = KexNegotiator.getServerDefault();
+      assertEquals("hmac-sha1", after.getProposals(KexProposal.MAC_S2C));
+      assertEquals(before.getProposals(KexProposal.MAC_C2S),
+                   after.getProposals(KexProposal.MAC_C2S));
+    } finally {
+      KexProposal.MAC_S2C.setServerProposals(null);
+    }
+    assertEquals(before.getProposals(KexProposal.MAC_S2C),
+                 KexNegotiator.getServerDefault().getProposals(KexProposal.MAC_S2C));
+  }
+
+  private static ByteBuf nameList(String names) {
+    ByteBuf buf = Unpooled.buffer();
+    ByteBufIo.writeUtf8(buf, names);
+    return buf;
+  }
+}
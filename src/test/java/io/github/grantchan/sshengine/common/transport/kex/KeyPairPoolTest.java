@@ -0,0 +1,98 @@
+package io.github.grantchan.sshengine.common.transport.kex;
+
+import io.github.grantchan.sshengine.common.CryptoExecutor;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeyPairPoolTest {
+
+  @Test
+  public void whenPoolIsEmpty_shouldGenerateThenRefill() throws Exception {
+    KeyPairPool pool = new KeyPairPool(2);
+
+    pool.take(ECurve.nistp256);
+    assertEquals(1, pool.getMissCount());
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (pool.getReady(ECurve.nistp256) < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, pool.getReady(ECurve.nistp256));
+
+    pool.take(ECurve.nistp256);
+    assertEquals(1, pool.getHitCount());
+    assertTrue(pool.getRefillRate() > 0);
+  }
+
+  @Test
+  public void whenTakenRepeatedly_shouldNeverHandOutSameKeyPair() throws Exception {
+    KeyPairPool pool = new KeyPairPool(4);
+
+    Set<KeyPair> taken = new HashSet<>();
+    for (int i = 0; i < 10; i++) {
+      assertTrue(taken.add(pool.take(ECurve.nistp256)));
+    }
+    assertEquals(10, pool.getHitCount() + pool.getMissCount());
+  }
+
+  @Test
+  public void whenX25519KeyPairTaken_shouldHoldPublicKeyOfPrivateKey() throws Exception {
+    KeyPairPool pool = new KeyPairPool(2);
+
+    X25519.KeyPair a = pool.takeX25519();
+    X25519.KeyPair b = pool.takeX25519();
+
+    assertArrayEquals(X25519.publicKey(a.prvKey), a.pubKey);
+    assertFalse(Arrays.equals(a.prvKey, b.prvKey));
+    assertEquals(2, pool.getHitCount() + pool.getMissCount());
+  }
+
+  @Test
+  public void whenKeyExchangesQueued_shouldRefillAfterThem() throws Exception {
+    EventLoop loop = new DefaultEventLoop();
+    CryptoExecutor executor = new CryptoExecutor(1, 10);
+    KeyPairPool pool = new KeyPairPool(2, executor);
+
+    CountDownLatch busy = new CountDownLatch(1);
+    CountDownLatch kexDone = new CountDownLatch(1);
+    AtomicLong refilledBeforeKex = new AtomicLong(-1);
+    try {
+      executor.submit(loop, CryptoExecutor.Priority.KEX, () -> busy.await(5, TimeUnit.SECONDS),
+          r -> {}, t -> {});
+
+      // the refill is queued before the key exchange, but runs after it
+      pool.take(ECurve.nistp256);
+      executor.submit(loop, CryptoExecutor.Priority.KEX, pool::getRefillCount, r -> {
+        refilledBeforeKex.set(r);
+        kexDone.countDown();
+      }, t -> {});
+    } finally {
+      busy.countDown();
+    }
+
+    assertTrue(kexDone.await(5, TimeUnit.SECONDS));
+    assertEquals(0, refilledBeforeKex.get());
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (pool.getReady(ECurve.nistp256) < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, pool.getReady(ECurve.nistp256));
+
+    loop.shutdownGracefully();
+  }
+}
@@ -0,0 +1,55 @@
+package io.github.grantchan.sshengine.common.transport.kex;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class X25519Test {
+
+  /* RFC 7748, section 5.2 */
+  @Test
+  public void whenGivenTestVector_shouldMatchExpectedOutput() {
+    byte[] k = hex("a546e36bf0527c9d3b16154b82465edd62144c0ac1fc5a18506a2244ba449ac4");
+    byte[] u = hex("e6db6867583030db3594c1a424b15f7c726624ec26b3353b10a903a6d0ab1c4c");
+
+    assertArrayEquals(hex("c3da55379de9c6908e94ea4df28d084f32eccf03491c71f754b4075577a28552"),
+        X25519.scalarMult(k, u));
+  }
+
+  /* RFC 7748, section 6.1 */
+  @Test
+  public void whenBothSidesAgree_shouldComputeSameSharedSecret() {
+    byte[] alicePrv = hex("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+    byte[] bobPrv = hex("5dab087e624a8a4b79e17f8b83800ee66f3bb1292618b6fd1c2f8b27ff88e0eb");
+
+    byte[] alicePub = X25519.publicKey(alicePrv);
+    byte[] bobPub = X25519.publicKey(bobPrv);
+    assertArrayEquals(hex("8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a"),
+        alicePub);
+    assertArrayEquals(hex("de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f"),
+        bobPub);
+
+    assertArrayEquals(X25519.scalarMult(alicePrv, bobPub), X25519.scalarMult(bobPrv, alicePub));
+  }
+
+  @Test
+  public void whenExchangedThroughKex_shouldAgreeOnSecretKey() throws Exception {
+    Curve25519 client = new Curve25519();
+    Curve25519 server = new Curve25519();
+
+    client.receivedPubKey(server.getEncodedPubKey());
+    server.receivedPubKey(client.getEncodedPubKey());
+
+    assertEquals(client.getSecretKey(), server.getSecretKey());
+    assertEquals(1, client.getSecretKey().signum());
+  }
+
+  private static byte[] hex(String s) {
+    byte[] b = new BigInteger("01" + s, 16).toByteArray();
+    return Arrays.copyOfRange(b, 1, b.length);
+  }
+}
@@ -0,0 +1,132 @@
+package io.github.grantchan.sshengine.common.transport.mac;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class UmacTest {
+
+  private final Random rand = new Random(20191115);
+
+  /**
+   * The test vectors of RFC 4418, with key "abcdefghijklmnop" and nonce "bcdefghi", the 64-bit tags
+   * and the 96-bit tags, which are the first 96 bits of the 128-bit ones.
+   */
+  private static final Object[][] VECTORS = {
+      {"",    0,       "6E155FAD26900BE1", "32FEDB100C79AD58F07FF764"},
+      {"a",   3,       "44B5CB542F220104", "185E4FE905CBA7BD85E4C2DC"},
+      {"a",   1 << 10, "26BF2F5D60118BD9", "7A54ABE04AF82D60FB298C3C"},
+      {"a",   1 << 15, "27F8EF643B0D118D", "7B136BD911E4B734286EF2BE"},
+      {"abc", 500,     "D4CF26DDEFD5C01A", "8824A260C53C66A36C9260A6"}
+  };
+
+  /**
+   * Test the tags against the known answers of RFC 4418. The nonce is wider than the sequence
+   * number of SSH, its high 32 bits are set aside, the low ones are the first 4 bytes fed. The RFC
+   * has no UMAC-128 tags, the first 96 bits of them are checked against the UMAC-96 ones.
+   *
+   * @see <a href="https://tools.ietf.org/html/rfc4418#appendix-A">Test Vectors</a>
+   */
+  @Test
+  public void whenRfcVectorsHashed_shouldProduceKnownTags() throws Exception {
+    SecretKeySpec key = new SecretKeySpec(bytes("abcdefghijklmnop"), "AES");
+
+    for (Object[] v : VECTORS) {
+      byte[] msg = bytes(String.join("", Collections.nCopies((Integer) v[1], (String) v[0])));
+
+      for (int i = 0; i < 2; i++) {
+        int tagLen = (i == 0) ? 8 : 16;
+
+        Umac umac = new Umac(tagLen);
+        umac.setNonceHigh(0x62636465);  // "bcde"
+
+        Mac mac = new Mac(umac, null, "UMAC") {};
+        mac.init(key);
+        mac.update(bytes("fghi"));
+
+        String expected = (String) v[2 + i];
+        assertEquals("'" + v[0] + "' * " + v[1] + ", UMAC-" + tagLen * Byte.SIZE,
+            expected, hex(mac.doFinal(msg)).substring(0, expected.length()));
+      }
+    }
+  }
+
+  @Test
+  public void whenFedInPieces_shouldProduceSameTag() {
+    byte[] key = new byte[Umac.KEY_SIZE];
+    rand.nextBytes(key);
+
+    // within the first chunk, on the chunk boundary, and across several chunks
+    for (int len : new int[] {1, 31, 32, 33, 1024, 1025, 2048, 5000}) {
+      byte[] msg = new byte[Integer.BYTES + len];
+      rand.nextBytes(msg);
+
+      for (MacFactories mf : Arrays.asList(MacFactories.umac64, MacFactories.umac128)) {
+        Mac mac = mf.create(key);
+        byte[] expected = mac.doFinal(msg);
+
+        for (byte b : msg) {
+          mac.update(b);
+        }
+        assertArrayEquals(mf + ", " + len + " bytes", expected, mac.doFinal());
+
+        for (int off = 0; off < msg.length; off += 100) {
+          mac.update(msg, off, Math.min(100, msg.length - off));
+        }
+        assertArrayEquals(mf + ", " + len + " bytes", expected, mac.doFinal());
+      }
+    }
+  }
+
+  @Test
+  public void whenSequenceNumberChanged_shouldProduceDifferentTag() {
+    byte[] key = new byte[Umac.KEY_SIZE];
+    rand.nextBytes(key);
+
+    byte[] packet = new byte[64];
+    rand.nextBytes(packet);
+
+    // UMAC-64 takes the pads of two consecutive sequence numbers from one AES block
+    Mac mac = MacFactories.umac64.create(key);
+    byte[][] tags = new byte[4][];
+    for (int seq = 0; seq < tags.length; seq++) {
+      mac.update(new byte[] {0, 0, 0, (byte) seq});
+      tags[seq] = mac.doFinal(packet);
+      assertEquals(8, tags[seq].length);
+    }
+
+    for (int i = 0; i < tags.length; i++) {
+      for (int j = i + 1; j < tags.length; j++) {
+        assertFalse(Arrays.equals(tags[i], tags[j]));
+      }
+    }
+
+    // and the pad is recomputed when the sequence number goes back
+    mac.update(new byte[] {0, 0, 0, 1});
+    assertArrayEquals(tags[1], mac.doFinal(packet));
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static String hex(byte[] b) {
+    StringBuilder sb = new StringBuilder();
+    for (byte x : b) {
+      sb.append(String.format("%02X", x));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,63 @@
+package io.github.grantchan.sshengine.common.transport.signature;
+
+import io.github.grantchan.sshengine.common.transport.kex.ECurve;
+import io.github.grantchan.sshengine.util.buffer.Bytes;
+import io.github.grantchan.sshengine.util.publickey.PublicKeyUtil;
+import io.github.grantchan.sshengine.util.publickey.decoder.PublicKeyDecoder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class ECDSASignatureTest {
+
+  @Parameter
+  public ECurve curve;
+
+  @Parameters(name = "{index}: curve={0}")
+  public static Collection<Object> parameters() {
+    return Arrays.asList((Object[]) ECurve.values());
+  }
+
+  @Test
+  public void whenSignedWithPrivateKey_shouldBeVerifiedWithDecodedPublicKey() throws Exception {
+    KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+    kpg.initialize(curve.value());
+    KeyPair kp = kpg.generateKeyPair();
+
+    String type = "ecdsa-sha2-" + curve.name();
+    assertEquals(type, PublicKeyUtil.typeOf(kp.getPublic()));
+
+    // the public key goes through the wire format, as it does in the key exchange
+    PublicKey pubKey = PublicKeyDecoder.ALL.decode(PublicKeyUtil.bytesOf(kp.getPublic()));
+    assertTrue(PublicKeyUtil.compare(kp.getPublic(), pubKey));
+
+    byte[] data = "exchange hash".getBytes(StandardCharsets.UTF_8);
+
+    Signature signer = SignatureFactories.create(type, kp.getPrivate());
+    signer.update(data);
+    byte[] sig = Bytes.concat(Bytes.addLen(type), Bytes.addLen(signer.sign()));
+
+    Signature verifier = SignatureFactories.create(type, pubKey);
+    verifier.update(data);
+    assertTrue(verifier.verify(sig));
+
+    byte[] tampered = data.clone();
+    tampered[0] ^= 1;
+    verifier.update(tampered);
+    assertFalse(verifier.verify(sig));
+  }
+}
@@ -0,0 +1,82 @@
+package io.github.grantchan.sshengine.server.transport.hostkey;
+
+import io.github.grantchan.sshengine.common.transport.signature.RSASignature;
+import io.github.grantchan.sshengine.util.publickey.PublicKeyUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.interfaces.ECPublicKey;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class HostKeyStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void whenAskedTwice_shouldReturnSameKey() throws Exception {
+    HostKeyStore store = new HostKeyStore(null);
+
+    HostKey key = store.get("ssh-rsa");
+    assertSame(key, store.get("ssh-rsa"));
+    assertArrayEquals(PublicKeyUtil.bytesOf(key.getKeyPair().getPublic()), key.getBlob());
+  }
+
+  @Test
+  public void whenSignedRepeatedly_shouldBeVerifiable() throws Exception {
+    HostKey key = new HostKeyStore(null).get("ssh-rsa");
+
+    // the second round reuses the signer of the first one
+    for (String s : new String[] {"first", "second"}) {
+      byte[] data = s.getBytes(StandardCharsets.UTF_8);
+
+      RSASignature verifier = new RSASignature(key.getKeyPair().getPublic());
+      verifier.update(data);
+      assertTrue(verifier.verify(key.sign(data)));
+    }
+  }
+
+  @Test
+  public void whenAlgorithmUnsupported_shouldThrow() {
+    assertThrows(GeneralSecurityException.class, () -> new HostKeyStore(null).get("ssh-foo"));
+  }
+
+  @Test
+  public void whenEcdsaKeyFileOfOtherCurve_shouldOnlyServeItsOwnAlgorithm() throws Exception {
+    // a P-384 key, in the OpenSSH private key format
+    Path dir = folder.getRoot().toPath();
+    Path file = dir.resolve("ssh_host_ecdsa_key");
+    Files.copy(Paths.get(getClass().getResource("ssh_host_ecdsa_key").toURI()), file);
+    byte[] content = Files.readAllBytes(file);
+
+    HostKeyStore store = new HostKeyStore(dir);
+    HostKey p384 = store.get("ecdsa-sha2-nistp384");
+    HostKey p256 = store.get("ecdsa-sha2-nistp256");
+
+    assertEquals(384, fieldSize(p384));
+    assertEquals(256, fieldSize(p256));
+    assertFalse(p256.getKeyPair().getPublic().equals(p384.getKeyPair().getPublic()));
+
+    // the file is left as it is
+    assertArrayEquals(content, Files.readAllBytes(file));
+    assertEquals(p384.getKeyPair().getPublic(),
+        new HostKeyStore(dir).get("ecdsa-sha2-nistp384").getKeyPair().getPublic());
+  }
+
+  private static int fieldSize(HostKey key) {
+    return ((ECPublicKey) key.getKeyPair().getPublic()).getParams().getCurve().getField()
+        .getFieldSize();
+  }
+}
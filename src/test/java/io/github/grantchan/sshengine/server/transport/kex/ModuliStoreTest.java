@@ -0,0 +1,81 @@
+package io.github.grantchan.sshengine.server.transport.kex;
+
+import io.github.grantchan.sshengine.common.transport.kex.DhGroup;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.DHParameterSpec;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ModuliStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void whenFileHasInvalidEntries_shouldKeepValidOnesOnly() throws Exception {
+    BigInteger corrupted = DhGroup.P17.P().flipBit(3000);
+
+    Path file = folder.newFile("moduli").toPath();
+    Files.write(file, Arrays.asList(
+        "# Time Type Tests Tries Size Generator Modulus",
+        entry(2, 6, DhGroup.P14.P()),
+        entry(2, 6, DhGroup.P15.P()),
+        entry(2, 6, DhGroup.P16.P()),
+        entry(2, 7, DhGroup.P18.P()),   // found composite
+        entry(4, 6, DhGroup.P18.P()),   // not a safe prime
+        entry(2, 6, DhGroup.P1.P()),    // too small
+        entry(2, 6, corrupted),
+        "20190427025425 2 6 100 2047 2"  // truncated
+    ), StandardCharsets.US_ASCII);
+
+    ModuliStore store = new ModuliStore(file);
+    assertEquals("[2048, 3072, 4096]", store.sizes().toString());
+  }
+
+  @Test
+  public void whenRequested_shouldPickSmallestGroupNotLessThanPreferred() throws Exception {
+    Path file = folder.newFile("moduli").toPath();
+    Files.write(file, Arrays.asList(
+        entry(2, 6, DhGroup.P14.P()),
+        entry(2, 6, DhGroup.P16.P())
+    ), StandardCharsets.US_ASCII);
+
+    ModuliStore store = new ModuliStore(file);
+
+    assertEquals(2048, bits(store.get(2048, 2048, 8192)));
+    assertEquals(4096, bits(store.get(2048, 3072, 8192)));
+    // nothing as large as preferred, so the largest one below it
+    assertEquals(4096, bits(store.get(2048, 8192, 8192)));
+    assertEquals(2048, bits(store.get(2048, 3072, 3072)));
+    assertNull(store.get(6144, 7680, 8192));
+  }
+
+  @Test
+  public void whenFileIsMissing_shouldFallBackToBuiltInGroups() throws Exception {
+    ModuliStore store = new ModuliStore(folder.getRoot().toPath().resolve("no-such-file"));
+
+    assertEquals("[2048, 3072, 4096, 6144, 8192]", store.sizes().toString());
+
+    DHParameterSpec group = store.get(2048, 6144, 8192);
+    assertEquals(DhGroup.P17.P(), group.getP());
+    assertEquals(DhGroup.P17.G(), group.getG());
+  }
+
+  private static String entry(int type, int tests, BigInteger p) {
+    return "20190427025425 " + type + " " + tests + " 100 " + (p.bitLength() - 1) + " 2 " +
+        p.toString(16).toUpperCase();
+  }
+
+  private static int bits(DHParameterSpec group) {
+    return group.getP().bitLength();
+  }
+}
@@ -0,0 +1,82 @@
+package io.github.grantchan.sshengine.util.curve25519;
+
+import io.github.grantchan.sshengine.util.keypair.loader.OpenSSHKeyPairPEMLoader;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class Ed25519Test {
+
+  /* RFC 8032, section 7.1, test 1 */
+  @Test
+  public void whenSigningEmptyMessage_shouldMatchTestVector() {
+    byte[] seed = hex("9d61b19deffd5a60ba844af492ec2cc44449c5697b326919703bac031cae7f60");
+    byte[] pub = hex("d75a980182b10ab7d54bfed3c964073a0ee172f3daa62325af021a68f707511a");
+    byte[] msg = new byte[0];
+
+    assertArrayEquals(pub, Ed25519.publicKey(seed));
+
+    byte[] sig = Ed25519.sign(seed, pub, msg);
+    assertArrayEquals(hex("e5564300c360ac729086e2cc806e828a84877f1eb8e5d974d873e06522490155" +
+                          "5fb8821590a33bacc61e39701cf9b46bd25bf5f0595bbe24655141438e7a100b"), sig);
+    assertTrue(Ed25519.verify(pub, msg, sig));
+  }
+
+  /* RFC 8032, section 7.1, test 2 */
+  @Test
+  public void whenSigningOneByteMessage_shouldMatchTestVector() {
+    byte[] seed = hex("4ccd089b28ff96da9db6c346ec114e0f5b8a319f35aba624da8cf6ed4fb8a6fb");
+    byte[] pub = hex("3d4017c3e843895a92b70aa74d1b7ebc9c982ccf2ec4968cc0cd55f12af4660c");
+    byte[] msg = {0x72};
+
+    assertArrayEquals(pub, Ed25519.publicKey(seed));
+
+    byte[] sig = Ed25519.sign(seed, pub, msg);
+    assertArrayEquals(hex("92a009a9f0d4cab8720e820b5f642540a2b27b5416503f8fb3762223ebdb69da" +
+                          "085ac1e43e15996e458f3613d0f11d8c387b2eaeb4302aeeb00d291612bb0c00"), sig);
+    assertTrue(Ed25519.verify(pub, msg, sig));
+  }
+
+  @Test
+  public void whenMessageOrSignatureTampered_shouldFailVerification() {
+    KeyPair kp = Ed25519.generateKeyPair();
+    Ed25519PrivateKey prvKey = (Ed25519PrivateKey) kp.getPrivate();
+    byte[] pub = ((Ed25519PublicKey) kp.getPublic()).getA();
+
+    byte[] msg = "exchange hash".getBytes(StandardCharsets.UTF_8);
+    byte[] sig = prvKey.sign(msg);
+    assertTrue(Ed25519.verify(pub, msg, sig));
+
+    byte[] badMsg = msg.clone();
+    badMsg[0] ^= 1;
+    assertFalse(Ed25519.verify(pub, badMsg, sig));
+
+    byte[] badSig = sig.clone();
+    badSig[Ed25519.SIGNATURE_SIZE - 1] ^= 0x40;
+    assertFalse(Ed25519.verify(pub, msg, badSig));
+
+    assertFalse(Ed25519.verify(pub, msg, Arrays.copyOf(sig, Ed25519.SIGNATURE_SIZE - 1)));
+  }
+
+  @Test
+  public void whenWrittenInOpenSSHFormat_shouldBeReadBack() throws Exception {
+    KeyPair kp = Ed25519.generateKeyPair();
+
+    OpenSSHKeyPairPEMLoader loader = (OpenSSHKeyPairPEMLoader) OpenSSHKeyPairPEMLoader.getInstance();
+    KeyPair read = loader.load(loader.toBytes(kp));
+
+    assertEquals(kp.getPublic(), read.getPublic());
+    assertArrayEquals(((Ed25519PrivateKey) kp.getPrivate()).getSeed(),
+                      ((Ed25519PrivateKey) read.getPrivate()).getSeed());
+  }
+
+  private static byte[] hex(String s) {
+    byte[] b = new BigInteger("01" + s, 16).toByteArray();
+    return Arrays.copyOfRange(b, 1, b.length);
+  }
+}
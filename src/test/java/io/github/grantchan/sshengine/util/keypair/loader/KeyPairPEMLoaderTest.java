@@ -38,7 +38,7 @@ public class KeyPairPEMLoaderTest {
   @Parameters (name = "{index}: test file={0}")
   public static Collection<Object> parameters() {
     return Arrays.asList(new Object[] {
-        "id_dsa_test", "id_rsa_test"
+        "id_dsa_test", "id_rsa_test", "id_ecdsa_test"
     });
   }
 